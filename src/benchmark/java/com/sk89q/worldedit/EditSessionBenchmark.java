@@ -0,0 +1,238 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010, 2011 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.data.DataException;
+import com.sk89q.worldedit.filtering.GaussianKernel;
+import com.sk89q.worldedit.filtering.HeightMapFilter;
+import com.sk89q.worldedit.masks.BlockMask;
+import com.sk89q.worldedit.masks.CombinedMask;
+import com.sk89q.worldedit.masks.Mask;
+import com.sk89q.worldedit.masks.RegionMask;
+import com.sk89q.worldedit.patterns.BlockChance;
+import com.sk89q.worldedit.patterns.Pattern;
+import com.sk89q.worldedit.patterns.RandomFillPattern;
+import com.sk89q.worldedit.patterns.SingleBlockPattern;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.regions.Region;
+import com.sk89q.worldedit.schematic.SchematicFormat;
+
+/**
+ * Measures the common edit session operations against a {@link MemoryWorld}.
+ * Every benchmark counts one operation per block it touches, so the scores
+ * are blocks per second, and running with <code>-prof gc</code> (which the
+ * benchmark profile does) reports the bytes allocated per block as
+ * <code>gc.alloc.rate.norm</code>.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EditSessionBenchmark {
+    private static final int SIZE = 32;
+    private static final int VOLUME = SIZE * SIZE * SIZE;
+    private static final int STACK_COUNT = 4;
+    private static final int SPHERE_RADIUS = 16;
+    // Blocks that makeSphere() places for the radius above
+    private static final int SPHERE_VOLUME = 21536;
+    private static final int TERRAIN_SIZE = 64;
+
+    private static final BaseBlock STONE = new BaseBlock(BlockID.STONE);
+    private static final BaseBlock DIRT = new BaseBlock(BlockID.DIRT);
+
+    private MemoryWorld world;
+    private Region region;
+    private Region terrain;
+    private Mask mask;
+    private Pattern randomFill;
+    private Vector origin;
+    private EditSession undoSession;
+    private CuboidClipboard clipboard;
+    private File schematicFile;
+    private int generation;
+
+    @Setup
+    public void setUp() throws IOException, DataException, MaxChangedBlocksException {
+        world = new MemoryWorld();
+        origin = new Vector(0, 64, 0);
+        region = new CuboidRegion(origin, origin.add(SIZE - 1, SIZE - 1, SIZE - 1));
+
+        // A mix of blocks so that replacing only hits some of them
+        for (int x = 0; x < SIZE; ++x) {
+            for (int y = 0; y < SIZE; ++y) {
+                for (int z = 0; z < SIZE; ++z) {
+                    world.set(x, 64 + y, z, ((x ^ y ^ z) & 1) == 0 ? BlockID.STONE : BlockID.DIRT, 0);
+                }
+            }
+        }
+
+        // Rolling hills of grass on stone, away from the other blocks
+        Vector terrainOrigin = new Vector(256, 64, 0);
+        terrain = new CuboidRegion(terrainOrigin, terrainOrigin.add(TERRAIN_SIZE - 1, SIZE - 1, TERRAIN_SIZE - 1));
+        for (int x = 0; x < TERRAIN_SIZE; ++x) {
+            for (int z = 0; z < TERRAIN_SIZE; ++z) {
+                int top = SIZE / 2 + (int) (8 * Math.sin(x / 5.0) * Math.cos(z / 7.0));
+                for (int y = 0; y < top; ++y) {
+                    world.set(256 + x, 64 + y, z, y == top - 1 ? BlockID.GRASS : BlockID.STONE, 0);
+                }
+            }
+        }
+
+        // Half of the region, and both blocks that nextBlock() alternates
+        BlockMask blockMask = new BlockMask(STONE);
+        blockMask.add(DIRT);
+        mask = new CombinedMask(Arrays.<Mask>asList(new RegionMask(new CuboidRegion(origin,
+                origin.add(SIZE / 2 - 1, SIZE - 1, SIZE - 1))), blockMask));
+
+        randomFill = new RandomFillPattern(Arrays.asList(new BlockChance(STONE, 50),
+                new BlockChance(DIRT, 30), new BlockChance(new BaseBlock(BlockID.GLASS), 20)));
+
+        undoSession = new EditSession(world, -1);
+        undoSession.setBlocks(region, new BaseBlock(BlockID.GLASS));
+
+        clipboard = new CuboidClipboard(region.getMaximumPoint().subtract(origin).add(1, 1, 1), origin);
+        clipboard.copy(new EditSession(world, -1));
+
+        schematicFile = File.createTempFile("worldedit-benchmark", ".schematic");
+        SchematicFormat.MCEDIT.save(clipboard, schematicFile);
+    }
+
+    @TearDown
+    public void tearDown() {
+        schematicFile.delete();
+    }
+
+    private BaseBlock nextBlock() {
+        // Alternate so every invocation really changes the blocks
+        return (++generation & 1) == 0 ? STONE : DIRT;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VOLUME)
+    public int setBlocks() throws MaxChangedBlocksException {
+        return new EditSession(world, -1).setBlocks(region, nextBlock());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VOLUME)
+    public int setBlocksRandom() throws MaxChangedBlocksException {
+        return new EditSession(world, -1).setBlocks(region, randomFill);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VOLUME)
+    public int replaceBlocks() throws MaxChangedBlocksException {
+        BaseBlock to = nextBlock();
+        BaseBlock from = to == STONE ? DIRT : STONE;
+        return new EditSession(world, -1).replaceBlocks(region, Collections.singleton(from), to);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VOLUME)
+    public int setBlocksMasked() throws MaxChangedBlocksException {
+        EditSession editSession = new EditSession(world, -1);
+        editSession.setMask(mask);
+        return editSession.setBlocks(region, nextBlock());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VOLUME)
+    public List<Countable<Integer>> getBlockDistribution() {
+        return new EditSession(world, -1).getBlockDistribution(region);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SPHERE_VOLUME)
+    public int makeSphere() throws MaxChangedBlocksException {
+        return new EditSession(world, -1).makeSphere(new Vector(0, 128, 0),
+                new SingleBlockPattern(nextBlock()), SPHERE_RADIUS, true);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TERRAIN_SIZE * TERRAIN_SIZE * SIZE)
+    public int smooth() throws MaxChangedBlocksException {
+        EditSession editSession = new EditSession(world, -1);
+        int affected = new HeightMap(editSession, terrain).applyFilter(new HeightMapFilter(new GaussianKernel(5, 1.0)), 1);
+        editSession.undo(new EditSession(world, -1));
+        return affected;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VOLUME * STACK_COUNT)
+    public int stackCuboidRegion() throws MaxChangedBlocksException {
+        return new EditSession(world, -1).stackCuboidRegion(region, new Vector(1, 0, 0), STACK_COUNT, true);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(2 * VOLUME)
+    public void undoRedo() {
+        undoSession.undo(new EditSession(world, -1));
+        undoSession.redo(new EditSession(world, -1));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VOLUME)
+    public CuboidClipboard copy() {
+        clipboard.copy(new EditSession(world, -1));
+        return clipboard;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VOLUME)
+    public void paste() throws MaxChangedBlocksException {
+        clipboard.paste(new EditSession(world, -1), new Vector(0, 128, 0), false);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VOLUME)
+    public void saveSchematic() throws IOException, DataException {
+        SchematicFormat.MCEDIT.save(clipboard, schematicFile);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VOLUME)
+    public CuboidClipboard loadSchematic() throws IOException, DataException {
+        return SchematicFormat.MCEDIT.load(schematicFile);
+    }
+}
@@ -0,0 +1,135 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010, 2011 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.blocks;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sk89q.worldedit.PlayerDirection;
+
+/**
+ * Compares the block property lookups of {@link BlockType} with the boxed
+ * <code>HashSet</code> and <code>HashMap</code> lookups they replaced. The
+ * hash based variants are rebuilt here from the same properties, and every
+ * benchmark looks up the same random mix of blocks.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlockTypeBenchmark {
+    private static final int COUNT = 4096;
+
+    private final int[] types = new int[COUNT];
+    private final int[] data = new int[COUNT];
+    private final Set<Integer> canPassThrough = new HashSet<Integer>();
+    private final Set<Integer> shouldPlaceLast = new HashSet<Integer>();
+    private final Map<Integer, PlayerDirection> attachments = new HashMap<Integer, PlayerDirection>();
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(0);
+        for (int i = 0; i < COUNT; ++i) {
+            types[i] = random.nextInt(BlockID.TRIPWIRE + 1);
+            data[i] = random.nextInt(16);
+        }
+
+        for (int type = 0; type < 4096; ++type) {
+            if (BlockType.canPassThrough(type)) {
+                canPassThrough.add(type);
+            }
+            if (BlockType.shouldPlaceLast(type)) {
+                shouldPlaceLast.add(type);
+            }
+            for (int value = 0; value < 16; ++value) {
+                final PlayerDirection direction = BlockType.getAttachment(type, value);
+                if (direction != null) {
+                    attachments.put((type << 4) | value, direction);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public int flagsTable() {
+        int count = 0;
+        for (int i = 0; i < COUNT; ++i) {
+            if (BlockType.canPassThrough(types[i]) || BlockType.shouldPlaceLast(types[i])) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public int flagsHashSet() {
+        int count = 0;
+        for (int i = 0; i < COUNT; ++i) {
+            if (canPassThrough.contains(types[i]) || shouldPlaceLast.contains(types[i])) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public int attachmentTable() {
+        int count = 0;
+        for (int i = 0; i < COUNT; ++i) {
+            if (BlockType.getAttachment(types[i], data[i]) != null) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public int attachmentHashMap() {
+        int count = 0;
+        for (int i = 0; i < COUNT; ++i) {
+            if (attachments.get((types[i] << 4) | data[i]) != null) {
+                ++count;
+            }
+        }
+        return count;
+    }
+}
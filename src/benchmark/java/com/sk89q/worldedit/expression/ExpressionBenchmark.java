@@ -0,0 +1,93 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010, 2011 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.expression;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Evaluates typical //generate expressions over a 32x32x32 grid, with the
+ * interpreter and with compiled bytecode.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExpressionBenchmark {
+    private static final int SIZE = 32;
+
+    @Param({
+            "x*x + y*y + z*z < 1",
+            "(0.75-sqrt(x^2+y^2))^2+z^2 < 0.25^2",
+            "a = 0; for (i = 1, 8) { a += sin(x * i) * cos(z * i) / i; } y < a",
+            "rotate(x, z, 0.7); if (abs(x) > 0.5) return 0; type = 35; data = round((y + 1) * 7); z < x",
+    })
+    public String expressionString;
+
+    private Expression interpreted;
+    private Expression compiled;
+
+    @Setup
+    public void setUp() throws ExpressionException {
+        interpreted = Expression.compile(expressionString, "x", "y", "z", "type", "data");
+        interpreted.optimize();
+
+        compiled = Expression.compile(expressionString, "x", "y", "z", "type", "data");
+        compiled.optimize();
+        if (!compiled.compileBytecode()) {
+            throw new IllegalStateException("Could not compile " + expressionString);
+        }
+    }
+
+    @Benchmark
+    public double interpreted() throws ExpressionException {
+        return evaluateGrid(interpreted);
+    }
+
+    @Benchmark
+    public double compiled() throws ExpressionException {
+        return evaluateGrid(compiled);
+    }
+
+    private static double evaluateGrid(Expression expression) throws ExpressionException {
+        double sum = 0;
+        for (int x = 0; x < SIZE; ++x) {
+            for (int y = 0; y < SIZE; ++y) {
+                for (int z = 0; z < SIZE; ++z) {
+                    sum += expression.evaluate(x * 2.0 / SIZE - 1, y * 2.0 / SIZE - 1, z * 2.0 / SIZE - 1, 1, 0);
+                }
+            }
+        }
+        return sum;
+    }
+}
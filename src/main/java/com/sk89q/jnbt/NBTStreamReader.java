@@ -0,0 +1,386 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.jnbt;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads NBT streams one tag at a time, without building an object graph
+ * for the parts that the caller is not interested in.
+ *
+ * <p>The reader is positioned either before a named tag (at the top level
+ * or inside a compound) or before the payload of a tag whose header has
+ * just been read. A typical loop over the children of a compound is:</p>
+ *
+ * <pre>
+ * int type;
+ * while ((type = reader.readNamedTag()) != NBTConstants.TYPE_END) {
+ *     if (reader.isName("Blocks") &amp;&amp; type == NBTConstants.TYPE_BYTE_ARRAY) {
+ *         blocks = reader.readByteArray();
+ *     } else {
+ *         reader.skipPayload(type);
+ *     }
+ * }
+ * </pre>
+ *
+ * <p>Lists are read by calling {@link #readListHeader()} followed by
+ * {@link #getListLength()} payloads of the returned element type.</p>
+ */
+public final class NBTStreamReader implements Closeable {
+
+    private final DataInputStream is;
+    private byte[] nameBytes = new byte[32];
+    private int nameLength;
+    private String name;
+    private int listLength;
+    private byte[] skipBuffer;
+
+    /**
+     * Create a reader that takes its data from the given (uncompressed)
+     * stream.
+     *
+     * @param is
+     */
+    public NBTStreamReader(InputStream is) {
+        this.is = is instanceof DataInputStream ? (DataInputStream) is : new DataInputStream(is);
+    }
+
+    /**
+     * Read the type and name of the next tag. {@link NBTConstants#TYPE_END}
+     * is returned at the end of a compound, and in that case there is no
+     * name or payload.
+     *
+     * @return the type of the tag
+     * @throws IOException
+     */
+    public int readNamedTag() throws IOException {
+        int type = is.readByte() & 0xFF;
+        name = null;
+
+        if (type == NBTConstants.TYPE_END) {
+            nameLength = 0;
+            return type;
+        }
+
+        nameLength = is.readShort() & 0xFFFF;
+        if (nameLength > nameBytes.length) {
+            nameBytes = new byte[Math.max(nameLength, nameBytes.length * 2)];
+        }
+        is.readFully(nameBytes, 0, nameLength);
+
+        return type;
+    }
+
+    /**
+     * Get the name of the tag that was last read with {@link #readNamedTag()}.
+     *
+     * @return
+     */
+    public String getName() {
+        if (name == null) {
+            name = new String(nameBytes, 0, nameLength, NBTConstants.CHARSET);
+        }
+        return name;
+    }
+
+    /**
+     * Check the name of the tag that was last read with
+     * {@link #readNamedTag()} without creating a string for it.
+     * Only names made up of ASCII characters can be checked this way.
+     *
+     * @param expected
+     * @return
+     */
+    public boolean isName(String expected) {
+        if (expected.length() != nameLength) {
+            return false;
+        }
+
+        for (int i = 0; i < nameLength; ++i) {
+            if (nameBytes[i] != expected.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    public byte readByte() throws IOException {
+        return is.readByte();
+    }
+
+    public short readShort() throws IOException {
+        return is.readShort();
+    }
+
+    public int readInt() throws IOException {
+        return is.readInt();
+    }
+
+    public long readLong() throws IOException {
+        return is.readLong();
+    }
+
+    public float readFloat() throws IOException {
+        return is.readFloat();
+    }
+
+    public double readDouble() throws IOException {
+        return is.readDouble();
+    }
+
+    /**
+     * Read the payload of a string tag.
+     *
+     * @return
+     * @throws IOException
+     */
+    public String readString() throws IOException {
+        int length = is.readShort() & 0xFFFF;
+        byte[] bytes = new byte[length];
+        is.readFully(bytes);
+        return new String(bytes, NBTConstants.CHARSET);
+    }
+
+    /**
+     * Read the payload of a byte array tag. The returned array is not
+     * shared with anything else, so the caller may keep it.
+     *
+     * @return
+     * @throws IOException
+     */
+    public byte[] readByteArray() throws IOException {
+        byte[] bytes = new byte[checkLength(is.readInt())];
+        is.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Read the length of a byte array tag, for reading its payload in parts
+     * with {@link #readFully(byte[], int, int)}.
+     *
+     * @return
+     * @throws IOException
+     */
+    public int readByteArrayHeader() throws IOException {
+        return checkLength(is.readInt());
+    }
+
+    /**
+     * Read a part of the payload of a byte array tag.
+     *
+     * @param bytes
+     * @param offset
+     * @param length
+     * @throws IOException
+     */
+    public void readFully(byte[] bytes, int offset, int length) throws IOException {
+        is.readFully(bytes, offset, length);
+    }
+
+    /**
+     * Skip a part of the payload of a byte array tag.
+     *
+     * @param length
+     * @throws IOException
+     */
+    public void skipBytes(int length) throws IOException {
+        skip(length);
+    }
+
+    /**
+     * Read the payload of an int array tag.
+     *
+     * @return
+     * @throws IOException
+     */
+    public int[] readIntArray() throws IOException {
+        int[] data = new int[checkLength(is.readInt())];
+        for (int i = 0; i < data.length; ++i) {
+            data[i] = is.readInt();
+        }
+        return data;
+    }
+
+    /**
+     * Read the header of a list tag. The list's elements follow as payloads
+     * without a name.
+     *
+     * @return the type of the elements
+     * @throws IOException
+     * @see #getListLength()
+     */
+    public int readListHeader() throws IOException {
+        int type = is.readByte() & 0xFF;
+        listLength = checkLength(is.readInt());
+        return type;
+    }
+
+    /**
+     * Get the number of elements of the list whose header was last read.
+     *
+     * @return
+     */
+    public int getListLength() {
+        return listLength;
+    }
+
+    /**
+     * Skip the payload of a tag, including all of its children.
+     *
+     * @param type
+     * @throws IOException
+     */
+    public void skipPayload(int type) throws IOException {
+        switch (type) {
+        case NBTConstants.TYPE_BYTE:
+            skip(1);
+            break;
+        case NBTConstants.TYPE_SHORT:
+            skip(2);
+            break;
+        case NBTConstants.TYPE_INT:
+        case NBTConstants.TYPE_FLOAT:
+            skip(4);
+            break;
+        case NBTConstants.TYPE_LONG:
+        case NBTConstants.TYPE_DOUBLE:
+            skip(8);
+            break;
+        case NBTConstants.TYPE_BYTE_ARRAY:
+            skip(checkLength(is.readInt()));
+            break;
+        case NBTConstants.TYPE_INT_ARRAY:
+            skip(4L * checkLength(is.readInt()));
+            break;
+        case NBTConstants.TYPE_STRING:
+            skip(is.readShort() & 0xFFFF);
+            break;
+        case NBTConstants.TYPE_LIST:
+            int childType = readListHeader();
+            int length = listLength;
+            for (int i = 0; i < length; ++i) {
+                skipPayload(childType);
+            }
+            break;
+        case NBTConstants.TYPE_COMPOUND:
+            int childTag;
+            while ((childTag = readNamedTag()) != NBTConstants.TYPE_END) {
+                skipPayload(childTag);
+            }
+            break;
+        default:
+            throw new IOException("Invalid tag type: " + type + ".");
+        }
+    }
+
+    /**
+     * Read the payload of a tag into a {@link Tag}, for the parts of a
+     * stream that are needed as a whole.
+     *
+     * @param type
+     * @param name the name to give to the tag
+     * @return
+     * @throws IOException
+     */
+    public Tag readPayload(int type, String name) throws IOException {
+        switch (type) {
+        case NBTConstants.TYPE_BYTE:
+            return new ByteTag(name, is.readByte());
+        case NBTConstants.TYPE_SHORT:
+            return new ShortTag(name, is.readShort());
+        case NBTConstants.TYPE_INT:
+            return new IntTag(name, is.readInt());
+        case NBTConstants.TYPE_LONG:
+            return new LongTag(name, is.readLong());
+        case NBTConstants.TYPE_FLOAT:
+            return new FloatTag(name, is.readFloat());
+        case NBTConstants.TYPE_DOUBLE:
+            return new DoubleTag(name, is.readDouble());
+        case NBTConstants.TYPE_BYTE_ARRAY:
+            return new ByteArrayTag(name, readByteArray());
+        case NBTConstants.TYPE_STRING:
+            return new StringTag(name, readString());
+        case NBTConstants.TYPE_LIST:
+            int childType = readListHeader();
+            int length = listLength;
+            if (childType == NBTConstants.TYPE_END && length > 0) {
+                throw new IOException("TAG_End not permitted in a list.");
+            }
+
+            List<Tag> tagList = new ArrayList<Tag>(length);
+            for (int i = 0; i < length; ++i) {
+                tagList.add(readPayload(childType, ""));
+            }
+
+            return new ListTag(name, NBTUtils.getTypeClass(childType), tagList);
+        case NBTConstants.TYPE_COMPOUND:
+            Map<String, Tag> tagMap = new HashMap<String, Tag>();
+            int childTag;
+            while ((childTag = readNamedTag()) != NBTConstants.TYPE_END) {
+                String childName = getName();
+                tagMap.put(childName, readPayload(childTag, childName));
+            }
+
+            return new CompoundTag(name, tagMap);
+        case NBTConstants.TYPE_INT_ARRAY:
+            return new IntArrayTag(name, readIntArray());
+        default:
+            throw new IOException("Invalid tag type: " + type + ".");
+        }
+    }
+
+    private void skip(long count) throws IOException {
+        while (count > 0) {
+            long skipped = is.skip(count);
+            if (skipped <= 0) {
+                // Not all streams support skipping, so read instead
+                if (skipBuffer == null) {
+                    skipBuffer = new byte[4096];
+                }
+                int read = is.read(skipBuffer, 0, (int) Math.min(count, skipBuffer.length));
+                if (read < 0) {
+                    throw new EOFException();
+                }
+                skipped = read;
+            }
+            count -= skipped;
+        }
+    }
+
+    private static int checkLength(int length) throws IOException {
+        if (length < 0) {
+            throw new IOException("Negative length: " + length + ".");
+        }
+        return length;
+    }
+
+    public void close() throws IOException {
+        is.close();
+    }
+}
@@ -0,0 +1,264 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.jnbt;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes NBT streams one tag at a time, the counterpart of
+ * {@link NBTStreamReader}. Large arrays and long lists can be written as
+ * they are produced instead of being collected into {@link Tag}s first.
+ *
+ * <p>A compound is written as its named children followed by
+ * {@link #writeEnd()}:</p>
+ *
+ * <pre>
+ * writer.writeNamedTag(NBTConstants.TYPE_COMPOUND, "Schematic");
+ * writer.writeNamedTag(NBTConstants.TYPE_SHORT, "Width");
+ * writer.writeShort(width);
+ * writer.writeNamedTag(NBTConstants.TYPE_BYTE_ARRAY, "Blocks");
+ * writer.writeByteArrayHeader(blocks.length);
+ * writer.write(blocks, 0, blocks.length);
+ * writer.writeEnd();
+ * </pre>
+ *
+ * <p>Nothing checks that the payloads that are written match the headers,
+ * so the caller has to write exactly what it announced.</p>
+ */
+public final class NBTStreamWriter implements Closeable {
+
+    private final DataOutputStream os;
+
+    /**
+     * Create a writer that writes uncompressed NBT to the given stream.
+     * The stream should be buffered.
+     *
+     * @param os
+     */
+    public NBTStreamWriter(OutputStream os) {
+        this.os = os instanceof DataOutputStream ? (DataOutputStream) os : new DataOutputStream(os);
+    }
+
+    /**
+     * Write the type and name of a tag. Its payload has to follow.
+     *
+     * @param type
+     * @param name
+     * @throws IOException
+     */
+    public void writeNamedTag(int type, String name) throws IOException {
+        if (type == NBTConstants.TYPE_END) {
+            throw new IOException("Named TAG_End not permitted.");
+        }
+
+        byte[] nameBytes = name.getBytes(NBTConstants.CHARSET);
+        os.writeByte(type);
+        os.writeShort(nameBytes.length);
+        os.write(nameBytes);
+    }
+
+    /**
+     * End the compound whose children are being written.
+     *
+     * @throws IOException
+     */
+    public void writeEnd() throws IOException {
+        os.writeByte(NBTConstants.TYPE_END);
+    }
+
+    public void writeByte(int value) throws IOException {
+        os.writeByte(value);
+    }
+
+    public void writeShort(int value) throws IOException {
+        os.writeShort(value);
+    }
+
+    public void writeInt(int value) throws IOException {
+        os.writeInt(value);
+    }
+
+    public void writeLong(long value) throws IOException {
+        os.writeLong(value);
+    }
+
+    public void writeFloat(float value) throws IOException {
+        os.writeFloat(value);
+    }
+
+    public void writeDouble(double value) throws IOException {
+        os.writeDouble(value);
+    }
+
+    /**
+     * Write the payload of a string tag.
+     *
+     * @param value
+     * @throws IOException
+     */
+    public void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes(NBTConstants.CHARSET);
+        os.writeShort(bytes.length);
+        os.write(bytes);
+    }
+
+    /**
+     * Write the length of a byte array tag. Exactly that many bytes have to
+     * follow, written with {@link #write(byte[], int, int)}.
+     *
+     * @param length
+     * @throws IOException
+     */
+    public void writeByteArrayHeader(int length) throws IOException {
+        os.writeInt(length);
+    }
+
+    /**
+     * Write a part of the payload of a byte array tag.
+     *
+     * @param bytes
+     * @param offset
+     * @param length
+     * @throws IOException
+     */
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        os.write(bytes, offset, length);
+    }
+
+    /**
+     * Write the whole payload of a byte array tag.
+     *
+     * @param bytes
+     * @throws IOException
+     */
+    public void writeByteArray(byte[] bytes) throws IOException {
+        os.writeInt(bytes.length);
+        os.write(bytes);
+    }
+
+    /**
+     * Write the payload of an int array tag.
+     *
+     * @param data
+     * @throws IOException
+     */
+    public void writeIntArray(int[] data) throws IOException {
+        os.writeInt(data.length);
+        for (int value : data) {
+            os.writeInt(value);
+        }
+    }
+
+    /**
+     * Write the header of a list tag. The given number of payloads of the
+     * given type have to follow.
+     *
+     * @param type the type of the elements
+     * @param length
+     * @throws IOException
+     */
+    public void writeListHeader(int type, int length) throws IOException {
+        os.writeByte(type);
+        os.writeInt(length);
+    }
+
+    /**
+     * Write a whole tag, using the name that it carries.
+     *
+     * @param tag
+     * @throws IOException
+     */
+    public void writeTag(Tag tag) throws IOException {
+        writeNamedTag(NBTUtils.getTypeCode(tag.getClass()), tag.getName());
+        writePayload(tag);
+    }
+
+    /**
+     * Write the payload of a tag, for the parts of a stream that already
+     * exist as {@link Tag}s.
+     *
+     * @param tag
+     * @throws IOException
+     */
+    public void writePayload(Tag tag) throws IOException {
+        int type = NBTUtils.getTypeCode(tag.getClass());
+        switch (type) {
+        case NBTConstants.TYPE_END:
+            break;
+        case NBTConstants.TYPE_BYTE:
+            os.writeByte(((ByteTag) tag).getValue());
+            break;
+        case NBTConstants.TYPE_SHORT:
+            os.writeShort(((ShortTag) tag).getValue());
+            break;
+        case NBTConstants.TYPE_INT:
+            os.writeInt(((IntTag) tag).getValue());
+            break;
+        case NBTConstants.TYPE_LONG:
+            os.writeLong(((LongTag) tag).getValue());
+            break;
+        case NBTConstants.TYPE_FLOAT:
+            os.writeFloat(((FloatTag) tag).getValue());
+            break;
+        case NBTConstants.TYPE_DOUBLE:
+            os.writeDouble(((DoubleTag) tag).getValue());
+            break;
+        case NBTConstants.TYPE_BYTE_ARRAY:
+            writeByteArray(((ByteArrayTag) tag).getValue());
+            break;
+        case NBTConstants.TYPE_STRING:
+            writeString(((StringTag) tag).getValue());
+            break;
+        case NBTConstants.TYPE_LIST:
+            ListTag list = (ListTag) tag;
+            List<Tag> elements = list.getValue();
+            writeListHeader(NBTUtils.getTypeCode(list.getType()), elements.size());
+            for (Tag element : elements) {
+                writePayload(element);
+            }
+            break;
+        case NBTConstants.TYPE_COMPOUND:
+            for (Map.Entry<String, Tag> entry : ((CompoundTag) tag).getValue().entrySet()) {
+                writeNamedTag(NBTUtils.getTypeCode(entry.getValue().getClass()), entry.getKey());
+                writePayload(entry.getValue());
+            }
+            writeEnd();
+            break;
+        case NBTConstants.TYPE_INT_ARRAY:
+            writeIntArray(((IntArrayTag) tag).getValue());
+            break;
+        default:
+            throw new IOException("Invalid tag type: " + type + ".");
+        }
+    }
+
+    public void flush() throws IOException {
+        os.flush();
+    }
+
+    public void close() throws IOException {
+        os.close();
+    }
+}
@@ -0,0 +1,275 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.sk89q.worldedit.util.LongIntHashMap;
+
+/**
+ * A list of biome changes with one entry per column. Changing a column
+ * again only updates the biome it was changed to, so the entry keeps the
+ * biome from before the first change and the one after the last change.
+ *
+ * <p>Biomes are stored as indexes into the list of biome types that were
+ * seen, and the changes are written back to a world one chunk at a time.</p>
+ */
+public class BiomeChangeLog {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    /**
+     * Packed column positions.
+     */
+    private long[] columns;
+
+    /**
+     * Indexes of the biomes before the changes.
+     */
+    private char[] originals;
+
+    /**
+     * Indexes of the biomes after the changes.
+     */
+    private char[] currents;
+
+    /**
+     * Number of entries.
+     */
+    private int size = 0;
+
+    /**
+     * Entry index by packed column position.
+     */
+    private final LongIntHashMap entries = new LongIntHashMap();
+
+    /**
+     * The biome types that indexes refer to.
+     */
+    private final List<BiomeType> biomes = new ArrayList<BiomeType>();
+    private final Map<BiomeType, Integer> biomeIndexes = new HashMap<BiomeType, Integer>();
+
+    /**
+     * Construct the log.
+     */
+    public BiomeChangeLog() {
+        columns = new long[DEFAULT_CAPACITY];
+        originals = new char[DEFAULT_CAPACITY];
+        currents = new char[DEFAULT_CAPACITY];
+    }
+
+    /**
+     * Record a change to the biome of a column.
+     *
+     * @param x
+     * @param z
+     * @param from the biome before the change
+     * @param to the biome after the change
+     */
+    public void add(int x, int z, BiomeType from, BiomeType to) {
+        final long column = pack(x, z);
+        final int index = entries.get(column, -1);
+        if (index >= 0) {
+            currents[index] = indexOf(to);
+            return;
+        }
+
+        if (size == columns.length) {
+            grow();
+        }
+
+        columns[size] = column;
+        originals[size] = indexOf(from);
+        currents[size] = indexOf(to);
+        entries.put(column, size);
+        ++size;
+    }
+
+    /**
+     * Get the number of columns that were changed.
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns whether no column was changed.
+     *
+     * @return
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Set the changed columns back to their original biomes.
+     *
+     * @param world
+     */
+    public void undo(LocalWorld world) {
+        apply(world, originals);
+    }
+
+    /**
+     * Set the changed columns to their new biomes again.
+     *
+     * @param world
+     */
+    public void redo(LocalWorld world) {
+        apply(world, currents);
+    }
+
+    /**
+     * Write biomes to a world, one chunk at a time.
+     *
+     * @param world
+     * @param values the biome index of each entry
+     */
+    private void apply(LocalWorld world, char[] values) {
+        final LongIntHashMap chunkIndexes = new LongIntHashMap();
+        final List<BiomeType[]> chunks = new ArrayList<BiomeType[]>();
+        final List<Long> chunkPositions = new ArrayList<Long>();
+
+        for (int i = 0; i < size; ++i) {
+            final int x = unpackX(columns[i]);
+            final int z = unpackZ(columns[i]);
+            final long chunk = pack(x >> 4, z >> 4);
+
+            int chunkIndex = chunkIndexes.get(chunk, -1);
+            if (chunkIndex < 0) {
+                chunkIndex = chunks.size();
+                chunkIndexes.put(chunk, chunkIndex);
+                chunks.add(new BiomeType[256]);
+                chunkPositions.add(chunk);
+            }
+
+            chunks.get(chunkIndex)[((z & 0xF) << 4) | (x & 0xF)] = biomes.get(values[i]);
+        }
+
+        for (int i = 0; i < chunks.size(); ++i) {
+            final long chunk = chunkPositions.get(i);
+            world.setBiomes(unpackX(chunk), unpackZ(chunk), chunks.get(i));
+        }
+    }
+
+    /**
+     * Write the log to a stream. Biomes are written by name.
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(biomes.size());
+        for (BiomeType biome : biomes) {
+            out.writeUTF(biome.getName());
+        }
+
+        out.writeInt(size);
+        for (int i = 0; i < size; ++i) {
+            out.writeLong(columns[i]);
+            out.writeChar(originals[i]);
+            out.writeChar(currents[i]);
+        }
+    }
+
+    /**
+     * Read a log that was written with {@link #write(DataOutput)}. Biomes
+     * whose names are not known any more are read as
+     * {@link BiomeType#UNKNOWN}, which worlds do not set.
+     *
+     * @param in
+     * @param biomeTypes the biome types to look names up in, or null
+     * @return
+     * @throws IOException
+     */
+    public static BiomeChangeLog read(DataInput in, BiomeTypes biomeTypes) throws IOException {
+        final BiomeChangeLog log = new BiomeChangeLog();
+
+        final int biomeCount = in.readInt();
+        for (int i = 0; i < biomeCount; ++i) {
+            final String name = in.readUTF();
+            BiomeType biome = BiomeType.UNKNOWN;
+            if (biomeTypes != null) {
+                try {
+                    biome = biomeTypes.get(name);
+                } catch (UnknownBiomeTypeException e) {
+                }
+            }
+            // Indexes must stay as they were written
+            log.biomes.add(biome);
+            if (!log.biomeIndexes.containsKey(biome)) {
+                log.biomeIndexes.put(biome, i);
+            }
+        }
+
+        final int size = in.readInt();
+        for (int i = 0; i < size; ++i) {
+            final long column = in.readLong();
+            if (log.size == log.columns.length) {
+                log.grow();
+            }
+            log.columns[log.size] = column;
+            log.originals[log.size] = in.readChar();
+            log.currents[log.size] = in.readChar();
+            log.entries.put(column, log.size);
+            ++log.size;
+        }
+
+        return log;
+    }
+
+    private char indexOf(BiomeType biome) {
+        Integer index = biomeIndexes.get(biome);
+        if (index == null) {
+            index = biomes.size();
+            biomes.add(biome);
+            biomeIndexes.put(biome, index);
+        }
+        return (char) index.intValue();
+    }
+
+    private void grow() {
+        final int newCapacity = columns.length + (columns.length >> 1) + 1;
+        columns = Arrays.copyOf(columns, newCapacity);
+        originals = Arrays.copyOf(originals, newCapacity);
+        currents = Arrays.copyOf(currents, newCapacity);
+    }
+
+    private static long pack(int x, int z) {
+        return ((long) x << 32) | (z & 0xFFFFFFFFL);
+    }
+
+    private static int unpackX(long packed) {
+        return (int) (packed >> 32);
+    }
+
+    private static int unpackZ(long packed) {
+        return (int) packed;
+    }
+}
@@ -0,0 +1,657 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.NBTInputStream;
+import com.sk89q.jnbt.NBTStreamWriter;
+import com.sk89q.jnbt.StringTag;
+import com.sk89q.jnbt.Tag;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.blocks.ChestBlock;
+import com.sk89q.worldedit.blocks.DispenserBlock;
+import com.sk89q.worldedit.blocks.FurnaceBlock;
+import com.sk89q.worldedit.blocks.MobSpawnerBlock;
+import com.sk89q.worldedit.blocks.NoteBlock;
+import com.sk89q.worldedit.blocks.SignBlock;
+import com.sk89q.worldedit.data.DataException;
+import com.sk89q.worldedit.util.LongIntHashMap;
+
+/**
+ * An append-only list of block changes backed by primitive arrays.
+ *
+ * <p>Each entry stores its position packed into a <code>long</code> and its
+ * type and data packed into a <code>char</code>, so a change costs 10 bytes
+ * instead of a {@link BlockVector} and a {@link BaseBlock}. Blocks that carry
+ * extra state (signs, chests, anything with NBT data) are kept as-is in a
+ * sparse side map keyed by entry index.</p>
+ *
+ * <p>Entries are read back with a {@link Cursor}, which walks the list in
+ * either direction without allocating per step.</p>
+ */
+public class BlockChangeLog {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private static final int X_BITS = 26;
+    private static final int Z_BITS = 26;
+    private static final int Y_BITS = 12;
+
+    private static final int Z_SHIFT = Y_BITS;
+    private static final int X_SHIFT = Y_BITS + Z_BITS;
+
+    private static final long X_MASK = (1L << X_BITS) - 1;
+    private static final long Z_MASK = (1L << Z_BITS) - 1;
+    private static final long Y_MASK = (1L << Y_BITS) - 1;
+
+    /**
+     * Packed positions.
+     */
+    private long[] positions;
+
+    /**
+     * Packed type and data values.
+     */
+    private char[] blocks;
+
+    /**
+     * Number of entries.
+     */
+    private int size = 0;
+
+    /**
+     * Blocks that cannot be represented by type and data alone, by index.
+     */
+    private Map<Integer, BaseBlock> tileEntities;
+
+    /**
+     * Construct the log.
+     */
+    public BlockChangeLog() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Construct the log with an initial capacity.
+     *
+     * @param initialCapacity
+     */
+    public BlockChangeLog(int initialCapacity) {
+        if (initialCapacity < 1) {
+            initialCapacity = 1;
+        }
+
+        positions = new long[initialCapacity];
+        blocks = new char[initialCapacity];
+    }
+
+    /**
+     * Add an entry.
+     *
+     * @param pt
+     * @param block
+     */
+    public void add(Vector pt, BaseBlock block) {
+        add(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ(), block);
+    }
+
+    /**
+     * Add an entry.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @param block
+     */
+    public void add(int x, int y, int z, BaseBlock block) {
+        final int type = block.getType();
+        final int data = block.getData();
+
+        if (block.getClass() != BaseBlock.class || block.hasNbtData()
+                || data < 0 || data > 15) {
+            if (tileEntities == null) {
+                tileEntities = new HashMap<Integer, BaseBlock>();
+            }
+            tileEntities.put(size, block);
+        }
+
+        add(x, y, z, type, data);
+    }
+
+    /**
+     * Add an entry that has no extra block state.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @param type
+     * @param data
+     */
+    public void add(int x, int y, int z, int type, int data) {
+        if (size == positions.length) {
+            grow();
+        }
+
+        positions[size] = pack(x, y, z);
+        blocks[size] = (char) ((type << 4) | (data & 0xF));
+        ++size;
+    }
+
+    /**
+     * Get the number of entries.
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns whether there are no entries.
+     *
+     * @return
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Remove all entries. The backing arrays are kept for reuse.
+     */
+    public void clear() {
+        size = 0;
+        tileEntities = null;
+    }
+
+    /**
+     * Get a cursor positioned before the first entry.
+     *
+     * @return
+     */
+    public Cursor forwardCursor() {
+        return new Cursor(false);
+    }
+
+    /**
+     * Get a cursor positioned after the last entry that walks backwards.
+     *
+     * @return
+     */
+    public Cursor reverseCursor() {
+        return new Cursor(true);
+    }
+
+    /**
+     * Group the entries by the chunk section they fall in. The sections of a
+     * chunk column come out next to each other, from the bottom up, and
+     * entries keep their original order within a section.
+     *
+     * @return
+     */
+    public SectionGrouping groupBySection() {
+        final LongIntHashMap sectionIds = new LongIntHashMap();
+        final int[] sectionOfEntry = new int[size];
+        long[] sectionKeys = new long[16];
+        int sectionCount = 0;
+
+        for (int i = 0; i < size; ++i) {
+            final long packed = positions[i];
+            final long key = pack(unpackX(packed) >> 4, unpackY(packed) >> 4, unpackZ(packed) >> 4);
+            int id = sectionIds.get(key, -1);
+            if (id == -1) {
+                id = sectionCount++;
+                sectionIds.put(key, id);
+                if (id == sectionKeys.length) {
+                    sectionKeys = Arrays.copyOf(sectionKeys, id * 2);
+                }
+                sectionKeys[id] = key;
+            }
+            sectionOfEntry[i] = id;
+        }
+
+        // Order the sections by their packed key, which puts the sections
+        // of a column together with Y in the low bits
+        final long[] sortedKeys = Arrays.copyOf(sectionKeys, sectionCount);
+        Arrays.sort(sortedKeys);
+        final int[] rank = new int[sectionCount];
+        for (int r = 0; r < sectionCount; ++r) {
+            rank[sectionIds.get(sortedKeys[r], -1)] = r;
+        }
+
+        final int[] starts = new int[sectionCount + 1];
+        for (int i = 0; i < size; ++i) {
+            ++starts[rank[sectionOfEntry[i]] + 1];
+        }
+        for (int r = 0; r < sectionCount; ++r) {
+            starts[r + 1] += starts[r];
+        }
+
+        final int[] next = Arrays.copyOf(starts, sectionCount);
+        final int[] order = new int[size];
+        for (int i = 0; i < size; ++i) {
+            order[next[rank[sectionOfEntry[i]]]++] = i;
+        }
+
+        return new SectionGrouping(order, starts, sectionCount);
+    }
+
+    /**
+     * Write the log in a compact binary form. Each position is stored as
+     * the difference to the previous one, and all numbers are written with
+     * as few bytes as their value needs, so runs of neighbouring changes
+     * take about 4 bytes each before compression.
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void write(DataOutput out) throws IOException {
+        writeVarInt(out, size);
+
+        int lastX = 0, lastY = 0, lastZ = 0;
+        for (int i = 0; i < size; ++i) {
+            final long packed = positions[i];
+            final int x = unpackX(packed);
+            final int y = unpackY(packed);
+            final int z = unpackZ(packed);
+            writeVarInt(out, zigZag(x - lastX));
+            writeVarInt(out, zigZag(y - lastY));
+            writeVarInt(out, zigZag(z - lastZ));
+            writeVarInt(out, blocks[i]);
+            lastX = x;
+            lastY = y;
+            lastZ = z;
+        }
+
+        if (tileEntities == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+
+        writeVarInt(out, tileEntities.size());
+        for (Map.Entry<Integer, BaseBlock> entry : tileEntities.entrySet()) {
+            final BaseBlock block = entry.getValue();
+            writeVarInt(out, entry.getKey());
+            writeVarInt(out, block.getType());
+            writeVarInt(out, zigZag(block.getData()));
+
+            final CompoundTag nbt = block.getNbtData();
+            if (nbt == null) {
+                writeVarInt(out, 0);
+                continue;
+            }
+
+            // Tile entity blocks expect their ID when they read the tag back
+            final Map<String, Tag> values = new HashMap<String, Tag>(nbt.getValue());
+            values.put("id", new StringTag("id", block.getNbtId()));
+
+            // The journal as a whole is compressed already
+            final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            final NBTStreamWriter nbtOut = new NBTStreamWriter(buffer);
+            nbtOut.writeTag(new CompoundTag(nbt.getName(), values));
+            nbtOut.close();
+
+            final byte[] bytes = buffer.toByteArray();
+            writeVarInt(out, bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Read a log that was written with {@link #write(DataOutput)}.
+     *
+     * @param in
+     * @return
+     * @throws IOException
+     */
+    public static BlockChangeLog read(DataInput in) throws IOException {
+        final int size = readVarInt(in);
+        final BlockChangeLog log = new BlockChangeLog(size);
+
+        int x = 0, y = 0, z = 0;
+        for (int i = 0; i < size; ++i) {
+            x += unZigZag(readVarInt(in));
+            y += unZigZag(readVarInt(in));
+            z += unZigZag(readVarInt(in));
+            log.positions[i] = pack(x, y, z);
+            log.blocks[i] = (char) readVarInt(in);
+        }
+        log.size = size;
+
+        final int tileEntityCount = readVarInt(in);
+        if (tileEntityCount > 0) {
+            log.tileEntities = new HashMap<Integer, BaseBlock>();
+        }
+
+        for (int i = 0; i < tileEntityCount; ++i) {
+            final int index = readVarInt(in);
+            final int type = readVarInt(in);
+            final int data = unZigZag(readVarInt(in));
+            final BaseBlock block = createBlock(type, data);
+
+            final int length = readVarInt(in);
+            if (length > 0) {
+                final byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                final NBTInputStream nbtIn = new NBTInputStream(new ByteArrayInputStream(bytes));
+                try {
+                    block.setNbtData((CompoundTag) nbtIn.readTag());
+                } catch (DataException e) {
+                    throw new IOException("Invalid tile entity data: " + e.getMessage());
+                } finally {
+                    nbtIn.close();
+                }
+            }
+
+            log.tileEntities.put(index, block);
+        }
+
+        return log;
+    }
+
+    /**
+     * Create a block of the class that worlds return for a type.
+     *
+     * @param type
+     * @param data
+     * @return
+     */
+    private static BaseBlock createBlock(int type, int data) {
+        switch (type) {
+        case BlockID.WALL_SIGN:
+        case BlockID.SIGN_POST:
+            return new SignBlock(type, data);
+
+        case BlockID.CHEST:
+            return new ChestBlock(data);
+
+        case BlockID.FURNACE:
+        case BlockID.BURNING_FURNACE:
+            return new FurnaceBlock(type, data);
+
+        case BlockID.DISPENSER:
+            return new DispenserBlock(data);
+
+        case BlockID.MOB_SPAWNER:
+            return new MobSpawnerBlock(data);
+
+        case BlockID.NOTE_BLOCK:
+            return new NoteBlock(data);
+
+        default:
+            return new BaseBlock(type, data);
+        }
+    }
+
+    private static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            final int b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable-length number");
+    }
+
+    private void grow() {
+        int newCapacity = positions.length + (positions.length >> 1) + 1;
+        positions = Arrays.copyOf(positions, newCapacity);
+        blocks = Arrays.copyOf(blocks, newCapacity);
+    }
+
+    /**
+     * Pack a block position into a long. X and Z keep 26 bits each and Y
+     * keeps 12 bits, which covers the full extent of a Minecraft world.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public static long pack(int x, int y, int z) {
+        return ((x & X_MASK) << X_SHIFT) | ((z & Z_MASK) << Z_SHIFT) | (y & Y_MASK);
+    }
+
+    /**
+     * Get the X coordinate from a packed position.
+     *
+     * @param packed
+     * @return
+     */
+    public static int unpackX(long packed) {
+        return (int) (packed >> X_SHIFT);
+    }
+
+    /**
+     * Get the Y coordinate from a packed position.
+     *
+     * @param packed
+     * @return
+     */
+    public static int unpackY(long packed) {
+        return (int) ((packed << (64 - Y_BITS)) >> (64 - Y_BITS));
+    }
+
+    /**
+     * Get the Z coordinate from a packed position.
+     *
+     * @param packed
+     * @return
+     */
+    public static int unpackZ(long packed) {
+        return (int) ((packed << X_BITS) >> (64 - Z_BITS));
+    }
+
+    /**
+     * Walks the entries of the log. A cursor starts outside of the log and
+     * has to be advanced with {@link #next()} before reading.
+     */
+    public class Cursor {
+        private final boolean reversed;
+        private int index;
+
+        private Cursor(boolean reversed) {
+            this.reversed = reversed;
+            this.index = reversed ? size : -1;
+        }
+
+        /**
+         * Move to the next entry.
+         *
+         * @return false if there are no more entries
+         */
+        public boolean next() {
+            if (reversed) {
+                return --index >= 0;
+            } else {
+                return ++index < size;
+            }
+        }
+
+        /**
+         * Move to an arbitrary entry.
+         *
+         * @param index
+         */
+        public void seek(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            this.index = index;
+        }
+
+        /**
+         * Get the index of the current entry.
+         *
+         * @return
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * Get the packed position of the current entry.
+         *
+         * @return
+         */
+        public long getPackedPosition() {
+            return positions[index];
+        }
+
+        public int getX() {
+            return unpackX(positions[index]);
+        }
+
+        public int getY() {
+            return unpackY(positions[index]);
+        }
+
+        public int getZ() {
+            return unpackZ(positions[index]);
+        }
+
+        public int getType() {
+            return blocks[index] >> 4;
+        }
+
+        public int getData() {
+            return blocks[index] & 0xF;
+        }
+
+        /**
+         * Returns whether the current entry has extra block state.
+         *
+         * @return
+         */
+        public boolean hasTileEntity() {
+            return tileEntities != null && tileEntities.containsKey(index);
+        }
+
+        /**
+         * Get the position of the current entry as a new vector.
+         *
+         * @return
+         */
+        public BlockVector getPosition() {
+            final long packed = positions[index];
+            return new BlockVector(unpackX(packed), unpackY(packed), unpackZ(packed));
+        }
+
+        /**
+         * Get the block of the current entry. Blocks with extra state are
+         * returned as they were added; others are created on demand.
+         *
+         * @return
+         */
+        public BaseBlock getBlock() {
+            if (tileEntities != null) {
+                final BaseBlock block = tileEntities.get(index);
+                if (block != null) {
+                    return block;
+                }
+            }
+
+            return new BaseBlock(getType(), getData());
+        }
+    }
+
+    /**
+     * Entry indices of a log in chunk section order.
+     *
+     * @see BlockChangeLog#groupBySection()
+     */
+    public static class SectionGrouping {
+        private final int[] order;
+        private final int[] starts;
+        private final int sectionCount;
+
+        private SectionGrouping(int[] order, int[] starts, int sectionCount) {
+            this.order = order;
+            this.starts = starts;
+            this.sectionCount = sectionCount;
+        }
+
+        /**
+         * Get the number of sections.
+         *
+         * @return
+         */
+        public int getSectionCount() {
+            return sectionCount;
+        }
+
+        /**
+         * Get the first position in {@link #getIndex(int)} of a section.
+         *
+         * @param section
+         * @return
+         */
+        public int getStart(int section) {
+            return starts[section];
+        }
+
+        /**
+         * Get the position after the last one of a section.
+         *
+         * @param section
+         * @return
+         */
+        public int getEnd(int section) {
+            return starts[section + 1];
+        }
+
+        /**
+         * Get the log entry index at a position.
+         *
+         * @param position
+         * @return
+         */
+        public int getIndex(int position) {
+            return order[position];
+        }
+    }
+}
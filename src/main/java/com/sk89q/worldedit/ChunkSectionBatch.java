@@ -0,0 +1,198 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+import java.util.Arrays;
+
+/**
+ * A batch of type and data changes that all lie within one 16x16x16 chunk
+ * section. Batches are handed to {@link LocalWorld#setBlocks(ChunkSectionBatch, boolean)}
+ * so that the world only has to look up the chunk once.
+ *
+ * <p>A batch never holds two changes for the same block, so the order in
+ * which an implementation applies them does not matter.</p>
+ */
+public class ChunkSectionBatch {
+
+    /**
+     * The width, length and height of a chunk section.
+     */
+    public static final int SECTION_SIZE = 16;
+
+    private static final int SECTION_VOLUME = SECTION_SIZE * SECTION_SIZE * SECTION_SIZE;
+
+    private int chunkX;
+    private int sectionY;
+    private int chunkZ;
+
+    /**
+     * Local indices in the form of (y << 8) | (z << 4) | x.
+     */
+    private short[] indices = new short[64];
+
+    /**
+     * Packed type and data values.
+     */
+    private char[] blocks = new char[64];
+
+    private int size = 0;
+
+    /**
+     * Marks blocks already in the batch. An entry is set if it equals the
+     * current generation, which avoids clearing the array on every reset.
+     */
+    private final int[] marks = new int[SECTION_VOLUME];
+    private int generation = 1;
+
+    /**
+     * Empty the batch and move it to another chunk section.
+     *
+     * @param chunkX
+     * @param sectionY
+     * @param chunkZ
+     */
+    public void reset(int chunkX, int sectionY, int chunkZ) {
+        this.chunkX = chunkX;
+        this.sectionY = sectionY;
+        this.chunkZ = chunkZ;
+        clear();
+    }
+
+    /**
+     * Empty the batch, keeping its chunk section.
+     */
+    public void clear() {
+        size = 0;
+        if (++generation == 0) {
+            Arrays.fill(marks, 0);
+            generation = 1;
+        }
+    }
+
+    /**
+     * Returns whether the batch already holds a change for a block.
+     *
+     * @param x world X coordinate
+     * @param y world Y coordinate
+     * @param z world Z coordinate
+     * @return
+     */
+    public boolean contains(int x, int y, int z) {
+        return marks[localIndex(x, y, z)] == generation;
+    }
+
+    /**
+     * Add a change. The block must be inside this batch's section and must
+     * not already be in the batch.
+     *
+     * @param x world X coordinate
+     * @param y world Y coordinate
+     * @param z world Z coordinate
+     * @param type
+     * @param data
+     */
+    public void add(int x, int y, int z, int type, int data) {
+        final int index = localIndex(x, y, z);
+
+        if (size == indices.length) {
+            indices = Arrays.copyOf(indices, size * 2);
+            blocks = Arrays.copyOf(blocks, size * 2);
+        }
+
+        marks[index] = generation;
+        indices[size] = (short) index;
+        blocks[size] = (char) ((type << 4) | (data & 0xF));
+        ++size;
+    }
+
+    private static int localIndex(int x, int y, int z) {
+        return ((y & 0xF) << 8) | ((z & 0xF) << 4) | (x & 0xF);
+    }
+
+    /**
+     * Get the number of changes.
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns whether there are no changes.
+     *
+     * @return
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int getChunkX() {
+        return chunkX;
+    }
+
+    public int getSectionY() {
+        return sectionY;
+    }
+
+    public int getChunkZ() {
+        return chunkZ;
+    }
+
+    /**
+     * Get the X coordinate of a change, relative to the chunk.
+     *
+     * @param i
+     * @return
+     */
+    public int getLocalX(int i) {
+        return indices[i] & 0xF;
+    }
+
+    /**
+     * Get the Z coordinate of a change, relative to the chunk.
+     *
+     * @param i
+     * @return
+     */
+    public int getLocalZ(int i) {
+        return (indices[i] >> 4) & 0xF;
+    }
+
+    public int getBlockX(int i) {
+        return (chunkX << 4) | getLocalX(i);
+    }
+
+    public int getBlockY(int i) {
+        return (sectionY << 4) | ((indices[i] >> 8) & 0xF);
+    }
+
+    public int getBlockZ(int i) {
+        return (chunkZ << 4) | getLocalZ(i);
+    }
+
+    public int getType(int i) {
+        return blocks[i] >> 4;
+    }
+
+    public int getData(int i) {
+        return blocks[i] & 0xF;
+    }
+}
@@ -0,0 +1,155 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+import java.util.Arrays;
+
+/**
+ * A read-through cache of the chunk sections an edit session reads from.
+ * The sections of a chunk column are read from the world together with
+ * {@link LocalWorld#getChunkSections(int, int, int, char[][])} the first
+ * time one of their blocks is needed, so that worlds which take a snapshot
+ * of the whole chunk only do so once per column. They are then kept as
+ * packed type and data values, so that further reads are array lookups.
+ *
+ * <p>The cache is direct-mapped: every column has exactly one slot it can
+ * be kept in, and reading a column evicts whatever was in its slot. This
+ * bounds the memory to {@link #SLOTS} columns. The cache only sees the
+ * changes that are passed to {@link #update(int, int, int, int, int)};
+ * anything else that changes the world makes it stale until it is cleared.</p>
+ */
+class ChunkSectionCache {
+
+    /**
+     * The number of chunk columns that can be kept, which must be a power
+     * of two.
+     */
+    static final int SLOTS = 16;
+
+    private static final int SECTION_VOLUME = 4096;
+
+    private final LocalWorld world;
+    private final int maxY;
+
+    private final long[] keys = new long[SLOTS];
+    private final char[][][] columns = new char[SLOTS][][];
+
+    /**
+     * The column that was used last, which is checked before the slots
+     * since reads tend to stay in one column.
+     */
+    private long lastKey;
+    private char[][] lastColumn;
+
+    /**
+     * Construct the cache.
+     *
+     * @param world
+     */
+    ChunkSectionCache(LocalWorld world) {
+        this.world = world;
+        this.maxY = world.getMaxY();
+    }
+
+    /**
+     * Get the packed type and data value of a block, in the form of
+     * (type << 4) | data. Blocks outside of the height of the world are
+     * read from the world directly.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    char get(int x, int y, int z) {
+        if (y < 0 || y > maxY) {
+            return (char) ((world.getBlockType(x, y, z) << 4) | (world.getBlockData(x, y, z) & 0xF));
+        }
+
+        final long key = key(x >> 4, z >> 4);
+        char[][] column = lastColumn;
+        if (column == null || key != lastKey) {
+            column = load(x >> 4, z >> 4, key);
+        }
+
+        return column[y >> 4][index(x, y, z)];
+    }
+
+    /**
+     * Record a change that was written to the world. Nothing happens if the
+     * column of the block is not cached.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @param type
+     * @param data
+     */
+    void update(int x, int y, int z, int type, int data) {
+        if (y < 0 || y > maxY) {
+            return;
+        }
+
+        final long key = key(x >> 4, z >> 4);
+        final int slot = slot(key);
+        final char[][] column = columns[slot];
+        if (column != null && keys[slot] == key) {
+            column[y >> 4][index(x, y, z)] = (char) ((type << 4) | (data & 0xF));
+        }
+    }
+
+    /**
+     * Forget all columns.
+     */
+    void clear() {
+        Arrays.fill(columns, null);
+        lastColumn = null;
+    }
+
+    private char[][] load(int chunkX, int chunkZ, long key) {
+        final int slot = slot(key);
+        char[][] column = columns[slot];
+        if (column == null) {
+            column = columns[slot] = new char[(maxY >> 4) + 1][SECTION_VOLUME];
+            world.getChunkSections(chunkX, chunkZ, 0, column);
+            keys[slot] = key;
+        } else if (keys[slot] != key) {
+            // Evict the column in this slot and reuse its arrays
+            world.getChunkSections(chunkX, chunkZ, 0, column);
+            keys[slot] = key;
+        }
+
+        lastKey = key;
+        lastColumn = column;
+        return column;
+    }
+
+    private static long key(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    private static int slot(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 56) & (SLOTS - 1);
+    }
+
+    private static int index(int x, int y, int z) {
+        return ((y & 0xF) << 8) | ((z & 0xF) << 4) | (x & 0xF);
+    }
+}
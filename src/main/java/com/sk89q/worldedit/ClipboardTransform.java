@@ -0,0 +1,331 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+import com.sk89q.worldedit.CuboidClipboard.FlipDirection;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockData;
+
+/**
+ * A sequence of rotations and flips that is applied to a clipboard in one
+ * pass. Transforms are immutable; {@link #rotate2D(int)} and
+ * {@link #flip(FlipDirection, boolean)} return a new transform that does
+ * one more step.
+ *
+ * <p>How the steps change the data values of blocks is looked up in tables
+ * indexed by the packed type and data value of a block, which are built
+ * once for every kind of step and composed once per transform.</p>
+ */
+public final class ClipboardTransform {
+    private static final int ROTATE = 0;
+    private static final int ROTATE_REVERSE = 1;
+    private static final int FLIP_NORTH_SOUTH = 2;
+    private static final int FLIP_WEST_EAST = 3;
+    private static final int FLIP_UP_DOWN = 4;
+
+    private static final int TABLE_SIZE = 1 << 16;
+    private static final char[][] tables = new char[5][];
+
+    private final int[] kinds;
+    private final int[] arguments;
+    private volatile char[] table;
+
+    /**
+     * Create a transform that does not change anything.
+     */
+    public ClipboardTransform() {
+        this(new int[0], new int[0]);
+    }
+
+    private ClipboardTransform(int[] kinds, int[] arguments) {
+        this.kinds = kinds;
+        this.arguments = arguments;
+    }
+
+    /**
+     * Get a transform that also rotates around the Y axis. Only angles
+     * divisible by 90 are supported; other angles leave the transform as it
+     * is.
+     *
+     * @param angle in degrees
+     * @return
+     */
+    public ClipboardTransform rotate2D(int angle) {
+        angle = angle % 360;
+        if (angle % 90 != 0) {
+            return this;
+        }
+
+        return then(angle < 0 ? ROTATE_REVERSE : ROTATE, angle);
+    }
+
+    /**
+     * Get a transform that also flips.
+     *
+     * @param dir direction to flip
+     * @return
+     */
+    public ClipboardTransform flip(FlipDirection dir) {
+        return flip(dir, false);
+    }
+
+    /**
+     * Get a transform that also flips.
+     *
+     * @param dir direction to flip
+     * @param aroundPlayer flip the offset around the player
+     * @return
+     */
+    public ClipboardTransform flip(FlipDirection dir, boolean aroundPlayer) {
+        int kind;
+        switch (dir) {
+        case NORTH_SOUTH:
+            kind = FLIP_NORTH_SOUTH;
+            break;
+        case WEST_EAST:
+            kind = FLIP_WEST_EAST;
+            break;
+        default:
+            kind = FLIP_UP_DOWN;
+            break;
+        }
+
+        return then(kind, aroundPlayer ? 1 : 0);
+    }
+
+    /**
+     * Returns whether this transform has no steps.
+     *
+     * @return
+     */
+    public boolean isIdentity() {
+        return kinds.length == 0;
+    }
+
+    private ClipboardTransform then(int kind, int argument) {
+        int[] newKinds = new int[kinds.length + 1];
+        int[] newArguments = new int[arguments.length + 1];
+        System.arraycopy(kinds, 0, newKinds, 0, kinds.length);
+        System.arraycopy(arguments, 0, newArguments, 0, arguments.length);
+        newKinds[kinds.length] = kind;
+        newArguments[arguments.length] = argument;
+        return new ClipboardTransform(newKinds, newArguments);
+    }
+
+    /**
+     * Get the number of 90 degree rotations of a rotation step.
+     *
+     * @param step
+     * @return
+     */
+    private int getRotations(int step) {
+        return Math.abs((int) Math.floor(arguments[step] / 90.0));
+    }
+
+    /**
+     * Get the table that maps a type and data value, packed like
+     * <code>type << 4 | data</code>, to the packed type and data value that
+     * the whole transform turns it into.
+     *
+     * @return
+     */
+    char[] getBlockTable() {
+        char[] table = this.table;
+        if (table == null) {
+            table = new char[TABLE_SIZE];
+            for (int i = 0; i < TABLE_SIZE; ++i) {
+                table[i] = (char) i;
+            }
+
+            for (int step = 0; step < kinds.length; ++step) {
+                char[] stepTable = getStepTable(kinds[step]);
+                int repeat = kinds[step] == ROTATE || kinds[step] == ROTATE_REVERSE ? getRotations(step) : 1;
+                for (int r = 0; r < repeat; ++r) {
+                    for (int i = 0; i < TABLE_SIZE; ++i) {
+                        table[i] = stepTable[table[i]];
+                    }
+                }
+            }
+
+            this.table = table;
+        }
+
+        return table;
+    }
+
+    private static synchronized char[] getStepTable(int kind) {
+        char[] table = tables[kind];
+        if (table == null) {
+            table = new char[TABLE_SIZE];
+            for (int i = 0; i < TABLE_SIZE; ++i) {
+                int type = i >> 4;
+                int data = i & 0xF;
+                switch (kind) {
+                case ROTATE:
+                    data = BlockData.rotate90(type, data);
+                    break;
+                case ROTATE_REVERSE:
+                    data = BlockData.rotate90Reverse(type, data);
+                    break;
+                case FLIP_NORTH_SOUTH:
+                    data = BlockData.flip(type, data, FlipDirection.NORTH_SOUTH);
+                    break;
+                case FLIP_WEST_EAST:
+                    data = BlockData.flip(type, data, FlipDirection.WEST_EAST);
+                    break;
+                case FLIP_UP_DOWN:
+                    data = BlockData.flip(type, data, FlipDirection.UP_DOWN);
+                    break;
+                }
+                table[i] = (char) ((type << 4) | (data & 0xF));
+            }
+            tables[kind] = table;
+        }
+
+        return table;
+    }
+
+    /**
+     * Apply the transform to a block that is stored as an object.
+     *
+     * @param block
+     */
+    void transform(BaseBlock block) {
+        for (int step = 0; step < kinds.length; ++step) {
+            switch (kinds[step]) {
+            case ROTATE:
+                for (int i = getRotations(step); i > 0; --i) {
+                    block.rotate90();
+                }
+                break;
+            case ROTATE_REVERSE:
+                for (int i = getRotations(step); i > 0; --i) {
+                    block.rotate90Reverse();
+                }
+                break;
+            case FLIP_NORTH_SOUTH:
+                block.flip(FlipDirection.NORTH_SOUTH);
+                break;
+            case FLIP_WEST_EAST:
+                block.flip(FlipDirection.WEST_EAST);
+                break;
+            case FLIP_UP_DOWN:
+                block.flip(FlipDirection.UP_DOWN);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Work out where the transform moves the blocks of a clipboard of the
+     * given size.
+     *
+     * @param size
+     * @param offset
+     * @return
+     */
+    Mapping map(Vector size, Vector offset) {
+        Mapping mapping = new Mapping();
+        int width = size.getBlockX();
+        int height = size.getBlockY();
+        int length = size.getBlockZ();
+
+        for (int step = 0; step < kinds.length; ++step) {
+            boolean aroundPlayer = arguments[step] != 0;
+            switch (kinds[step]) {
+            case ROTATE:
+            case ROTATE_REVERSE:
+                int angle = arguments[step];
+                // The same as Vector.transform2D(), without the rounding
+                int cos = (int) Math.round(Math.cos(Math.toRadians(angle)));
+                int sin = (int) Math.round(Math.sin(Math.toRadians(angle)));
+                int rotatedX = width * cos - length * sin;
+                int rotatedZ = width * sin + length * cos;
+                int shiftX = rotatedX < 0 ? -rotatedX - 1 : 0;
+                int shiftZ = rotatedZ < 0 ? -rotatedZ - 1 : 0;
+
+                int m00 = cos * mapping.m00 - sin * mapping.m10;
+                int m01 = cos * mapping.m01 - sin * mapping.m11;
+                int m10 = sin * mapping.m00 + cos * mapping.m10;
+                int m11 = sin * mapping.m01 + cos * mapping.m11;
+                int translateX = cos * mapping.translateX - sin * mapping.translateZ + shiftX;
+                int translateZ = sin * mapping.translateX + cos * mapping.translateZ + shiftZ;
+                mapping.m00 = m00;
+                mapping.m01 = m01;
+                mapping.m10 = m10;
+                mapping.m11 = m11;
+                mapping.translateX = translateX;
+                mapping.translateZ = translateZ;
+
+                width = Math.abs(rotatedX);
+                length = Math.abs(rotatedZ);
+                offset = offset.transform2D(angle, 0, 0, 0, 0).subtract(shiftX, 0, shiftZ);
+                break;
+
+            case FLIP_NORTH_SOUTH:
+                mapping.m00 = -mapping.m00;
+                mapping.m01 = -mapping.m01;
+                mapping.translateX = width - 1 - mapping.translateX;
+                if (aroundPlayer) {
+                    offset = offset.setX(1 - offset.getX() - width);
+                }
+                break;
+
+            case FLIP_WEST_EAST:
+                mapping.m10 = -mapping.m10;
+                mapping.m11 = -mapping.m11;
+                mapping.translateZ = length - 1 - mapping.translateZ;
+                if (aroundPlayer) {
+                    offset = offset.setZ(1 - offset.getZ() - length);
+                }
+                break;
+
+            case FLIP_UP_DOWN:
+                mapping.flipY = !mapping.flipY;
+                if (aroundPlayer) {
+                    offset = offset.setY(1 - offset.getY() - height);
+                }
+                break;
+            }
+        }
+
+        mapping.size = new Vector(width, height, length);
+        mapping.offset = offset;
+        return mapping;
+    }
+
+    /**
+     * Where a transform moves the blocks of a clipboard. A block at x, y, z
+     * ends up at <code>m00 * x + m01 * z + translateX</code>, y (or
+     * <code>height - 1 - y</code> if flipped) and
+     * <code>m10 * x + m11 * z + translateZ</code>.
+     */
+    static class Mapping {
+        int m00 = 1;
+        int m01;
+        int m10;
+        int m11 = 1;
+        int translateX;
+        int translateZ;
+        boolean flipY;
+        Vector size;
+        Vector offset;
+    }
+}
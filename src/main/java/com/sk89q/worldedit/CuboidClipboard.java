@@ -23,15 +23,28 @@
 import com.sk89q.worldedit.blocks.*;
 import com.sk89q.worldedit.data.*;
 import com.sk89q.worldedit.schematic.SchematicFormat;
+import com.sk89q.worldedit.util.ChunkColumnExecutor;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * The clipboard remembers the state of a cuboid region.
  *
+ * <p>Blocks are stored as a type and data value packed into a char, in the
+ * same x, z, y order as .schematic files. Blocks that carry more than that,
+ * such as signs and chests, are kept as objects in a separate map.</p>
+ *
+ * <p>A lazy copy only remembers where it was copied from. Its blocks are
+ * read from the world one chunk column at a time: when the column is first
+ * accessed, when it is pasted, or just before an {@link EditSession}
+ * changes a block in it.</p>
+ *
  * @author sk89q
  */
 public class CuboidClipboard {
@@ -44,22 +57,41 @@ public enum FlipDirection {
         UP_DOWN
     }
 
-    private BaseBlock[][][] data;
+    /**
+     * Transforms of clipboards with at least this many blocks are done on
+     * several threads.
+     */
+    private static final int PARALLEL_THRESHOLD = 1 << 18;
+
+    private char[] blocks;
+    private Map<Integer, BaseBlock> tileEntities = new HashMap<Integer, BaseBlock>();
     private Vector offset;
     private Vector origin;
     private Vector size;
     private List<CopiedEntity> entities = new ArrayList<CopiedEntity>();
 
+    // The world and position of a lazy copy, while there are chunk columns
+    // left to capture. Columns are captured while holding the lock of the
+    // clipboard, which other threads take before they read a column.
+    private volatile LocalWorld source;
+    private LazyCopyListener writeListener;
+    private int sourceX;
+    private int sourceY;
+    private int sourceZ;
+    private int minChunkX;
+    private int minChunkZ;
+    private int chunksX;
+    private int chunksZ;
+    private boolean[] captured;
+    private int uncaptured;
+
     /**
      * Constructs the clipboard.
      *
      * @param size
      */
     public CuboidClipboard(Vector size) {
-        this.size = size;
-        data = new BaseBlock[size.getBlockX()][size.getBlockY()][size.getBlockZ()];
-        origin = new Vector();
-        offset = new Vector();
+        this(size, new Vector(), new Vector());
     }
 
     /**
@@ -69,10 +101,7 @@ public CuboidClipboard(Vector size) {
      * @param origin
      */
     public CuboidClipboard(Vector size, Vector origin) {
-        this.size = size;
-        data = new BaseBlock[size.getBlockX()][size.getBlockY()][size.getBlockZ()];
-        this.origin = origin;
-        offset = new Vector();
+        this(size, origin, new Vector());
     }
 
     /**
@@ -84,7 +113,7 @@ public CuboidClipboard(Vector size, Vector origin) {
      */
     public CuboidClipboard(Vector size, Vector origin, Vector offset) {
         this.size = size;
-        data = new BaseBlock[size.getBlockX()][size.getBlockY()][size.getBlockZ()];
+        blocks = new char[size.getBlockX() * size.getBlockY() * size.getBlockZ()];
         this.origin = origin;
         this.offset = offset;
     }
@@ -122,53 +151,7 @@ public int getHeight() {
      * @param angle in degrees
      */
     public void rotate2D(int angle) {
-        angle = angle % 360;
-        if (angle % 90 != 0) { // Can only rotate 90 degrees at the moment
-            return;
-        }
-        boolean reverse = angle < 0;
-        int numRotations = Math.abs((int) Math.floor(angle / 90.0));
-
-        int width = getWidth();
-        int length = getLength();
-        int height = getHeight();
-        Vector sizeRotated = size.transform2D(angle, 0, 0, 0, 0);
-        int shiftX = sizeRotated.getX() < 0 ? -sizeRotated.getBlockX() - 1 : 0;
-        int shiftZ = sizeRotated.getZ() < 0 ? -sizeRotated.getBlockZ() - 1 : 0;
-
-        BaseBlock newData[][][] = new BaseBlock
-                [Math.abs(sizeRotated.getBlockX())]
-                [Math.abs(sizeRotated.getBlockY())]
-                [Math.abs(sizeRotated.getBlockZ())];
-
-        for (int x = 0; x < width; ++x) {
-            for (int z = 0; z < length; ++z) {
-                Vector v = (new Vector(x, 0, z)).transform2D(angle, 0, 0, 0, 0);
-                int newX = v.getBlockX();
-                int newZ = v.getBlockZ();
-                for (int y = 0; y < height; ++y) {
-                    BaseBlock block = data[x][y][z];
-                    newData[shiftX + newX][y][shiftZ + newZ] = block;
-
-                    if (reverse) {
-                        for (int i = 0; i < numRotations; ++i) {
-                            block.rotate90Reverse();
-                        }
-                    } else {
-                        for (int i = 0; i < numRotations; ++i) {
-                            block.rotate90();
-                        }
-                    }
-                }
-            }
-        }
-
-        data = newData;
-        size = new Vector(Math.abs(sizeRotated.getBlockX()),
-                          Math.abs(sizeRotated.getBlockY()),
-                          Math.abs(sizeRotated.getBlockZ()));
-        offset = offset.transform2D(angle, 0, 0, 0, 0)
-                .subtract(shiftX, 0, shiftZ);
+        transform(new ClipboardTransform().rotate2D(angle));
     }
 
     /**
@@ -187,86 +170,227 @@ public void flip(FlipDirection dir) {
      * @param aroundPlayer flip the offset around the player
      */
     public void flip(FlipDirection dir, boolean aroundPlayer) {
+        transform(new ClipboardTransform().flip(dir, aroundPlayer));
+    }
+
+    /**
+     * Rotate and flip the clipboard in one pass. The blocks are copied to
+     * their new positions row by row, on several threads for large
+     * clipboards.
+     *
+     * @param transform
+     */
+    public void transform(ClipboardTransform transform) {
+        if (transform.isIdentity()) {
+            return;
+        }
+        captureAll();
+
         final int width = getWidth();
-        final int length = getLength();
         final int height = getHeight();
-
-        switch (dir) {
-        case NORTH_SOUTH:
-            final int wid = (int) Math.ceil(width / 2.0f);
-            for (int xs = 0; xs < wid; ++xs) {
-                for (int z = 0; z < length; ++z) {
-                    for (int y = 0; y < height; ++y) {
-                        BaseBlock old = data[xs][y][z].flip(dir);
-                        if (xs == width - xs - 1) continue;
-                        data[xs][y][z] = data[width - xs - 1][y][z].flip(dir);
-                        data[width - xs - 1][y][z] = old;
+        final int length = getLength();
+        final ClipboardTransform.Mapping mapping = transform.map(size, offset);
+        final int newWidth = mapping.size.getBlockX();
+        final int newLength = mapping.size.getBlockZ();
+
+        // The index in the old array of the block that ends up at new
+        // x, y, z is base + x * strideX + y * strideY + z * strideZ
+        final int strideX = mapping.m00 + mapping.m01 * width;
+        final int strideZ = mapping.m10 + mapping.m11 * width;
+        final int strideY = mapping.flipY ? -width * length : width * length;
+        final int base = -(mapping.m00 * mapping.translateX + mapping.m10 * mapping.translateZ)
+                - (mapping.m01 * mapping.translateX + mapping.m11 * mapping.translateZ) * width
+                + (mapping.flipY ? (height - 1) * width * length : 0);
+
+        final char[] table = transform.getBlockTable();
+        final char[] oldBlocks = blocks;
+        final char[] newBlocks = new char[oldBlocks.length];
+
+        final int rows = height * newLength;
+        final boolean parallel = (long) newWidth * rows >= PARALLEL_THRESHOLD;
+        ChunkColumnExecutor.forEachBand(rows, parallel, new ChunkColumnExecutor.BandTask() {
+            public void run(int fromRow, int toRow) {
+                for (int row = fromRow; row < toRow; ++row) {
+                    int y = row / newLength;
+                    int z = row - y * newLength;
+                    int index = base + y * strideY + z * strideZ;
+                    int newIndex = row * newWidth;
+                    for (int x = 0; x < newWidth; ++x, index += strideX) {
+                        newBlocks[newIndex + x] = table[oldBlocks[index]];
                     }
                 }
             }
-
-            if (aroundPlayer) {
-                offset = offset.setX(1 - offset.getX() - width);
+        });
+
+        if (!tileEntities.isEmpty()) {
+            Map<Integer, BaseBlock> newTileEntities = new HashMap<Integer, BaseBlock>();
+            for (Map.Entry<Integer, BaseBlock> entry : tileEntities.entrySet()) {
+                int index = entry.getKey();
+                int x = index % width;
+                int y = index / width / length;
+                int z = index / width % length;
+                int newX = mapping.m00 * x + mapping.m01 * z + mapping.translateX;
+                int newY = mapping.flipY ? height - 1 - y : y;
+                int newZ = mapping.m10 * x + mapping.m11 * z + mapping.translateZ;
+
+                BaseBlock block = entry.getValue();
+                transform.transform(block);
+                newTileEntities.put((newY * newLength + newZ) * newWidth + newX, block);
             }
+            tileEntities = newTileEntities;
+        }
 
-            break;
-
-        case WEST_EAST:
-            final int len = (int) Math.ceil(length / 2.0f);
-            for (int zs = 0; zs < len; ++zs) {
-                for (int x = 0; x < width; ++x) {
-                    for (int y = 0; y < height; ++y) {
-                        BaseBlock old = data[x][y][zs].flip(dir);
-                        if (zs == length - zs - 1) continue;
-                        data[x][y][zs] = data[x][y][length - zs - 1].flip(dir);
-                        data[x][y][length - zs - 1] = old;
-                    }
-                }
-            }
+        blocks = newBlocks;
+        size = mapping.size;
+        offset = mapping.offset;
+    }
 
-            if (aroundPlayer) {
-                offset = offset.setZ(1 - offset.getZ() - length);
-            }
+    /**
+     * Copy to the clipboard.
+     *
+     * @param editSession
+     */
+    public void copy(EditSession editSession) {
+        copy(editSession, false);
+    }
+
+    /**
+     * Copy to the clipboard from the origin in the world of the given edit
+     * session. The blocks are read from the world a chunk column at a time.
+     *
+     * <p>A lazy copy reads a column only when it is needed. Changes that
+     * are made through an {@link EditSession} are copied on write, but
+     * changes that are made to the world in other ways, such as by players,
+     * show up in the columns that have not been read yet.</p>
+     *
+     * @param editSession
+     * @param lazy
+     */
+    public void copy(EditSession editSession, boolean lazy) {
+        final LazyCopyListener listener = editSession.getLazyCopyListener();
+
+        synchronized (this) {
+            Arrays.fill(blocks, (char) 0);
+            tileEntities.clear();
+
+            sourceX = origin.getBlockX();
+            sourceY = origin.getBlockY();
+            sourceZ = origin.getBlockZ();
+            minChunkX = sourceX >> 4;
+            minChunkZ = sourceZ >> 4;
+            chunksX = ((sourceX + getWidth() - 1) >> 4) - minChunkX + 1;
+            chunksZ = ((sourceZ + getLength() - 1) >> 4) - minChunkZ + 1;
+            captured = new boolean[chunksX * chunksZ];
+            uncaptured = captured.length;
+            writeListener = lazy ? listener : null;
+            source = editSession.getWorld();
+        }
+
+        // The listener calls back with its own lock held, so it must not be
+        // called with the lock of the clipboard held
+        if (lazy) {
+            listener.register(this);
+        } else {
+            captureAll();
+        }
+    }
 
-            break;
-
-        case UP_DOWN:
-            final int hei = (int) Math.ceil(height / 2.0f);
-            for (int ys = 0; ys < hei; ++ys) {
-                for (int x = 0; x < width; ++x) {
-                    for (int z = 0; z < length; ++z) {
-                        BaseBlock old = data[x][ys][z].flip(dir);
-                        if (ys == height - ys - 1) continue;
-                        data[x][ys][z] = data[x][height - ys - 1][z].flip(dir);
-                        data[x][height - ys - 1][z] = old;
+    /**
+     * Read a chunk column of a lazy copy from the world, if it overlaps the
+     * copy and has not been read yet.
+     *
+     * @param chunkX
+     * @param chunkZ
+     */
+    private synchronized void captureChunk(int chunkX, int chunkZ) {
+        int column = (chunkZ - minChunkZ) * chunksX + chunkX - minChunkX;
+        if (source == null || chunkX < minChunkX || chunkX >= minChunkX + chunksX
+                || chunkZ < minChunkZ || chunkZ >= minChunkZ + chunksZ || captured[column]) {
+            return;
+        }
+
+        LocalWorld world = source;
+        int fromX = Math.max(0, (chunkX << 4) - sourceX);
+        int toX = Math.min(getWidth(), (chunkX << 4) + 16 - sourceX);
+        int fromZ = Math.max(0, (chunkZ << 4) - sourceZ);
+        int toZ = Math.min(getLength(), (chunkZ << 4) + 16 - sourceZ);
+        int minY = Math.max(0, sourceY);
+        int maxY = Math.min(world.getMaxY(), sourceY + getHeight() - 1);
+
+        // Blocks outside of the world stay air
+        if (minY <= maxY) {
+            int minSectionY = minY >> 4;
+            char[][] sections = new char[(maxY >> 4) - minSectionY + 1][4096];
+            world.getChunkSections(chunkX, chunkZ, minSectionY, sections);
+
+            for (int worldY = minY; worldY <= maxY; ++worldY) {
+                char[] section = sections[(worldY >> 4) - minSectionY];
+                for (int z = fromZ; z < toZ; ++z) {
+                    int worldZ = sourceZ + z;
+                    int sectionIndex = ((worldY & 0xF) << 8) | ((worldZ & 0xF) << 4);
+                    int index = index(0, worldY - sourceY, z);
+                    for (int x = fromX; x < toX; ++x) {
+                        char block = section[sectionIndex | ((sourceX + x) & 0xF)];
+                        int type = block >> 4;
+                        if (type != BlockID.AIR && (BlockType.fromID(type) == null || BlockType.hasTileEntity(type))) {
+                            // Blocks with extra state are read as a whole
+                            store(index + x, world.getBlock(new Vector(sourceX + x, worldY, worldZ)));
+                        } else {
+                            blocks[index + x] = block;
+                        }
                     }
                 }
             }
+        }
 
-            if (aroundPlayer) {
-                offset = offset.setY(1 - offset.getY() - height);
-            }
-
-            break;
+        captured[column] = true;
+        if (--uncaptured == 0) {
+            captured = null;
+            writeListener = null;
+            source = null;
         }
     }
 
     /**
-     * Copy to the clipboard.
+     * Read the chunk column of a lazy copy that contains the given point.
      *
-     * @param editSession
+     * @param x
+     * @param z
      */
-    public void copy(EditSession editSession) {
-        for (int x = 0; x < size.getBlockX(); ++x) {
-            for (int y = 0; y < size.getBlockY(); ++y) {
-                for (int z = 0; z < size.getBlockZ(); ++z) {
-                    data[x][y][z] =
-                            editSession.getBlock(new Vector(x, y, z).add(getOrigin()));
-                }
+    private void capture(int x, int z) {
+        captureChunk((sourceX + x) >> 4, (sourceZ + z) >> 4);
+    }
+
+    /**
+     * Read every chunk column of a lazy copy that has not been read yet.
+     */
+    private void captureAll() {
+        for (int chunkZ = minChunkZ; source != null && chunkZ < minChunkZ + chunksZ; ++chunkZ) {
+            for (int chunkX = minChunkX; source != null && chunkX < minChunkX + chunksX; ++chunkX) {
+                captureChunk(chunkX, chunkZ);
             }
         }
     }
 
+    /**
+     * Called by the write listener of the world the copy was taken from,
+     * before an edit session changes blocks in a chunk column.
+     *
+     * @param listener
+     * @param chunkX
+     * @param chunkZ
+     * @return false once the listener no longer has to tell this clipboard
+     *         about writes
+     */
+    synchronized boolean captureBeforeWrite(LazyCopyListener listener, int chunkX, int chunkZ) {
+        if (writeListener != listener) {
+            return false;
+        }
+
+        captureChunk(chunkX, chunkZ);
+        return writeListener == listener;
+    }
+
     public void paste(EditSession editSession, Vector newOrigin, boolean noAir)
             throws MaxChangedBlocksException {
         paste(editSession, newOrigin, noAir, false);
@@ -289,7 +413,13 @@ public void paste(EditSession editSession, Vector newOrigin, boolean noAir, bool
     }
 
     /**
-     * Places the blocks in a position from the minimum corner.
+     * Places the blocks in a position from the minimum corner. The blocks
+     * are placed a chunk column at a time, reading the column first if this
+     * is a lazy copy. With noAir, air is skipped a run at a time.
+     *
+     * <p>Each column goes through the queue of the edit session and is
+     * written a chunk section at a time before the next column is started.
+     * The blocks it replaces are read from cached chunk sections.</p>
      *
      * @param editSession
      * @param pos
@@ -297,15 +427,80 @@ public void paste(EditSession editSession, Vector newOrigin, boolean noAir, bool
      * @throws MaxChangedBlocksException
      */
     public void place(EditSession editSession, Vector pos, boolean noAir) throws MaxChangedBlocksException {
-        for (int x = 0; x < size.getBlockX(); ++x) {
-            for (int y = 0; y < size.getBlockY(); ++y) {
-                for (int z = 0; z < size.getBlockZ(); ++z) {
-                    if (noAir && data[x][y][z].isAir()) {
-                        continue;
-                    }
+        final int baseX = pos.getBlockX();
+        final int baseY = pos.getBlockY();
+        final int baseZ = pos.getBlockZ();
+
+        // Columns follow the chunks that a lazy copy is read in, or else the
+        // chunks that are written to
+        final int alignX = source != null ? sourceX : baseX;
+        final int alignZ = source != null ? sourceZ : baseZ;
+
+        final boolean queued = editSession.isQueueEnabled();
+        final boolean cached = editSession.isReadCacheEnabled();
+        editSession.enableQueue();
+        editSession.enableReadCache();
+
+        try {
+            placeColumns(editSession, baseX, baseY, baseZ, alignX, alignZ, noAir);
+        } finally {
+            if (!queued) {
+                editSession.disableQueue();
+            }
+            if (!cached) {
+                editSession.disableReadCache();
+            }
+        }
+    }
+
+    private void placeColumns(EditSession editSession, int baseX, int baseY, int baseZ,
+            int alignX, int alignZ, boolean noAir) throws MaxChangedBlocksException {
+        final int width = getWidth();
+        final int height = getHeight();
+        final int length = getLength();
+
+        for (int fromX = 0, toX; fromX < width; fromX = toX) {
+            toX = Math.min(width, fromX + 16 - ((alignX + fromX) & 0xF));
+            for (int fromZ = 0, toZ; fromZ < length; fromZ = toZ) {
+                toZ = Math.min(length, fromZ + 16 - ((alignZ + fromZ) & 0xF));
+                if (source != null) {
+                    capture(fromX, fromZ);
+                }
 
-                    editSession.setBlock(new Vector(x, y, z).add(pos), data[x][y][z]);
+                for (int y = 0; y < height; ++y) {
+                    for (int z = fromZ; z < toZ; ++z) {
+                        final int row = index(0, y, z);
+                        int x = fromX;
+                        while (x < toX) {
+                            if (noAir && blocks[row + x] == 0) {
+                                ++x;
+                                continue;
+                            }
+
+                            int end = x + 1;
+                            if (noAir) {
+                                while (end < toX && blocks[row + end] != 0) {
+                                    ++end;
+                                }
+                            } else {
+                                end = toX;
+                            }
+
+                            for (; x < end; ++x) {
+                                final int index = row + x;
+                                final BaseBlock tileEntity = tileEntities.isEmpty() ? null : tileEntities.get(index);
+                                if (tileEntity != null) {
+                                    editSession.setBlock(new Vector(baseX + x, baseY + y, baseZ + z), tileEntity);
+                                } else {
+                                    editSession.setBlock(baseX + x, baseY + y, baseZ + z,
+                                            blocks[index] >> 4, blocks[index] & 0xF);
+                                }
+                            }
+                        }
+                    }
                 }
+
+                editSession.flushPartialQueue();
             }
         }
     }
@@ -334,7 +529,7 @@ public void storeEntity(LocalEntity entity) {
      * @throws ArrayIndexOutOfBoundsException
      */
     public BaseBlock getPoint(Vector pos) throws ArrayIndexOutOfBoundsException {
-        return data[pos.getBlockX()][pos.getBlockY()][pos.getBlockZ()];
+        return getBlock(checkedIndex(pos.getBlockX(), pos.getBlockY(), pos.getBlockZ()));
     }
 
     /**
@@ -346,7 +541,190 @@ public BaseBlock getPoint(Vector pos) throws ArrayIndexOutOfBoundsException {
      * @throws ArrayIndexOutOfBoundsException
      */
     public void setBlock(Vector pt, BaseBlock block) {
-        data[pt.getBlockX()][pt.getBlockY()][pt.getBlockZ()] = block;
+        store(checkedIndex(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ()), block);
+    }
+
+    private void store(int index, BaseBlock block) {
+        if (block == null) {
+            block = new BaseBlock(BlockID.AIR);
+        }
+
+        blocks[index] = pack(block.getType(), block.getData());
+        if (block.getClass() != BaseBlock.class || block.hasNbtData() || block.getData() < 0) {
+            tileEntities.put(index, block);
+        } else if (!tileEntities.isEmpty()) {
+            tileEntities.remove(index);
+        }
+    }
+
+    /**
+     * Set the type and data of one point in the copy, removing any tile
+     * entity data that was stored there.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @param type
+     * @param data
+     * @throws ArrayIndexOutOfBoundsException
+     */
+    public void setBlock(int x, int y, int z, int type, int data) {
+        int index = checkedIndex(x, y, z);
+        blocks[index] = pack(type, data);
+        if (!tileEntities.isEmpty()) {
+            tileEntities.remove(index);
+        }
+    }
+
+    /**
+     * Get the type of one point in the copy.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     * @throws ArrayIndexOutOfBoundsException
+     */
+    public int getBlockType(int x, int y, int z) {
+        return blocks[checkedIndex(x, y, z)] >> 4;
+    }
+
+    /**
+     * Get the data value of one point in the copy.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     * @throws ArrayIndexOutOfBoundsException
+     */
+    public int getBlockData(int x, int y, int z) {
+        return blocks[checkedIndex(x, y, z)] & 0xF;
+    }
+
+    /**
+     * Get the number of blocks in the copy. Besides by their position,
+     * blocks can be addressed by an index below this number that counts
+     * them in x, z, y order, the order of .schematic files.
+     *
+     * @return
+     */
+    public int getBlockCount() {
+        return blocks.length;
+    }
+
+    /**
+     * Get the type of the block with the given index.
+     *
+     * @param index
+     * @return
+     * @throws ArrayIndexOutOfBoundsException
+     * @see #getBlockCount()
+     */
+    public int getBlockType(int index) {
+        if (source != null) {
+            captureIndex(index);
+        }
+        return blocks[index] >> 4;
+    }
+
+    /**
+     * Get the data value of the block with the given index.
+     *
+     * @param index
+     * @return
+     * @throws ArrayIndexOutOfBoundsException
+     * @see #getBlockCount()
+     */
+    public int getBlockData(int index) {
+        if (source != null) {
+            captureIndex(index);
+        }
+        return blocks[index] & 0xF;
+    }
+
+    /**
+     * Set the type and data of the block with the given index, removing any
+     * tile entity data that was stored there.
+     *
+     * @param index
+     * @param type
+     * @param data
+     * @throws ArrayIndexOutOfBoundsException
+     * @see #getBlockCount()
+     */
+    public void setBlock(int index, int type, int data) {
+        if (source != null) {
+            captureIndex(index);
+        }
+        blocks[index] = pack(type, data);
+        if (!tileEntities.isEmpty()) {
+            tileEntities.remove(index);
+        }
+    }
+
+    /**
+     * Get the blocks of the copy that are not described by their type and
+     * data alone, such as blocks with tile entities. The returned map is
+     * a copy.
+     *
+     * @return
+     */
+    public Map<BlockVector, BaseBlock> getTileEntityBlocks() {
+        captureAll();
+        Map<BlockVector, BaseBlock> result = new HashMap<BlockVector, BaseBlock>();
+        int width = getWidth();
+        int length = getLength();
+        for (Map.Entry<Integer, BaseBlock> entry : tileEntities.entrySet()) {
+            int index = entry.getKey();
+            result.put(new BlockVector(index % width, index / width / length,
+                    index / width % length), entry.getValue());
+        }
+        return result;
+    }
+
+    private BaseBlock getBlock(int index) {
+        if (!tileEntities.isEmpty()) {
+            BaseBlock block = tileEntities.get(index);
+            if (block != null) {
+                return block;
+            }
+        }
+
+        return new BaseBlock(blocks[index] >> 4, blocks[index] & 0xF);
+    }
+
+    private int index(int x, int y, int z) {
+        return (y * size.getBlockZ() + z) * size.getBlockX() + x;
+    }
+
+    private int checkedIndex(int x, int y, int z) {
+        if (x < 0 || x >= size.getBlockX() || y < 0 || y >= size.getBlockY()
+                || z < 0 || z >= size.getBlockZ()) {
+            throw new ArrayIndexOutOfBoundsException("(" + x + ", " + y + ", " + z + ") is outside of the clipboard");
+        }
+        if (source != null) {
+            capture(x, z);
+        }
+        return index(x, y, z);
+    }
+
+    private void captureIndex(int index) {
+        if (index >= 0 && index < blocks.length) {
+            int width = getWidth();
+            capture(index % width, index / width % getLength());
+        }
+    }
+
+    /**
+     * Store a type and data value in 16 bits.
+     *
+     * @param type
+     * @param data
+     * @return
+     */
+    private static char pack(int type, int data) {
+        return (char) ((type << 4) | (data & 0xF));
     }
 
     /**
@@ -18,7 +18,17 @@
  */
 package com.sk89q.worldedit;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Deque;
 import java.util.HashMap;
@@ -29,7 +39,10 @@
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
-import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import com.sk89q.worldedit.bags.BlockBag;
 import com.sk89q.worldedit.bags.BlockBagException;
@@ -40,10 +53,19 @@
 import com.sk89q.worldedit.expression.Expression;
 import com.sk89q.worldedit.expression.ExpressionException;
 import com.sk89q.worldedit.expression.runtime.RValue;
+import com.sk89q.worldedit.masks.CompiledMask;
 import com.sk89q.worldedit.masks.Mask;
+import com.sk89q.worldedit.masks.MaskCompiler;
+import com.sk89q.worldedit.patterns.CompiledPattern;
 import com.sk89q.worldedit.patterns.Pattern;
+import com.sk89q.worldedit.patterns.PatternCompiler;
+import com.sk89q.worldedit.patterns.SingleBlockPattern;
 import com.sk89q.worldedit.regions.CuboidRegion;
 import com.sk89q.worldedit.regions.Region;
+import com.sk89q.worldedit.regions.SpanIterator;
+import com.sk89q.worldedit.util.BitVolume;
+import com.sk89q.worldedit.util.ChunkColumnExecutor;
+import com.sk89q.worldedit.util.FloodFill;
 import com.sk89q.worldedit.util.TreeGenerator;
 
 /**
@@ -63,6 +85,28 @@ public class EditSession {
      */
     private static Random prng = new Random();
 
+    /**
+     * Regions smaller than this are not worth evaluating expressions for
+     * on several threads.
+     */
+    private static final int PARALLEL_EVALUATION_THRESHOLD = 32768;
+
+    /**
+     * The number of blocks kept by {@link #getPlainBlock(int, int)}, which
+     * must be a power of two.
+     */
+    private static final int PLAIN_BLOCK_CACHE_SIZE = 64;
+
+    /**
+     * The number of block types that fit in a chunk section.
+     */
+    private static final int BLOCK_TYPE_COUNT = 4096;
+
+    /**
+     * Marks the start of a history journal file.
+     */
+    private static final int JOURNAL_MAGIC = 0x57454A31;
+
     /**
      * World.
      */
@@ -71,32 +115,32 @@ public class EditSession {
     /**
      * Stores the original blocks before modification.
      */
-    private DoubleArrayList<BlockVector, BaseBlock> original =
-            new DoubleArrayList<BlockVector, BaseBlock>(true);
+    private BlockChangeLog original = new BlockChangeLog();
 
     /**
      * Stores the current blocks.
      */
-    private DoubleArrayList<BlockVector, BaseBlock> current =
-            new DoubleArrayList<BlockVector, BaseBlock>(false);
+    private BlockChangeLog current = new BlockChangeLog();
+
+    /**
+     * Stores the changed biomes, or null if no biome was changed.
+     */
+    private BiomeChangeLog biomes;
 
     /**
      * Blocks that should be placed before last.
      */
-    private DoubleArrayList<BlockVector, BaseBlock> queueAfter =
-            new DoubleArrayList<BlockVector, BaseBlock>(false);
+    private BlockChangeLog queueAfter = new BlockChangeLog();
 
     /**
      * Blocks that should be placed last.
      */
-    private DoubleArrayList<BlockVector, BaseBlock> queueLast =
-            new DoubleArrayList<BlockVector, BaseBlock>(false);
+    private BlockChangeLog queueLast = new BlockChangeLog();
 
     /**
      * Blocks that should be placed after all other blocks.
      */
-    private DoubleArrayList<BlockVector, BaseBlock> queueFinal =
-            new DoubleArrayList<BlockVector, BaseBlock>(false);
+    private BlockChangeLog queueFinal = new BlockChangeLog();
 
     /**
      * The maximum number of blocks to change at a time. If this number is
@@ -131,6 +175,39 @@ public class EditSession {
      */
     private Mask mask;
 
+    /**
+     * The mask as it is tested for every block, or null.
+     */
+    private CompiledMask compiledMask;
+
+    /**
+     * Chunk sections that were read from the world, or null if reads go to
+     * the world every time.
+     */
+    private ChunkSectionCache readCache;
+
+    /**
+     * Lets lazy copies of the world read chunk columns before they change,
+     * or null if there is no world.
+     */
+    private final LazyCopyListener lazyCopies;
+
+    /**
+     * Recently used blocks, see {@link #getPlainBlock(int, int)}.
+     */
+    private BaseBlock[] plainBlocks;
+
+    /**
+     * The file that the history of this session was written to, if any.
+     */
+    private File journal;
+
+    /**
+     * The number of changes while the history is only in the journal, or
+     * -1 while it is in memory.
+     */
+    private int pagedOutSize = -1;
+
     /**
      * Construct the object with a maximum number of blocks.
      *
@@ -144,6 +221,7 @@ public EditSession(LocalWorld world, int maxBlocks) {
 
         this.maxBlocks = maxBlocks;
         this.world = world;
+        lazyCopies = world == null ? null : LazyCopyListener.forWorld(world);
     }
 
     /**
@@ -162,6 +240,7 @@ public EditSession(LocalWorld world, int maxBlocks, BlockBag blockBag) {
         this.maxBlocks = maxBlocks;
         this.blockBag = blockBag;
         this.world = world;
+        lazyCopies = world == null ? null : LazyCopyListener.forWorld(world);
     }
 
     /**
@@ -172,27 +251,62 @@ public EditSession(LocalWorld world, int maxBlocks, BlockBag blockBag) {
      * @return Whether the block changed
      */
     public boolean rawSetBlock(Vector pt, BaseBlock block) {
-        final int y = pt.getBlockY();
         final int type = block.getType();
-        if (y < 0 || y > world.getMaxY()) {
+        if (pt.getBlockY() < 0 || pt.getBlockY() > world.getMaxY()) {
             return false;
         }
 
+        lazyCopies.beforeWrite(pt.getBlockX() >> 4, pt.getBlockZ() >> 4);
         world.checkLoadedChunk(pt);
 
+        if (!prepareRawSet(pt, type, true)) {
+            return false;
+        }
+
+        boolean result;
+
+        if (type == 0) {
+            if (fastMode) {
+                result = world.setBlockTypeFast(pt, 0);
+            } else {
+                result = world.setBlockType(pt, 0);
+            }
+        } else {
+            result = world.setBlock(pt, block, fastMode);
+        }
+
+        if (readCache != null) {
+            readCache.update(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ(), type, block.getData());
+        }
+
+        return result;
+    }
+
+    /**
+     * Checks whether a block may be placed and takes care of everything that
+     * has to happen before the block is written: clearing containers, melting
+     * ice and settling with the block bag. The chunk must already be loaded.
+     *
+     * @param pt
+     * @param type
+     * @param checkMask false if the mask is already known to match
+     * @return false if the block should not be placed
+     */
+    private boolean prepareRawSet(Vector pt, int type, boolean checkMask) {
         // No invalid blocks
         if (!world.isValidBlockType(type)) {
             return false;
         }
 
-        if (mask != null) {
-            if (!mask.matches(this, pt)) {
+        final int existing = getBlockType(pt);
+
+        if (checkMask && compiledMask != null) {
+            final int data = compiledMask.usesData() ? getBlockData(pt) : 0;
+            if (!compiledMask.matches(this, pt.getBlockX(), pt.getBlockY(), pt.getBlockZ(), existing, data)) {
                 return false;
             }
         }
 
-        final int existing = world.getBlockType(pt);
-
         // Clear the container block so that it doesn't drop items
         if (BlockType.isContainerBlock(existing) && blockBag == null) {
             world.clearContainerBlockContents(pt);
@@ -215,25 +329,132 @@ public boolean rawSetBlock(Vector pt, BaseBlock block) {
 
             if (existing > 0) {
                 try {
-                    blockBag.storeDroppedBlock(existing, world.getBlockData(pt));
+                    blockBag.storeDroppedBlock(existing, getBlockData(pt));
                 } catch (BlockBagException e) {
                 }
             }
         }
-        
-        boolean result;
-        
-        if (type == 0) {
-            if (fastMode) {
-                result = world.setBlockTypeFast(pt, 0);
-            } else {
-                result = world.setBlockType(pt, 0);
+
+        return true;
+    }
+
+    /**
+     * Sets the blocks of a queue grouped by chunk section, so that the world
+     * only has to look up each chunk once. Blocks with extra state are still
+     * set one at a time, in order with the rest. With a mask that looks at
+     * other blocks than the one being tested, blocks are set one at a time in
+     * queue order. Other masks are answered for whole sections where possible.
+     *
+     * @param queue
+     * @param dirtyChunks chunks to fix after fast mode
+     */
+    private void rawSetBlocks(BlockChangeLog queue, Set<BlockVector2D> dirtyChunks) {
+        if (compiledMask != null && !compiledMask.isLocal()) {
+            // The mask may look at neighbouring blocks, so it has to see
+            // every block placed before them
+            final BlockChangeLog.Cursor cursor = queue.forwardCursor();
+            while (cursor.next()) {
+                rawSetBlock(cursor.getPosition(), cursor.getBlock());
+
+                if (fastMode) {
+                    dirtyChunks.add(new BlockVector2D(cursor.getX() >> 4, cursor.getZ() >> 4));
+                }
             }
-        } else {
-            result = world.setBlock(pt, block, fastMode);
+            return;
         }
-        
-        return result;
+
+        final BlockChangeLog.SectionGrouping grouping = queue.groupBySection();
+        final BlockChangeLog.Cursor cursor = queue.forwardCursor();
+        final ChunkSectionBatch batch = new ChunkSectionBatch();
+        final int maxY = world.getMaxY();
+
+        int lastChunkX = 0;
+        int lastChunkZ = 0;
+        boolean hasLastChunk = false;
+
+        for (int section = 0; section < grouping.getSectionCount(); ++section) {
+            final int start = grouping.getStart(section);
+            final int end = grouping.getEnd(section);
+
+            cursor.seek(grouping.getIndex(start));
+            final int chunkX = cursor.getX() >> 4;
+            final int sectionY = cursor.getY() >> 4;
+            final int chunkZ = cursor.getZ() >> 4;
+
+            int maskResult = CompiledMask.ALL;
+            if (compiledMask != null) {
+                maskResult = compiledMask.matchesBox(chunkX << 4, sectionY << 4, chunkZ << 4,
+                        (chunkX << 4) + 15, (sectionY << 4) + 15, (chunkZ << 4) + 15);
+                if (maskResult == CompiledMask.NONE) {
+                    continue;
+                }
+            }
+
+            batch.reset(chunkX, sectionY, chunkZ);
+
+            if (!hasLastChunk || chunkX != lastChunkX || chunkZ != lastChunkZ) {
+                lazyCopies.beforeWrite(chunkX, chunkZ);
+                world.checkLoadedChunk(cursor.getPosition());
+                if (fastMode) {
+                    dirtyChunks.add(new BlockVector2D(chunkX, chunkZ));
+                }
+                lastChunkX = chunkX;
+                lastChunkZ = chunkZ;
+                hasLastChunk = true;
+            }
+
+            // Air is set with notification outside of fast mode, other blocks
+            // the other way around (see rawSetBlock), so runs of each go into
+            // separate batches
+            boolean batchIsAir = false;
+
+            for (int i = start; i < end; ++i) {
+                cursor.seek(grouping.getIndex(i));
+
+                final int x = cursor.getX();
+                final int y = cursor.getY();
+                final int z = cursor.getZ();
+                if (y < 0 || y > maxY) {
+                    continue;
+                }
+
+                if (cursor.hasTileEntity()) {
+                    flushBatch(batch, batchIsAir);
+                    rawSetBlock(cursor.getPosition(), cursor.getBlock());
+                    continue;
+                }
+
+                final int type = cursor.getType();
+                final boolean isAir = type == BlockID.AIR;
+                if (batch.contains(x, y, z) || isAir != batchIsAir) {
+                    flushBatch(batch, batchIsAir);
+                }
+                batchIsAir = isAir;
+
+                if (prepareRawSet(cursor.getPosition(), type, maskResult != CompiledMask.ALL)) {
+                    batch.add(x, y, z, type, cursor.getData());
+                }
+            }
+
+            flushBatch(batch, batchIsAir);
+        }
+    }
+
+    private void flushBatch(ChunkSectionBatch batch, boolean isAir) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        world.setBlocks(batch, isAir ? !fastMode : fastMode);
+
+        if (readCache != null) {
+            for (int i = 0; i < batch.size(); ++i) {
+                readCache.update(batch.getBlockX(i), batch.getBlockY(i), batch.getBlockZ(i),
+                        batch.getType(i), batch.getData(i));
+            }
+        }
+
+        batch.clear();
     }
 
     /**
@@ -248,21 +469,102 @@ public boolean rawSetBlock(Vector pt, BaseBlock block) {
      */
     public boolean setBlock(Vector pt, BaseBlock block)
             throws MaxChangedBlocksException {
-        BlockVector blockPt = pt.toBlockVector();
-
         // if (!original.containsKey(blockPt)) {
-        original.put(blockPt, getBlock(pt));
+        original.add(pt, getBlock(pt));
 
         if (maxBlocks != -1 && original.size() > maxBlocks) {
             throw new MaxChangedBlocksException(maxBlocks);
         }
         // }
 
-        current.put(pt.toBlockVector(), block);
+        current.add(pt, block);
 
         return smartSetBlock(pt, block);
     }
 
+    /**
+     * Sets a block that has no extra state, such as a block from a compiled
+     * pattern. Blocks are only turned into objects if the block that is
+     * replaced has a tile entity or has to be queued separately.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @param type
+     * @param data
+     * @return Whether the block changed -- not entirely dependable
+     * @throws MaxChangedBlocksException
+     */
+    public boolean setBlock(int x, int y, int z, int type, int data)
+            throws MaxChangedBlocksException {
+        final int existingType = getBlockType(x, y, z);
+        if (BlockType.fromID(existingType) == null || BlockType.hasTileEntity(existingType)) {
+            return setBlock(new Vector(x, y, z), getPlainBlock(type, data));
+        }
+
+        final int existingData = getBlockData(x, y, z);
+        original.add(x, y, z, existingType, existingData);
+
+        if (maxBlocks != -1 && original.size() > maxBlocks) {
+            throw new MaxChangedBlocksException(maxBlocks);
+        }
+
+        current.add(x, y, z, type, data);
+
+        // The common case of smartSetBlock()
+        if (queued && !BlockType.shouldPlaceLast(type) && !BlockType.shouldPlaceFinal(type)
+                && !BlockType.shouldPlaceLast(existingType)) {
+            queueAfter.add(x, y, z, type, data);
+            return !(existingType == type && existingData == data);
+        }
+
+        return smartSetBlock(new Vector(x, y, z), getPlainBlock(type, data));
+    }
+
+    /**
+     * Get a block object for a type and data value. The last few blocks are
+     * kept so that setting many blocks of a few kinds does not create an
+     * object for each of them.
+     *
+     * @param type
+     * @param data
+     * @return
+     */
+    private BaseBlock getPlainBlock(int type, int data) {
+        if (plainBlocks == null) {
+            plainBlocks = new BaseBlock[PLAIN_BLOCK_CACHE_SIZE];
+        }
+
+        final int slot = ((type << 4) | data) & (PLAIN_BLOCK_CACHE_SIZE - 1);
+        BaseBlock block = plainBlocks[slot];
+        if (block == null || block.getType() != type || block.getData() != data) {
+            block = plainBlocks[slot] = new BaseBlock(type, data);
+        }
+
+        return block;
+    }
+
+    /**
+     * Sets a block from a pattern, using the compiled pattern if there is one.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @param pattern
+     * @param compiled the compiled pattern, or null
+     * @return Whether the block changed -- not entirely dependable
+     * @throws MaxChangedBlocksException
+     */
+    private boolean setBlock(int x, int y, int z, Pattern pattern, CompiledPattern compiled)
+            throws MaxChangedBlocksException {
+        if (compiled == null) {
+            return setBlock(new Vector(x, y, z), pattern);
+        }
+
+        final int block = compiled.next(x, y, z);
+        return setBlock(x, y, z, block >> 4, block & 0xF);
+    }
+
     /**
      * Insert a contrived block change into the history.
      *
@@ -271,10 +573,8 @@ public boolean setBlock(Vector pt, BaseBlock block)
      * @param block
      */
     public void rememberChange(Vector pt, BaseBlock existing, BaseBlock block) {
-        BlockVector blockPt = pt.toBlockVector();
-
-        original.put(blockPt, existing);
-        current.put(pt.toBlockVector(), block);
+        original.add(pt, existing);
+        current.add(pt, block);
     }
 
     /**
@@ -318,17 +618,17 @@ public boolean smartSetBlock(Vector pt, BaseBlock block) {
         if (queued) {
             if (BlockType.shouldPlaceLast(block.getType())) {
                 // Place torches, etc. last
-                queueLast.put(pt.toBlockVector(), block);
+                queueLast.add(pt, block);
                 return !(getBlockType(pt) == block.getType() && getBlockData(pt) == block.getData());
             } else if (BlockType.shouldPlaceFinal(block.getType())) {
                 // Place signs, reed, etc even later
-                queueFinal.put(pt.toBlockVector(), block);
+                queueFinal.add(pt, block);
                 return !(getBlockType(pt) == block.getType() && getBlockData(pt) == block.getData());
             } else if (BlockType.shouldPlaceLast(getBlockType(pt))) {
                 // Destroy torches, etc. first
                 rawSetBlock(pt, new BaseBlock(BlockID.AIR));
             } else {
-                queueAfter.put(pt.toBlockVector(), block);
+                queueAfter.add(pt, block);
                 return !(getBlockType(pt) == block.getType() && getBlockData(pt) == block.getData());
             }
         }
@@ -354,6 +654,15 @@ public BaseBlock getBlock(Vector pt) {
              */
         }
 
+        if (readCache != null) {
+            // Blocks with tile entities still have to be read from the world
+            final char block = readCache.get(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ());
+            final int type = block >> 4;
+            if (BlockType.fromID(type) != null && !BlockType.hasTileEntity(type)) {
+                return new BaseBlock(type, block & 0xF);
+            }
+        }
+
         return rawGetBlock(pt);
     }
 
@@ -375,6 +684,10 @@ public int getBlockType(Vector pt) {
              */
         }
 
+        if (readCache != null) {
+            return readCache.get(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ()) >> 4;
+        }
+
         return world.getBlockType(pt);
     }
 
@@ -390,9 +703,45 @@ public int getBlockData(Vector pt) {
              */
         }
 
+        if (readCache != null) {
+            return readCache.get(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ()) & 0xF;
+        }
+
         return world.getBlockData(pt);
     }
 
+    /**
+     * Get the block type at a position without creating a vector.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public int getBlockType(int x, int y, int z) {
+        if (readCache != null) {
+            return readCache.get(x, y, z) >> 4;
+        }
+
+        return world.getBlockType(x, y, z);
+    }
+
+    /**
+     * Get the block data at a position without creating a vector.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public int getBlockData(int x, int y, int z) {
+        if (readCache != null) {
+            return readCache.get(x, y, z) & 0xF;
+        }
+
+        return world.getBlockData(x, y, z);
+    }
+
     /**
      * Gets the block type at a position x, y, z.
      *
@@ -403,17 +752,127 @@ public BaseBlock rawGetBlock(Vector pt) {
         return world.getBlock(pt);
     }
 
+    /**
+     * Get the biome of a column.
+     *
+     * @param pt
+     * @return
+     */
+    public BiomeType getBiome(Vector2D pt) {
+        return world.getBiome(pt);
+    }
+
+    /**
+     * Set the biome of a column, remembering the biome it had before.
+     *
+     * @param pt
+     * @param biome
+     * @return whether the biome changed
+     */
+    public boolean setBiome(Vector2D pt, BiomeType biome) {
+        final BiomeType existing = world.getBiome(pt);
+        if (biome.equals(existing)) {
+            return false;
+        }
+
+        if (biomes == null) {
+            biomes = new BiomeChangeLog();
+        }
+        biomes.add(pt.getBlockX(), pt.getBlockZ(), existing, biome);
+        world.setBiome(pt, biome);
+        return true;
+    }
+
+    /**
+     * Set the biome of every column that has a block in a region. Columns
+     * are read and written one chunk at a time, and only the columns whose
+     * biome changes are remembered.
+     *
+     * @param region
+     * @param biome
+     * @return the number of columns in the region
+     */
+    public int setBiomes(Region region, BiomeType biome) {
+        final Vector min = region.getMinimumPoint();
+        final Vector max = region.getMaximumPoint();
+        final int minX = min.getBlockX();
+        final int minZ = min.getBlockZ();
+        final int maxX = max.getBlockX();
+        final int maxZ = max.getBlockZ();
+        final int width = maxX - minX + 1;
+
+        // The columns of the region, by (z - minZ) * width + (x - minX)
+        final BitSet columns = new BitSet();
+        final SpanIterator spans = region.spanIterator();
+        while (spans.next()) {
+            final int offset = (spans.getZ() - minZ) * width - minX;
+            columns.set(offset + spans.getMinX(), offset + spans.getMaxX() + 1);
+        }
+
+        final BiomeType[] existing = new BiomeType[256];
+        final BiomeType[] changes = new BiomeType[256];
+        int affected = 0;
+
+        for (int chunkX = minX >> 4; chunkX <= maxX >> 4; ++chunkX) {
+            for (int chunkZ = minZ >> 4; chunkZ <= maxZ >> 4; ++chunkZ) {
+                final int fromX = Math.max(minX, chunkX << 4);
+                final int toX = Math.min(maxX, (chunkX << 4) + 15);
+                final int fromZ = Math.max(minZ, chunkZ << 4);
+                final int toZ = Math.min(maxZ, (chunkZ << 4) + 15);
+
+                boolean read = false;
+                boolean changed = false;
+                for (int z = fromZ; z <= toZ; ++z) {
+                    final int offset = (z - minZ) * width - minX;
+                    for (int x = fromX; x <= toX; ++x) {
+                        if (!columns.get(offset + x)) {
+                            continue;
+                        }
+
+                        if (!read) {
+                            world.getBiomes(chunkX, chunkZ, existing);
+                            Arrays.fill(changes, null);
+                            read = true;
+                        }
+
+                        ++affected;
+                        final int index = ((z & 0xF) << 4) | (x & 0xF);
+                        if (!biome.equals(existing[index])) {
+                            if (biomes == null) {
+                                biomes = new BiomeChangeLog();
+                            }
+                            biomes.add(x, z, existing[index], biome);
+                            changes[index] = biome;
+                            changed = true;
+                        }
+                    }
+                }
+
+                if (changed) {
+                    world.setBiomes(chunkX, chunkZ, changes);
+                }
+            }
+        }
+
+        return affected;
+    }
+
     /**
      * Restores all blocks to their initial state.
      *
      * @param sess
      */
     public void undo(EditSession sess) {
-        for (Map.Entry<BlockVector, BaseBlock> entry : original) {
-            BlockVector pt = entry.getKey();
-            sess.smartSetBlock(pt, entry.getValue());
+        checkPagedIn();
+        final BlockChangeLog.Cursor cursor = original.reverseCursor();
+        while (cursor.next()) {
+            sess.smartSetBlock(cursor.getPosition(), cursor.getBlock());
         }
         sess.flushQueue();
+
+        if (biomes != null) {
+            biomes.undo(sess.world);
+        }
     }
 
     /**
@@ -422,20 +881,166 @@ public void undo(EditSession sess) {
      * @param sess
      */
     public void redo(EditSession sess) {
-        for (Map.Entry<BlockVector, BaseBlock> entry : current) {
-            BlockVector pt = entry.getKey();
-            sess.smartSetBlock(pt, entry.getValue());
+        checkPagedIn();
+        final BlockChangeLog.Cursor cursor = current.forwardCursor();
+        while (cursor.next()) {
+            sess.smartSetBlock(cursor.getPosition(), cursor.getBlock());
         }
         sess.flushQueue();
+
+        if (biomes != null) {
+            biomes.redo(sess.world);
+        }
     }
 
     /**
-     * Get the number of changed blocks.
+     * Get the number of changed blocks and biome columns.
      *
      * @return
      */
     public int size() {
-        return original.size();
+        if (pagedOutSize >= 0) {
+            return pagedOutSize;
+        }
+        return biomes == null ? original.size() : original.size() + biomes.size();
+    }
+
+    /**
+     * Write the history of this session to a journal file, which it can be
+     * paged back in from later.
+     *
+     * @param file
+     * @throws IOException
+     */
+    void writeJournal(File file) throws IOException {
+        checkPagedIn();
+
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(new FileOutputStream(file))));
+        try {
+            out.writeInt(JOURNAL_MAGIC);
+            out.writeUTF(world.getName());
+            original.write(out);
+            current.write(out);
+            (biomes == null ? new BiomeChangeLog() : biomes).write(out);
+        } finally {
+            out.close();
+        }
+
+        journal = file;
+    }
+
+    /**
+     * Read the name of the world that a journal was written for.
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    static String readJournalWorldName(File file) throws IOException {
+        final DataInputStream in = openJournal(file);
+        try {
+            return in.readUTF();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Open a journal and check that it is one.
+     *
+     * @param file
+     * @return stream positioned after the magic number
+     * @throws IOException if the file cannot be read or is not a journal
+     */
+    private static DataInputStream openJournal(File file) throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(file))));
+        if (in.readInt() != JOURNAL_MAGIC) {
+            in.close();
+            throw new IOException("Not a history journal: " + file);
+        }
+        return in;
+    }
+
+    /**
+     * Get the journal that the history was written to.
+     *
+     * @return file or null
+     */
+    File getJournal() {
+        return journal;
+    }
+
+    /**
+     * Drop the history from memory. It has to have been written to a
+     * journal first.
+     */
+    void pageOut() {
+        if (journal == null) {
+            throw new IllegalStateException("The history has not been written to a journal");
+        }
+        if (pagedOutSize >= 0) {
+            return;
+        }
+
+        pagedOutSize = size();
+        original = new BlockChangeLog();
+        current = new BlockChangeLog();
+        biomes = null;
+    }
+
+    /**
+     * Attach a journal whose history has not been read yet.
+     *
+     * @param file
+     * @param size number of changes in the journal
+     */
+    void attachJournal(File file, int size) {
+        journal = file;
+        pagedOutSize = size;
+        original = new BlockChangeLog();
+        current = new BlockChangeLog();
+        biomes = null;
+    }
+
+    /**
+     * Read the history back from the journal, if it was paged out.
+     *
+     * @param biomeTypes the biome types to look up changed biomes in, or null
+     * @throws IOException
+     */
+    void pageIn(BiomeTypes biomeTypes) throws IOException {
+        if (pagedOutSize < 0) {
+            return;
+        }
+
+        final DataInputStream in = openJournal(journal);
+        try {
+            in.readUTF();
+            original = BlockChangeLog.read(in);
+            current = BlockChangeLog.read(in);
+            final BiomeChangeLog biomes = BiomeChangeLog.read(in, biomeTypes);
+            this.biomes = biomes.isEmpty() ? null : biomes;
+        } finally {
+            in.close();
+        }
+        pagedOutSize = -1;
+    }
+
+    /**
+     * Returns whether the history is only in the journal.
+     *
+     * @return
+     */
+    boolean isPagedOut() {
+        return pagedOutSize >= 0;
+    }
+
+    private void checkPagedIn() {
+        if (pagedOutSize >= 0) {
+            throw new IllegalStateException("The history of this session is paged out");
+        }
     }
 
     /**
@@ -486,6 +1091,44 @@ public void disableQueue() {
         queued = false;
     }
 
+    /**
+     * Get the listener that lazy copies of the world of this session are
+     * registered with.
+     *
+     * @return
+     */
+    LazyCopyListener getLazyCopyListener() {
+        return lazyCopies;
+    }
+
+    /**
+     * Returns whether reads go through the chunk section cache.
+     *
+     * @return
+     */
+    public boolean isReadCacheEnabled() {
+        return readCache != null;
+    }
+
+    /**
+     * Keep the chunk sections that blocks are read from, so that reading
+     * blocks again does not have to go to the world. Blocks that this
+     * session sets are kept up to date in the cache; other changes to the
+     * world are only seen after the queue is flushed, which empties it.
+     */
+    public void enableReadCache() {
+        if (readCache == null && world != null) {
+            readCache = new ChunkSectionCache(world);
+        }
+    }
+
+    /**
+     * Stop caching chunk sections and forget the ones that were read.
+     */
+    public void disableReadCache() {
+        readCache = null;
+    }
+
     /**
      * Set fast mode.
      *
@@ -529,36 +1172,22 @@ public boolean setChanceBlockIfAir(Vector pos, BaseBlock block, double c)
      * @return
      */
     public int countBlocks(Region region, Set<Integer> searchIDs) {
-        int count = 0;
-
-        if (region instanceof CuboidRegion) {
-            // Doing this for speed
-            Vector min = region.getMinimumPoint();
-            Vector max = region.getMaximumPoint();
-
-            int minX = min.getBlockX();
-            int minY = min.getBlockY();
-            int minZ = min.getBlockZ();
-            int maxX = max.getBlockX();
-            int maxY = max.getBlockY();
-            int maxZ = max.getBlockZ();
-
-            for (int x = minX; x <= maxX; ++x) {
-                for (int y = minY; y <= maxY; ++y) {
-                    for (int z = minZ; z <= maxZ; ++z) {
-                        Vector pt = new Vector(x, y, z);
+        return countBlocks(countBlockTypes(region), searchIDs);
+    }
 
-                        if (searchIDs.contains(getBlockType(pt))) {
-                            ++count;
-                        }
-                    }
-                }
-            }
-        } else {
-            for (Vector pt : region) {
-                if (searchIDs.contains(getBlockType(pt))) {
-                    ++count;
-                }
+    /**
+     * Count the number of blocks of a list of types from the number of
+     * blocks of every type.
+     *
+     * @param histogram the number of blocks, indexed by block type
+     * @param searchIDs
+     * @return
+     */
+    public static int countBlocks(int[] histogram, Set<Integer> searchIDs) {
+        int count = 0;
+        for (int id : searchIDs) {
+            if (id >= 0 && id < histogram.length) {
+                count += histogram[id];
             }
         }
 
@@ -591,8 +1220,7 @@ public int getHighestTerrainBlock(int x, int z, int minY, int maxY) {
      */
     public int getHighestTerrainBlock(int x, int z, int minY, int maxY, boolean naturalOnly) {
         for (int y = maxY; y >= minY; --y) {
-            Vector pt = new Vector(x, y, z);
-            int id = getBlockType(pt);
+            int id = getBlockType(x, y, z);
             if (naturalOnly ? BlockType.isNaturalTerrainBlock(id) : !BlockType.canPassThrough(id)) {
                 return y;
             }
@@ -654,12 +1282,36 @@ public Mask getMask() {
     }
 
     /**
-     * Set a mask.
+     * Set a mask. The mask is compiled right away, so it has to be prepared
+     * before it is set.
      *
      * @param mask mask or null
      */
     public void setMask(Mask mask) {
         this.mask = mask;
+        compiledMask = mask == null ? null : MaskCompiler.compile(mask);
+    }
+
+    /**
+     * Place the blocks of the queue that do not depend on other blocks.
+     * Blocks that need to be placed last, or that attach to other blocks,
+     * stay queued until {@link #flushQueue()} is called, so this can be
+     * called repeatedly while an operation is still in progress.
+     */
+    public void flushPartialQueue() {
+        if (!queued || queueAfter.isEmpty()) {
+            clearReadCache();
+            return;
+        }
+
+        final Set<BlockVector2D> dirtyChunks = new HashSet<BlockVector2D>();
+
+        rawSetBlocks(queueAfter, dirtyChunks);
+
+        if (!dirtyChunks.isEmpty()) world.fixAfterFastMode(dirtyChunks);
+
+        queueAfter.clear();
+        clearReadCache();
     }
 
     /**
@@ -667,40 +1319,26 @@ public void setMask(Mask mask) {
      */
     public void flushQueue() {
         if (!queued) {
+            clearReadCache();
             return;
         }
 
         final Set<BlockVector2D> dirtyChunks = new HashSet<BlockVector2D>();
 
-        for (Map.Entry<BlockVector, BaseBlock> entry : queueAfter) {
-            BlockVector pt = entry.getKey();
-            rawSetBlock(pt, entry.getValue());
-
-            // TODO: use ChunkStore.toChunk(pt) after optimizing it.
-            if (fastMode) {
-                dirtyChunks.add(new BlockVector2D(pt.getBlockX() >> 4, pt.getBlockZ() >> 4));
-            }
-        }
+        rawSetBlocks(queueAfter, dirtyChunks);
 
         // We don't want to place these blocks if other blocks were missing
         // because it might cause the items to drop
         if (blockBag == null || missingBlocks.size() == 0) {
-            for (Map.Entry<BlockVector, BaseBlock> entry : queueLast) {
-                BlockVector pt = entry.getKey();
-                rawSetBlock(pt, entry.getValue());
-
-                // TODO: use ChunkStore.toChunk(pt) after optimizing it.
-                if (fastMode) {
-                    dirtyChunks.add(new BlockVector2D(pt.getBlockX() >> 4, pt.getBlockZ() >> 4));
-                }
-            }
+            rawSetBlocks(queueLast, dirtyChunks);
 
             final Set<BlockVector> blocks = new HashSet<BlockVector>();
             final Map<BlockVector, BaseBlock> blockTypes = new HashMap<BlockVector, BaseBlock>();
-            for (Map.Entry<BlockVector, BaseBlock> entry : queueFinal) {
-                final BlockVector pt = entry.getKey();
+            final BlockChangeLog.Cursor finalCursor = queueFinal.forwardCursor();
+            while (finalCursor.next()) {
+                final BlockVector pt = finalCursor.getPosition();
                 blocks.add(pt);
-                blockTypes.put(pt, entry.getValue());
+                blockTypes.put(pt, finalCursor.getBlock());
             }
 
             while (!blocks.isEmpty()) {
@@ -769,6 +1407,17 @@ public void flushQueue() {
         queueAfter.clear();
         queueLast.clear();
         queueFinal.clear();
+        clearReadCache();
+    }
+
+    /**
+     * Forget the cached chunk sections, since the blocks that were set may
+     * have changed other blocks around them.
+     */
+    private void clearReadCache() {
+        if (readCache != null) {
+            readCache.clear();
+        }
     }
 
     /**
@@ -784,96 +1433,7 @@ public void flushQueue() {
      */
     public int fillXZ(Vector origin, BaseBlock block, double radius, int depth,
             boolean recursive) throws MaxChangedBlocksException {
-
-        int affected = 0;
-        int originX = origin.getBlockX();
-        int originY = origin.getBlockY();
-        int originZ = origin.getBlockZ();
-
-        HashSet<BlockVector> visited = new HashSet<BlockVector>();
-        Stack<BlockVector> queue = new Stack<BlockVector>();
-
-        queue.push(new BlockVector(originX, originY, originZ));
-
-        while (!queue.empty()) {
-            BlockVector pt = queue.pop();
-            int cx = pt.getBlockX();
-            int cy = pt.getBlockY();
-            int cz = pt.getBlockZ();
-
-            if (cy < 0 || cy > originY || visited.contains(pt)) {
-                continue;
-            }
-
-            visited.add(pt);
-
-            if (recursive) {
-                if (origin.distance(pt) > radius) {
-                    continue;
-                }
-
-                if (getBlock(pt).isAir()) {
-                    if (setBlock(pt, block)) {
-                        ++affected;
-                    }
-                } else {
-                    continue;
-                }
-
-                queue.push(new BlockVector(cx, cy - 1, cz));
-                queue.push(new BlockVector(cx, cy + 1, cz));
-            } else {
-                double dist = Math.sqrt(Math.pow(originX - cx, 2)
-                        + Math.pow(originZ - cz, 2));
-                int minY = originY - depth + 1;
-
-                if (dist > radius) {
-                    continue;
-                }
-
-                if (getBlock(pt).isAir()) {
-                    affected += fillY(cx, originY, cz, block, minY);
-                } else {
-                    continue;
-                }
-            }
-
-            queue.push(new BlockVector(cx + 1, cy, cz));
-            queue.push(new BlockVector(cx - 1, cy, cz));
-            queue.push(new BlockVector(cx, cy, cz + 1));
-            queue.push(new BlockVector(cx, cy, cz - 1));
-        }
-
-        return affected;
-    }
-
-    /**
-     * Recursively fills a block and below until it hits another block.
-     *
-     * @param x
-     * @param cy
-     * @param z
-     * @param block
-     * @param minY
-     * @throws MaxChangedBlocksException
-     * @return
-     */
-    private int fillY(int x, int cy, int z, BaseBlock block, int minY)
-            throws MaxChangedBlocksException {
-        int affected = 0;
-
-        for (int y = cy; y >= minY; --y) {
-            Vector pt = new Vector(x, y, z);
-
-            if (getBlock(pt).isAir()) {
-                setBlock(pt, block);
-                ++affected;
-            } else {
-                break;
-            }
-        }
-
-        return affected;
+        return fillXZ(origin, new SingleBlockPattern(block), radius, depth, recursive);
     }
 
     /**
@@ -887,69 +1447,45 @@ private int fillY(int x, int cy, int z, BaseBlock block, int minY)
      * @return number of blocks affected
      * @throws MaxChangedBlocksException
      */
-    public int fillXZ(Vector origin, Pattern pattern, double radius, int depth,
-            boolean recursive) throws MaxChangedBlocksException {
-
-        int affected = 0;
-        int originX = origin.getBlockX();
-        int originY = origin.getBlockY();
-        int originZ = origin.getBlockZ();
-
-        HashSet<BlockVector> visited = new HashSet<BlockVector>();
-        Stack<BlockVector> queue = new Stack<BlockVector>();
-
-        queue.push(new BlockVector(originX, originY, originZ));
-
-        while (!queue.empty()) {
-            BlockVector pt = queue.pop();
-            int cx = pt.getBlockX();
-            int cy = pt.getBlockY();
-            int cz = pt.getBlockZ();
-
-            if (cy < 0 || cy > originY || visited.contains(pt)) {
-                continue;
-            }
-
-            visited.add(pt);
-
-            if (recursive) {
-                if (origin.distance(pt) > radius) {
-                    continue;
-                }
+    public int fillXZ(Vector origin, final Pattern pattern, double radius, final int depth,
+            final boolean recursive) throws MaxChangedBlocksException {
+        final int originX = origin.getBlockX();
+        final int originY = origin.getBlockY();
+        final int originZ = origin.getBlockZ();
+
+        final FloodFill fill = new FloodFill(this,
+                recursive ? FloodFill.Connectivity.FACES : FloodFill.Connectivity.HORIZONTAL,
+                new FloodFill.TypeFilter() {
+                    public boolean matches(int type) {
+                        return type == BlockID.AIR;
+                    }
+                });
+        fill.setBounds(new Vector(Integer.MIN_VALUE, 0, Integer.MIN_VALUE),
+                new Vector(Integer.MAX_VALUE, originY, Integer.MAX_VALUE));
+        if (recursive) {
+            fill.setRadius(origin, radius);
+        } else {
+            // Only the distance along X/Z counts
+            fill.setRadius(new Vector(originX, originY, originZ), radius);
+        }
+        fill.addSeed(originX, originY, originZ);
 
-                if (getBlock(pt).isAir()) {
+        final int[] affected = new int[1];
+        fill.fill(new FloodFill.Visitor() {
+            public boolean visit(int x, int y, int z) throws MaxChangedBlocksException {
+                if (recursive) {
+                    final Vector pt = new Vector(x, y, z);
                     if (setBlock(pt, pattern.next(pt))) {
-                        ++affected;
+                        ++affected[0];
                     }
                 } else {
-                    continue;
-                }
-
-                queue.push(new BlockVector(cx, cy - 1, cz));
-                queue.push(new BlockVector(cx, cy + 1, cz));
-            } else {
-                double dist = Math.sqrt(Math.pow(originX - cx, 2)
-                        + Math.pow(originZ - cz, 2));
-                int minY = originY - depth + 1;
-
-                if (dist > radius) {
-                    continue;
-                }
-
-                if (getBlock(pt).isAir()) {
-                    affected += fillY(cx, originY, cz, pattern, minY);
-                } else {
-                    continue;
+                    affected[0] += fillY(x, originY, z, pattern, originY - depth + 1);
                 }
+                return true;
             }
+        });
 
-            queue.push(new BlockVector(cx + 1, cy, cz));
-            queue.push(new BlockVector(cx - 1, cy, cz));
-            queue.push(new BlockVector(cx, cy, cz + 1));
-            queue.push(new BlockVector(cx, cy, cz - 1));
-        }
-
-        return affected;
+        return affected[0];
     }
 
     /**
@@ -1099,40 +1635,7 @@ public int removeNear(Vector pos, int blockType, int size)
      */
     public int setBlocks(Region region, BaseBlock block)
             throws MaxChangedBlocksException {
-        int affected = 0;
-
-        if (region instanceof CuboidRegion) {
-            // Doing this for speed
-            Vector min = region.getMinimumPoint();
-            Vector max = region.getMaximumPoint();
-
-            int minX = min.getBlockX();
-            int minY = min.getBlockY();
-            int minZ = min.getBlockZ();
-            int maxX = max.getBlockX();
-            int maxY = max.getBlockY();
-            int maxZ = max.getBlockZ();
-
-            for (int x = minX; x <= maxX; ++x) {
-                for (int y = minY; y <= maxY; ++y) {
-                    for (int z = minZ; z <= maxZ; ++z) {
-                        Vector pt = new Vector(x, y, z);
-
-                        if (setBlock(pt, block)) {
-                            ++affected;
-                        }
-                    }
-                }
-            }
-        } else {
-            for (Vector pt : region) {
-                if (setBlock(pt, block)) {
-                    ++affected;
-                }
-            }
-        }
-
-        return affected;
+        return setBlocks(region, new SingleBlockPattern(block));
     }
 
     /**
@@ -1147,32 +1650,36 @@ public int setBlocks(Region region, Pattern pattern)
             throws MaxChangedBlocksException {
         int affected = 0;
 
-        if (region instanceof CuboidRegion) {
-            // Doing this for speed
-            Vector min = region.getMinimumPoint();
-            Vector max = region.getMaximumPoint();
+        final CompiledPattern compiled = PatternCompiler.compile(pattern);
+        int[] types = new int[0];
+        byte[] data = new byte[0];
 
-            int minX = min.getBlockX();
-            int minY = min.getBlockY();
-            int minZ = min.getBlockZ();
-            int maxX = max.getBlockX();
-            int maxY = max.getBlockY();
-            int maxZ = max.getBlockZ();
+        SpanIterator spans = region.spanIterator();
+        while (spans.next()) {
+            final int y = spans.getY();
+            final int z = spans.getZ();
 
-            for (int x = minX; x <= maxX; ++x) {
-                for (int y = minY; y <= maxY; ++y) {
-                    for (int z = minZ; z <= maxZ; ++z) {
-                        Vector pt = new Vector(x, y, z);
+            if (compiled == null) {
+                for (int x = spans.getMinX(); x <= spans.getMaxX(); ++x) {
+                    Vector pt = new Vector(x, y, z);
 
-                        if (setBlock(pt, pattern.next(pt))) {
-                            ++affected;
-                        }
+                    if (setBlock(pt, pattern.next(pt))) {
+                        ++affected;
                     }
                 }
+                continue;
             }
-        } else {
-            for (Vector pt : region) {
-                if (setBlock(pt, pattern.next(pt))) {
+
+            final int minX = spans.getMinX();
+            final int length = spans.getMaxX() - minX + 1;
+            if (types.length < length) {
+                types = new int[length];
+                data = new byte[length];
+            }
+
+            compiled.fill(minX, y, z, length, types, data);
+            for (int i = 0; i < length; ++i) {
+                if (setBlock(minX + i, y, z, types[i], data[i])) {
                     ++affected;
                 }
             }
@@ -1206,44 +1713,12 @@ public int replaceBlocks(Region region, Set<BaseBlock> fromBlockTypes, BaseBlock
 
         int affected = 0;
 
-        if (region instanceof CuboidRegion) {
-            // Doing this for speed
-            Vector min = region.getMinimumPoint();
-            Vector max = region.getMaximumPoint();
-
-            int minX = min.getBlockX();
-            int minY = min.getBlockY();
-            int minZ = min.getBlockZ();
-            int maxX = max.getBlockX();
-            int maxY = max.getBlockY();
-            int maxZ = max.getBlockZ();
-
-            for (int x = minX; x <= maxX; ++x) {
-                for (int y = minY; y <= maxY; ++y) {
-                    for (int z = minZ; z <= maxZ; ++z) {
-                        Vector pt = new Vector(x, y, z);
-                        BaseBlock curBlockType = getBlock(pt);
-
-                        if (fromBlockTypes == null) {
-                            //replace <to-block>
-                            if (curBlockType.isAir()) {
-                                continue;
-                            }
-                        } else {
-                            //replace <from-block> <to-block>
-                            if (!definiteBlockTypes.contains(curBlockType) && !fuzzyBlockTypes.contains(curBlockType.getType())) {
-                                continue;
-                            }
-                        }
-
-                        if (setBlock(pt, toBlock)) {
-                            ++affected;
-                        }
-                    }
-                }
-            }
-        } else {
-            for (Vector pt : region) {
+        SpanIterator spans = region.spanIterator();
+        while (spans.next()) {
+            final int y = spans.getY();
+            final int z = spans.getZ();
+            for (int x = spans.getMinX(); x <= spans.getMaxX(); ++x) {
+                Vector pt = new Vector(x, y, z);
                 BaseBlock curBlockType = getBlock(pt);
 
                 if (fromBlockTypes == null) {
@@ -1291,44 +1766,12 @@ public int replaceBlocks(Region region, Set<BaseBlock> fromBlockTypes, Pattern p
 
         int affected = 0;
 
-        if (region instanceof CuboidRegion) {
-            // Doing this for speed
-            Vector min = region.getMinimumPoint();
-            Vector max = region.getMaximumPoint();
-
-            int minX = min.getBlockX();
-            int minY = min.getBlockY();
-            int minZ = min.getBlockZ();
-            int maxX = max.getBlockX();
-            int maxY = max.getBlockY();
-            int maxZ = max.getBlockZ();
-
-            for (int x = minX; x <= maxX; ++x) {
-                for (int y = minY; y <= maxY; ++y) {
-                    for (int z = minZ; z <= maxZ; ++z) {
-                        Vector pt = new Vector(x, y, z);
-                        BaseBlock curBlockType = getBlock(pt);
-
-                        if (fromBlockTypes == null) {
-                            //replace <to-block>
-                            if (curBlockType.isAir()) {
-                                continue;
-                            }
-                        } else {
-                            //replace <from-block> <to-block>
-                            if (!definiteBlockTypes.contains(curBlockType) && !fuzzyBlockTypes.contains(curBlockType.getType())) {
-                                continue;
-                            }
-                        }
-
-                        if (setBlock(pt, pattern.next(pt))) {
-                            ++affected;
-                        }
-                    }
-                }
-            }
-        } else {
-            for (Vector pt : region) {
+        SpanIterator spans = region.spanIterator();
+        while (spans.next()) {
+            final int y = spans.getY();
+            final int z = spans.getZ();
+            for (int x = spans.getMinX(); x <= spans.getMaxX(); ++x) {
+                Vector pt = new Vector(x, y, z);
                 BaseBlock curBlockType = getBlock(pt);
 
                 if (fromBlockTypes == null) {
@@ -1881,60 +2324,34 @@ public int moveCuboidRegion(Region region, Vector dir, int distance,
      */
     public int drainArea(Vector pos, double radius)
             throws MaxChangedBlocksException {
-        int affected = 0;
-
-        HashSet<BlockVector> visited = new HashSet<BlockVector>();
-        Stack<BlockVector> queue = new Stack<BlockVector>();
+        final FloodFill fill = new FloodFill(this, FloodFill.Connectivity.CORNERS, new FloodFill.TypeFilter() {
+            public boolean matches(int type) {
+                return type == BlockID.WATER || type == BlockID.STATIONARY_WATER
+                        || type == BlockID.LAVA || type == BlockID.STATIONARY_LAVA;
+            }
+        });
+        fill.setRadius(pos, radius);
 
         for (int x = pos.getBlockX() - 1; x <= pos.getBlockX() + 1; ++x) {
             for (int z = pos.getBlockZ() - 1; z <= pos.getBlockZ() + 1; ++z) {
                 for (int y = pos.getBlockY() - 1; y <= pos.getBlockY() + 1; ++y) {
-                    queue.push(new BlockVector(x, y, z));
+                    fill.addSeed(x, y, z);
                 }
             }
         }
 
-        while (!queue.empty()) {
-            BlockVector cur = queue.pop();
-
-            int type = getBlockType(cur);
-
-            // Check block type
-            if (type != BlockID.WATER && type != BlockID.STATIONARY_WATER
-                    && type != BlockID.LAVA && type != BlockID.STATIONARY_LAVA) {
-                continue;
-            }
-
-            // Don't want to revisit
-            if (visited.contains(cur)) {
-                continue;
-            }
-
-            visited.add(cur);
-
-            // Check radius
-            if (pos.distance(cur) > radius) {
-                continue;
-            }
-
-            for (int x = cur.getBlockX() - 1; x <= cur.getBlockX() + 1; ++x) {
-                for (int z = cur.getBlockZ() - 1; z <= cur.getBlockZ() + 1; ++z) {
-                    for (int y = cur.getBlockY() - 1; y <= cur.getBlockY() + 1; ++y) {
-                        BlockVector newPos = new BlockVector(x, y, z);
-
-                        if (!cur.equals(newPos)) {
-                            queue.push(newPos);
-                        }
-                    }
+        final BaseBlock air = new BaseBlock(BlockID.AIR);
+        final int[] affected = new int[1];
+        fill.fill(new FloodFill.Visitor() {
+            public boolean visit(int x, int y, int z) throws MaxChangedBlocksException {
+                if (setBlock(new Vector(x, y, z), air)) {
+                    ++affected[0];
                 }
+                return true;
             }
+        });
 
-            if (setBlock(cur, new BaseBlock(BlockID.AIR))) {
-                ++affected;
-            }
-        }
-
-        return affected;
+        return affected[0];
     }
 
     /**
@@ -1947,12 +2364,15 @@ public int drainArea(Vector pos, double radius)
      * @return number of blocks affected
      * @throws MaxChangedBlocksException
      */
-    public int fixLiquid(Vector pos, double radius, int moving, int stationary)
+    public int fixLiquid(final Vector pos, final double radius, final int moving, final int stationary)
             throws MaxChangedBlocksException {
-        int affected = 0;
-
-        HashSet<BlockVector> visited = new HashSet<BlockVector>();
-        Stack<BlockVector> queue = new Stack<BlockVector>();
+        final FloodFill fill = new FloodFill(this, FloodFill.Connectivity.HORIZONTAL, new FloodFill.TypeFilter() {
+            public boolean matches(int type) {
+                return type == moving || type == stationary || type == BlockID.AIR;
+            }
+        });
+        // Blocks just outside of the radius are levelled, but not spread from
+        fill.setRadius(pos, radius + 1);
 
         for (int x = pos.getBlockX() - 1; x <= pos.getBlockX() + 1; ++x) {
             for (int z = pos.getBlockZ() - 1; z <= pos.getBlockZ() + 1; ++z) {
@@ -1961,47 +2381,27 @@ public int fixLiquid(Vector pos, double radius, int moving, int stationary)
 
                     // Check block type
                     if (type == moving || type == stationary) {
-                        queue.push(new BlockVector(x, y, z));
+                        fill.addSeed(x, y, z);
                     }
                 }
             }
         }
 
-        BaseBlock stationaryBlock = new BaseBlock(stationary);
-
-        while (!queue.empty()) {
-            BlockVector cur = queue.pop();
-
-            int type = getBlockType(cur);
-
-            // Check block type
-            if (type != moving && type != stationary && type != BlockID.AIR) {
-                continue;
-            }
-
-            // Don't want to revisit
-            if (visited.contains(cur)) {
-                continue;
-            }
-
-            visited.add(cur);
-
-            if (setBlock(cur, stationaryBlock)) {
-                ++affected;
-            }
+        final BaseBlock stationaryBlock = new BaseBlock(stationary);
+        final int[] affected = new int[1];
+        fill.fill(new FloodFill.Visitor() {
+            public boolean visit(int x, int y, int z) throws MaxChangedBlocksException {
+                final Vector cur = new Vector(x, y, z);
+                if (setBlock(cur, stationaryBlock)) {
+                    ++affected[0];
+                }
 
-            // Check radius
-            if (pos.distance(cur) > radius) {
-                continue;
+                // Check radius
+                return pos.distance(cur) <= radius;
             }
+        });
 
-            queue.push(cur.add(1, 0, 0).toBlockVector());
-            queue.push(cur.add(-1, 0, 0).toBlockVector());
-            queue.push(cur.add(0, 0, 1).toBlockVector());
-            queue.push(cur.add(0, 0, -1).toBlockVector());
-        }
-
-        return affected;
+        return affected[0];
     }
 
     /**
@@ -2056,6 +2456,11 @@ public int makeCylinder(Vector pos, Pattern block, double radiusX, double radius
         final int ceilRadiusX = (int) Math.ceil(radiusX);
         final int ceilRadiusZ = (int) Math.ceil(radiusZ);
 
+        final CompiledPattern compiled = PatternCompiler.compile(block);
+        final int centerX = pos.getBlockX();
+        final int centerY = pos.getBlockY();
+        final int centerZ = pos.getBlockZ();
+
         double nextXn = 0;
         forX: for (int x = 0; x <= ceilRadiusX; ++x) {
             final double xn = nextXn;
@@ -2080,16 +2485,16 @@ public int makeCylinder(Vector pos, Pattern block, double radiusX, double radius
                 }
 
                 for (int y = 0; y < height; ++y) {
-                    if (setBlock(pos.add(x, y, z), block)) {
+                    if (setBlock(centerX + x, centerY + y, centerZ + z, block, compiled)) {
                         ++affected;
                     }
-                    if (setBlock(pos.add(-x, y, z), block)) {
+                    if (setBlock(centerX - x, centerY + y, centerZ + z, block, compiled)) {
                         ++affected;
                     }
-                    if (setBlock(pos.add(x, y, -z), block)) {
+                    if (setBlock(centerX + x, centerY + y, centerZ - z, block, compiled)) {
                         ++affected;
                     }
-                    if (setBlock(pos.add(-x, y, -z), block)) {
+                    if (setBlock(centerX - x, centerY + y, centerZ - z, block, compiled)) {
                         ++affected;
                     }
                 }
@@ -2136,6 +2541,11 @@ public int makeSphere(Vector pos, Pattern block, double radiusX, double radiusY,
         final double invRadiusY = 1 / radiusY;
         final double invRadiusZ = 1 / radiusZ;
 
+        final CompiledPattern compiled = PatternCompiler.compile(block);
+        final int centerX = pos.getBlockX();
+        final int centerY = pos.getBlockY();
+        final int centerZ = pos.getBlockZ();
+
         final int ceilRadiusX = (int) Math.ceil(radiusX);
         final int ceilRadiusY = (int) Math.ceil(radiusY);
         final int ceilRadiusZ = (int) Math.ceil(radiusZ);
@@ -2170,28 +2580,28 @@ public int makeSphere(Vector pos, Pattern block, double radiusX, double radiusY,
                         }
                     }
 
-                    if (setBlock(pos.add(x, y, z), block)) {
+                    if (setBlock(centerX + x, centerY + y, centerZ + z, block, compiled)) {
                         ++affected;
                     }
-                    if (setBlock(pos.add(-x, y, z), block)) {
+                    if (setBlock(centerX - x, centerY + y, centerZ + z, block, compiled)) {
                         ++affected;
                     }
-                    if (setBlock(pos.add(x, -y, z), block)) {
+                    if (setBlock(centerX + x, centerY - y, centerZ + z, block, compiled)) {
                         ++affected;
                     }
-                    if (setBlock(pos.add(x, y, -z), block)) {
+                    if (setBlock(centerX + x, centerY + y, centerZ - z, block, compiled)) {
                         ++affected;
                     }
-                    if (setBlock(pos.add(-x, -y, z), block)) {
+                    if (setBlock(centerX - x, centerY - y, centerZ + z, block, compiled)) {
                         ++affected;
                     }
-                    if (setBlock(pos.add(x, -y, -z), block)) {
+                    if (setBlock(centerX + x, centerY - y, centerZ - z, block, compiled)) {
                         ++affected;
                     }
-                    if (setBlock(pos.add(-x, y, -z), block)) {
+                    if (setBlock(centerX - x, centerY + y, centerZ - z, block, compiled)) {
                         ++affected;
                     }
-                    if (setBlock(pos.add(-x, -y, -z), block)) {
+                    if (setBlock(centerX - x, centerY - y, centerZ - z, block, compiled)) {
                         ++affected;
                     }
                 }
@@ -2616,61 +3026,96 @@ public int makeForest(Vector basePos, int size, double density,
      * @return
      */
     public List<Countable<Integer>> getBlockDistribution(Region region) {
+        return getBlockDistribution(countBlockTypes(region));
+    }
+
+    /**
+     * Get the block distribution from the number of blocks of every type.
+     *
+     * @param histogram the number of blocks, indexed by block type
+     * @return
+     */
+    public static List<Countable<Integer>> getBlockDistribution(int[] histogram) {
         List<Countable<Integer>> distribution = new ArrayList<Countable<Integer>>();
-        Map<Integer, Countable<Integer>> map = new HashMap<Integer, Countable<Integer>>();
 
-        if (region instanceof CuboidRegion) {
-            // Doing this for speed
-            Vector min = region.getMinimumPoint();
-            Vector max = region.getMaximumPoint();
+        for (int id = 0; id < histogram.length; ++id) {
+            if (histogram[id] > 0) {
+                distribution.add(new Countable<Integer>(id, histogram[id]));
+            }
+        }
 
-            int minX = min.getBlockX();
-            int minY = min.getBlockY();
-            int minZ = min.getBlockZ();
-            int maxX = max.getBlockX();
-            int maxY = max.getBlockY();
-            int maxZ = max.getBlockZ();
+        Collections.sort(distribution);
+        // Collections.reverse(distribution);
 
-            for (int x = minX; x <= maxX; ++x) {
-                for (int y = minY; y <= maxY; ++y) {
-                    for (int z = minZ; z <= maxZ; ++z) {
-                        Vector pt = new Vector(x, y, z);
+        return distribution;
+    }
 
-                        int id = getBlockType(pt);
+    /**
+     * Count the blocks of every type in a region. Large regions are read
+     * from the world as chunk sections, one chunk column at a time, and
+     * counted on worker threads.
+     *
+     * @param region
+     * @return the number of blocks, indexed by block type
+     */
+    private int[] countBlockTypes(Region region) {
+        final int[] histogram = new int[BLOCK_TYPE_COUNT];
 
-                        if (map.containsKey(id)) {
-                            map.get(id).increment();
-                        } else {
-                            Countable<Integer> c = new Countable<Integer>(id, 1);
-                            map.put(id, c);
-                            distribution.add(c);
-                        }
-                    }
+        if (region.getArea() < PARALLEL_EVALUATION_THRESHOLD) {
+            final SpanIterator spans = region.spanIterator();
+            while (spans.next()) {
+                final int y = spans.getY();
+                final int z = spans.getZ();
+                for (int x = spans.getMinX(); x <= spans.getMaxX(); ++x) {
+                    ++histogram[getBlockType(x, y, z)];
                 }
             }
-        } else {
-            for (Vector pt : region) {
-                int id = getBlockType(pt);
 
-                if (map.containsKey(id)) {
-                    map.get(id).increment();
-                } else {
-                    Countable<Integer> c = new Countable<Integer>(id, 1);
-                    map.put(id, c);
+            return histogram;
+        }
+
+        final ChunkColumnExecutor<int[]> columns = countBlockTypesByColumn(region);
+        try {
+            while (columns.hasNext()) {
+                final int[] column = columns.next();
+                for (int id = 0; id < histogram.length; ++id) {
+                    histogram[id] += column[id];
                 }
             }
+        } finally {
+            columns.cancel();
         }
 
-        Collections.sort(distribution);
-        // Collections.reverse(distribution);
+        return histogram;
+    }
 
-        return distribution;
+    /**
+     * Start counting the blocks of every type in a region, one chunk column
+     * at a time. Each call to {@link ChunkColumnExecutor#next()} reads one
+     * more column from the world and returns the counts of an earlier one,
+     * indexed by block type.
+     *
+     * @param region
+     * @return
+     */
+    public ChunkColumnExecutor<int[]> countBlockTypesByColumn(Region region) {
+        return new ChunkColumnExecutor<int[]>(region, new CountColumnTask(world, region));
     }
 
     public int makeShape(final Region region, final Vector zero, final Vector unit, final Pattern pattern, final String expressionString, final boolean hollow) throws ExpressionException, MaxChangedBlocksException {
         final Expression expression = Expression.compile(expressionString, "x", "y", "z", "type", "data");
         expression.optimize();
 
+        if (isParallelEvaluationWorthwhile(region, expression)) {
+            // Other patterns may read the world, so they stay on this thread
+            final CompiledPattern compiled = PatternCompiler.compile(pattern);
+            if (compiled != null && compiled.canFork()) {
+                return makeShapeInParallel(region, zero, unit, compiled, expressionString, hollow);
+            }
+        }
+
+        expression.compileBytecode();
+
         final RValue typeVariable = expression.getVariable("type", false);
         final RValue dataVariable = expression.getVariable("data", false);
 
@@ -2705,34 +3150,58 @@ public int deformRegion(final Region region, final Vector zero, final Vector uni
 
         Vector zero2 = zero.add(0.5, 0.5, 0.5);
 
-        final DoubleArrayList<BlockVector, BaseBlock> queue = new DoubleArrayList<BlockVector, BaseBlock>(false);
-
-        for (BlockVector position : region) {
-            // offset, scale
-            final Vector scaled = position.subtract(zero).divide(unit);
+        final BlockChangeLog queue = new BlockChangeLog();
+
+        if (isParallelEvaluationWorthwhile(region, expression)) {
+            final ChunkColumnExecutor<long[]> columns = new ChunkColumnExecutor<long[]>(region,
+                    new DeformColumnTask(region, zero, unit, expressionString));
+            try {
+                while (columns.hasNext()) {
+                    final long[] mapping = columns.next();
+                    for (int i = 1; i <= (int) mapping[0]; i += 2) {
+                        final long target = mapping[i];
+                        final long source = mapping[i + 1];
+                        final Vector sourcePosition = new Vector(BlockChangeLog.unpackX(source),
+                                BlockChangeLog.unpackY(source), BlockChangeLog.unpackZ(source));
+
+                        queue.add(BlockChangeLog.unpackX(target), BlockChangeLog.unpackY(target), BlockChangeLog.unpackZ(target),
+                                world.getBlockType(sourcePosition), world.getBlockData(sourcePosition));
+                    }
+                }
+            } catch (RuntimeException e) {
+                if (e.getCause() instanceof ExpressionException) {
+                    throw (ExpressionException) e.getCause();
+                }
+                throw e;
+            } finally {
+                columns.cancel();
+            }
+        } else {
+            expression.compileBytecode();
 
-            // transform
-            expression.evaluate(scaled.getX(), scaled.getY(), scaled.getZ());
+            for (BlockVector position : region) {
+                // offset, scale
+                final Vector scaled = position.subtract(zero).divide(unit);
 
-            final Vector sourceScaled = new Vector(x.getValue(), y.getValue(), z.getValue());
+                // transform
+                expression.evaluate(scaled.getX(), scaled.getY(), scaled.getZ());
 
-            // unscale, unoffset, round-nearest
-            final BlockVector sourcePosition = sourceScaled.multiply(unit).add(zero2).toBlockPoint();
+                final Vector sourceScaled = new Vector(x.getValue(), y.getValue(), z.getValue());
 
-            // read block from world
-            BaseBlock material = new BaseBlock(world.getBlockType(sourcePosition), world.getBlockData(sourcePosition));
+                // unscale, unoffset, round-nearest
+                final BlockVector sourcePosition = sourceScaled.multiply(unit).add(zero2).toBlockPoint();
 
-            // queue operation
-            queue.put(position, material);
+                // read block from world and queue operation
+                queue.add(position.getBlockX(), position.getBlockY(), position.getBlockZ(),
+                        world.getBlockType(sourcePosition), world.getBlockData(sourcePosition));
+            }
         }
 
         int affected = 0;
-        for (Map.Entry<BlockVector, BaseBlock> entry : queue) {
-            BlockVector position = entry.getKey();
-            BaseBlock material = entry.getValue();
-
+        final BlockChangeLog.Cursor cursor = queue.forwardCursor();
+        while (cursor.next()) {
             // set at new position
-            if (setBlock(position, material)) {
+            if (setBlock(cursor.getPosition(), cursor.getBlock())) {
                 ++affected;
             }
         }
@@ -2740,14 +3209,321 @@ public int deformRegion(final Region region, final Vector zero, final Vector uni
         return affected;
     }
 
-    Vector[] recurseDirections = {
-        PlayerDirection.NORTH.vector(),
-        PlayerDirection.EAST.vector(),
-        PlayerDirection.SOUTH.vector(),
-        PlayerDirection.WEST.vector(),
-        PlayerDirection.UP.vector(),
-        PlayerDirection.DOWN.vector(),
-    };
+    private static boolean isParallelEvaluationWorthwhile(Region region, Expression expression) {
+        return ChunkColumnExecutor.getParallelism() > 1
+                && !expression.isStateful()
+                && region.getArea() >= PARALLEL_EVALUATION_THRESHOLD;
+    }
+
+    /**
+     * Generates a shape like {@link #makeShape}, evaluating the expression
+     * for each chunk column on a worker thread with its own copy of the
+     * expression and the pattern. Blocks are set on the calling thread.
+     */
+    private int makeShapeInParallel(Region region, Vector zero, Vector unit, CompiledPattern pattern, String expressionString, boolean hollow) throws MaxChangedBlocksException {
+        final ChunkColumnExecutor<BlockChangeLog> columns = new ChunkColumnExecutor<BlockChangeLog>(region,
+                new ShapeColumnTask(region, zero, unit, pattern, expressionString, hollow));
+
+        int affected = 0;
+        try {
+            while (columns.hasNext()) {
+                final BlockChangeLog.Cursor cursor = columns.next().forwardCursor();
+                while (cursor.next()) {
+                    if (setBlock(cursor.getPosition(), cursor.getBlock())) {
+                        ++affected;
+                    }
+                }
+            }
+        } finally {
+            columns.cancel();
+        }
+
+        return affected;
+    }
+
+    /**
+     * Counts the blocks of every type in a chunk column. The sections of the
+     * column are read from the world on the calling thread; blocks above or
+     * below the world are counted as air.
+     */
+    private static class CountColumnTask implements ChunkColumnExecutor.SnapshotTask<int[]> {
+        private final LocalWorld world;
+        private final Region region;
+        private final int minY;
+        private final int maxY;
+        private final int minSectionY;
+        private final int maxSectionY;
+
+        private CountColumnTask(LocalWorld world, Region region) {
+            this.world = world;
+            // The workers walk the region, so they get a copy of their own
+            this.region = region.clone();
+            this.minY = region.getMinimumPoint().getBlockY();
+            this.maxY = region.getMaximumPoint().getBlockY();
+            this.minSectionY = Math.max(0, minY) >> 4;
+            this.maxSectionY = Math.min(world.getMaxY(), maxY) >> 4;
+        }
+
+        public Callable<int[]> snapshot(final int minX, final int minZ, final int maxX, final int maxZ) {
+            final char[][] sections = new char[Math.max(0, maxSectionY - minSectionY + 1)][4096];
+            if (sections.length > 0) {
+                world.getChunkSections(minX >> 4, minZ >> 4, minSectionY, sections);
+            }
+
+            return new Callable<int[]>() {
+                public int[] call() {
+                    final int[] histogram = new int[BLOCK_TYPE_COUNT];
+
+                    final SpanIterator spans = region.spanIterator(
+                            new Vector(minX, minY, minZ), new Vector(maxX, maxY, maxZ));
+                    while (spans.next()) {
+                        final int y = spans.getY();
+                        final int sectionIndex = (y >> 4) - minSectionY;
+                        if (y < 0 || sectionIndex >= sections.length) {
+                            histogram[BlockID.AIR] += spans.getMaxX() - spans.getMinX() + 1;
+                            continue;
+                        }
+
+                        final char[] section = sections[sectionIndex];
+                        final int offset = ((y & 0xF) << 8) | ((spans.getZ() & 0xF) << 4);
+                        for (int x = spans.getMinX(); x <= spans.getMaxX(); ++x) {
+                            ++histogram[section[offset | (x & 0xF)] >> 4];
+                        }
+                    }
+
+                    return histogram;
+                }
+            };
+        }
+    }
+
+    /**
+     * Evaluates a //generate expression for one chunk column. The pattern
+     * is copied for each column on the thread that set up the task, so the
+     * workers only ever see patterns that do not read the world.
+     */
+    private static class ShapeColumnTask implements ChunkColumnExecutor.SnapshotTask<BlockChangeLog> {
+        private final Region region;
+        private final Vector zero;
+        private final Vector unit;
+        private final CompiledPattern pattern;
+        private final String expressionString;
+        private final boolean hollow;
+        private final int minY;
+        private final int maxY;
+        private final ExpressionPool expressions;
+
+        private ShapeColumnTask(Region region, Vector zero, Vector unit, CompiledPattern pattern, String expressionString, boolean hollow) {
+            this.region = region.clone();
+            this.zero = zero;
+            this.unit = unit;
+            this.pattern = pattern;
+            this.expressionString = expressionString;
+            this.hollow = hollow;
+            this.minY = region.getMinimumPoint().getBlockY();
+            this.maxY = region.getMaximumPoint().getBlockY();
+            this.expressions = new ExpressionPool(expressionString, "x", "y", "z", "type", "data");
+        }
+
+        public Callable<BlockChangeLog> snapshot(final int minX, final int minZ, final int maxX, final int maxZ) {
+            final CompiledPattern columnPattern = pattern.fork();
+            return new Callable<BlockChangeLog>() {
+                public BlockChangeLog call() throws ExpressionException {
+                    final Expression expression = expressions.take();
+                    try {
+                        return generate(expression, columnPattern, minX, minZ, maxX, maxZ);
+                    } finally {
+                        expressions.release(expression);
+                    }
+                }
+            };
+        }
+
+        private BlockChangeLog generate(Expression expression, CompiledPattern pattern, int minX, int minZ, int maxX, int maxZ) {
+            final RValue typeVariable = expression.getVariable("type", false);
+            final RValue dataVariable = expression.getVariable("data", false);
+
+            // Materials of the column and the blocks around it, evaluated on demand
+            final int sizeX = maxX - minX + 3;
+            final int sizeY = maxY - minY + 3;
+            final int sizeZ = maxZ - minZ + 3;
+            final BaseBlock[] materials = hollow ? new BaseBlock[sizeX * sizeY * sizeZ] : null;
+            final boolean[] evaluated = hollow ? new boolean[materials.length] : null;
+
+            final BlockChangeLog result = new BlockChangeLog();
+
+            final SpanIterator spans = region.spanIterator(new Vector(minX, minY, minZ), new Vector(maxX, maxY, maxZ));
+            while (spans.next()) {
+                final int y = spans.getY();
+                final int z = spans.getZ();
+                for (int x = spans.getMinX(); x <= spans.getMaxX(); ++x) {
+                    final BaseBlock material;
+                    if (!hollow) {
+                        material = getMaterial(expression, pattern, typeVariable, dataVariable, x, y, z);
+                    } else {
+                        final int index = (x - minX + 1) * sizeY * sizeZ + (y - minY + 1) * sizeZ + (z - minZ + 1);
+                        material = getMaterialCached(materials, evaluated, index, expression, pattern, typeVariable, dataVariable, x, y, z);
+                        if (material == null) {
+                            continue;
+                        }
+
+                        if (getMaterialCached(materials, evaluated, index + sizeY * sizeZ, expression, pattern, typeVariable, dataVariable, x + 1, y, z) != null
+                                && getMaterialCached(materials, evaluated, index - sizeY * sizeZ, expression, pattern, typeVariable, dataVariable, x - 1, y, z) != null
+                                && getMaterialCached(materials, evaluated, index + sizeZ, expression, pattern, typeVariable, dataVariable, x, y + 1, z) != null
+                                && getMaterialCached(materials, evaluated, index - sizeZ, expression, pattern, typeVariable, dataVariable, x, y - 1, z) != null
+                                && getMaterialCached(materials, evaluated, index + 1, expression, pattern, typeVariable, dataVariable, x, y, z + 1) != null
+                                && getMaterialCached(materials, evaluated, index - 1, expression, pattern, typeVariable, dataVariable, x, y, z - 1) != null) {
+                            // Surrounded on all sides
+                            continue;
+                        }
+                    }
+
+                    if (material != null) {
+                        result.add(x, y, z, material);
+                    }
+                }
+            }
+
+            return result;
+        }
+
+        private BaseBlock getMaterialCached(BaseBlock[] materials, boolean[] evaluated, int index,
+                Expression expression, CompiledPattern pattern, RValue typeVariable, RValue dataVariable, int x, int y, int z) {
+            if (!evaluated[index]) {
+                evaluated[index] = true;
+                materials[index] = getMaterial(expression, pattern, typeVariable, dataVariable, x, y, z);
+            }
+
+            return materials[index];
+        }
+
+        private BaseBlock getMaterial(Expression expression, CompiledPattern pattern, RValue typeVariable, RValue dataVariable, int x, int y, int z) {
+            final int defaultMaterial = pattern.next(x, y, z);
+            final Vector scaled = new Vector(x, y, z).subtract(zero).divide(unit);
+
+            try {
+                if (expression.evaluate(scaled.getX(), scaled.getY(), scaled.getZ(), defaultMaterial >> 4, defaultMaterial & 0xF) <= 0) {
+                    return null;
+                }
+
+                return new BaseBlock((int) typeVariable.getValue(), (int) dataVariable.getValue());
+            } catch (Exception e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Evaluates a //deform expression for one chunk column. The result is
+     * an array that starts with the number of values that follow, which are
+     * pairs of packed target and source positions.
+     */
+    private static class DeformColumnTask implements ChunkColumnExecutor.ColumnTask<long[]> {
+        // Sources beyond these lie outside of any world and read as air, but
+        // would not survive packing
+        private static final int MAX_SOURCE_XZ = 32000000;
+        private static final int MAX_SOURCE_Y = 2047;
+
+        private final Region region;
+        private final Vector zero;
+        private final Vector zero2;
+        private final Vector unit;
+        private final int minY;
+        private final int maxY;
+        private final ExpressionPool expressions;
+
+        private DeformColumnTask(Region region, Vector zero, Vector unit, String expressionString) {
+            this.region = region.clone();
+            this.zero = zero;
+            this.zero2 = zero.add(0.5, 0.5, 0.5);
+            this.unit = unit;
+            this.minY = region.getMinimumPoint().getBlockY();
+            this.maxY = region.getMaximumPoint().getBlockY();
+            this.expressions = new ExpressionPool(expressionString, "x", "y", "z");
+        }
+
+        public long[] call(int minX, int minZ, int maxX, int maxZ) throws ExpressionException {
+            final Expression expression = expressions.take();
+            try {
+                return deform(expression, minX, minZ, maxX, maxZ);
+            } finally {
+                expressions.release(expression);
+            }
+        }
+
+        private long[] deform(Expression expression, int minX, int minZ, int maxX, int maxZ) throws ExpressionException {
+            final RValue x = expression.getVariable("x", false);
+            final RValue y = expression.getVariable("y", false);
+            final RValue z = expression.getVariable("z", false);
+
+            long[] mapping = new long[1 + 2 * (maxX - minX + 1) * (maxY - minY + 1) * (maxZ - minZ + 1)];
+            int size = 1;
+
+            final SpanIterator spans = region.spanIterator(new Vector(minX, minY, minZ), new Vector(maxX, maxY, maxZ));
+            while (spans.next()) {
+                final int py = spans.getY();
+                final int pz = spans.getZ();
+                for (int px = spans.getMinX(); px <= spans.getMaxX(); ++px) {
+                    // offset, scale
+                    final Vector scaled = new Vector(px, py, pz).subtract(zero).divide(unit);
+
+                    // transform
+                    expression.evaluate(scaled.getX(), scaled.getY(), scaled.getZ());
+
+                    final Vector sourceScaled = new Vector(x.getValue(), y.getValue(), z.getValue());
+
+                    // unscale, unoffset, round-nearest
+                    final BlockVector sourcePosition = sourceScaled.multiply(unit).add(zero2).toBlockPoint();
+
+                    mapping[size++] = BlockChangeLog.pack(px, py, pz);
+                    mapping[size++] = BlockChangeLog.pack(
+                            clamp(sourcePosition.getBlockX(), MAX_SOURCE_XZ),
+                            clamp(sourcePosition.getBlockY(), MAX_SOURCE_Y),
+                            clamp(sourcePosition.getBlockZ(), MAX_SOURCE_XZ));
+                }
+            }
+
+            mapping[0] = size - 1;
+            return mapping;
+        }
+
+        private static int clamp(int value, int limit) {
+            return Math.max(-limit, Math.min(limit, value));
+        }
+    }
+
+    /**
+     * Compiled copies of an expression for the columns of one operation.
+     * Each column takes a copy that no other column uses at the same time
+     * and hands it back when it is done, so an expression is compiled at
+     * most once per worker thread, and the copies are dropped with the
+     * operation.
+     */
+    private static class ExpressionPool {
+        private final String expressionString;
+        private final String[] variableNames;
+        private final ConcurrentLinkedQueue<Expression> idle = new ConcurrentLinkedQueue<Expression>();
+
+        private ExpressionPool(String expressionString, String... variableNames) {
+            this.expressionString = expressionString;
+            this.variableNames = variableNames;
+        }
+
+        private Expression take() throws ExpressionException {
+            Expression expression = idle.poll();
+            if (expression == null) {
+                expression = Expression.compile(expressionString, variableNames);
+                expression.optimize();
+                expression.compileBytecode();
+            }
+            return expression;
+        }
+
+        private void release(Expression expression) {
+            idle.add(expression);
+        }
+    }
 
     /**
      * Hollows out the region (Semi-well-defined for non-cuboid selections).
@@ -2762,8 +3538,6 @@ public int deformRegion(final Region region, final Vector zero, final Vector uni
     public int hollowOutRegion(Region region, int thickness, Pattern pattern) throws MaxChangedBlocksException {
         int affected = 0;
 
-        final Set<BlockVector> outside = new HashSet<BlockVector>();
-
         final Vector min = region.getMinimumPoint();
         final Vector max = region.getMaximumPoint();
 
@@ -2774,81 +3548,75 @@ public int hollowOutRegion(Region region, int thickness, Pattern pattern) throws
         final int maxY = max.getBlockY();
         final int maxZ = max.getBlockZ();
 
+        // The sets cover the bounding box and the blocks around it
+        final Vector outerMin = min.subtract(1, 1, 1);
+        final Vector outerMax = max.add(1, 1, 1);
+
+        final BitVolume inside = new BitVolume(outerMin, outerMax);
+        final SpanIterator spans = region.spanIterator();
+        while (spans.next()) {
+            inside.setRun(spans.getY(), spans.getZ(), spans.getMinX(), spans.getMaxX());
+        }
+
+        // Walk the passable blocks that can be reached from the sides of the
+        // region; the ones just outside of it are remembered, but not walked from
+        final BitVolume outside = new BitVolume(outerMin, outerMax);
+        final FloodFill fill = new FloodFill(this, FloodFill.Connectivity.FACES, new FloodFill.TypeFilter() {
+            public boolean matches(int type) {
+                return BlockType.canPassThrough(type);
+            }
+        });
+        fill.setBounds(outerMin, outerMax);
+
         for (int x = minX; x <= maxX; ++x) {
             for (int y = minY; y <= maxY; ++y) {
-                recurseHollow(region, new BlockVector(x, y, minZ), outside);
-                recurseHollow(region, new BlockVector(x, y, maxZ), outside);
+                fill.addSeed(x, y, minZ);
+                fill.addSeed(x, y, maxZ);
             }
         }
 
         for (int y = minY; y <= maxY; ++y) {
             for (int z = minZ; z <= maxZ; ++z) {
-                recurseHollow(region, new BlockVector(minX, y, z), outside);
-                recurseHollow(region, new BlockVector(maxX, y, z), outside);
+                fill.addSeed(minX, y, z);
+                fill.addSeed(maxX, y, z);
             }
         }
 
         for (int z = minZ; z <= maxZ; ++z) {
             for (int x = minX; x <= maxX; ++x) {
-                recurseHollow(region, new BlockVector(x, minY, z), outside);
-                recurseHollow(region, new BlockVector(x, maxY, z), outside);
+                fill.addSeed(x, minY, z);
+                fill.addSeed(x, maxY, z);
             }
         }
 
-        for (int i = 1; i < thickness; ++i) {
-            final Set<BlockVector> newOutside = new HashSet<BlockVector>();
-            outer: for (BlockVector position : region) {
-                for (Vector recurseDirection: recurseDirections) {
-                    BlockVector neighbor = position.add(recurseDirection).toBlockVector();
-
-                    if (outside.contains(neighbor)) {
-                        newOutside.add(position);
-                        continue outer;
-                    }
-                }
+        fill.fill(new FloodFill.Visitor() {
+            public boolean visit(int x, int y, int z) {
+                outside.set(x, y, z);
+                return inside.get(x, y, z);
             }
+        });
 
-            outside.addAll(newOutside);
+        // Every pass grows the outside by one block into the region
+        for (int i = 1; i < thickness; ++i) {
+            if (!outside.dilate(inside)) {
+                break;
+            }
         }
 
-        outer: for (BlockVector position : region) {
-            for (Vector recurseDirection: recurseDirections) {
-                BlockVector neighbor = position.add(recurseDirection).toBlockVector();
+        // Fill what is left of the region that does not touch the outside
+        inside.andNot(outside.getAdjacent());
 
-                if (outside.contains(neighbor)) {
-                    continue outer;
+        for (int y = minY; y <= maxY; ++y) {
+            for (int z = minZ; z <= maxZ; ++z) {
+                for (int x = inside.nextSetX(y, z, minX); x <= maxX; x = inside.nextSetX(y, z, x + 1)) {
+                    final Vector position = new Vector(x, y, z);
+                    if (setBlock(position, pattern.next(position))) {
+                        ++affected;
+                    }
                 }
             }
-
-            if (setBlock(position, pattern.next(position))) {
-                ++affected;
-            }
         }
 
         return affected;
     }
-
-    private void recurseHollow(Region region, BlockVector origin, Set<BlockVector> outside) {
-        final LinkedList<BlockVector> queue = new LinkedList<BlockVector>();
-        queue.addLast(origin);
-
-        while (!queue.isEmpty()) {
-            final BlockVector current = queue.removeFirst();
-            if (!BlockType.canPassThrough(getBlockType(current))) {
-                continue;
-            }
-
-            if (!outside.add(current)) {
-                continue;
-            }
-
-            if (!region.contains(current)) {
-                continue;
-            }
-
-            for (Vector recurseDirection: recurseDirections) {
-                queue.addLast(current.add(recurseDirection).toBlockVector());
-            }
-        } // while
-    }
 }
@@ -19,10 +19,13 @@
 
 package com.sk89q.worldedit;
 
-import com.sk89q.worldedit.blocks.BaseBlock;
+import java.util.concurrent.Callable;
+
 import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.blocks.BlockType;
 import com.sk89q.worldedit.filtering.HeightMapFilter;
 import com.sk89q.worldedit.regions.Region;
+import com.sk89q.worldedit.util.ChunkColumnExecutor;
 
 /**
  * Allows applications of Kernels onto the region's heightmap.
@@ -32,6 +35,12 @@
  */
 
 public class HeightMap {
+    /**
+     * Heightmaps of regions with at least this many blocks are read from the
+     * world as chunk sections, one chunk column at a time.
+     */
+    private static final int BULK_READ_THRESHOLD = 32768;
+
     private int[] data;
     private int width;
     private int height;
@@ -70,9 +79,21 @@ public HeightMap(EditSession session, Region region, boolean naturalOnly) {
 
         // Store current heightmap data
         data = new int[width * height];
-        for (int z = 0; z < height; ++z) {
-            for (int x = 0; x < width; ++x) {
-                data[z * width + x] = session.getHighestTerrainBlock(x + minX, z + minZ, minY, maxY, naturalOnly);
+        if (session.getWorld() != null && (long) width * height * (maxY - minY + 1) >= BULK_READ_THRESHOLD) {
+            final ChunkColumnExecutor<Void> columns = new ChunkColumnExecutor<Void>(region,
+                    new HeightColumnTask(session.getWorld(), data, width, minX, minY, minZ, maxY, naturalOnly));
+            try {
+                while (columns.hasNext()) {
+                    columns.next();
+                }
+            } finally {
+                columns.cancel();
+            }
+        } else {
+            for (int z = 0; z < height; ++z) {
+                for (int x = 0; x < width; ++x) {
+                    data[z * width + x] = session.getHighestTerrainBlock(x + minX, z + minZ, minY, maxY, naturalOnly);
+                }
             }
         }
     }
@@ -98,7 +119,9 @@ public int applyFilter(HeightMapFilter filter, int iterations) throws MaxChanged
     }
 
     /**
-     * Apply a raw heightmap to the region
+     * Apply a raw heightmap to the region. Only columns whose height changes
+     * are touched, and blocks that already are what they would be set to are
+     * left alone.
      * 
      * @param data
      * @return number of blocks affected
@@ -112,7 +135,6 @@ public int apply(int[] data) throws MaxChangedBlocksException {
         int originZ = minY.getBlockZ();
 
         int maxY = region.getMaximumPoint().getBlockY();
-        BaseBlock fillerAir = new BaseBlock(BlockID.AIR);
 
         int blocksChanged = 0;
 
@@ -135,38 +157,43 @@ public int apply(int[] data) throws MaxChangedBlocksException {
                 // Depending on growing or shrinking we need to start at the bottom or top
                 if (newHeight > curHeight) {
                     // Set the top block of the column to be the same type (this might go wrong with rounding)
-                    BaseBlock existing = session.getBlock(new Vector(X, curHeight, Z));
+                    int existing = session.getBlockType(X, curHeight, Z);
 
                     // Skip water/lava
-                    if (existing.getType() != BlockID.WATER && existing.getType() != BlockID.STATIONARY_WATER
-                            && existing.getType() != BlockID.LAVA && existing.getType() != BlockID.STATIONARY_LAVA) {
-                        session.setBlock(new Vector(X, newHeight, Z), existing);
-                        ++blocksChanged;
+                    if (existing != BlockID.WATER && existing != BlockID.STATIONARY_WATER
+                            && existing != BlockID.LAVA && existing != BlockID.STATIONARY_LAVA) {
+                        if (copyBlock(X, curHeight, newHeight, Z)) {
+                            ++blocksChanged;
+                        }
 
                         // Grow -- start from 1 below top replacing airblocks
                         for (int y = newHeight - 1 - originY; y >= 0; --y) {
                             int copyFrom = (int) (y * scale);
-                            session.setBlock(new Vector(X, originY + y, Z), session.getBlock(new Vector(X, originY + copyFrom, Z)));
-                            ++blocksChanged;
+                            if (copyBlock(X, originY + copyFrom, originY + y, Z)) {
+                                ++blocksChanged;
+                            }
                         }
                     }
                 } else if (curHeight > newHeight) {
                     // Shrink -- start from bottom
                     for (int y = 0; y < newHeight - originY; ++y) {
                         int copyFrom = (int) (y * scale);
-                        session.setBlock(new Vector(X, originY + y, Z), session.getBlock(new Vector(X, originY + copyFrom, Z)));
-                        ++blocksChanged;
+                        if (copyBlock(X, originY + copyFrom, originY + y, Z)) {
+                            ++blocksChanged;
+                        }
                     }
 
                     // Set the top block of the column to be the same type
                     // (this could otherwise go wrong with rounding)
-                    session.setBlock(new Vector(X, newHeight, Z), session.getBlock(new Vector(X, curHeight, Z)));
-                    ++blocksChanged;
+                    if (copyBlock(X, curHeight, newHeight, Z)) {
+                        ++blocksChanged;
+                    }
 
                     // Fill rest with air
                     for (int y = newHeight + 1; y <= curHeight; ++y) {
-                        session.setBlock(new Vector(X, y, Z), fillerAir);
-                        ++blocksChanged;
+                        if (setBlock(X, y, Z, BlockID.AIR, 0)) {
+                            ++blocksChanged;
+                        }
                     }
                 }
             }
@@ -176,4 +203,115 @@ public int apply(int[] data) throws MaxChangedBlocksException {
 
         return blocksChanged;
     }
+
+    /**
+     * Copy a block within a column.
+     *
+     * @param x
+     * @param fromY
+     * @param toY
+     * @param z
+     * @return whether a block was set
+     * @throws MaxChangedBlocksException
+     */
+    private boolean copyBlock(int x, int fromY, int toY, int z) throws MaxChangedBlocksException {
+        if (fromY == toY) {
+            return false;
+        }
+
+        int type = session.getBlockType(x, fromY, z);
+        if (BlockType.fromID(type) == null || BlockType.hasTileEntity(type)) {
+            session.setBlock(new Vector(x, toY, z), session.getBlock(new Vector(x, fromY, z)));
+            return true;
+        }
+
+        return setBlock(x, toY, z, type, session.getBlockData(x, fromY, z));
+    }
+
+    /**
+     * Set a block without extra state, unless it is already there.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @param type
+     * @param data
+     * @return whether a block was set
+     * @throws MaxChangedBlocksException
+     */
+    private boolean setBlock(int x, int y, int z, int type, int data) throws MaxChangedBlocksException {
+        if (session.getBlockType(x, y, z) == type && session.getBlockData(x, y, z) == data) {
+            return false;
+        }
+
+        session.setBlock(x, y, z, type, data);
+        return true;
+    }
+
+    /**
+     * Finds the heights of a chunk column from its chunk sections. The
+     * sections are read on the calling thread and the columns are scanned on
+     * a worker thread, which writes the heights straight into the heightmap;
+     * every task writes its own cells, and waiting for its result makes them
+     * visible to the caller.
+     */
+    private static class HeightColumnTask implements ChunkColumnExecutor.SnapshotTask<Void> {
+        private final LocalWorld world;
+        private final int[] heights;
+        private final int width;
+        private final int originX;
+        private final int originZ;
+        private final int minY;
+        private final int maxY;
+        private final boolean naturalOnly;
+        private final int minSectionY;
+        private final int maxSectionY;
+
+        private HeightColumnTask(LocalWorld world, int[] heights, int width,
+                int originX, int minY, int originZ, int maxY, boolean naturalOnly) {
+            this.world = world;
+            this.heights = heights;
+            this.width = width;
+            this.originX = originX;
+            this.originZ = originZ;
+            this.minY = minY;
+            this.maxY = maxY;
+            this.naturalOnly = naturalOnly;
+            this.minSectionY = Math.max(0, minY) >> 4;
+            this.maxSectionY = Math.min(world.getMaxY(), maxY) >> 4;
+        }
+
+        public Callable<Void> snapshot(final int minX, final int minZ, final int maxX, final int maxZ) {
+            final char[][] sections = new char[Math.max(0, maxSectionY - minSectionY + 1)][4096];
+            if (sections.length > 0) {
+                world.getChunkSections(minX >> 4, minZ >> 4, minSectionY, sections);
+            }
+
+            // Blocks above or below the world are air, which is never terrain
+            final int topY = Math.min(maxY, (maxSectionY << 4) + 15);
+            final int bottomY = Math.max(minY, 0);
+
+            return new Callable<Void>() {
+                public Void call() {
+                    for (int z = minZ; z <= maxZ; ++z) {
+                        for (int x = minX; x <= maxX; ++x) {
+                            final int column = ((z & 0xF) << 4) | (x & 0xF);
+                            int found = minY;
+                            for (int y = topY; y >= bottomY; --y) {
+                                final int id = sections[(y >> 4) - minSectionY][((y & 0xF) << 8) | column] >> 4;
+                                if (naturalOnly ? BlockType.isNaturalTerrainBlock(id) : !BlockType.canPassThrough(id)) {
+                                    found = y;
+                                    break;
+                                }
+                            }
+
+                            heights[(z - originZ) * width + (x - originX)] = found;
+                        }
+                    }
+
+                    return null;
+                }
+            };
+        }
+    }
 }
@@ -0,0 +1,35 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+import java.io.IOException;
+
+/**
+ * Thrown when an edit session that was paged out to a journal cannot be
+ * read back for undo or redo.
+ */
+public class HistoryReadException extends WorldEditException {
+    private static final long serialVersionUID = 6240181342951245873L;
+
+    public HistoryReadException(IOException cause) {
+        super("Your history could not be read back: " + cause.getMessage());
+        initCause(cause);
+    }
+}
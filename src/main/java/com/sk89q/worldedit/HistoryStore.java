@@ -0,0 +1,462 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+
+import com.sk89q.worldedit.operations.EditSessionJob;
+
+/**
+ * Keeps the undo history of sessions within memory limits. When a limit is
+ * exceeded, the least recently used edit sessions are written to compressed
+ * journal files and dropped from memory; they are read back when they are
+ * undone or redone. Optionally, the history of a session is left on disk
+ * when the session ends and picked up again when the player comes back,
+ * even after a restart.
+ */
+public class HistoryStore {
+    private static final String INDEX_FILE = "history.index";
+    private static final String JOURNAL_EXTENSION = ".journal";
+
+    private final File directory;
+    private final int sessionLimit;
+    private final int globalLimit;
+    private final boolean persistent;
+    private final BiomeTypes biomeTypes;
+
+    /**
+     * Edit sessions whose history is in memory, least recently used first.
+     */
+    private final LinkedHashMap<EditSession, Resident> resident =
+            new LinkedHashMap<EditSession, Resident>(16, 0.75f, true);
+    private final Map<LocalSession, Owner> owners = new HashMap<LocalSession, Owner>();
+    private long residentSize = 0;
+
+    /**
+     * Construct the store.
+     *
+     * @param directory the directory to keep journals in
+     * @param sessionLimit the number of changes a session may keep in memory, or -1
+     * @param globalLimit the number of changes all sessions may keep in memory, or -1
+     * @param persistent whether to keep the history of a session when it ends
+     */
+    public HistoryStore(File directory, int sessionLimit, int globalLimit, boolean persistent) {
+        this(directory, sessionLimit, globalLimit, persistent, null);
+    }
+
+    /**
+     * Construct the store.
+     *
+     * @param directory the directory to keep journals in
+     * @param sessionLimit the number of changes a session may keep in memory, or -1
+     * @param globalLimit the number of changes all sessions may keep in memory, or -1
+     * @param persistent whether to keep the history of a session when it ends
+     * @param biomeTypes the biome types to look up biome changes in when
+     *                   journals are read, or null
+     */
+    public HistoryStore(File directory, int sessionLimit, int globalLimit, boolean persistent, BiomeTypes biomeTypes) {
+        this.directory = directory;
+        this.sessionLimit = sessionLimit;
+        this.globalLimit = globalLimit;
+        this.persistent = persistent;
+        this.biomeTypes = biomeTypes;
+    }
+
+    /**
+     * Get the number of changes that are currently held in memory.
+     *
+     * @return
+     */
+    public synchronized long getResidentSize() {
+        return residentSize;
+    }
+
+    /**
+     * Start managing the history of a new session. If history is
+     * persistent, the history that was left by the previous session of the
+     * same player is restored.
+     *
+     * @param session
+     * @param name name of the player
+     * @param worlds worlds to look up the worlds of restored edits in
+     */
+    public synchronized void attach(LocalSession session, String name, List<LocalWorld> worlds) {
+        final Owner owner = new Owner(new File(directory, name.replaceAll("[^A-Za-z0-9_.-]", "_")));
+        owners.put(session, owner);
+        session.setHistoryStore(this);
+
+        final List<EditSession> history = new ArrayList<EditSession>();
+        int pointer = 0;
+        if (persistent) {
+            try {
+                pointer = readIndex(owner, worlds, history);
+            } catch (IOException e) {
+                WorldEdit.logger.log(Level.WARNING, "WorldEdit: Failed to restore the history of " + name, e);
+                history.clear();
+                pointer = 0;
+            }
+        }
+
+        // Remove journals that are not part of the history, such as ones
+        // left behind by a crash
+        final Set<File> used = new HashSet<File>();
+        for (EditSession editSession : history) {
+            used.add(editSession.getJournal());
+        }
+        final File[] files = owner.directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!used.contains(file) && !file.getName().equals(INDEX_FILE)) {
+                    file.delete();
+                }
+            }
+        }
+
+        if (!history.isEmpty()) {
+            session.restoreHistory(history, pointer);
+        }
+    }
+
+    /**
+     * Stop managing the history of a session. The history is written to
+     * disk if it is persistent, or deleted otherwise.
+     *
+     * @param session
+     * @param history the history of the session, oldest first
+     * @param pointer the position in the history
+     */
+    public synchronized void detach(LocalSession session, List<EditSession> history, int pointer) {
+        final Owner owner = owners.remove(session);
+        if (owner == null) {
+            return;
+        }
+
+        final Iterator<Resident> it = resident.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().session == session) {
+                it.remove();
+            }
+        }
+        residentSize -= owner.residentSize;
+
+        if (persistent) {
+            try {
+                writeIndex(owner, history, pointer);
+                return;
+            } catch (IOException e) {
+                WorldEdit.logger.log(Level.WARNING, "WorldEdit: Failed to save history to " + owner.directory, e);
+            }
+        }
+
+        final File[] files = owner.directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        owner.directory.delete();
+    }
+
+    /**
+     * Called when an edit session was added to the history of a session, or
+     * when an edit session that is already in the history has grown, such
+     * as the edit session of an incremental job.
+     *
+     * @param session
+     * @param editSession
+     */
+    public synchronized void remember(LocalSession session, EditSession editSession) {
+        final Owner owner = owners.get(session);
+        if (owner == null) {
+            return;
+        }
+
+        makeResident(session, owner, editSession);
+        enforceLimits(session, owner, editSession);
+    }
+
+    /**
+     * Called when an edit session was removed from the history of a session.
+     *
+     * @param session
+     * @param editSession
+     */
+    public synchronized void forget(LocalSession session, EditSession editSession) {
+        final Owner owner = owners.get(session);
+        if (owner == null) {
+            return;
+        }
+
+        final Resident entry = resident.remove(editSession);
+        if (entry != null) {
+            owner.residentSize -= entry.size;
+            residentSize -= entry.size;
+        }
+
+        if (editSession.getJournal() != null) {
+            editSession.getJournal().delete();
+        }
+    }
+
+    /**
+     * Make sure that the history of an edit session is in memory, so that
+     * it can be undone or redone.
+     *
+     * @param session
+     * @param editSession
+     * @throws IOException if the journal could not be read
+     */
+    public synchronized void load(LocalSession session, EditSession editSession) throws IOException {
+        final Owner owner = owners.get(session);
+        if (owner == null) {
+            return;
+        }
+
+        if (editSession.isPagedOut()) {
+            editSession.pageIn(biomeTypes);
+        }
+
+        makeResident(session, owner, editSession);
+        enforceLimits(session, owner, editSession);
+    }
+
+    private void makeResident(LocalSession session, Owner owner, EditSession editSession) {
+        Resident entry = resident.get(editSession);
+        if (entry == null) {
+            entry = new Resident(session);
+            resident.put(editSession, entry);
+        }
+
+        // Only the growth since the edit session was last counted is added
+        final int size = editSession.size();
+        owner.residentSize += size - entry.size;
+        residentSize += size - entry.size;
+        entry.size = size;
+    }
+
+    private void enforceLimits(LocalSession session, Owner owner, EditSession keep) {
+        if (sessionLimit >= 0 && owner.residentSize > sessionLimit) {
+            final Iterator<Map.Entry<EditSession, Resident>> it = resident.entrySet().iterator();
+            while (it.hasNext() && owner.residentSize > sessionLimit) {
+                final Map.Entry<EditSession, Resident> entry = it.next();
+                if (entry.getValue().session == session && pageOut(entry.getKey(), entry.getValue(), keep, owner)) {
+                    it.remove();
+                }
+            }
+        }
+
+        if (globalLimit >= 0 && residentSize > globalLimit) {
+            final Iterator<Map.Entry<EditSession, Resident>> it = resident.entrySet().iterator();
+            while (it.hasNext() && residentSize > globalLimit) {
+                final Map.Entry<EditSession, Resident> entry = it.next();
+                if (pageOut(entry.getKey(), entry.getValue(), keep, owners.get(entry.getValue().session))) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Write an edit session to its journal and drop it from memory.
+     *
+     * @return whether the edit session was paged out
+     */
+    private boolean pageOut(EditSession editSession, Resident entry, EditSession keep, Owner owner) {
+        if (editSession == keep) {
+            return false;
+        }
+
+        // Edits of a running job are still being made
+        final EditSessionJob job = entry.session.getActiveJob();
+        if (job != null && job.getEditSession() == editSession) {
+            return false;
+        }
+
+        if (editSession.getJournal() == null) {
+            try {
+                writeJournal(owner, editSession);
+            } catch (IOException e) {
+                WorldEdit.logger.log(Level.WARNING, "WorldEdit: Failed to write history to " + owner.directory, e);
+                return false;
+            }
+        }
+
+        editSession.pageOut();
+        owner.residentSize -= entry.size;
+        residentSize -= entry.size;
+        return true;
+    }
+
+    private void writeJournal(Owner owner, EditSession editSession) throws IOException {
+        owner.directory.mkdirs();
+
+        File file;
+        do {
+            file = new File(owner.directory, (owner.nextJournal++) + JOURNAL_EXTENSION);
+        } while (file.exists());
+
+        editSession.writeJournal(file);
+    }
+
+    /**
+     * Write the journals of a session that are not on disk yet, and the
+     * index listing them in order.
+     */
+    private void writeIndex(Owner owner, List<EditSession> history, int pointer) throws IOException {
+        for (EditSession editSession : history) {
+            if (editSession.getJournal() == null) {
+                writeJournal(owner, editSession);
+            }
+        }
+
+        if (history.isEmpty()) {
+            new File(owner.directory, INDEX_FILE).delete();
+            return;
+        }
+
+        final PrintWriter out = new PrintWriter(new FileWriter(new File(owner.directory, INDEX_FILE)));
+        try {
+            out.println(pointer);
+            for (EditSession editSession : history) {
+                out.println(editSession.getJournal().getName() + " " + editSession.size());
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Read the index of a session and create paged out edit sessions for
+     * the journals in it.
+     *
+     * @return the position in the history
+     */
+    private int readIndex(Owner owner, List<LocalWorld> worlds, List<EditSession> history) throws IOException {
+        final File indexFile = new File(owner.directory, INDEX_FILE);
+        if (!indexFile.exists()) {
+            return 0;
+        }
+
+        final BufferedReader in = new BufferedReader(new FileReader(indexFile));
+        int pointer;
+        try {
+            final String first = in.readLine();
+            if (first == null) {
+                return 0;
+            }
+            pointer = Integer.parseInt(first.trim());
+
+            String line;
+            int index = 0;
+            while ((line = in.readLine()) != null) {
+                final String[] parts = line.trim().split(" ");
+                if (parts.length != 2) {
+                    continue;
+                }
+
+                final File file = new File(owner.directory, parts[0]);
+                LocalWorld world;
+                try {
+                    world = findWorld(worlds, EditSession.readJournalWorldName(file));
+                } catch (IOException e) {
+                    WorldEdit.logger.log(Level.WARNING, "WorldEdit: Skipping unreadable history " + file, e);
+                    world = null;
+                }
+                if (world == null) {
+                    // The world or the journal is gone, and with it the edits
+                    if (index < pointer) {
+                        --pointer;
+                    }
+                } else {
+                    final EditSession editSession = new EditSession(world, -1);
+                    editSession.attachJournal(file, Integer.parseInt(parts[1]));
+                    history.add(editSession);
+                }
+                ++index;
+
+                final int number = parseJournalNumber(parts[0]);
+                if (number >= owner.nextJournal) {
+                    owner.nextJournal = number + 1;
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid history index " + indexFile);
+        } finally {
+            in.close();
+        }
+
+        return Math.max(0, Math.min(pointer, history.size()));
+    }
+
+    private static int parseJournalNumber(String name) {
+        try {
+            return Integer.parseInt(name.substring(0, name.length() - JOURNAL_EXTENSION.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        } catch (IndexOutOfBoundsException e) {
+            return -1;
+        }
+    }
+
+    private static LocalWorld findWorld(List<LocalWorld> worlds, String name) {
+        for (LocalWorld world : worlds) {
+            if (world.getName().equals(name)) {
+                return world;
+            }
+        }
+        return null;
+    }
+
+    private static class Resident {
+        private final LocalSession session;
+        /**
+         * The size the edit session was counted with.
+         */
+        private int size = 0;
+
+        private Resident(LocalSession session) {
+            this.session = session;
+        }
+    }
+
+    private static class Owner {
+        private final File directory;
+        private int residentSize = 0;
+        private int nextJournal = 0;
+
+        private Owner(File directory) {
+            this.directory = directory;
+        }
+    }
+}
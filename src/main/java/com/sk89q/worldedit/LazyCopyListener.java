@@ -0,0 +1,98 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Lets the lazy copies of one world read a chunk column before an
+ * {@link EditSession} changes it. Each world has one listener, which edit
+ * sessions look up when they are created, so writes only have to look at
+ * the copies that were taken from their own world.
+ */
+class LazyCopyListener {
+    private static final Map<LocalWorld, WeakReference<LazyCopyListener>> listeners =
+            new WeakHashMap<LocalWorld, WeakReference<LazyCopyListener>>();
+
+    // Keeps the key of the listener alive for as long as the listener is used
+    private final LocalWorld world;
+    private final List<WeakReference<CuboidClipboard>> copies =
+            new LinkedList<WeakReference<CuboidClipboard>>();
+    private volatile boolean hasCopies;
+
+    private LazyCopyListener(LocalWorld world) {
+        this.world = world;
+    }
+
+    /**
+     * Get the listener of a world.
+     *
+     * @param world
+     * @return
+     */
+    static synchronized LazyCopyListener forWorld(LocalWorld world) {
+        final WeakReference<LazyCopyListener> ref = listeners.get(world);
+        LazyCopyListener listener = ref == null ? null : ref.get();
+        if (listener == null) {
+            listener = new LazyCopyListener(world);
+            listeners.put(world, new WeakReference<LazyCopyListener>(listener));
+        }
+
+        return listener;
+    }
+
+    /**
+     * Start telling a lazy copy about writes.
+     *
+     * @param clipboard
+     */
+    synchronized void register(CuboidClipboard clipboard) {
+        copies.add(new WeakReference<CuboidClipboard>(clipboard));
+        hasCopies = true;
+    }
+
+    /**
+     * Called by edit sessions before they change blocks in a chunk column.
+     *
+     * @param chunkX
+     * @param chunkZ
+     */
+    void beforeWrite(int chunkX, int chunkZ) {
+        if (hasCopies) {
+            capture(chunkX, chunkZ);
+        }
+    }
+
+    private synchronized void capture(int chunkX, int chunkZ) {
+        final Iterator<WeakReference<CuboidClipboard>> it = copies.iterator();
+        while (it.hasNext()) {
+            final CuboidClipboard clipboard = it.next().get();
+            if (clipboard == null || !clipboard.captureBeforeWrite(this, chunkX, chunkZ)) {
+                it.remove();
+            }
+        }
+        hasCopies = !copies.isEmpty();
+    }
+}
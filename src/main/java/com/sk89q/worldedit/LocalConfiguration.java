@@ -101,9 +101,21 @@ public abstract class LocalConfiguration {
     public int scriptTimeout = 3000;
     public Set<Integer> allowedDataCycleBlocks = new HashSet<Integer>();
     public String saveDir = "schematics";
+    public int saveCompressionLevel = -1;
+    public boolean saveParallelCompression = false;
+    public boolean lazyClipboardCopy = false;
+    public boolean useReadCache = false;
     public String scriptsDir = "craftscripts";
     public boolean showFirstUseVersion = true;
     public int butcherDefaultRadius = -1;
+    public boolean incrementalEnabled = true;
+    public int incrementalThreshold = 100000;
+    public int incrementalTickBudget = 20;
+    public int incrementalProgressInterval = 5;
+    public String historyDir = "history";
+    public int historySessionMemoryLimit = -1;
+    public int historyMemoryLimit = -1;
+    public boolean historyPersist = false;
 
     /**
      * Loads the configuration.
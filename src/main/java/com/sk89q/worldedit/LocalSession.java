@@ -19,11 +19,14 @@
 
 package com.sk89q.worldedit;
 
+import java.io.IOException;
 import java.util.Calendar;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.logging.Level;
 import com.sk89q.jchronic.Chronic;
 import com.sk89q.jchronic.Options;
 import com.sk89q.jchronic.utils.Span;
@@ -38,6 +41,7 @@
 import com.sk89q.worldedit.cui.CUIEvent;
 import com.sk89q.worldedit.cui.SelectionShapeEvent;
 import com.sk89q.worldedit.masks.Mask;
+import com.sk89q.worldedit.operations.EditSessionJob;
 import com.sk89q.worldedit.regions.CuboidRegionSelector;
 import com.sk89q.worldedit.regions.Region;
 import com.sk89q.worldedit.regions.RegionSelector;
@@ -60,6 +64,8 @@ public class LocalSession {
     private boolean placeAtPos1 = false;
     private LinkedList<EditSession> history = new LinkedList<EditSession>();
     private int historyPointer = 0;
+    private HistoryStore historyStore;
+    private EditSessionJob activeJob;
     private CuboidClipboard clipboard;
     private boolean toolControl = true;
     private boolean superPickaxe = false;
@@ -74,6 +80,7 @@ public class LocalSession {
     private int cuiVersion = -1;
     private boolean fastMode = false;
     private Mask mask;
+    private Long patternSeed;
     private TimeZone timezone = TimeZone.getDefault();
 
     /**
@@ -107,10 +114,46 @@ public void setTimezone(TimeZone timezone) {
      * Clear history.
      */
     public void clearHistory() {
+        if (historyStore != null) {
+            for (EditSession editSession : history) {
+                historyStore.forget(this, editSession);
+            }
+        }
         history.clear();
         historyPointer = 0;
     }
 
+    /**
+     * Set the store that keeps the history within memory limits.
+     *
+     * @param historyStore
+     */
+    void setHistoryStore(HistoryStore historyStore) {
+        this.historyStore = historyStore;
+    }
+
+    /**
+     * Replace the history with edit sessions restored by the history store.
+     *
+     * @param restored the edit sessions, oldest first
+     * @param pointer the position in the history
+     */
+    void restoreHistory(List<EditSession> restored, int pointer) {
+        history.clear();
+        history.addAll(restored);
+        historyPointer = pointer;
+    }
+
+    /**
+     * Hand the history over to the history store when the session ends.
+     */
+    void closeHistory() {
+        if (historyStore != null) {
+            historyStore.detach(this, history, historyPointer);
+            historyStore = null;
+        }
+    }
+
     /**
      * Remember an edit session for the undo history. If the history maximum
      * size is reached, old edit sessions will be discarded.
@@ -121,15 +164,120 @@ public void remember(EditSession editSession) {
         // Don't store anything if no changes were made
         if (editSession.size() == 0) return;
 
+        // Sessions of incremental jobs are remembered when the job starts
+        if (history.contains(editSession)) return;
+
+        addToHistory(editSession);
+    }
+
+    private void addToHistory(EditSession editSession) {
         // Destroy any sessions after this undo point
         while (historyPointer < history.size()) {
-            history.remove(historyPointer);
+            forget(history.remove(historyPointer));
         }
         history.add(editSession);
         while (history.size() > MAX_HISTORY_SIZE) {
-            history.remove(0);
+            forget(history.remove(0));
         }
         historyPointer = history.size();
+
+        if (historyStore != null) {
+            historyStore.remember(this, editSession);
+        }
+    }
+
+    private void forget(EditSession editSession) {
+        if (historyStore != null) {
+            historyStore.forget(this, editSession);
+        }
+    }
+
+    /**
+     * Make sure that the history of an edit session is in memory.
+     *
+     * @param editSession
+     * @throws HistoryReadException if it could not be read back
+     */
+    private void load(EditSession editSession) throws HistoryReadException {
+        if (historyStore == null) {
+            return;
+        }
+
+        try {
+            historyStore.load(this, editSession);
+        } catch (IOException e) {
+            WorldEdit.logger.log(Level.WARNING, "WorldEdit: Failed to read history", e);
+            throw new HistoryReadException(e);
+        }
+    }
+
+    /**
+     * Register an incremental job that is about to start. Its edit session
+     * goes into the history right away, ahead of any edits made while the
+     * job is running.
+     *
+     * @param job
+     * @throws JobInProgressException if another job is still running
+     */
+    public void startJob(EditSessionJob job) throws JobInProgressException {
+        if (activeJob != null) {
+            throw new JobInProgressException();
+        }
+
+        activeJob = job;
+        addToHistory(job.getEditSession());
+    }
+
+    /**
+     * Called by a job once it has finished or was cancelled.
+     *
+     * @param job
+     */
+    public void jobFinished(EditSessionJob job) {
+        if (activeJob == job) {
+            activeJob = null;
+        }
+
+        final EditSession editSession = job.getEditSession();
+        final int index = history.indexOf(editSession);
+        if (index < 0) {
+            return;
+        }
+
+        if (editSession.size() == 0) {
+            // Nothing was changed, such as by a job that only reads the world
+            history.remove(index);
+            if (index < historyPointer) {
+                --historyPointer;
+            }
+            forget(editSession);
+        } else if (historyStore != null) {
+            // The edit session was counted while it was still empty
+            historyStore.remember(this, editSession);
+        }
+    }
+
+    /**
+     * Get the incremental job that is currently running.
+     *
+     * @return job or null
+     */
+    public EditSessionJob getActiveJob() {
+        return activeJob;
+    }
+
+    /**
+     * Cancel the incremental job that is currently running, if any.
+     *
+     * @return whether a job was cancelled
+     */
+    public boolean cancelJob() {
+        if (activeJob == null) {
+            return false;
+        }
+
+        activeJob.cancel();
+        return true;
     }
 
     /**
@@ -137,11 +285,19 @@ public void remember(EditSession editSession) {
      *
      * @param newBlockBag
      * @return whether anything was undone
+     * @throws HistoryReadException if the history could not be read back
      */
-    public EditSession undo(BlockBag newBlockBag) {
+    public EditSession undo(BlockBag newBlockBag) throws HistoryReadException {
+        cancelJob();
         --historyPointer;
         if (historyPointer >= 0) {
             EditSession editSession = history.get(historyPointer);
+            try {
+                load(editSession);
+            } catch (HistoryReadException e) {
+                ++historyPointer;
+                throw e;
+            }
             EditSession newEditSession =
                     new EditSession(editSession.getWorld(), -1, newBlockBag);
             newEditSession.enableQueue();
@@ -159,10 +315,13 @@ public EditSession undo(BlockBag newBlockBag) {
      *
      * @param newBlockBag
      * @return whether anything was redone
+     * @throws HistoryReadException if the history could not be read back
      */
-    public EditSession redo(BlockBag newBlockBag) {
+    public EditSession redo(BlockBag newBlockBag) throws HistoryReadException {
+        cancelJob();
         if (historyPointer < history.size()) {
             EditSession editSession = history.get(historyPointer);
+            load(editSession);
             EditSession newEditSession =
                     new EditSession(editSession.getWorld(), -1, newBlockBag);
             newEditSession.enableQueue();
@@ -702,6 +861,11 @@ public EditSession createEditSession(LocalPlayer player) {
                 new EditSession(player.isPlayer() ? player.getWorld() : null,
                         getBlockChangeLimit(), blockBag);
         editSession.setFastMode(fastMode);
+        // Cached blocks do not see changes made outside of the session
+        // until the queue is flushed, such as by physics
+        if (config != null && config.useReadCache) {
+            editSession.enableReadCache();
+        }
         if (mask != null) {
             mask.prepare(this, player, null);
         }
@@ -745,4 +909,24 @@ public Mask getMask() {
     public void setMask(Mask mask) {
         this.mask = mask;
     }
+
+    /**
+     * Get the seed that random patterns of this session start from.
+     *
+     * @return seed, or null if the patterns are not seeded
+     */
+    public Long getPatternSeed() {
+        return patternSeed;
+    }
+
+    /**
+     * Set the seed that random patterns of this session start from. Every
+     * pattern that is parsed afterwards picks the same blocks in the same
+     * order.
+     *
+     * @param patternSeed seed or null
+     */
+    public void setPatternSeed(Long patternSeed) {
+        this.patternSeed = patternSeed;
+    }
 }
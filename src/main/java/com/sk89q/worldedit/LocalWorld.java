@@ -97,6 +97,19 @@ public boolean setBlockTypeFast(Vector pt, int type) {
      */
     public abstract int getBlockType(Vector pt);
 
+    /**
+     * Get block type. Worlds that can look up blocks by their coordinates
+     * should override this to avoid creating a vector for every block.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public int getBlockType(int x, int y, int z) {
+        return getBlockType(new Vector(x, y, z));
+    }
+
     /**
      * Set block data.
      *
@@ -130,6 +143,48 @@ public boolean setBlockTypeFast(Vector pt, int type) {
      */
     public abstract void setBiome(Vector2D pt, BiomeType biome);
 
+    /**
+     * Get the biomes of all columns of a chunk.
+     *
+     * @param chunkX
+     * @param chunkZ
+     * @param biomes an array of 256 entries to fill, indexed by
+     *               <code>(z &amp; 15) &lt;&lt; 4 | (x &amp; 15)</code>
+     */
+    public void getBiomes(int chunkX, int chunkZ, BiomeType[] biomes) {
+        final int baseX = chunkX << 4;
+        final int baseZ = chunkZ << 4;
+        for (int z = 0; z < 16; ++z) {
+            for (int x = 0; x < 16; ++x) {
+                biomes[(z << 4) | x] = getBiome(new Vector2D(baseX + x, baseZ + z));
+            }
+        }
+    }
+
+    /**
+     * Set the biomes of columns of a chunk. Worlds that have to do work for
+     * every change to a chunk, such as sending it to players again, should
+     * override this to only do it once.
+     *
+     * @param chunkX
+     * @param chunkZ
+     * @param biomes an array of 256 entries, indexed like with
+     *               {@link #getBiomes(int, int, BiomeType[])}; columns whose
+     *               entry is null are left alone
+     */
+    public void setBiomes(int chunkX, int chunkZ, BiomeType[] biomes) {
+        final int baseX = chunkX << 4;
+        final int baseZ = chunkZ << 4;
+        for (int z = 0; z < 16; ++z) {
+            for (int x = 0; x < 16; ++x) {
+                final BiomeType biome = biomes[(z << 4) | x];
+                if (biome != null) {
+                    setBiome(new Vector2D(baseX + x, baseZ + z), biome);
+                }
+            }
+        }
+    }
+
     /**
      * set block type & data
      * @param pt
@@ -158,6 +213,79 @@ public boolean setTypeIdAndDataFast(Vector pt, int type, int data) {
         return ret;
     }
 
+    /**
+     * Set the type and data of a batch of blocks in one chunk section.
+     * Implementations should look up the chunk once for the whole batch;
+     * the default implementation sets the blocks one at a time.
+     *
+     * @param batch the changes
+     * @param notifyAdjacent false to skip physics, as in fast mode
+     * @return number of blocks changed
+     */
+    public int setBlocks(ChunkSectionBatch batch, boolean notifyAdjacent) {
+        int changed = 0;
+
+        for (int i = 0; i < batch.size(); ++i) {
+            final Vector pt = new Vector(batch.getBlockX(i), batch.getBlockY(i), batch.getBlockZ(i));
+            final boolean result;
+            if (notifyAdjacent) {
+                result = setTypeIdAndData(pt, batch.getType(i), batch.getData(i));
+            } else {
+                result = setTypeIdAndDataFast(pt, batch.getType(i), batch.getData(i));
+            }
+
+            if (result) {
+                ++changed;
+            }
+        }
+
+        return changed;
+    }
+
+    /**
+     * Read the type and data of every block in one chunk section. Entries
+     * are indexed by (y << 8) | (z << 4) | x within the section and hold
+     * (type << 4) | data. Implementations should look up the chunk once for
+     * the whole section; the default implementation reads the blocks one
+     * at a time.
+     *
+     * @param chunkX
+     * @param sectionY
+     * @param chunkZ
+     * @param blocks an array of at least 4096 entries to fill
+     */
+    public void getBlocks(int chunkX, int sectionY, int chunkZ, char[] blocks) {
+        final int baseX = chunkX << 4;
+        final int baseY = sectionY << 4;
+        final int baseZ = chunkZ << 4;
+
+        for (int y = 0; y < 16; ++y) {
+            for (int z = 0; z < 16; ++z) {
+                for (int x = 0; x < 16; ++x) {
+                    final int type = getBlockType(baseX + x, baseY + y, baseZ + z);
+                    final int data = getBlockData(baseX + x, baseY + y, baseZ + z);
+                    blocks[(y << 8) | (z << 4) | x] = (char) ((type << 4) | (data & 0xF));
+                }
+            }
+        }
+    }
+
+    /**
+     * Read consecutive chunk sections of one chunk, as with
+     * {@link #getBlocks(int, int, int, char[])}. Implementations that take a
+     * snapshot of the whole chunk should override this to only take one.
+     *
+     * @param chunkX
+     * @param chunkZ
+     * @param minSectionY the section to read into the first array
+     * @param sections arrays of at least 4096 entries to fill
+     */
+    public void getChunkSections(int chunkX, int chunkZ, int minSectionY, char[][] sections) {
+        for (int i = 0; i < sections.length; ++i) {
+            getBlocks(chunkX, minSectionY + i, chunkZ, sections[i]);
+        }
+    }
+
     /**
      * Get block data.
      *
@@ -166,6 +294,19 @@ public boolean setTypeIdAndDataFast(Vector pt, int type, int data) {
      */
     public abstract int getBlockData(Vector pt);
 
+    /**
+     * Get block data. Worlds that can look up blocks by their coordinates
+     * should override this to avoid creating a vector for every block.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public int getBlockData(int x, int y, int z) {
+        return getBlockData(new Vector(x, y, z));
+    }
+
     /**
      * Get block light level.
      *
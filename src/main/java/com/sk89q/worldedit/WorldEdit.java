@@ -83,6 +83,8 @@
 import com.sk89q.worldedit.masks.RandomMask;
 import com.sk89q.worldedit.masks.RegionMask;
 import com.sk89q.worldedit.masks.UnderOverlayMask;
+import com.sk89q.worldedit.operations.EditSessionJob;
+import com.sk89q.worldedit.operations.IncrementalOperation;
 import com.sk89q.worldedit.patterns.BlockChance;
 import com.sk89q.worldedit.patterns.ClipboardPattern;
 import com.sk89q.worldedit.patterns.Pattern;
@@ -141,6 +143,18 @@ public class WorldEdit {
      */
     private final HashMap<String, LocalSession> sessions = new HashMap<String, LocalSession>();
 
+    /**
+     * Keeps the undo history of sessions within the configured memory limits,
+     * or null if history is kept in memory only.
+     */
+    private HistoryStore historyStore;
+
+    /**
+     * Runs CraftScripts, keeping the scripts it has compiled. Created when
+     * the first script is run.
+     */
+    private CraftScriptEngine scriptEngine;
+
     /**
      * Initialize statically.
      */
@@ -277,6 +291,10 @@ public LocalSession getSession(LocalPlayer player) {
                 session = sessions.get(player.getName());
             } else {
                 session = new LocalSession(config);
+                HistoryStore historyStore = getHistoryStore();
+                if (historyStore != null) {
+                    historyStore.attach(session, player.getName(), server.getWorlds());
+                }
                 // Remember the session
                 sessions.put(player.getName(), session);
             }
@@ -604,6 +622,11 @@ public Pattern getBlockPattern(LocalPlayer player, String patternString)
             blockChances.add(new BlockChance(block, chance));
         }
 
+        Long seed = getSession(player).getPatternSeed();
+        if (seed != null) {
+            return new RandomFillPattern(blockChances, seed);
+        }
+
         return new RandomFillPattern(blockChances);
     }
 
@@ -1011,7 +1034,10 @@ public FlipDirection getFlipDirection(LocalPlayer player, String dirStr)
      */
     public void removeSession(LocalPlayer player) {
         synchronized (sessions) {
-            sessions.remove(player.getName());
+            LocalSession session = sessions.remove(player.getName());
+            if (session != null) {
+                session.closeHistory();
+            }
         }
     }
 
@@ -1020,10 +1046,91 @@ public void removeSession(LocalPlayer player) {
      */
     public void clearSessions() {
         synchronized (sessions) {
+            for (LocalSession session : sessions.values()) {
+                session.closeHistory();
+            }
             sessions.clear();
         }
     }
 
+    /**
+     * Get the store that pages undo history out to disk, creating it the
+     * first time it is needed.
+     *
+     * @return null if no history limits are configured
+     */
+    private HistoryStore getHistoryStore() {
+        if (historyStore == null && (config.historySessionMemoryLimit >= 0
+                || config.historyMemoryLimit >= 0 || config.historyPersist)) {
+            historyStore = new HistoryStore(getWorkingDirectoryFile(config.historyDir),
+                    config.historySessionMemoryLimit, config.historyMemoryLimit, config.historyPersist,
+                    server.getBiomes());
+        }
+
+        return historyStore;
+    }
+
+    /**
+     * Run a large operation over several server ticks instead of all at
+     * once. Nothing is done if incremental execution is disabled, if the
+     * operation is below the configured threshold or if the server cannot
+     * schedule tasks; the caller should then run the operation directly.
+     *
+     * @param player
+     * @param session
+     * @param editSession
+     * @param operation
+     * @param completionMessage printed after the number of affected blocks once the operation is done,
+     *                          or null if the operation reports on its own
+     * @return whether the operation was scheduled
+     * @throws JobInProgressException if the player already has an operation running
+     */
+    public boolean runIncrementally(LocalPlayer player, LocalSession session,
+            EditSession editSession, IncrementalOperation operation,
+            String completionMessage) throws JobInProgressException {
+        return runIncrementally(player, session, editSession, operation, completionMessage, null);
+    }
+
+    /**
+     * Run a large operation over several server ticks instead of all at
+     * once, like {@link #runIncrementally(LocalPlayer, LocalSession, EditSession, IncrementalOperation, String)},
+     * and run a task once it has completed.
+     *
+     * @param player
+     * @param session
+     * @param editSession
+     * @param operation
+     * @param completionMessage printed after the number of affected blocks once the operation is done,
+     *                          or null if the operation reports on its own
+     * @param completionTask run once the operation has completed, but not
+     *                       if it is cancelled or fails, or null
+     * @return whether the operation was scheduled
+     * @throws JobInProgressException if the player already has an operation running
+     */
+    public boolean runIncrementally(LocalPlayer player, LocalSession session,
+            EditSession editSession, IncrementalOperation operation,
+            String completionMessage, Runnable completionTask) throws JobInProgressException {
+
+        if (!config.incrementalEnabled
+                || operation.getVolume() < config.incrementalThreshold) {
+            return false;
+        }
+
+        if (session.getActiveJob() != null) {
+            throw new JobInProgressException();
+        }
+
+        EditSessionJob job = new EditSessionJob(this, player, session,
+                editSession, operation, completionMessage, completionTask);
+        if (!job.schedule()) {
+            return false;
+        }
+
+        session.startJob(job);
+        player.print("Large operation started; it will be completed over the next few moments. Stop it with //cancel.");
+        return true;
+    }
+
     /**
      * Flush a block bag's changes to a player.
      *
@@ -1121,6 +1228,7 @@ public void flushExpiredSessions(SessionCheck checker) {
                 Map.Entry<String, LocalSession> entry = it.next();
                 if (entry.getValue().hasExpired()
                         && !checker.isOnlinePlayer(entry.getKey())) {
+                    entry.getValue().closeHistory();
                     it.remove();
                 }
             }
@@ -1438,6 +1546,7 @@ public void runScript(LocalPlayer player, File f, String[] args)
         }
 
         String script;
+        long lastModified = 0;
 
         try {
             InputStream file;
@@ -1452,6 +1561,7 @@ public void runScript(LocalPlayer player, File f, String[] args)
                 }
             } else {
                 file = new FileInputStream(f);
+                lastModified = f.lastModified();
             }
 
             DataInputStream in = new DataInputStream(file);
@@ -1468,11 +1578,9 @@ public void runScript(LocalPlayer player, File f, String[] args)
         CraftScriptContext scriptContext =
                 new CraftScriptContext(this, server, config, session, player, args);
 
-        CraftScriptEngine engine = null;
+        CraftScriptEngine engine = getScriptEngine();
 
-        try {
-            engine = new RhinoCraftScriptEngine();
-        } catch (NoClassDefFoundError e) {
+        if (engine == null) {
             player.printError("Failed to find an installed script engine.");
             player.printError("Please see http://wiki.sk89q.com/wiki/WorldEdit/Installation");
             return;
@@ -1486,7 +1594,7 @@ public void runScript(LocalPlayer player, File f, String[] args)
         vars.put("player", player);
 
         try {
-            engine.evaluate(script, filename, vars);
+            engine.evaluate(script, filename, lastModified, vars);
         } catch (ScriptException e) {
             player.printError("Failed to execute:");
             player.printRaw(e.getMessage());
@@ -1507,6 +1615,24 @@ public void runScript(LocalPlayer player, File f, String[] args)
         }
     }
 
+    /**
+     * Get the engine that runs CraftScripts, creating it the first time it
+     * is needed.
+     *
+     * @return null if no script engine is installed
+     */
+    public synchronized CraftScriptEngine getScriptEngine() {
+        if (scriptEngine == null) {
+            try {
+                scriptEngine = new RhinoCraftScriptEngine();
+            } catch (NoClassDefFoundError e) {
+                return null;
+            }
+        }
+
+        return scriptEngine;
+    }
+
     /**
      * Get Worldedit's configuration.
      *
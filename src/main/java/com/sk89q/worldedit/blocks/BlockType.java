@@ -174,9 +174,9 @@ public enum BlockType {
     JUNGLE_WOOD_STAIRS(BlockID.JUNGLE_WOOD_STAIRS, "Jungle wood stairs", "junglestairs", "junglewoodstairs");
 
     /**
-     * Stores a map of the IDs for fast access.
+     * Stores the types by ID for fast access.
      */
-    private static final Map<Integer, BlockType> ids = new HashMap<Integer, BlockType>();
+    private static final BlockType[] ids;
     /**
      * Stores a map of the names for fast access.
      */
@@ -187,8 +187,14 @@ public enum BlockType {
     private final String[] lookupKeys;
 
     static {
+        int maxId = 0;
         for (BlockType type : EnumSet.allOf(BlockType.class)) {
-            ids.put(type.id, type);
+            maxId = Math.max(maxId, type.id);
+        }
+
+        ids = new BlockType[maxId + 1];
+        for (BlockType type : EnumSet.allOf(BlockType.class)) {
+            ids[type.id] = type;
             for (String key : type.lookupKeys) {
                 lookup.put(key, type);
             }
@@ -227,7 +233,10 @@ public enum BlockType {
      * @return
      */
     public static BlockType fromID(int id) {
-        return ids.get(id);
+        if (id < 0 || id >= ids.length) {
+            return null;
+        }
+        return ids[id];
     }
 
     /**
@@ -326,7 +335,7 @@ public String getName() {
      * @return
      */
     public static boolean shouldPlaceLast(int id) {
-        return shouldPlaceLast.contains(id);
+        return hasProperty(id, SHOULD_PLACE_LAST);
     }
 
     /**
@@ -335,7 +344,7 @@ public static boolean shouldPlaceLast(int id) {
      * @return
      */
     public boolean shouldPlaceLast() {
-        return shouldPlaceLast.contains(id);
+        return hasProperty(id, SHOULD_PLACE_LAST);
     }
 
     /**
@@ -363,7 +372,7 @@ public boolean shouldPlaceLast() {
      * @return
      */
     public static boolean shouldPlaceFinal(int id) {
-        return shouldPlaceFinal.contains(id);
+        return hasProperty(id, SHOULD_PLACE_FINAL);
     }
 
     /**
@@ -419,7 +428,7 @@ public static boolean shouldPlaceFinal(int id) {
      * @return
      */
     public static boolean canPassThrough(int id) {
-        return canPassThrough.contains(id);
+        return hasProperty(id, CAN_PASS_THROUGH);
     }
 
     /**
@@ -428,7 +437,7 @@ public static boolean canPassThrough(int id) {
      * @return
      */
     public boolean canPassThrough() {
-        return canPassThrough.contains(id);
+        return hasProperty(id, CAN_PASS_THROUGH);
     }
 
     /**
@@ -468,13 +477,11 @@ public boolean canPassThrough() {
      * @return
      */
     public static double centralTopLimit(int id, int data) {
-        if (centralTopLimit.containsKey(id))
-            return centralTopLimit.get(id);
-
-        if (centralTopLimit.containsKey(-16*id-data))
-            return centralTopLimit.get(-16*id-data);
-
-        return canPassThrough(id) ? 0 : 1;
+        final int key = typeDataKey(id, data);
+        if (key < 0 || key >= dataCentralTopLimits.length) {
+            return 1;
+        }
+        return dataCentralTopLimits[key];
     }
 
     /**
@@ -483,10 +490,7 @@ public static double centralTopLimit(int id, int data) {
      * @return
      */
     public double centralTopLimit() {
-        if (centralTopLimit.containsKey(id))
-            return centralTopLimit.get(id);
-
-        return canPassThrough(id) ? 0 : 1;
+        return centralTopLimits[id];
     }
 
     /**
@@ -581,7 +585,7 @@ public double centralTopLimit() {
      * @return
      */
     public static boolean usesData(int id) {
-        return usesData.contains(id);
+        return hasProperty(id, USES_DATA);
     }
 
     /**
@@ -590,7 +594,7 @@ public static boolean usesData(int id) {
      * @return
      */
     public boolean usesData() {
-        return usesData.contains(id);
+        return hasProperty(id, USES_DATA);
     }
 
     /**
@@ -613,7 +617,7 @@ public boolean usesData() {
      * @return
      */
     public static boolean isContainerBlock(int id) {
-        return isContainerBlock.contains(id);
+        return hasProperty(id, CONTAINER);
     }
 
     /**
@@ -622,7 +626,39 @@ public static boolean isContainerBlock(int id) {
      * @return
      */
     public boolean isContainerBlock() {
-        return isContainerBlock.contains(id);
+        return hasProperty(id, CONTAINER);
+    }
+
+    /**
+     * HashSet for hasTileEntity.
+     */
+    private static final Set<Integer> hasTileEntity = new HashSet<Integer>();
+    static {
+        hasTileEntity.add(BlockID.DISPENSER);
+        hasTileEntity.add(BlockID.NOTE_BLOCK);
+        hasTileEntity.add(BlockID.PISTON_MOVING_PIECE);
+        hasTileEntity.add(BlockID.MOB_SPAWNER);
+        hasTileEntity.add(BlockID.CHEST);
+        hasTileEntity.add(BlockID.FURNACE);
+        hasTileEntity.add(BlockID.BURNING_FURNACE);
+        hasTileEntity.add(BlockID.SIGN_POST);
+        hasTileEntity.add(BlockID.WALL_SIGN);
+        hasTileEntity.add(BlockID.JUKEBOX);
+        hasTileEntity.add(BlockID.ENCHANTMENT_TABLE);
+        hasTileEntity.add(BlockID.BREWING_STAND);
+        hasTileEntity.add(BlockID.END_PORTAL);
+        hasTileEntity.add(BlockID.ENDER_CHEST);
+    }
+
+    /**
+     * Returns true if the block keeps a tile entity in the world. Blocks that
+     * are not known to WorldEdit may have one as well.
+     *
+     * @param id
+     * @return
+     */
+    public static boolean hasTileEntity(int id) {
+        return hasProperty(id, TILE_ENTITY);
     }
 
     /**
@@ -658,7 +694,7 @@ public boolean isContainerBlock() {
      * @return
      */
     public static boolean isRedstoneBlock(int id) {
-        return isRedstoneBlock.contains(id);
+        return hasProperty(id, REDSTONE_BLOCK);
     }
 
     /**
@@ -667,7 +703,7 @@ public static boolean isRedstoneBlock(int id) {
      * @return
      */
     public boolean isRedstoneBlock() {
-        return isRedstoneBlock.contains(id);
+        return hasProperty(id, REDSTONE_BLOCK);
     }
 
     /**
@@ -690,7 +726,7 @@ public boolean isRedstoneBlock() {
      * @return
      */
     public static boolean canTransferRedstone(int id) {
-        return canTransferRedstone.contains(id);
+        return hasProperty(id, TRANSFERS_REDSTONE);
     }
 
     /**
@@ -700,7 +736,7 @@ public static boolean canTransferRedstone(int id) {
      * @return
      */
     public boolean canTransferRedstone() {
-        return canTransferRedstone.contains(id);
+        return hasProperty(id, TRANSFERS_REDSTONE);
     }
 
     /**
@@ -725,7 +761,7 @@ public boolean canTransferRedstone() {
      * @return
      */
     public static boolean isRedstoneSource(int id) {
-        return isRedstoneSource.contains(id);
+        return hasProperty(id, REDSTONE_SOURCE);
     }
 
     /**
@@ -734,7 +770,7 @@ public static boolean isRedstoneSource(int id) {
      * @return
      */
     public boolean isRedstoneSource() {
-        return isRedstoneSource.contains(id);
+        return hasProperty(id, REDSTONE_SOURCE);
     }
 
     /**
@@ -754,7 +790,7 @@ public boolean isRedstoneSource() {
      * @return
      */
     public static boolean isRailBlock(int id) {
-        return isRailBlock.contains(id);
+        return hasProperty(id, RAIL);
     }
 
     /**
@@ -763,7 +799,7 @@ public static boolean isRailBlock(int id) {
      * @return
      */
     public boolean isRailBlock() {
-        return isRailBlock.contains(id);
+        return hasProperty(id, RAIL);
     }
 
     /**
@@ -804,7 +840,7 @@ public boolean isRailBlock() {
      * @return
      */
     public static boolean isNaturalTerrainBlock(int id) {
-        return isNaturalTerrainBlock.contains(id);
+        return hasProperty(id, NATURAL_TERRAIN);
     }
 
     /**
@@ -813,7 +849,7 @@ public static boolean isNaturalTerrainBlock(int id) {
      * @return
      */
     public boolean isNaturalTerrainBlock() {
-        return isNaturalTerrainBlock.contains(id);
+        return hasProperty(id, NATURAL_TERRAIN);
     }
 
     /**
@@ -849,7 +885,7 @@ public boolean isNaturalTerrainBlock() {
      * @return
      */
     public static boolean emitsLight(int id) {
-        return emitsLight.contains(id);
+        return hasProperty(id, EMITS_LIGHT);
     }
 
     /**
@@ -940,7 +976,7 @@ public static boolean emitsLight(int id) {
      * @return
      */
     public static boolean isTranslucent(int id) {
-        return isTranslucent.contains(id);
+        return hasProperty(id, TRANSLUCENT);
     }
 
     /**
@@ -1113,10 +1149,8 @@ public static boolean isTranslucent(int id) {
      * @return
      */
     public static BaseItem getBlockBagItem(int type, int data) {
-        BaseItem dropped = nonDataBlockBagItems.get(type);
-        if (dropped != null) return dropped;
-
-        dropped = dataBlockBagItems.get(typeDataKey(type, data));
+        final int key = typeDataKey(type, data);
+        final BaseItem dropped = key >= 0 && key < blockBagItems.length ? blockBagItems[key] : null;
 
         if (dropped == null) {
             return new BaseItemStack(BlockID.AIR, 0);
@@ -1412,10 +1446,11 @@ public static BaseItemStack getBlockDrop(int id, short data) {
      * @return direction to block B
      */
     public static PlayerDirection getAttachment(int type, int data) {
-        PlayerDirection direction = nonDataAttachments.get(type);
-        if (direction != null) return direction;
-
-        return dataAttachments.get(typeDataKey(type, data));
+        final int key = typeDataKey(type, data);
+        if (key < 0 || key >= attachments.length) {
+            return null;
+        }
+        return attachments[key];
     }
 
     private static int typeDataKey(int type, int data) {
@@ -1428,4 +1463,90 @@ private static void addCardinals(int type, int west, int north, int east, int so
         dataAttachments.put(typeDataKey(type, east), PlayerDirection.EAST);
         dataAttachments.put(typeDataKey(type, south), PlayerDirection.SOUTH);
     }
+
+    /*
+     * The sets and maps above are compiled into arrays indexed by block ID,
+     * or by typeDataKey() where the data value matters, so that the lookups
+     * in per-block loops neither box nor hash. Blocks outside of the tables
+     * have none of the properties.
+     */
+    private static final int SHOULD_PLACE_LAST = 1 << 0;
+    private static final int SHOULD_PLACE_FINAL = 1 << 1;
+    private static final int CAN_PASS_THROUGH = 1 << 2;
+    private static final int USES_DATA = 1 << 3;
+    private static final int CONTAINER = 1 << 4;
+    private static final int REDSTONE_BLOCK = 1 << 5;
+    private static final int TRANSFERS_REDSTONE = 1 << 6;
+    private static final int REDSTONE_SOURCE = 1 << 7;
+    private static final int RAIL = 1 << 8;
+    private static final int NATURAL_TERRAIN = 1 << 9;
+    private static final int EMITS_LIGHT = 1 << 10;
+    private static final int TRANSLUCENT = 1 << 11;
+    private static final int TILE_ENTITY = 1 << 12;
+
+    private static final int[] properties;
+    private static final double[] centralTopLimits;
+    private static final double[] dataCentralTopLimits;
+    private static final PlayerDirection[] attachments;
+    private static final BaseItem[] blockBagItems;
+    static {
+        properties = new int[ids.length];
+        compile(shouldPlaceLast, SHOULD_PLACE_LAST);
+        compile(shouldPlaceFinal, SHOULD_PLACE_FINAL);
+        compile(canPassThrough, CAN_PASS_THROUGH);
+        compile(usesData, USES_DATA);
+        compile(isContainerBlock, CONTAINER);
+        compile(isRedstoneBlock, REDSTONE_BLOCK);
+        compile(canTransferRedstone, TRANSFERS_REDSTONE);
+        compile(isRedstoneSource, REDSTONE_SOURCE);
+        compile(isRailBlock, RAIL);
+        compile(isNaturalTerrainBlock, NATURAL_TERRAIN);
+        compile(emitsLight, EMITS_LIGHT);
+        compile(isTranslucent, TRANSLUCENT);
+        compile(hasTileEntity, TILE_ENTITY);
+
+        centralTopLimits = new double[ids.length];
+        dataCentralTopLimits = new double[ids.length << 4];
+        attachments = new PlayerDirection[ids.length << 4];
+        blockBagItems = new BaseItem[ids.length << 4];
+        for (int type = 0; type < ids.length; ++type) {
+            final double defaultLimit = canPassThrough(type) ? 0 : 1;
+            final Double limit = centralTopLimit.get(type);
+            centralTopLimits[type] = limit == null ? defaultLimit : limit;
+
+            for (int data = 0; data < 16; ++data) {
+                final int key = typeDataKey(type, data);
+
+                Double dataLimit = limit;
+                if (dataLimit == null) {
+                    dataLimit = centralTopLimit.get(-16 * type - data);
+                }
+                dataCentralTopLimits[key] = dataLimit == null ? defaultLimit : dataLimit;
+
+                PlayerDirection direction = nonDataAttachments.get(type);
+                if (direction == null) {
+                    direction = dataAttachments.get(key);
+                }
+                attachments[key] = direction;
+
+                BaseItem item = nonDataBlockBagItems.get(type);
+                if (item == null) {
+                    item = dataBlockBagItems.get(key);
+                }
+                blockBagItems[key] = item;
+            }
+        }
+    }
+
+    private static void compile(Set<Integer> set, int property) {
+        for (int id : set) {
+            if (id >= 0 && id < properties.length) {
+                properties[id] |= property;
+            }
+        }
+    }
+
+    private static boolean hasProperty(int id, int property) {
+        return id >= 0 && id < properties.length && (properties[id] & property) != 0;
+    }
 }
@@ -80,6 +80,11 @@ public int schedule(long delay, long period, Runnable task) {
         return Bukkit.getScheduler().scheduleSyncRepeatingTask(plugin, task, delay, period);
     }
 
+    @Override
+    public void cancel(int taskId) {
+        Bukkit.getScheduler().cancelTask(taskId);
+    }
+
     @Override
     public List<LocalWorld> getWorlds() {
         List<World> worlds = server.getWorlds();
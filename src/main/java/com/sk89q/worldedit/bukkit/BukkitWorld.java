@@ -20,6 +20,7 @@
 package com.sk89q.worldedit.bukkit;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -30,6 +31,8 @@
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
 import org.bukkit.Effect;
 import org.bukkit.Location;
 import org.bukkit.Material;
@@ -62,6 +65,7 @@
 
 import com.sk89q.worldedit.BiomeType;
 import com.sk89q.worldedit.BlockVector2D;
+import com.sk89q.worldedit.ChunkSectionBatch;
 import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.EntityType;
 import com.sk89q.worldedit.LocalEntity;
@@ -164,6 +168,67 @@ public boolean setTypeIdAndDataFast(Vector pt, int type, int data) {
         return world.getBlockAt(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ()).setTypeIdAndData(type, (byte) data, false);
     }
 
+    @Override
+    public int setBlocks(ChunkSectionBatch batch, boolean notifyAdjacent) {
+        if (!world.isChunkLoaded(batch.getChunkX(), batch.getChunkZ())) {
+            world.loadChunk(batch.getChunkX(), batch.getChunkZ());
+        }
+
+        if (!skipNmsSafeSet) {
+            try {
+                return NmsBlock.setSafely(this, batch, notifyAdjacent);
+            } catch (Throwable t) {
+                logger.log(Level.WARNING,
+                        "WorldEdit: Failed to do NMS safe block set", t);
+                skipNmsSafeSet = true;
+            }
+        }
+
+        // The Bukkit API can only set one block at a time, so at least the
+        // chunk is only looked up once
+        final Chunk chunk = world.getChunkAt(batch.getChunkX(), batch.getChunkZ());
+        int changed = 0;
+
+        for (int i = 0; i < batch.size(); ++i) {
+            final Block block = chunk.getBlock(batch.getLocalX(i), batch.getBlockY(i), batch.getLocalZ(i));
+            if (block.setTypeIdAndData(batch.getType(i), (byte) batch.getData(i), notifyAdjacent)) {
+                ++changed;
+            }
+        }
+
+        return changed;
+    }
+
+    @Override
+    public void getBlocks(int chunkX, int sectionY, int chunkZ, char[] blocks) {
+        getChunkSections(chunkX, chunkZ, sectionY, new char[][] { blocks });
+    }
+
+    @Override
+    public void getChunkSections(int chunkX, int chunkZ, int minSectionY, char[][] sections) {
+        final ChunkSnapshot snapshot = world.getChunkAt(chunkX, chunkZ).getChunkSnapshot(false, false, false);
+        for (int i = 0; i < sections.length; ++i) {
+            getBlocks(snapshot, minSectionY + i, sections[i]);
+        }
+    }
+
+    private void getBlocks(ChunkSnapshot snapshot, int sectionY, char[] blocks) {
+        if (sectionY < 0 || (sectionY << 4) > getMaxY() || snapshot.isSectionEmpty(sectionY)) {
+            Arrays.fill(blocks, 0, 4096, (char) 0);
+            return;
+        }
+
+        final int baseY = sectionY << 4;
+        for (int y = 0; y < 16; ++y) {
+            for (int z = 0; z < 16; ++z) {
+                for (int x = 0; x < 16; ++x) {
+                    blocks[(y << 8) | (z << 4) | x] = (char) ((snapshot.getBlockTypeId(x, baseY + y, z) << 4)
+                            | snapshot.getBlockData(x, baseY + y, z));
+                }
+            }
+        }
+    }
+
     /**
      * Get block type.
      *
@@ -175,6 +240,11 @@ public int getBlockType(Vector pt) {
         return world.getBlockTypeIdAt(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ());
     }
 
+    @Override
+    public int getBlockType(int x, int y, int z) {
+        return world.getBlockTypeIdAt(x, y, z);
+    }
+
     /**
      * Set block data.
      *
@@ -208,6 +278,11 @@ public int getBlockData(Vector pt) {
         return world.getBlockAt(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ()).getData();
     }
 
+    @Override
+    public int getBlockData(int x, int y, int z) {
+        return world.getBlockAt(x, y, z).getData();
+    }
+
     /**
      * Get block light level.
      *
@@ -244,6 +319,24 @@ public void setBiome(Vector2D pt, BiomeType biome) {
         }
     }
 
+    @Override
+    public void setBiomes(int chunkX, int chunkZ, BiomeType[] biomes) {
+        final int baseX = chunkX << 4;
+        final int baseZ = chunkZ << 4;
+        boolean changed = false;
+        for (int i = 0; i < biomes.length; ++i) {
+            if (biomes[i] instanceof BukkitBiomeType) {
+                world.setBiome(baseX + (i & 0xF), baseZ + (i >> 4), ((BukkitBiomeType) biomes[i]).getBukkitBiome());
+                changed = true;
+            }
+        }
+
+        // Clients only see the new biomes when they get the chunk again
+        if (changed && world.isChunkLoaded(chunkX, chunkZ)) {
+            world.refreshChunk(chunkX, chunkZ);
+        }
+    }
+
     /**
      * Regenerate an area.
      *
@@ -27,6 +27,7 @@
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import net.minecraft.server.ChunkSection;
 import net.minecraft.server.NBTBase;
 import net.minecraft.server.NBTTagByte;
 import net.minecraft.server.NBTTagByteArray;
@@ -59,6 +60,7 @@
 import com.sk89q.jnbt.ShortTag;
 import com.sk89q.jnbt.StringTag;
 import com.sk89q.jnbt.Tag;
+import com.sk89q.worldedit.ChunkSectionBatch;
 import com.sk89q.worldedit.Vector;
 import com.sk89q.worldedit.blocks.BaseBlock;
 import com.sk89q.worldedit.blocks.TileEntityBlock;
@@ -77,8 +79,16 @@ class NmsBlock extends BaseBlock implements TileEntityBlock {
     private static final Logger logger = Logger.getLogger(NmsBlock.class.getCanonicalName());
     private static Field compoundMapField;
     private static final Field nmsBlock_isTileEntityField; // The field is deobfuscated but the method isn't. No idea why.
+    private static final Field nmsChunk_sectionsField; // The getter is obfuscated and moves around between versions
     private NBTTagCompound nbtData = null;
 
+    /**
+     * Batches with fewer changes than this are set block by block. Larger
+     * batches are written straight into the chunk section, and the chunk is
+     * relit and the section sent to players once.
+     */
+    private static final int DIRECT_WRITE_THRESHOLD = 64;
+
     static {
         Field field;
         try {
@@ -89,6 +99,15 @@ class NmsBlock extends BaseBlock implements TileEntityBlock {
             field = null;
         }
         nmsBlock_isTileEntityField = field;
+
+        try {
+            field = net.minecraft.server.Chunk.class.getDeclaredField("sections");
+            field.setAccessible(true);
+        } catch (NoSuchFieldException e) {
+            logger.severe("Could not find NMS chunk sections field!");
+            field = null;
+        }
+        nmsChunk_sectionsField = field;
     }
 
     /**
@@ -266,6 +285,160 @@ public static boolean setSafely(BukkitWorld world, Vector position,
         return changed;
     }
 
+    /**
+     * Sets a batch of blocks in one chunk section. The chunk is looked up
+     * once. Large batches are written into the section's arrays, after which
+     * the chunk is relit and the section is sent to players once. Blocks
+     * with tile entities or that give off light still go through the world
+     * one at a time, so that their tile entities and block light are kept.
+     *
+     * @param world world to set the blocks in
+     * @param batch the blocks to set
+     * @param notifyAdjacent true to notify physics and what not
+     * @return number of blocks whose id or data was changed
+     */
+    public static int setSafely(BukkitWorld world, ChunkSectionBatch batch,
+            boolean notifyAdjacent) {
+
+        net.minecraft.server.World handle = ((CraftWorld) world.getWorld()).getHandle();
+        net.minecraft.server.Chunk chunk = handle.getChunkAt(batch.getChunkX(), batch.getChunkZ());
+        ChunkSection section = batch.size() >= DIRECT_WRITE_THRESHOLD
+                ? getSection(chunk, batch.getSectionY()) : null;
+
+        if (section == null) {
+            return setOneByOne(handle, batch, notifyAdjacent);
+        }
+
+        int[] changedIndices = new int[batch.size()];
+        int changed = 0;
+        boolean written = false;
+
+        for (int i = 0; i < batch.size(); ++i) {
+            int x = batch.getLocalX(i);
+            int y = batch.getBlockY(i) & 0xF;
+            int z = batch.getLocalZ(i);
+            int type = batch.getType(i);
+            int data = batch.getData(i);
+            int oldType = section.a(x, y, z);
+
+            if (oldType == type && section.b(x, y, z) == data) {
+                continue;
+            }
+
+            if (hasTileEntity(oldType) || hasTileEntity(type) || givesOffLight(oldType) || givesOffLight(type)) {
+                if (!handle.setRawTypeIdAndData(batch.getBlockX(i), batch.getBlockY(i), batch.getBlockZ(i), type, data)) {
+                    continue;
+                }
+            } else {
+                section.a(x, y, z, type);
+                section.b(x, y, z, data);
+                written = true;
+            }
+
+            changedIndices[changed++] = i;
+        }
+
+        if (written) {
+            // Also recomputes the height map and marks the chunk as modified
+            chunk.initLighting();
+        }
+
+        if (changed > 0) {
+            notifySection(handle, batch.getChunkX(), batch.getSectionY(), batch.getChunkZ());
+        }
+
+        if (notifyAdjacent) {
+            for (int n = 0; n < changed; ++n) {
+                int i = changedIndices[n];
+                handle.applyPhysics(batch.getBlockX(i), batch.getBlockY(i), batch.getBlockZ(i), batch.getType(i));
+            }
+        }
+
+        return changed;
+    }
+
+    private static int setOneByOne(net.minecraft.server.World handle, ChunkSectionBatch batch,
+            boolean notifyAdjacent) {
+
+        int changed = 0;
+
+        for (int i = 0; i < batch.size(); ++i) {
+            int x = batch.getBlockX(i);
+            int y = batch.getBlockY(i);
+            int z = batch.getBlockZ(i);
+            int type = batch.getType(i);
+
+            if (handle.setRawTypeIdAndData(x, y, z, type, batch.getData(i))) {
+                ++changed;
+
+                if (notifyAdjacent) {
+                    handle.update(x, y, z, type);
+                } else {
+                    handle.notify(x, y, z);
+                }
+            }
+        }
+
+        return changed;
+    }
+
+    /**
+     * Get a section of a chunk, creating it if it is empty.
+     *
+     * @param chunk
+     * @param sectionY
+     * @return the section, or null if it cannot be accessed
+     */
+    private static ChunkSection getSection(net.minecraft.server.Chunk chunk, int sectionY) {
+        // Without knowing which blocks have tile entities, writing past the
+        // world could leave tile entities behind
+        if (nmsChunk_sectionsField == null || nmsBlock_isTileEntityField == null) {
+            return null;
+        }
+
+        ChunkSection[] sections;
+        try {
+            sections = (ChunkSection[]) nmsChunk_sectionsField.get(chunk);
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+
+        if (sectionY < 0 || sectionY >= sections.length) {
+            return null;
+        }
+
+        if (sections[sectionY] == null) {
+            sections[sectionY] = new ChunkSection(sectionY << 4);
+        }
+        return sections[sectionY];
+    }
+
+    /**
+     * Have a whole chunk section sent to the players that can see it. Once
+     * more than 64 blocks of a chunk are marked, the server sends the
+     * sections they are in instead of single blocks, like
+     * {@link CraftWorld#refreshChunk(int, int)} does for whole chunks.
+     *
+     * @param handle
+     * @param chunkX
+     * @param sectionY
+     * @param chunkZ
+     */
+    private static void notifySection(net.minecraft.server.World handle, int chunkX, int sectionY, int chunkZ) {
+        int baseX = chunkX << 4;
+        int baseY = sectionY << 4;
+        int baseZ = chunkZ << 4;
+
+        for (int i = 0; i <= 64; ++i) {
+            handle.notify(baseX + (i & 0xF), baseY + (i >> 4), baseZ);
+        }
+    }
+
+    private static boolean givesOffLight(int type) {
+        return type >= 0 && type < net.minecraft.server.Block.lightEmission.length
+                && net.minecraft.server.Block.lightEmission[type] > 0;
+    }
+
     public static boolean hasTileEntity(int type) {
         net.minecraft.server.Block nmsBlock = getNmsBlock(type);
         if (nmsBlock == null) {
@@ -136,28 +136,11 @@ public void setBiome(CommandContext args, LocalSession session, LocalPlayer play
 
         if (args.hasFlag('p')) {
             Vector2D pos = player.getPosition().toVector2D();
-            player.getWorld().setBiome(pos, target);
+            editSession.setBiome(pos, target);
             player.print("Biome changed to " + target.getName() + " at your current location.");
         } else {
-            int affected = 0;
-            LocalWorld world = player.getWorld();
-            Region region = session.getSelection(world);
-
-            if (region instanceof FlatRegion) {
-                for (Vector2D pt : ((FlatRegion) region).asFlatRegion()) {
-                    world.setBiome(pt, target);
-                    ++affected;
-                }
-            } else {
-                HashSet<Long> alreadyVisited = new HashSet<Long>();
-                for (Vector pt : region) {
-                    if (!alreadyVisited.contains((long)pt.getBlockX() << 32 | pt.getBlockZ())) {
-                        alreadyVisited.add(((long)pt.getBlockX() << 32 | pt.getBlockZ()));
-                        world.setBiome(pt.toVector2D(), target);
-                        ++affected;
-                    }
-                }
-            }
+            Region region = session.getSelection(player.getWorld());
+            int affected = editSession.setBiomes(region, target);
 
             player.print("Biome changed to " + target.getName() + ". " + affected + " columns affected.");
         }
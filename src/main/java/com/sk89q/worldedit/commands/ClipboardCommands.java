@@ -66,7 +66,7 @@ public void copy(CommandContext args, LocalSession session, LocalPlayer player,
         CuboidClipboard clipboard = new CuboidClipboard(
                 max.subtract(min).add(new Vector(1, 1, 1)),
                 min, min.subtract(pos));
-        clipboard.copy(editSession);
+        clipboard.copy(editSession, we.getConfiguration().lazyClipboardCopy);
         if (args.hasFlag('e')) {
             for (LocalEntity entity : player.getWorld().getEntities(region)) {
                 clipboard.storeEntity(entity);
@@ -98,6 +98,49 @@ public void fast(CommandContext args, LocalSession session, LocalPlayer player,
         }
     }
 
+    @Command(
+        aliases = { "/seed" },
+        usage = "[seed]",
+        desc = "Make random patterns repeatable",
+        min = 0,
+        max = 1
+    )
+    @CommandPermissions("worldedit.seed")
+    public void seed(CommandContext args, LocalSession session, LocalPlayer player,
+            EditSession editSession) throws WorldEditException {
+        if (args.argsLength() == 0) {
+            session.setPatternSeed(null);
+            player.print("Random patterns are no longer seeded.");
+            return;
+        }
+
+        // Like world seeds, text that is not a number is hashed
+        String seedString = args.getString(0);
+        long seed;
+        try {
+            seed = Long.parseLong(seedString);
+        } catch (NumberFormatException e) {
+            seed = seedString.hashCode();
+        }
+
+        session.setPatternSeed(seed);
+        player.print("Random patterns now start from seed " + seed + ".");
+    }
+
+    @Command(
+        aliases = { "/cancel" },
+        usage = "",
+        desc = "Stop the operation that is running in the background",
+        min = 0,
+        max = 0
+    )
+    public void cancel(CommandContext args, LocalSession session, LocalPlayer player,
+            EditSession editSession) throws WorldEditException {
+        if (!session.cancelJob()) {
+            player.printError("No operation is running.");
+        }
+    }
+
     @Command(
         aliases = { "/gmask", "gmask" },
         usage = "[mask]",
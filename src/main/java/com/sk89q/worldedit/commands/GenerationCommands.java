@@ -34,6 +34,7 @@
 import com.sk89q.worldedit.WorldEdit;
 import com.sk89q.worldedit.WorldEditException;
 import com.sk89q.worldedit.expression.ExpressionException;
+import com.sk89q.worldedit.operations.SphereOperation;
 import com.sk89q.worldedit.patterns.Pattern;
 import com.sk89q.worldedit.regions.Region;
 import com.sk89q.worldedit.util.TreeGenerator;
@@ -179,6 +180,13 @@ public void hsphere(CommandContext args, LocalSession session, LocalPlayer playe
             pos = pos.add(0, radiusY, 0);
         }
 
+        if (we.runIncrementally(player, session, editSession,
+                new SphereOperation(pos, block, radiusX, radiusY, radiusZ, false),
+                "block(s) have been created.")) {
+            player.findFreePosition();
+            return;
+        }
+
         int affected = editSession.makeSphere(pos, block, radiusX, radiusY, radiusZ, false);
         player.findFreePosition();
         player.print(affected + " block(s) have been created.");
@@ -231,6 +239,13 @@ public void sphere(CommandContext args, LocalSession session, LocalPlayer player
             pos = pos.add(0, radiusY, 0);
         }
 
+        if (we.runIncrementally(player, session, editSession,
+                new SphereOperation(pos, block, radiusX, radiusY, radiusZ, true),
+                "block(s) have been created.")) {
+            player.findFreePosition();
+            return;
+        }
+
         int affected = editSession.makeSphere(pos, block, radiusX, radiusY, radiusZ, true);
         player.findFreePosition();
         player.print(affected + " block(s) have been created.");
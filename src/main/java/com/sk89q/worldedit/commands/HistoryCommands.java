@@ -53,30 +53,32 @@ public void undo(CommandContext args, LocalSession session, LocalPlayer player,
         Mask mask = session.getMask();
         session.setMask(null);
 
-        for (int i = 0; i < times; ++i) {
-            EditSession undone;
-            if (args.argsLength() < 2) {
-                undone = session.undo(session.getBlockBag(player));
-            } else {
-                player.checkPermission("worldedit.history.undo.other");
-                LocalSession sess = we.getSession(args.getString(1));
-                if (sess == null) {
-                    player.printError("Unable to find session for " + args.getString(1));
-                    break;
+        try {
+            for (int i = 0; i < times; ++i) {
+                EditSession undone;
+                if (args.argsLength() < 2) {
+                    undone = session.undo(session.getBlockBag(player));
+                } else {
+                    player.checkPermission("worldedit.history.undo.other");
+                    LocalSession sess = we.getSession(args.getString(1));
+                    if (sess == null) {
+                        player.printError("Unable to find session for " + args.getString(1));
+                        break;
+                    }
+                    undone = sess.undo(session.getBlockBag(player));
                 }
-                undone = sess.undo(session.getBlockBag(player));
-            }
 
-            if (undone != null) {
-                player.print("Undo successful.");
-                we.flushBlockBag(player, undone);
-            } else {
-                player.printError("Nothing left to undo.");
-                break;
+                if (undone != null) {
+                    player.print("Undo successful.");
+                    we.flushBlockBag(player, undone);
+                } else {
+                    player.printError("Nothing left to undo.");
+                    break;
+                }
             }
+        } finally {
+            session.setMask(mask);
         }
-
-        session.setMask(mask);
     }
 
     @Command(
@@ -95,29 +97,31 @@ public void redo(CommandContext args, LocalSession session, LocalPlayer player,
         Mask mask = session.getMask();
         session.setMask(null);
 
-        for (int i = 0; i < times; ++i) {
-            EditSession redone;
-            if (args.argsLength() < 2) {
-                redone = session.redo(session.getBlockBag(player));
-            } else {
-                player.checkPermission("worldedit.history.redo.other");
-                LocalSession sess = we.getSession(args.getString(1));
-                if (sess == null) {
-                    player.printError("Unable to find session for " + args.getString(1));
-                    break;
+        try {
+            for (int i = 0; i < times; ++i) {
+                EditSession redone;
+                if (args.argsLength() < 2) {
+                    redone = session.redo(session.getBlockBag(player));
+                } else {
+                    player.checkPermission("worldedit.history.redo.other");
+                    LocalSession sess = we.getSession(args.getString(1));
+                    if (sess == null) {
+                        player.printError("Unable to find session for " + args.getString(1));
+                        break;
+                    }
+                    redone = sess.redo(session.getBlockBag(player));
                 }
-                redone = sess.redo(session.getBlockBag(player));
-            }
 
-            if (redone != null) {
-                player.print("Redo successful.");
-                we.flushBlockBag(player, redone);
-            } else {
-                player.printError("Nothing left to redo.");
+                if (redone != null) {
+                    player.print("Redo successful.");
+                    we.flushBlockBag(player, redone);
+                } else {
+                    player.printError("Nothing left to redo.");
+                }
             }
+        } finally {
+            session.setMask(mask);
         }
-
-        session.setMask(mask);
     }
 
     @Command(
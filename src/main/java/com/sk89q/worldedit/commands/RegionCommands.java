@@ -42,6 +42,9 @@
 import com.sk89q.worldedit.filtering.GaussianKernel;
 import com.sk89q.worldedit.filtering.HeightMapFilter;
 import com.sk89q.worldedit.masks.Mask;
+import com.sk89q.worldedit.operations.ReplaceBlocksOperation;
+import com.sk89q.worldedit.operations.SetBlocksOperation;
+import com.sk89q.worldedit.operations.StackOperation;
 import com.sk89q.worldedit.patterns.Pattern;
 import com.sk89q.worldedit.patterns.SingleBlockPattern;
 import com.sk89q.worldedit.regions.Region;
@@ -72,14 +75,20 @@ public void set(CommandContext args, LocalSession session, LocalPlayer player,
             EditSession editSession) throws WorldEditException {
 
         Pattern pattern = we.getBlockPattern(player, args.getString(0));
+        Region region = session.getSelection(player.getWorld());
+
+        if (we.runIncrementally(player, session, editSession,
+                new SetBlocksOperation(region, pattern), "block(s) have been changed.")) {
+            return;
+        }
 
         int affected;
 
         if (pattern instanceof SingleBlockPattern) {
-            affected = editSession.setBlocks(session.getSelection(player.getWorld()),
+            affected = editSession.setBlocks(region,
                     ((SingleBlockPattern) pattern).getBlock());
         } else {
-            affected = editSession.setBlocks(session.getSelection(player.getWorld()), pattern);
+            affected = editSession.setBlocks(region, pattern);
         }
 
         player.print(affected + " block(s) have been changed.");
@@ -108,12 +117,19 @@ public void replace(CommandContext args, LocalSession session, LocalPlayer playe
             to = we.getBlockPattern(player, args.getString(1));
         }
 
+        Region region = session.getSelection(player.getWorld());
+
+        if (we.runIncrementally(player, session, editSession,
+                new ReplaceBlocksOperation(region, from, to), "block(s) have been replaced.")) {
+            return;
+        }
+
         int affected = 0;
         if (to instanceof SingleBlockPattern) {
-            affected = editSession.replaceBlocks(session.getSelection(player.getWorld()), from,
+            affected = editSession.replaceBlocks(region, from,
                     ((SingleBlockPattern) to).getBlock());
         } else {
-            affected = editSession.replaceBlocks(session.getSelection(player.getWorld()), from, to);
+            affected = editSession.replaceBlocks(region, from, to);
         }
 
         player.print(affected + " block(s) have been replaced.");
@@ -313,34 +329,62 @@ public void move(CommandContext args, LocalSession session, LocalPlayer player,
     )
     @CommandPermissions("worldedit.region.stack")
     @Logging(ORIENTATION_REGION)
-    public void stack(CommandContext args, LocalSession session, LocalPlayer player,
+    public void stack(CommandContext args, final LocalSession session, final LocalPlayer player,
             EditSession editSession) throws WorldEditException {
 
-        int count = args.argsLength() > 0 ? Math.max(1, args.getInteger(0)) : 1;
-        Vector dir = we.getDiagonalDirection(player,
+        final int count = args.argsLength() > 0 ? Math.max(1, args.getInteger(0)) : 1;
+        final Vector dir = we.getDiagonalDirection(player,
                 args.argsLength() > 1 ? args.getString(1).toLowerCase() : "me");
 
-        int affected = editSession.stackCuboidRegion(session.getSelection(player.getWorld()),
-                dir, count, !args.hasFlag('a'));
-
-        if (args.hasFlag('s')) {
-            try {
-                final Region region = session.getSelection(player.getWorld());
-                final Vector size = region.getMaximumPoint().subtract(region.getMinimumPoint());
+        final Region region = session.getSelection(player.getWorld());
+        final Vector size = region.getMaximumPoint().subtract(region.getMinimumPoint());
+        final boolean shift = args.hasFlag('s');
+
+        // A stack over several ticks only shifts the selection once it is done,
+        // by the size the selection had when the stack was started
+        if (we.runIncrementally(player, session, editSession,
+                new StackOperation(region, dir, count, !args.hasFlag('a')),
+                "blocks changed. Undo with //undo", new Runnable() {
+                    public void run() {
+                        if (shift) {
+                            shiftSelection(session, player, region, size, dir, count);
+                        }
+                    }
+                })) {
+            return;
+        }
 
-                final Vector shiftVector = dir.multiply(count * (Math.abs(dir.dot(size))+1));
-                region.shift(shiftVector);
+        int affected = editSession.stackCuboidRegion(region, dir, count, !args.hasFlag('a'));
 
-                session.getRegionSelector(player.getWorld()).learnChanges();
-                session.getRegionSelector(player.getWorld()).explainRegionAdjust(player, session);
-            } catch (RegionOperationException e) {
-                player.printError(e.getMessage());
-            }
+        if (shift) {
+            shiftSelection(session, player, region, size, dir, count);
         }
 
         player.print(affected + " blocks changed. Undo with //undo");
     }
 
+    /**
+     * Shift a selection to the last copy of a stack.
+     *
+     * @param session
+     * @param player
+     * @param region
+     * @param size the size of the stacked region, minus one
+     * @param dir
+     * @param count
+     */
+    private void shiftSelection(LocalSession session, LocalPlayer player, Region region, Vector size, Vector dir, int count) {
+        try {
+            final Vector shiftVector = dir.multiply(count * (Math.abs(dir.dot(size))+1));
+            region.shift(shiftVector);
+
+            session.getRegionSelector(player.getWorld()).learnChanges();
+            session.getRegionSelector(player.getWorld()).explainRegionAdjust(player, session);
+        } catch (RegionOperationException e) {
+            player.printError(e.getMessage());
+        }
+    }
+
     @Command(
         aliases = { "/regen" },
         usage = "",
@@ -166,7 +166,7 @@ public void save(CommandContext args, LocalSession session, LocalPlayer player,
                 }
             }
 
-            format.save(session.getClipboard(), f);
+            format.save(session.getClipboard(), f, config.saveCompressionLevel, config.saveParallelCompression);
             WorldEdit.logger.info(player.getName() + " saved " + f.getCanonicalPath());
             player.print(filename + " saved.");
         } catch (DataException se) {
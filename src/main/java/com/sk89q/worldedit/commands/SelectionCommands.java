@@ -29,6 +29,7 @@
 import com.sk89q.minecraft.util.commands.CommandPermissions;
 import com.sk89q.worldedit.*;
 import com.sk89q.worldedit.data.ChunkStore;
+import com.sk89q.worldedit.operations.CountBlocksOperation;
 import com.sk89q.worldedit.regions.CuboidRegionSelector;
 import com.sk89q.worldedit.regions.EllipsoidRegionSelector;
 import com.sk89q.worldedit.regions.ExtendingCuboidRegionSelector;
@@ -529,13 +530,23 @@ public void size(CommandContext args, LocalSession session, LocalPlayer player,
         max = 1
     )
     @CommandPermissions("worldedit.analysis.count")
-    public void count(CommandContext args, LocalSession session, LocalPlayer player,
+    public void count(CommandContext args, LocalSession session, final LocalPlayer player,
             EditSession editSession) throws WorldEditException {
         
-        Set<Integer> searchIDs = we.getBlockIDs(player,
+        final Set<Integer> searchIDs = we.getBlockIDs(player,
                 args.getString(0), true);
-        player.print("Counted: " +
-                editSession.countBlocks(session.getSelection(player.getWorld()), searchIDs));
+        Region region = session.getSelection(player.getWorld());
+
+        if (we.runIncrementally(player, session, editSession, new CountBlocksOperation(region) {
+            @Override
+            protected void done(int[] histogram) {
+                player.print("Counted: " + EditSession.countBlocks(histogram, searchIDs));
+            }
+        }, null)) {
+            return;
+        }
+
+        player.print("Counted: " + editSession.countBlocks(region, searchIDs));
     }
 
     @Command(
@@ -550,20 +561,33 @@ public void count(CommandContext args, LocalSession session, LocalPlayer player,
         max = 0
     )
     @CommandPermissions("worldedit.analysis.distr")
-    public void distr(CommandContext args, LocalSession session, LocalPlayer player,
+    public void distr(CommandContext args, LocalSession session, final LocalPlayer player,
             EditSession editSession) throws WorldEditException {
         
-        List<Countable<Integer>> distribution =
-                editSession.getBlockDistribution(session.getSelection(player.getWorld()));
+        final Region region = session.getSelection(player.getWorld());
+        final boolean console = args.hasFlag('c');
+
+        if (we.runIncrementally(player, session, editSession, new CountBlocksOperation(region) {
+            @Override
+            protected void done(int[] histogram) {
+                printDistribution(player, EditSession.getBlockDistribution(histogram), region.getArea(), console);
+            }
+        }, null)) {
+            return;
+        }
+
+        printDistribution(player, editSession.getBlockDistribution(region), region.getArea(), console);
+    }
+
+    private void printDistribution(LocalPlayer player, List<Countable<Integer>> distribution,
+            int size, boolean console) {
 
         Logger logger = Logger.getLogger("Minecraft.WorldEdit");
 
         if (distribution.size() > 0) { // *Should* always be true
-            int size = session.getSelection(player.getWorld()).getArea();
-
             player.print("# total blocks: " + size);
 
-            if (args.hasFlag('c')) {
+            if (console) {
                 logger.info("Block distribution (req. by " + player.getName() + "):");
                 logger.info("# total blocks: " + size);
             }
@@ -576,7 +600,7 @@ public void distr(CommandContext args, LocalSession session, LocalPlayer player,
                         block == null ? "Unknown" : block.getName(), c.getID());
                 player.print(str);
 
-                if (args.hasFlag('c')) {
+                if (console) {
                     logger.info(str);
                 }
             }
@@ -20,6 +20,10 @@
 package com.sk89q.worldedit.data;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import com.sk89q.jnbt.*;
@@ -72,7 +76,36 @@ public abstract CompoundTag getChunkTag(Vector2D pos, LocalWorld world)
     public Chunk getChunk(Vector2D pos, LocalWorld world)
             throws DataException, IOException {
 
-        CompoundTag tag = getChunkTag(pos, world);
+        return getCompressedChunk(pos, world).decode(world);
+    }
+
+    /**
+     * Read the data of a chunk without decoding it, so that it can be
+     * decoded on another thread with {@link CompressedChunk#decode(LocalWorld)}.
+     * Stores that cannot separate reading from decoding return a chunk
+     * that has already been parsed.
+     *
+     * @param pos
+     * @param world
+     * @return
+     * @throws DataException
+     * @throws IOException
+     */
+    public CompressedChunk getCompressedChunk(Vector2D pos, LocalWorld world)
+            throws DataException, IOException {
+
+        return new CompressedChunk(getChunkTag(pos, world));
+    }
+
+    /**
+     * Create a chunk from its 'Level' tag.
+     *
+     * @param tag
+     * @param world
+     * @return
+     * @throws DataException
+     */
+    public static Chunk toChunk(CompoundTag tag, LocalWorld world) throws DataException {
         Map<String, Tag> tags = tag.getValue();
         if(tags.containsKey("Sections")) {
             return new AnvilChunk(world, tag);
@@ -80,6 +113,148 @@ public Chunk getChunk(Vector2D pos, LocalWorld world)
         return new OldChunk(world, tag);
     }
 
+    /**
+     * Read the NBT data of a chunk and return its 'Level' tag. The stream is
+     * closed afterwards.
+     *
+     * @param stream uncompressed data
+     * @return
+     * @throws DataException
+     * @throws IOException
+     */
+    public static CompoundTag readLevelTag(InputStream stream)
+            throws DataException, IOException {
+        NBTInputStream nbt = new NBTInputStream(stream);
+        Tag tag;
+
+        try {
+            tag = nbt.readTag();
+            if (!(tag instanceof CompoundTag)) {
+                throw new ChunkStoreException("CompoundTag expected for chunk; got "
+                        + tag.getClass().getName());
+            }
+
+            Map<String, Tag> children = (Map<String, Tag>) ((CompoundTag) tag).getValue();
+            CompoundTag rootTag = null;
+
+            // Find Level tag
+            for (Map.Entry<String, Tag> entry : children.entrySet()) {
+                if (entry.getKey().equals("Level")) {
+                    if (entry.getValue() instanceof CompoundTag) {
+                        rootTag = (CompoundTag) entry.getValue();
+                        break;
+                    } else {
+                        throw new ChunkStoreException("CompoundTag expected for 'Level'; got "
+                                + entry.getValue().getClass().getName());
+                    }
+                }
+            }
+
+            if (rootTag == null) {
+                throw new ChunkStoreException("Missing root 'Level' tag");
+            }
+
+            return rootTag;
+        } finally {
+            nbt.close();
+        }
+    }
+
+    /**
+     * Read the NBT data of a chunk and create the chunk from it. Unlike
+     * {@link #readLevelTag(InputStream)}, only the parts of the 'Level' tag
+     * that {@link AnvilChunk} and {@link OldChunk} use are kept, and
+     * entities, lighting, height maps and biomes are skipped without being
+     * parsed. The stream is closed afterwards.
+     *
+     * @param stream uncompressed data
+     * @param world
+     * @return
+     * @throws DataException
+     * @throws IOException
+     */
+    public static Chunk readChunk(InputStream stream, LocalWorld world)
+            throws DataException, IOException {
+        NBTStreamReader reader = new NBTStreamReader(stream);
+
+        try {
+            int type = reader.readNamedTag();
+            if (type != NBTConstants.TYPE_COMPOUND) {
+                throw new ChunkStoreException("CompoundTag expected for chunk; got type " + type);
+            }
+
+            CompoundTag rootTag = null;
+
+            while ((type = reader.readNamedTag()) != NBTConstants.TYPE_END) {
+                if (rootTag == null && reader.isName("Level")) {
+                    if (type != NBTConstants.TYPE_COMPOUND) {
+                        throw new ChunkStoreException("CompoundTag expected for 'Level'; got type " + type);
+                    }
+                    rootTag = readLevel(reader);
+                } else {
+                    reader.skipPayload(type);
+                }
+            }
+
+            if (rootTag == null) {
+                throw new ChunkStoreException("Missing root 'Level' tag");
+            }
+
+            return toChunk(rootTag, world);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static CompoundTag readLevel(NBTStreamReader reader) throws IOException {
+        Map<String, Tag> level = new HashMap<String, Tag>();
+        int type;
+
+        while ((type = reader.readNamedTag()) != NBTConstants.TYPE_END) {
+            if (reader.isName("xPos") || reader.isName("zPos")
+                    || reader.isName("Blocks") || reader.isName("Data")
+                    || reader.isName("TileEntities")) {
+                String name = reader.getName();
+                level.put(name, reader.readPayload(type, name));
+            } else if (reader.isName("Sections") && type == NBTConstants.TYPE_LIST) {
+                int sectionType = reader.readListHeader();
+                int length = reader.getListLength();
+                List<Tag> sections = new ArrayList<Tag>(length);
+
+                for (int i = 0; i < length; ++i) {
+                    if (sectionType == NBTConstants.TYPE_COMPOUND) {
+                        sections.add(readSection(reader));
+                    } else {
+                        reader.skipPayload(sectionType);
+                    }
+                }
+
+                level.put("Sections", new ListTag("Sections", CompoundTag.class, sections));
+            } else {
+                reader.skipPayload(type);
+            }
+        }
+
+        return new CompoundTag("Level", level);
+    }
+
+    private static CompoundTag readSection(NBTStreamReader reader) throws IOException {
+        Map<String, Tag> section = new HashMap<String, Tag>();
+        int type;
+
+        while ((type = reader.readNamedTag()) != NBTConstants.TYPE_END) {
+            if (reader.isName("Y") || reader.isName("Blocks")
+                    || reader.isName("Data") || reader.isName("Add")) {
+                String name = reader.getName();
+                section.put(name, reader.readPayload(type, name));
+            } else {
+                reader.skipPayload(type);
+            }
+        }
+
+        return new CompoundTag("", section);
+    }
+
     /**
      * Close resources.
      *
@@ -0,0 +1,138 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.GZIPInputStream;
+
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.worldedit.LocalWorld;
+
+/**
+ * The data of a chunk as it was read from a chunk store, before it has been
+ * decompressed and parsed.
+ *
+ * <p>Reading from a chunk store is not thread-safe, but once the data has
+ * been read, {@link #decode(LocalWorld)} may be called from any thread.</p>
+ */
+public class CompressedChunk {
+
+    /**
+     * Data compressed with GZIP.
+     */
+    public static final int GZIP = 1;
+
+    /**
+     * Data compressed with zlib.
+     */
+    public static final int DEFLATE = 2;
+
+    private final ByteBuffer data;
+    private final int compression;
+    private final CompoundTag tag;
+
+    /**
+     * Construct the chunk from compressed data.
+     *
+     * @param data
+     * @param compression {@link #GZIP} or {@link #DEFLATE}
+     */
+    public CompressedChunk(byte[] data, int compression) {
+        this(ByteBuffer.wrap(data), compression);
+    }
+
+    /**
+     * Construct the chunk from compressed data between the buffer's
+     * position and limit. The buffer must not be changed afterwards.
+     *
+     * @param data
+     * @param compression {@link #GZIP} or {@link #DEFLATE}
+     */
+    public CompressedChunk(ByteBuffer data, int compression) {
+        this.data = data;
+        this.compression = compression;
+        this.tag = null;
+    }
+
+    /**
+     * Construct the chunk from its already parsed 'Level' tag.
+     *
+     * @param tag
+     */
+    public CompressedChunk(CompoundTag tag) {
+        this.data = null;
+        this.compression = 0;
+        this.tag = tag;
+    }
+
+    /**
+     * Get the uncompressed data.
+     *
+     * @return
+     * @throws IOException
+     */
+    public InputStream getInputStream() throws IOException {
+        if (data == null) {
+            throw new IOException("Chunk has already been parsed");
+        }
+
+        if (compression == GZIP) {
+            final byte[] bytes = new byte[data.remaining()];
+            data.duplicate().get(bytes);
+            return new GZIPInputStream(new ByteArrayInputStream(bytes));
+        } else {
+            return new InflatingInputStream(data.duplicate());
+        }
+    }
+
+    /**
+     * Decompress and parse the chunk's 'Level' tag.
+     *
+     * @return
+     * @throws DataException
+     * @throws IOException
+     */
+    public CompoundTag getTag() throws DataException, IOException {
+        if (tag != null) {
+            return tag;
+        }
+
+        return ChunkStore.readLevelTag(getInputStream());
+    }
+
+    /**
+     * Decompress and parse the chunk.
+     *
+     * @param world
+     * @return
+     * @throws DataException
+     * @throws IOException
+     */
+    public Chunk decode(LocalWorld world) throws DataException, IOException {
+        if (tag != null) {
+            return ChunkStore.toChunk(tag, world);
+        }
+
+        return ChunkStore.readChunk(getInputStream(), world);
+    }
+}
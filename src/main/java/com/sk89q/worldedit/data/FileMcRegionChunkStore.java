@@ -24,6 +24,11 @@
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.sk89q.worldedit.LocalWorld;
+import com.sk89q.worldedit.Vector2D;
 
 public class FileMcRegionChunkStore extends McRegionChunkStore {
     /**
@@ -31,6 +36,13 @@ public class FileMcRegionChunkStore extends McRegionChunkStore {
      */
     private File path;
 
+    /**
+     * Region files that have been read from, by name. They stay mapped until
+     * the store is closed.
+     */
+    private final Map<String, MappedMcRegionReader> mappedReaders =
+            new HashMap<String, MappedMcRegionReader>();
+
     /**
      * Create an instance. The passed path is the folder to read the
      * chunk files from.
@@ -41,9 +53,43 @@ public FileMcRegionChunkStore(File path) {
         this.path = path;
     }
 
+    @Override
+    public CompressedChunk getCompressedChunk(Vector2D pos, LocalWorld world)
+            throws DataException, IOException {
+
+        String name = getFilename(pos);
+        MappedMcRegionReader reader = mappedReaders.get(name);
+        if (reader == null) {
+            reader = new MappedMcRegionReader(getRegionFile(name));
+            mappedReaders.put(name, reader);
+        }
+
+        CompressedChunk chunk = reader.readCompressedChunk(pos);
+        if (chunk == null) {
+            throw new MissingChunkException();
+        }
+
+        return chunk;
+    }
+
     @Override
     protected InputStream getInputStream(String name, String world) throws IOException,
             DataException {
+        try {
+            return new FileInputStream(getRegionFile(name));
+        } catch (FileNotFoundException e) {
+            throw new MissingChunkException();
+        }
+    }
+
+    /**
+     * Find a region file.
+     *
+     * @param name
+     * @return
+     * @throws MissingChunkException if there is no such file
+     */
+    private File getRegionFile(String name) throws MissingChunkException {
         String fileName = "region" + File.separator + name;
         File file = new File(path, fileName.replace("mcr", "mca")); // TODO: does this need a separate class?
         if (!file.exists()) {
@@ -55,12 +101,20 @@ protected InputStream getInputStream(String name, String world) throws IOExcepti
         if (!file.exists()) {
             file = new File(path, "DIM-1" + File.separator + fileName);
         }
-
-        try {
-            return new FileInputStream(file);
-        } catch (FileNotFoundException e) {
+        if (!file.exists()) {
             throw new MissingChunkException();
         }
+
+        return file;
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+        for (MappedMcRegionReader reader : mappedReaders.values()) {
+            reader.close();
+        }
+        mappedReaders.clear();
     }
 
     @Override
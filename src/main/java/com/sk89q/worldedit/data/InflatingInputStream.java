@@ -0,0 +1,133 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.data;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Inflates zlib data held in a {@link ByteBuffer}, such as a slice of a
+ * memory-mapped region file. {@link Inflater}s are taken from a shared pool
+ * and handed back when the stream is closed.
+ */
+public class InflatingInputStream extends InputStream {
+
+    private static final int MAX_POOLED_INFLATERS = 16;
+    private static final Inflater[] pool = new Inflater[MAX_POOLED_INFLATERS];
+    private static int pooled = 0;
+
+    private final ByteBuffer source;
+    private final byte[] input = new byte[4096];
+    private final byte[] single = new byte[1];
+    private Inflater inflater;
+
+    /**
+     * Construct the stream. The buffer's position is advanced as data is
+     * inflated.
+     *
+     * @param source
+     */
+    public InflatingInputStream(ByteBuffer source) {
+        this.source = source;
+        this.inflater = acquire();
+    }
+
+    private static synchronized Inflater acquire() {
+        if (pooled > 0) {
+            final Inflater inflater = pool[--pooled];
+            pool[pooled] = null;
+            return inflater;
+        }
+
+        return new Inflater();
+    }
+
+    private static synchronized void release(Inflater inflater) {
+        if (pooled < MAX_POOLED_INFLATERS) {
+            inflater.reset();
+            pool[pooled++] = inflater;
+        } else {
+            inflater.end();
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (inflater == null) {
+            throw new IOException("Stream closed");
+        }
+
+        if (len == 0) {
+            return 0;
+        }
+
+        try {
+            while (true) {
+                final int inflated = inflater.inflate(b, off, len);
+                if (inflated > 0) {
+                    return inflated;
+                }
+
+                if (inflater.finished()) {
+                    return -1;
+                }
+
+                if (inflater.needsDictionary()) {
+                    throw new IOException("ZLIB data needs a preset dictionary");
+                }
+
+                if (inflater.needsInput()) {
+                    if (!source.hasRemaining()) {
+                        throw new EOFException("Unexpected end of ZLIB input stream");
+                    }
+
+                    if (source.hasArray()) {
+                        // Heap buffers can be inflated without a copy
+                        inflater.setInput(source.array(), source.arrayOffset() + source.position(), source.remaining());
+                        source.position(source.limit());
+                    } else {
+                        final int count = Math.min(source.remaining(), input.length);
+                        source.get(input, 0, count);
+                        inflater.setInput(input, 0, count);
+                    }
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid ZLIB data: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (inflater != null) {
+            release(inflater);
+            inflater = null;
+        }
+    }
+}
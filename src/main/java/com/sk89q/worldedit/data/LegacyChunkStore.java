@@ -20,13 +20,11 @@
 package com.sk89q.worldedit.data;
 
 import com.sk89q.jnbt.CompoundTag;
-import com.sk89q.jnbt.NBTInputStream;
-import com.sk89q.jnbt.Tag;
 import com.sk89q.worldedit.*;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Map;
 import java.util.zip.GZIPInputStream;
 
 /**
@@ -78,50 +76,39 @@ public static String getFilename(Vector2D pos) {
     @Override
     public CompoundTag getChunkTag(Vector2D pos, LocalWorld world)
             throws DataException, IOException {
-        int x = pos.getBlockX();
-        int z = pos.getBlockZ();
-
-        String folder1 = Integer.toString(divisorMod(x, 64), 36);
-        String folder2 = Integer.toString(divisorMod(z, 64), 36);
-        String filename = "c." + Integer.toString(x, 36)
-                + "." + Integer.toString(z, 36) + ".dat";
+        return readLevelTag(new GZIPInputStream(getInputStream(pos)));
+    }
 
-        InputStream stream = getInputStream(folder1, folder2, filename);
-        NBTInputStream nbt = new NBTInputStream(
-                new GZIPInputStream(stream));
-        Tag tag;
+    @Override
+    public CompressedChunk getCompressedChunk(Vector2D pos, LocalWorld world)
+            throws DataException, IOException {
+        InputStream stream = getInputStream(pos);
 
         try {
-            tag = nbt.readTag();
-            if (!(tag instanceof CompoundTag)) {
-                throw new ChunkStoreException("CompoundTag expected for chunk; got "
-                        + tag.getClass().getName());
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                data.write(buffer, 0, read);
             }
 
-            Map<String, Tag> children = (Map<String, Tag>) ((CompoundTag) tag).getValue();
-            CompoundTag rootTag = null;
+            return new CompressedChunk(data.toByteArray(), CompressedChunk.GZIP);
+        } finally {
+            stream.close();
+        }
+    }
 
-            // Find Level tag
-            for (Map.Entry<String, Tag> entry : children.entrySet()) {
-                if (entry.getKey().equals("Level")) {
-                    if (entry.getValue() instanceof CompoundTag) {
-                        rootTag = (CompoundTag) entry.getValue();
-                        break;
-                    } else {
-                        throw new ChunkStoreException("CompoundTag expected for 'Level'; got "
-                                + entry.getValue().getClass().getName());
-                    }
-                }
-            }
+    private InputStream getInputStream(Vector2D pos)
+            throws DataException, IOException {
+        int x = pos.getBlockX();
+        int z = pos.getBlockZ();
 
-            if (rootTag == null) {
-                throw new ChunkStoreException("Missing root 'Level' tag");
-            }
+        String folder1 = Integer.toString(divisorMod(x, 64), 36);
+        String folder2 = Integer.toString(divisorMod(z, 64), 36);
+        String filename = "c." + Integer.toString(x, 36)
+                + "." + Integer.toString(z, 36) + ".dat";
 
-            return rootTag;
-        } finally {
-            nbt.close();
-        }
+        return getInputStream(folder1, folder2, filename);
     }
 
     /**
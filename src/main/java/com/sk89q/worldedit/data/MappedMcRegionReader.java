@@ -0,0 +1,182 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.sk89q.worldedit.Vector2D;
+
+/**
+ * Reader for a MCRegion file on disk. The file is mapped into memory, so
+ * chunks can be read in any order without seeking or reading the file
+ * again, and several threads may read from the same reader at once. Chunks
+ * are handed out as read-only slices of the mapping, and the mapping is
+ * released by the garbage collector once neither the reader nor any of its
+ * chunks are in use.
+ *
+ * @see McRegionReader
+ */
+public class MappedMcRegionReader {
+
+    private final File file;
+    private MappedByteBuffer buffer;
+
+    /**
+     * Open and map a region file.
+     *
+     * @param file
+     * @throws DataException
+     * @throws IOException
+     */
+    public MappedMcRegionReader(File file) throws DataException, IOException {
+        this.file = file;
+
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            if (channel.size() < McRegionReader.SECTOR_BYTES) {
+                throw new DataException("MCRegion file " + file.getName() + " has no header");
+            }
+
+            // The mapping stays valid after the channel has been closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Get the file that is being read.
+     *
+     * @return
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Get the offset for a chunk. May return 0 if it doesn't exist.
+     *
+     * @param x
+     * @param z
+     * @return
+     */
+    private int getOffset(int x, int z) {
+        return buffer.getInt(4 * ((x & 31) + (z & 31) * 32));
+    }
+
+    /**
+     * Returns whether the file contains a chunk.
+     *
+     * @param x
+     * @param z
+     * @return
+     */
+    public synchronized boolean hasChunk(int x, int z) {
+        return buffer != null && getOffset(x, z) != 0;
+    }
+
+    /**
+     * Get the still compressed data of a chunk.
+     *
+     * @param pos
+     * @return null if the chunk hasn't been generated
+     * @throws DataException
+     * @throws IOException if the reader has been closed
+     */
+    public synchronized CompressedChunk readCompressedChunk(Vector2D pos) throws DataException, IOException {
+        if (buffer == null) {
+            throw new IOException("MCRegion file " + file.getName() + " has been closed");
+        }
+
+        final int x = pos.getBlockX() & 31;
+        final int z = pos.getBlockZ() & 31;
+        final int offset = getOffset(x, z);
+
+        // The chunk hasn't been generated
+        if (offset == 0) {
+            return null;
+        }
+
+        final long start = (long) (offset >>> 8) * McRegionReader.SECTOR_BYTES;
+        final int numSectors = offset & 0xFF;
+
+        if (start + McRegionReader.CHUNK_HEADER_SIZE > buffer.capacity()) {
+            throw new DataException("MCRegion file does not contain "
+                    + x + "," + z + " in full");
+        }
+
+        final int length = buffer.getInt((int) start);
+        if (length < 1 || length > McRegionReader.SECTOR_BYTES * numSectors) {
+            throw new DataException("MCRegion chunk at "
+                    + x + "," + z + " has an invalid length of " + length);
+        }
+
+        if (start + 4 + length > buffer.capacity()) {
+            throw new DataException("MCRegion file does not contain "
+                    + x + "," + z + " in full");
+        }
+
+        final byte version = buffer.get((int) start + 4);
+        final int compression;
+        if (version == McRegionReader.VERSION_GZIP) {
+            compression = CompressedChunk.GZIP;
+        } else if (version == McRegionReader.VERSION_DEFLATE) {
+            compression = CompressedChunk.DEFLATE;
+        } else {
+            throw new DataException("MCRegion chunk at "
+                    + x + "," + z + " has an unsupported version of " + version);
+        }
+
+        // Each read gets its own view, so readers don't share a position
+        final ByteBuffer data = buffer.asReadOnlyBuffer();
+        data.position((int) start + McRegionReader.CHUNK_HEADER_SIZE);
+        data.limit((int) start + 4 + length);
+
+        return new CompressedChunk(data.slice(), compression);
+    }
+
+    /**
+     * Gets the uncompressed data input stream for a chunk.
+     *
+     * @param pos
+     * @return null if the chunk hasn't been generated
+     * @throws DataException
+     * @throws IOException
+     */
+    public InputStream getChunkInputStream(Vector2D pos) throws DataException, IOException {
+        final CompressedChunk chunk = readCompressedChunk(pos);
+        return chunk == null ? null : chunk.getInputStream();
+    }
+
+    /**
+     * Stop reading from the file. Chunks that have already been read stay
+     * valid.
+     */
+    public synchronized void close() {
+        buffer = null;
+    }
+}
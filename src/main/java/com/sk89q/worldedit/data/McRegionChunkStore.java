@@ -21,10 +21,7 @@
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Map;
 import com.sk89q.jnbt.CompoundTag;
-import com.sk89q.jnbt.NBTInputStream;
-import com.sk89q.jnbt.Tag;
 import com.sk89q.worldedit.LocalWorld;
 import com.sk89q.worldedit.Vector2D;
 
@@ -50,62 +47,43 @@ public static String getFilename(Vector2D pos) {
     protected McRegionReader getReader(Vector2D pos, String worldname) throws DataException, IOException {
         String filename = getFilename(pos);
         if (curFilename != null) {
-            if (curFilename.equals(filename)) {
+            // The reader can only seek forward, so reading a chunk that
+            // lies before the previous one means opening the file again
+            if (curFilename.equals(filename) && cachedReader.canRead(pos)) {
                 return cachedReader;
             } else {
                 try {
                     cachedReader.close();
                 } catch (IOException e) {
                 }
+                curFilename = null;
+                cachedReader = null;
             }
         }
         InputStream stream = getInputStream(filename, worldname);
         cachedReader = new McRegionReader(stream);
-        //curFilename = filename;
+        curFilename = filename;
         return cachedReader;
     }
 
     @Override
     public CompoundTag getChunkTag(Vector2D pos, LocalWorld world) throws DataException,
             IOException {
-        
-        McRegionReader reader = getReader(pos, world.getName());
-
-        InputStream stream = reader.getChunkInputStream(pos);
-        NBTInputStream nbt = new NBTInputStream(stream);
-        Tag tag;
-
-        try {
-            tag = nbt.readTag();
-            if (!(tag instanceof CompoundTag)) {
-                throw new ChunkStoreException("CompoundTag expected for chunk; got "
-                        + tag.getClass().getName());
-            }
-
-            Map<String, Tag> children = (Map<String, Tag>) ((CompoundTag) tag).getValue();
-            CompoundTag rootTag = null;
 
-            // Find Level tag
-            for (Map.Entry<String, Tag> entry : children.entrySet()) {
-                if (entry.getKey().equals("Level")) {
-                    if (entry.getValue() instanceof CompoundTag) {
-                        rootTag = (CompoundTag) entry.getValue();
-                        break;
-                    } else {
-                        throw new ChunkStoreException("CompoundTag expected for 'Level'; got "
-                                + entry.getValue().getClass().getName());
-                    }
-                }
-            }
+        return getCompressedChunk(pos, world).getTag();
+    }
 
-            if (rootTag == null) {
-                throw new ChunkStoreException("Missing root 'Level' tag");
-            }
+    @Override
+    public CompressedChunk getCompressedChunk(Vector2D pos, LocalWorld world)
+            throws DataException, IOException {
 
-            return rootTag;
-        } finally {
-            nbt.close();
+        McRegionReader reader = getReader(pos, world.getName());
+        CompressedChunk chunk = reader.readCompressedChunk(pos);
+        if (chunk == null) {
+            throw new MissingChunkException();
         }
+
+        return chunk;
     }
 
     /**
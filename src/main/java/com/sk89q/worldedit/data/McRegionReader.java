@@ -54,12 +54,10 @@ counts. The chunk offset for a chunk (x, z) begins at byte 4*(x+z*32) in the
 
 package com.sk89q.worldedit.data;
 
-import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.InflaterInputStream;
 
 import com.sk89q.worldedit.Vector2D;
 
@@ -122,6 +120,27 @@ private void readHeader() throws DataException, IOException {
     public synchronized InputStream getChunkInputStream(Vector2D pos)
             throws IOException, DataException {
 
+        CompressedChunk chunk = readCompressedChunk(pos);
+
+        // The chunk hasn't been generated
+        if (chunk == null) {
+            return null;
+        }
+
+        return chunk.getInputStream();
+    }
+
+    /**
+     * Reads the still compressed data of a chunk.
+     * 
+     * @param pos
+     * @return null if the chunk hasn't been generated
+     * @throws IOException
+     * @throws DataException
+     */
+    public synchronized CompressedChunk readCompressedChunk(Vector2D pos)
+            throws IOException, DataException {
+
         int x = pos.getBlockX() & 31;
         int z = pos.getBlockZ() & 31;
 
@@ -149,24 +168,38 @@ public synchronized InputStream getChunkInputStream(Vector2D pos)
 
         byte version = dataStream.readByte();
 
-        if (version == VERSION_GZIP) {
-            byte[] data = new byte[length - 1];
-            if (dataStream.read(data) < length - 1) {
-                throw new DataException("MCRegion file does not contain "
-                        + x + "," + z + " in full");
-            }
-            return new GZIPInputStream(new ByteArrayInputStream(data));
-        } else if (version == VERSION_DEFLATE) {
-            byte[] data = new byte[length - 1];
-            if (dataStream.read(data) < length - 1) {
-                throw new DataException("MCRegion file does not contain "
-                        + x + "," + z + " in full");
-            }
-            return new InflaterInputStream(new ByteArrayInputStream(data));
-        } else {
+        if (version != VERSION_GZIP && version != VERSION_DEFLATE) {
             throw new DataException("MCRegion chunk at "
                     + x + "," + z + " has an unsupported version of " + version);
         }
+
+        byte[] data = new byte[length - 1];
+        try {
+            dataStream.readFully(data);
+        } catch (EOFException e) {
+            throw new DataException("MCRegion file does not contain "
+                    + x + "," + z + " in full");
+        }
+
+        return new CompressedChunk(data, version == VERSION_GZIP
+                ? CompressedChunk.GZIP : CompressedChunk.DEFLATE);
+    }
+
+    /**
+     * Returns whether a chunk can still be read. As the underlying stream
+     * can only be read forward, chunks that are stored before the last one
+     * that was read cannot. Chunks that are not in the file can always be
+     * looked up, as that only needs the header.
+     * 
+     * @param pos
+     * @return
+     */
+    public synchronized boolean canRead(Vector2D pos) {
+        int offset = getOffset(pos.getBlockX() & 31, pos.getBlockZ() & 31);
+        if (offset == 0) {
+            return true;
+        }
+        return (long) (offset >> 8) * SECTOR_BYTES >= stream.getPosition();
     }
 
     /**
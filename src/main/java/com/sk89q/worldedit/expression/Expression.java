@@ -25,10 +25,14 @@
 import java.util.Stack;
 
 import com.sk89q.worldedit.expression.lexer.Lexer;
+import com.sk89q.worldedit.expression.lexer.tokens.IdentifierToken;
 import com.sk89q.worldedit.expression.lexer.tokens.Token;
 import com.sk89q.worldedit.expression.parser.Parser;
+import com.sk89q.worldedit.expression.runtime.CompiledExpression;
 import com.sk89q.worldedit.expression.runtime.Constant;
 import com.sk89q.worldedit.expression.runtime.EvaluationException;
+import com.sk89q.worldedit.expression.runtime.ExpressionCompiler;
+import com.sk89q.worldedit.expression.runtime.Functions;
 import com.sk89q.worldedit.expression.runtime.RValue;
 import com.sk89q.worldedit.expression.runtime.ReturnException;
 import com.sk89q.worldedit.expression.runtime.Variable;
@@ -48,6 +52,7 @@
  *
  * To compile an equation, run <code>Expression.compile("expression here", "var1", "var2"...)</code>
  * If you wish to run the equation multiple times, you can then optimize it, by calling myExpression.optimize();
+ * and turn it into bytecode by calling myExpression.compileBytecode();
  * You can then run the equation as many times as you want by calling myExpression.evaluate(var1, var2...)
  * You do not need to pass values for all variables specified while compiling.
  * To query variables after evaluation, you can use myExpression.getVariable("variable name").
@@ -63,7 +68,9 @@ public class Expression {
     private final Map<String, RValue> variables = new HashMap<String, RValue>();
     private final String[] variableNames;
     private RValue root;
+    private CompiledExpression compiled;
     private final Map<Integer, double[]> megabuf = new HashMap<Integer, double[]>();
+    private boolean stateful = false;
 
     public static Expression compile(String expression, String... variableNames) throws ExpressionException {
         return new Expression(expression, variableNames);
@@ -89,6 +96,12 @@ private Expression(List<Token> tokens, String... variableNames) throws Expressio
         }
 
         root = Parser.parse(tokens, this);
+
+        for (Token token : tokens) {
+            if (token instanceof IdentifierToken && Functions.isStateful(((IdentifierToken) token).value)) {
+                stateful = true;
+            }
+        }
     }
 
     public double evaluate(double... values) throws EvaluationException {
@@ -104,6 +117,9 @@ public double evaluate(double... values) throws EvaluationException {
 
         pushInstance();
         try {
+            if (compiled != null) {
+                return compiled.evaluate();
+            }
             return root.getValue();
         } catch (ReturnException e) {
             return e.getValue();
@@ -114,6 +130,36 @@ public double evaluate(double... values) throws EvaluationException {
 
     public void optimize() throws EvaluationException {
         root = root.optimize();
+        compiled = null;
+    }
+
+    /**
+     * Turn the expression into a JVM class, which is used by
+     * {@link #evaluate(double...)} from then on. This is worth it for
+     * expressions that are evaluated many times, and should be done after
+     * {@link #optimize()}. Expressions that cannot be compiled keep being
+     * interpreted.
+     *
+     * @return whether the expression was compiled
+     */
+    public boolean compileBytecode() {
+        try {
+            compiled = ExpressionCompiler.compile(root);
+        } catch (LinkageError e) {
+            // The class file writer is not available
+            compiled = null;
+        }
+
+        return compiled != null;
+    }
+
+    /**
+     * Returns whether {@link #compileBytecode()} succeeded.
+     *
+     * @return
+     */
+    public boolean isCompiled() {
+        return compiled != null;
     }
 
     @Override
@@ -153,6 +199,17 @@ private void popInstance() {
         }
     }
 
+    /**
+     * Returns whether the expression calls functions that keep state between
+     * evaluations. Other expressions can be evaluated in any order by
+     * separate instances compiled from the same source.
+     *
+     * @return
+     */
+    public boolean isStateful() {
+        return stateful;
+    }
+
     public Map<Integer, double[]> getMegabuf() {
         return megabuf;
     }
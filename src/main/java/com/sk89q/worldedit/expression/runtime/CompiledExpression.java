@@ -0,0 +1,50 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010, 2011 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.expression.runtime;
+
+/**
+ * Base class of the classes generated by {@link ExpressionCompiler}.
+ */
+public abstract class CompiledExpression {
+    /**
+     * The variables of the expression. Their values are copied into local
+     * variables on entry and written back before leaving the generated code.
+     */
+    protected final Variable[] variables;
+
+    /**
+     * Nodes that are passed as arguments to functions that are still called
+     * with {@link RValue}s.
+     */
+    protected final RValue[] nodes;
+
+    protected CompiledExpression(Variable[] variables, RValue[] nodes) {
+        this.variables = variables;
+        this.nodes = nodes;
+    }
+
+    /**
+     * Evaluate the expression with the current values of its variables.
+     *
+     * @return
+     * @throws EvaluationException
+     */
+    public abstract double evaluate() throws EvaluationException;
+}
@@ -0,0 +1,945 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010, 2011 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.expression.runtime;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.mozilla.classfile.ByteCode;
+import org.mozilla.classfile.ClassFileWriter;
+
+/**
+ * Turns an expression tree into a JVM class, so that it runs without going
+ * through {@link Function#getValue()} and {@link Method#invoke} for every
+ * node.
+ *
+ * <p>Variables live in local variable slots while the generated code runs.
+ * Operators and the functions of {@link Functions} that only wrap a
+ * {@link Math} method are inlined, loops, <code>break</code>,
+ * <code>continue</code> and <code>return</code> become jumps, and all other
+ * functions are called directly with their argument nodes, which are then
+ * interpreted as usual.</p>
+ *
+ * <p>Trees that cannot be compiled this way are left to the interpreter.</p>
+ */
+public final class ExpressionCompiler {
+    private static final String BASE_CLASS = CompiledExpression.class.getName();
+    private static final String VARIABLE_CLASS = Variable.class.getName();
+    private static final String RVALUE_CLASS = RValue.class.getName();
+    private static final String EXCEPTION_CLASS = EvaluationException.class.getName();
+    private static final String MATH_CLASS = "java.lang.Math";
+
+    private static final String VARIABLES_TYPE = "[" + ClassFileWriter.classNameToSignature(VARIABLE_CLASS);
+    private static final String NODES_TYPE = "[" + ClassFileWriter.classNameToSignature(RVALUE_CLASS);
+
+    private static final int MAX_ITERATIONS = 256;
+
+    private static final AtomicInteger classCounter = new AtomicInteger();
+
+    /**
+     * Thrown when a tree contains something the compiler cannot handle.
+     */
+    private static class UnsupportedNodeException extends Exception {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * The targets of <code>break</code> and <code>continue</code>.
+     */
+    private static class JumpContext {
+        final boolean isLoop;
+        final int breakLabel;
+        final int continueLabel;
+        final short stackTop;
+
+        JumpContext(boolean isLoop, int breakLabel, int continueLabel, short stackTop) {
+            this.isLoop = isLoop;
+            this.breakLabel = breakLabel;
+            this.continueLabel = continueLabel;
+            this.stackTop = stackTop;
+        }
+    }
+
+    private static class Loader extends ClassLoader {
+        Loader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    private final ClassFileWriter cfw;
+    private final Map<Variable, Integer> variableIndices = new IdentityHashMap<Variable, Integer>();
+    private final List<Variable> variables = new ArrayList<Variable>();
+    private final List<RValue> nodes = new ArrayList<RValue>();
+    private final LinkedList<JumpContext> contexts = new LinkedList<JumpContext>();
+    private int nextLocal;
+
+    private ExpressionCompiler(String className) {
+        cfw = new ClassFileWriter(className, BASE_CLASS, "<expression>");
+        cfw.setFlags((short) (ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_FINAL));
+    }
+
+    /**
+     * Compile an expression tree.
+     *
+     * @param root
+     * @return the compiled expression, or null if the tree has to be interpreted
+     */
+    public static CompiledExpression compile(RValue root) {
+        final String className = BASE_CLASS + "$" + classCounter.incrementAndGet();
+        final ExpressionCompiler compiler = new ExpressionCompiler(className);
+
+        try {
+            compiler.collectVariables(root);
+            compiler.generateConstructor();
+            compiler.generateEvaluate(root);
+        } catch (UnsupportedNodeException e) {
+            return null;
+        } catch (RuntimeException e) {
+            // The class file writer gave up, most likely because the method got too big
+            return null;
+        }
+
+        try {
+            final Loader loader = new Loader(ExpressionCompiler.class.getClassLoader());
+            final Class<?> compiledClass = loader.define(className, compiler.cfw.toByteArray());
+
+            return (CompiledExpression) compiledClass.getConstructor(Variable[].class, RValue[].class).newInstance(
+                    compiler.variables.toArray(new Variable[compiler.variables.size()]),
+                    compiler.nodes.toArray(new RValue[compiler.nodes.size()]));
+        } catch (Exception e) {
+            return null;
+        } catch (LinkageError e) {
+            return null;
+        }
+    }
+
+    private static List<RValue> getChildren(RValue node) throws UnsupportedNodeException {
+        final List<RValue> children = new ArrayList<RValue>();
+
+        if (node instanceof Constant || node instanceof Variable || node instanceof Break) {
+            return children;
+        } else if (node instanceof Function) {
+            Collections.addAll(children, ((Function) node).args);
+        } else if (node instanceof Sequence) {
+            Collections.addAll(children, ((Sequence) node).sequence);
+        } else if (node instanceof Conditional) {
+            final Conditional conditional = (Conditional) node;
+            children.add(conditional.condition);
+            children.add(conditional.truePart);
+            if (conditional.falsePart != null) {
+                children.add(conditional.falsePart);
+            }
+        } else if (node instanceof While) {
+            children.add(((While) node).condition);
+            children.add(((While) node).body);
+        } else if (node instanceof For) {
+            final For forNode = (For) node;
+            children.add(forNode.init);
+            children.add(forNode.condition);
+            children.add(forNode.increment);
+            children.add(forNode.body);
+        } else if (node instanceof SimpleFor) {
+            final SimpleFor simpleFor = (SimpleFor) node;
+            children.add(simpleFor.counter);
+            children.add(simpleFor.first);
+            children.add(simpleFor.last);
+            children.add(simpleFor.body);
+        } else if (node instanceof Return) {
+            children.add(((Return) node).value);
+        } else if (node instanceof Switch) {
+            final Switch switchNode = (Switch) node;
+            children.add(switchNode.parameter);
+            Collections.addAll(children, switchNode.caseStatements);
+            if (switchNode.defaultCase != null) {
+                children.add(switchNode.defaultCase);
+            }
+        } else {
+            throw new UnsupportedNodeException();
+        }
+
+        return children;
+    }
+
+    private void collectVariables(RValue node) throws UnsupportedNodeException {
+        if (node instanceof Variable) {
+            final Variable variable = (Variable) node;
+            if (!variableIndices.containsKey(variable)) {
+                variableIndices.put(variable, variables.size());
+                variables.add(variable);
+            }
+        }
+
+        for (RValue child : getChildren(node)) {
+            collectVariables(child);
+        }
+    }
+
+    private static boolean containsControlFlow(RValue node) throws UnsupportedNodeException {
+        if (node instanceof Break || node instanceof Return) {
+            return true;
+        }
+
+        for (RValue child : getChildren(node)) {
+            if (containsControlFlow(child)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void generateConstructor() {
+        cfw.startMethod("<init>", "(" + VARIABLES_TYPE + NODES_TYPE + ")V", ClassFileWriter.ACC_PUBLIC);
+        cfw.addLoadThis();
+        cfw.addALoad(1);
+        cfw.addALoad(2);
+        cfw.addInvoke(ByteCode.INVOKESPECIAL, BASE_CLASS, "<init>", "(" + VARIABLES_TYPE + NODES_TYPE + ")V");
+        cfw.add(ByteCode.RETURN);
+        cfw.stopMethod((short) 3);
+    }
+
+    private void generateEvaluate(RValue root) throws UnsupportedNodeException {
+        cfw.startMethod("evaluate", "()D", ClassFileWriter.ACC_PUBLIC);
+
+        nextLocal = 1 + 2 * variables.size();
+        loadVariables();
+
+        emit(root);
+
+        final int result = allocateDouble();
+        cfw.addDStore(result);
+        storeVariables();
+        cfw.addDLoad(result);
+        cfw.add(ByteCode.DRETURN);
+
+        cfw.stopMethod((short) nextLocal);
+    }
+
+    private int allocateDouble() {
+        final int local = nextLocal;
+        nextLocal += 2;
+        return local;
+    }
+
+    private int allocateInt() {
+        return nextLocal++;
+    }
+
+    private int getSlot(Variable variable) {
+        return 1 + 2 * variableIndices.get(variable);
+    }
+
+    /**
+     * Copy the values of the variables into their local slots.
+     */
+    private void loadVariables() {
+        for (int i = 0; i < variables.size(); ++i) {
+            cfw.addLoadThis();
+            cfw.add(ByteCode.GETFIELD, BASE_CLASS, "variables", VARIABLES_TYPE);
+            cfw.addPush(i);
+            cfw.add(ByteCode.AALOAD);
+            cfw.add(ByteCode.GETFIELD, VARIABLE_CLASS, "value", "D");
+            cfw.addDStore(1 + 2 * i);
+        }
+    }
+
+    /**
+     * Write the local slots back to the variables.
+     */
+    private void storeVariables() {
+        for (int i = 0; i < variables.size(); ++i) {
+            cfw.addLoadThis();
+            cfw.add(ByteCode.GETFIELD, BASE_CLASS, "variables", VARIABLES_TYPE);
+            cfw.addPush(i);
+            cfw.add(ByteCode.AALOAD);
+            cfw.addDLoad(1 + 2 * i);
+            cfw.add(ByteCode.PUTFIELD, VARIABLE_CLASS, "value", "D");
+        }
+    }
+
+    /**
+     * Emit code that pushes the value of a node.
+     *
+     * @param node
+     * @throws UnsupportedNodeException
+     */
+    private void emit(RValue node) throws UnsupportedNodeException {
+        if (node instanceof Constant) {
+            cfw.addPush(((Constant) node).getValue());
+        } else if (node instanceof Variable) {
+            cfw.addDLoad(getSlot((Variable) node));
+        } else if (node instanceof Function) {
+            emitFunction((Function) node);
+        } else if (node instanceof Sequence) {
+            emitSequence((Sequence) node);
+        } else if (node instanceof Conditional) {
+            emitConditional((Conditional) node);
+        } else if (node instanceof While) {
+            emitWhile((While) node);
+        } else if (node instanceof For) {
+            emitFor((For) node);
+        } else if (node instanceof SimpleFor) {
+            emitSimpleFor((SimpleFor) node);
+        } else if (node instanceof Break) {
+            emitBreak((Break) node);
+        } else if (node instanceof Return) {
+            emitReturn((Return) node);
+        } else if (node instanceof Switch) {
+            emitSwitch((Switch) node);
+        } else {
+            throw new UnsupportedNodeException();
+        }
+    }
+
+    /**
+     * Emit code that jumps to a label if a node's value is not positive.
+     */
+    private void emitJumpIfFalse(RValue condition, int label) throws UnsupportedNodeException {
+        emit(condition);
+        cfw.addPush(0.0);
+        cfw.add(ByteCode.DCMPL);
+        cfw.add(ByteCode.IFLE, label);
+    }
+
+    /**
+     * Emit code that turns the result of the jump at hand into 1.0 or 0.0.
+     * The jump has to go to the given label when the result is false.
+     */
+    private void emitBooleanResult(int falseLabel) {
+        final short stackTop = cfw.getStackTop();
+        final int end = cfw.acquireLabel();
+
+        cfw.addPush(1.0);
+        cfw.add(ByteCode.GOTO, end);
+        cfw.markLabel(falseLabel, stackTop);
+        cfw.addPush(0.0);
+        cfw.markLabel(end, (short) (stackTop + 2));
+    }
+
+    private void emitComparison(RValue lhs, RValue rhs, int compareOpcode, int jumpIfFalseOpcode) throws UnsupportedNodeException {
+        emit(lhs);
+        emit(rhs);
+        cfw.add(compareOpcode);
+        final int falseLabel = cfw.acquireLabel();
+        cfw.add(jumpIfFalseOpcode, falseLabel);
+        emitBooleanResult(falseLabel);
+    }
+
+    private void emitSequence(Sequence sequence) throws UnsupportedNodeException {
+        final RValue[] statements = sequence.sequence;
+        if (statements.length == 0) {
+            cfw.addPush(0.0);
+            return;
+        }
+
+        for (int i = 0; i < statements.length; ++i) {
+            emit(statements[i]);
+            if (i != statements.length - 1) {
+                cfw.add(ByteCode.POP2);
+            }
+        }
+    }
+
+    private void emitConditional(Conditional conditional) throws UnsupportedNodeException {
+        final short stackTop = cfw.getStackTop();
+        final int elseLabel = cfw.acquireLabel();
+        final int end = cfw.acquireLabel();
+
+        emitJumpIfFalse(conditional.condition, elseLabel);
+        emit(conditional.truePart);
+        cfw.add(ByteCode.GOTO, end);
+
+        cfw.markLabel(elseLabel, stackTop);
+        if (conditional.falsePart == null) {
+            cfw.addPush(0.0);
+        } else {
+            emit(conditional.falsePart);
+        }
+
+        cfw.markLabel(end, (short) (stackTop + 2));
+    }
+
+    /**
+     * Emit the check that aborts loops after too many iterations.
+     */
+    private void emitIterationCheck(int counter, int position) {
+        final short stackTop = cfw.getStackTop();
+        final int ok = cfw.acquireLabel();
+
+        cfw.addILoad(counter);
+        cfw.addPush(MAX_ITERATIONS);
+        cfw.add(ByteCode.IF_ICMPLE, ok);
+
+        storeVariables();
+        cfw.add(ByteCode.NEW, EXCEPTION_CLASS);
+        cfw.add(ByteCode.DUP);
+        cfw.addPush(position);
+        cfw.addPush("Loop exceeded " + MAX_ITERATIONS + " iterations.");
+        cfw.addInvoke(ByteCode.INVOKESPECIAL, EXCEPTION_CLASS, "<init>", "(ILjava/lang/String;)V");
+        cfw.add(ByteCode.ATHROW);
+
+        cfw.markLabel(ok, stackTop);
+        cfw.addILoad(counter);
+        cfw.addPush(1);
+        cfw.add(ByteCode.IADD);
+        cfw.addIStore(counter);
+    }
+
+    /**
+     * Emit a loop body, storing its value in the given local.
+     */
+    private void emitLoopBody(RValue body, int ret, int breakLabel, int continueLabel) throws UnsupportedNodeException {
+        contexts.addFirst(new JumpContext(true, breakLabel, continueLabel, cfw.getStackTop()));
+        emit(body);
+        contexts.removeFirst();
+        cfw.addDStore(ret);
+    }
+
+    private void emitWhile(While whileNode) throws UnsupportedNodeException {
+        final short stackTop = cfw.getStackTop();
+        final int ret = allocateDouble();
+        final int iterations = allocateInt();
+        final int top = cfw.acquireLabel();
+        final int continueLabel = cfw.acquireLabel();
+        final int end = cfw.acquireLabel();
+
+        cfw.addPush(0.0);
+        cfw.addDStore(ret);
+        cfw.addPush(0);
+        cfw.addIStore(iterations);
+
+        if (whileNode.footChecked) {
+            cfw.markLabel(top, stackTop);
+            emitIterationCheck(iterations, whileNode.getPosition());
+            emitLoopBody(whileNode.body, ret, end, continueLabel);
+
+            cfw.markLabel(continueLabel, stackTop);
+            emit(whileNode.condition);
+            cfw.addPush(0.0);
+            cfw.add(ByteCode.DCMPL);
+            cfw.add(ByteCode.IFGT, top);
+        } else {
+            cfw.markLabel(continueLabel, stackTop);
+            emitJumpIfFalse(whileNode.condition, end);
+            emitIterationCheck(iterations, whileNode.getPosition());
+            emitLoopBody(whileNode.body, ret, end, continueLabel);
+            cfw.add(ByteCode.GOTO, continueLabel);
+        }
+
+        cfw.markLabel(end, stackTop);
+        cfw.addDLoad(ret);
+    }
+
+    private void emitFor(For forNode) throws UnsupportedNodeException {
+        final short stackTop = cfw.getStackTop();
+        final int ret = allocateDouble();
+        final int iterations = allocateInt();
+        final int condition = cfw.acquireLabel();
+        final int continueLabel = cfw.acquireLabel();
+        final int end = cfw.acquireLabel();
+
+        cfw.addPush(0.0);
+        cfw.addDStore(ret);
+        cfw.addPush(0);
+        cfw.addIStore(iterations);
+
+        emit(forNode.init);
+        cfw.add(ByteCode.POP2);
+
+        cfw.markLabel(condition, stackTop);
+        emitJumpIfFalse(forNode.condition, end);
+        emitIterationCheck(iterations, forNode.getPosition());
+        emitLoopBody(forNode.body, ret, end, continueLabel);
+
+        cfw.markLabel(continueLabel, stackTop);
+        emit(forNode.increment);
+        cfw.add(ByteCode.POP2);
+        cfw.add(ByteCode.GOTO, condition);
+
+        cfw.markLabel(end, stackTop);
+        cfw.addDLoad(ret);
+    }
+
+    private void emitSimpleFor(SimpleFor simpleFor) throws UnsupportedNodeException {
+        if (!(simpleFor.counter instanceof Variable)) {
+            throw new UnsupportedNodeException();
+        }
+
+        final short stackTop = cfw.getStackTop();
+        final int ret = allocateDouble();
+        final int iterations = allocateInt();
+        final int counter = allocateDouble();
+        final int last = allocateDouble();
+        final int condition = cfw.acquireLabel();
+        final int continueLabel = cfw.acquireLabel();
+        final int end = cfw.acquireLabel();
+
+        cfw.addPush(0.0);
+        cfw.addDStore(ret);
+        cfw.addPush(0);
+        cfw.addIStore(iterations);
+
+        emit(simpleFor.first);
+        cfw.addDStore(counter);
+        emit(simpleFor.last);
+        cfw.addDStore(last);
+
+        cfw.markLabel(condition, stackTop);
+        cfw.addDLoad(counter);
+        cfw.addDLoad(last);
+        cfw.add(ByteCode.DCMPG);
+        cfw.add(ByteCode.IFGT, end);
+
+        emitIterationCheck(iterations, simpleFor.getPosition());
+        cfw.addDLoad(counter);
+        cfw.addDStore(getSlot((Variable) simpleFor.counter));
+        emitLoopBody(simpleFor.body, ret, end, continueLabel);
+
+        cfw.markLabel(continueLabel, stackTop);
+        cfw.addDLoad(counter);
+        cfw.addPush(1.0);
+        cfw.add(ByteCode.DADD);
+        cfw.addDStore(counter);
+        cfw.add(ByteCode.GOTO, condition);
+
+        cfw.markLabel(end, stackTop);
+        cfw.addDLoad(ret);
+    }
+
+    private void emitBreak(Break breakNode) throws UnsupportedNodeException {
+        JumpContext target = null;
+        for (JumpContext context : contexts) {
+            if (!breakNode.doContinue || context.isLoop) {
+                target = context;
+                break;
+            }
+        }
+
+        // A jump can only be made if nothing else is on the operand stack
+        if (target == null || target.stackTop != cfw.getStackTop()) {
+            throw new UnsupportedNodeException();
+        }
+
+        cfw.add(ByteCode.GOTO, breakNode.doContinue ? target.continueLabel : target.breakLabel);
+
+        // The code that follows is unreachable but expects a value
+        cfw.adjustStackTop(2);
+    }
+
+    private void emitReturn(Return returnNode) throws UnsupportedNodeException {
+        final int result = allocateDouble();
+
+        emit(returnNode.value);
+        cfw.addDStore(result);
+        storeVariables();
+        cfw.addDLoad(result);
+        cfw.add(ByteCode.DRETURN);
+
+        // The code that follows is unreachable but expects a value
+        cfw.adjustStackTop(2);
+    }
+
+    private void emitSwitch(Switch switchNode) throws UnsupportedNodeException {
+        final short stackTop = cfw.getStackTop();
+        final int parameter = allocateDouble();
+        final int ret = allocateDouble();
+        final RValue[] caseStatements = switchNode.caseStatements;
+        final int[] caseLabels = new int[caseStatements.length];
+        final int afterCases = cfw.acquireLabel();
+        final int breakLabel = cfw.acquireLabel();
+        final int end = cfw.acquireLabel();
+
+        for (int i = 0; i < caseLabels.length; ++i) {
+            caseLabels[i] = cfw.acquireLabel();
+        }
+
+        emit(switchNode.parameter);
+        cfw.addDStore(parameter);
+        cfw.addPush(0.0);
+        cfw.addDStore(ret);
+
+        // Case values are matched like Double.equals() does
+        for (Map.Entry<Double, Integer> entry : switchNode.valueMap.entrySet()) {
+            cfw.addDLoad(parameter);
+            cfw.addInvoke(ByteCode.INVOKESTATIC, "java.lang.Double", "doubleToLongBits", "(D)J");
+            cfw.addPush(Double.doubleToLongBits(entry.getKey()));
+            cfw.add(ByteCode.LCMP);
+            cfw.add(ByteCode.IFEQ, caseLabels[entry.getValue()]);
+        }
+        cfw.add(ByteCode.GOTO, afterCases);
+
+        contexts.addFirst(new JumpContext(false, breakLabel, 0, stackTop));
+
+        for (int i = 0; i < caseStatements.length; ++i) {
+            cfw.markLabel(caseLabels[i], stackTop);
+            emit(caseStatements[i]);
+            cfw.addDStore(ret);
+        }
+
+        cfw.markLabel(afterCases, stackTop);
+        if (switchNode.defaultCase == null) {
+            cfw.addDLoad(ret);
+        } else {
+            emit(switchNode.defaultCase);
+        }
+
+        contexts.removeFirst();
+        cfw.add(ByteCode.GOTO, end);
+
+        // break leaves the switch with 0
+        cfw.markLabel(breakLabel, stackTop);
+        cfw.addPush(0.0);
+
+        cfw.markLabel(end, (short) (stackTop + 2));
+    }
+
+    private void emitFunction(Function function) throws UnsupportedNodeException {
+        final Class<?> owner = function.method.getDeclaringClass();
+        final String name = function.method.getName();
+        final RValue[] args = function.args;
+
+        if (owner == Operators.class && emitOperator(name, args)) {
+            return;
+        }
+
+        if (owner == Functions.class && emitBuiltinFunction(name, args)) {
+            return;
+        }
+
+        emitDirectCall(function.method, args);
+    }
+
+    private boolean emitOperator(String name, RValue[] args) throws UnsupportedNodeException {
+        if (args.length == 2) {
+            final RValue lhs = args[0];
+            final RValue rhs = args[1];
+
+            if (name.equals("add")) {
+                emitArithmetic(lhs, rhs, ByteCode.DADD);
+            } else if (name.equals("sub")) {
+                emitArithmetic(lhs, rhs, ByteCode.DSUB);
+            } else if (name.equals("mul")) {
+                emitArithmetic(lhs, rhs, ByteCode.DMUL);
+            } else if (name.equals("div")) {
+                emitArithmetic(lhs, rhs, ByteCode.DDIV);
+            } else if (name.equals("mod")) {
+                emitArithmetic(lhs, rhs, ByteCode.DREM);
+            } else if (name.equals("pow")) {
+                emit(lhs);
+                emit(rhs);
+                cfw.addInvoke(ByteCode.INVOKESTATIC, MATH_CLASS, "pow", "(DD)D");
+            } else if (name.equals("lth")) {
+                emitComparison(lhs, rhs, ByteCode.DCMPG, ByteCode.IFGE);
+            } else if (name.equals("leq")) {
+                emitComparison(lhs, rhs, ByteCode.DCMPG, ByteCode.IFGT);
+            } else if (name.equals("gth")) {
+                emitComparison(lhs, rhs, ByteCode.DCMPL, ByteCode.IFLE);
+            } else if (name.equals("geq")) {
+                emitComparison(lhs, rhs, ByteCode.DCMPL, ByteCode.IFLT);
+            } else if (name.equals("equ")) {
+                emitComparison(lhs, rhs, ByteCode.DCMPL, ByteCode.IFNE);
+            } else if (name.equals("neq")) {
+                emitComparison(lhs, rhs, ByteCode.DCMPL, ByteCode.IFEQ);
+            } else if (name.equals("and")) {
+                final int falseLabel = cfw.acquireLabel();
+                emitJumpIfFalse(lhs, falseLabel);
+                emitJumpIfFalse(rhs, falseLabel);
+                emitBooleanResult(falseLabel);
+            } else if (name.equals("or")) {
+                final short stackTop = cfw.getStackTop();
+                final int trueLabel = cfw.acquireLabel();
+                final int end = cfw.acquireLabel();
+                emit(lhs);
+                cfw.addPush(0.0);
+                cfw.add(ByteCode.DCMPL);
+                cfw.add(ByteCode.IFGT, trueLabel);
+                emit(rhs);
+                cfw.addPush(0.0);
+                cfw.add(ByteCode.DCMPL);
+                cfw.add(ByteCode.IFGT, trueLabel);
+                cfw.addPush(0.0);
+                cfw.add(ByteCode.GOTO, end);
+                cfw.markLabel(trueLabel, stackTop);
+                cfw.addPush(1.0);
+                cfw.markLabel(end, (short) (stackTop + 2));
+            } else if (name.equals("shl") || name.equals("shr")) {
+                emit(lhs);
+                cfw.add(ByteCode.D2L);
+                emit(rhs);
+                cfw.add(ByteCode.D2L);
+                cfw.add(ByteCode.L2I);
+                cfw.add(name.equals("shl") ? ByteCode.LSHL : ByteCode.LSHR);
+                cfw.add(ByteCode.L2D);
+            } else if (lhs instanceof Variable) {
+                final int slot = getSlot((Variable) lhs);
+
+                if (name.equals("ass")) {
+                    emit(rhs);
+                } else if (name.equals("aadd")) {
+                    emitArithmetic(lhs, rhs, ByteCode.DADD);
+                } else if (name.equals("asub")) {
+                    emitArithmetic(lhs, rhs, ByteCode.DSUB);
+                } else if (name.equals("amul")) {
+                    emitArithmetic(lhs, rhs, ByteCode.DMUL);
+                } else if (name.equals("adiv")) {
+                    emitArithmetic(lhs, rhs, ByteCode.DDIV);
+                } else if (name.equals("amod")) {
+                    emitArithmetic(lhs, rhs, ByteCode.DREM);
+                } else if (name.equals("aexp")) {
+                    emit(lhs);
+                    emit(rhs);
+                    cfw.addInvoke(ByteCode.INVOKESTATIC, MATH_CLASS, "pow", "(DD)D");
+                } else {
+                    return false;
+                }
+
+                cfw.add(ByteCode.DUP2);
+                cfw.addDStore(slot);
+            } else {
+                return false;
+            }
+
+            return true;
+        }
+
+        if (args.length == 1) {
+            final RValue x = args[0];
+
+            if (name.equals("neg")) {
+                emit(x);
+                cfw.add(ByteCode.DNEG);
+            } else if (name.equals("not")) {
+                final short stackTop = cfw.getStackTop();
+                final int one = cfw.acquireLabel();
+                final int end = cfw.acquireLabel();
+                emitJumpIfFalse(x, one);
+                cfw.addPush(0.0);
+                cfw.add(ByteCode.GOTO, end);
+                cfw.markLabel(one, stackTop);
+                cfw.addPush(1.0);
+                cfw.markLabel(end, (short) (stackTop + 2));
+            } else if (name.equals("inv")) {
+                emit(x);
+                cfw.add(ByteCode.D2L);
+                cfw.addPush(-1L);
+                cfw.add(ByteCode.LXOR);
+                cfw.add(ByteCode.L2D);
+            } else if (x instanceof Variable) {
+                final int slot = getSlot((Variable) x);
+
+                if (name.equals("inc") || name.equals("dec")) {
+                    cfw.addDLoad(slot);
+                    cfw.addPush(1.0);
+                    cfw.add(name.equals("inc") ? ByteCode.DADD : ByteCode.DSUB);
+                    cfw.add(ByteCode.DUP2);
+                    cfw.addDStore(slot);
+                } else if (name.equals("postinc") || name.equals("postdec")) {
+                    cfw.addDLoad(slot);
+                    cfw.add(ByteCode.DUP2);
+                    cfw.addPush(1.0);
+                    cfw.add(name.equals("postinc") ? ByteCode.DADD : ByteCode.DSUB);
+                    cfw.addDStore(slot);
+                } else {
+                    return false;
+                }
+            } else {
+                return false;
+            }
+
+            return true;
+        }
+
+        return false;
+    }
+
+    private void emitArithmetic(RValue lhs, RValue rhs, int opcode) throws UnsupportedNodeException {
+        emit(lhs);
+        emit(rhs);
+        cfw.add(opcode);
+    }
+
+    private boolean emitBuiltinFunction(String name, RValue[] args) throws UnsupportedNodeException {
+        if (args.length == 1) {
+            final String mathName;
+            if (name.equals("ln")) {
+                mathName = "log";
+            } else if (name.equals("sin") || name.equals("cos") || name.equals("tan")
+                    || name.equals("asin") || name.equals("acos") || name.equals("atan")
+                    || name.equals("sinh") || name.equals("cosh") || name.equals("tanh")
+                    || name.equals("sqrt") || name.equals("cbrt") || name.equals("abs")
+                    || name.equals("ceil") || name.equals("floor") || name.equals("rint")
+                    || name.equals("exp") || name.equals("log") || name.equals("log10")) {
+                mathName = name;
+            } else if (name.equals("round")) {
+                emit(args[0]);
+                cfw.addInvoke(ByteCode.INVOKESTATIC, MATH_CLASS, "round", "(D)J");
+                cfw.add(ByteCode.L2D);
+                return true;
+            } else {
+                return false;
+            }
+
+            emit(args[0]);
+            cfw.addInvoke(ByteCode.INVOKESTATIC, MATH_CLASS, mathName, "(D)D");
+            return true;
+        }
+
+        if (name.equals("atan2") && args.length == 2) {
+            emit(args[0]);
+            emit(args[1]);
+            cfw.addInvoke(ByteCode.INVOKESTATIC, MATH_CLASS, "atan2", "(DD)D");
+            return true;
+        }
+
+        if ((name.equals("min") || name.equals("max")) && (args.length == 2 || args.length == 3)) {
+            for (RValue arg : args) {
+                emit(arg);
+            }
+            for (int i = 1; i < args.length; ++i) {
+                cfw.addInvoke(ByteCode.INVOKESTATIC, MATH_CLASS, name, "(DD)D");
+            }
+            return true;
+        }
+
+        if (name.equals("swap") && args.length == 2
+                && args[0] instanceof Variable && args[1] instanceof Variable) {
+            final int x = getSlot((Variable) args[0]);
+            final int y = getSlot((Variable) args[1]);
+            cfw.addDLoad(x);
+            cfw.addDLoad(y);
+            cfw.addDStore(x);
+            cfw.addDStore(y);
+            cfw.addPush(0.0);
+            return true;
+        }
+
+        if (name.equals("rotate") && args.length == 3
+                && args[0] instanceof Variable && args[1] instanceof Variable) {
+            final int x = getSlot((Variable) args[0]);
+            final int y = getSlot((Variable) args[1]);
+            final int cosF = allocateDouble();
+            final int sinF = allocateDouble();
+            final int xOld = allocateDouble();
+            final int yOld = allocateDouble();
+
+            emit(args[2]);
+            cfw.add(ByteCode.DUP2);
+            cfw.addInvoke(ByteCode.INVOKESTATIC, MATH_CLASS, "cos", "(D)D");
+            cfw.addDStore(cosF);
+            cfw.addInvoke(ByteCode.INVOKESTATIC, MATH_CLASS, "sin", "(D)D");
+            cfw.addDStore(sinF);
+            cfw.addDLoad(x);
+            cfw.addDStore(xOld);
+            cfw.addDLoad(y);
+            cfw.addDStore(yOld);
+
+            // x = xOld * cosF - yOld * sinF
+            cfw.addDLoad(xOld);
+            cfw.addDLoad(cosF);
+            cfw.add(ByteCode.DMUL);
+            cfw.addDLoad(yOld);
+            cfw.addDLoad(sinF);
+            cfw.add(ByteCode.DMUL);
+            cfw.add(ByteCode.DSUB);
+            cfw.addDStore(x);
+
+            // y = xOld * sinF + yOld * cosF
+            cfw.addDLoad(xOld);
+            cfw.addDLoad(sinF);
+            cfw.add(ByteCode.DMUL);
+            cfw.addDLoad(yOld);
+            cfw.addDLoad(cosF);
+            cfw.add(ByteCode.DMUL);
+            cfw.add(ByteCode.DADD);
+            cfw.addDStore(y);
+
+            cfw.addPush(0.0);
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Call a function's method with its argument nodes. The variables are
+     * written back before the call and read again after it, since the
+     * arguments are interpreted and may read or assign them.
+     */
+    private void emitDirectCall(Method method, RValue[] args) throws UnsupportedNodeException {
+        final Class<?> owner = method.getDeclaringClass();
+        final Class<?>[] parameterTypes = method.getParameterTypes();
+
+        if (!Modifier.isStatic(method.getModifiers()) || !Modifier.isPublic(method.getModifiers())
+                || !Modifier.isPublic(owner.getModifiers()) || method.getReturnType() != double.class
+                || parameterTypes.length != args.length || !isVisible(owner)) {
+            throw new UnsupportedNodeException();
+        }
+
+        final StringBuilder descriptor = new StringBuilder("(");
+        for (Class<?> parameterType : parameterTypes) {
+            if (!RValue.class.isAssignableFrom(parameterType)) {
+                throw new UnsupportedNodeException();
+            }
+            descriptor.append(ClassFileWriter.classNameToSignature(parameterType.getName()));
+        }
+        descriptor.append(")D");
+
+        for (RValue arg : args) {
+            // Jumps out of interpreted code would surface as exceptions
+            if (containsControlFlow(arg)) {
+                throw new UnsupportedNodeException();
+            }
+        }
+
+        storeVariables();
+
+        for (int i = 0; i < args.length; ++i) {
+            cfw.addLoadThis();
+            cfw.add(ByteCode.GETFIELD, BASE_CLASS, "nodes", NODES_TYPE);
+            cfw.addPush(nodes.size());
+            cfw.add(ByteCode.AALOAD);
+            cfw.add(ByteCode.CHECKCAST, parameterTypes[i].getName());
+            nodes.add(args[i]);
+        }
+
+        cfw.addInvoke(ByteCode.INVOKESTATIC, owner.getName(), method.getName(), descriptor.toString());
+
+        loadVariables();
+    }
+
+    private static boolean isVisible(Class<?> type) {
+        try {
+            return Class.forName(type.getName(), false, ExpressionCompiler.class.getClassLoader()) == type;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+}
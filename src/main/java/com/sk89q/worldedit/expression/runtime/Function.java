@@ -37,6 +37,14 @@ public class Function extends Node {
     @Retention(RetentionPolicy.RUNTIME)
     public @interface Dynamic { }
 
+    /**
+     * Add this annotation on functions that keep state between evaluations,
+     * such as the buffers. Expressions that call them have to be evaluated
+     * in order, on a single thread.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    public @interface Stateful { }
+
     final Method method;
     final RValue[] args;
 
@@ -28,6 +28,7 @@
 
 import com.sk89q.worldedit.expression.Expression;
 import com.sk89q.worldedit.expression.runtime.Function.Dynamic;
+import com.sk89q.worldedit.expression.runtime.Function.Stateful;
 
 /**
  * Contains all functions that can be used in expressions.
@@ -125,6 +126,26 @@ private static Method getMethod(String name, boolean isSetter, RValue... args) t
     }
 
 
+    /**
+     * Returns whether any overload of a function keeps state between
+     * evaluations.
+     *
+     * @param name
+     * @return
+     */
+    public static boolean isStateful(String name) {
+        final List<Overload> overloads = functions.get(name);
+        if (overloads != null) {
+            for (Overload overload : overloads) {
+                if (overload.method.isAnnotationPresent(Stateful.class)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
     public static void addFunction(Method method) throws IllegalArgumentException {
         final String methodName = method.getName();
 
@@ -290,26 +311,31 @@ private static double setBufferItem(final Map<Integer, double[]> megabuf, final
     }
 
     @Dynamic
+    @Stateful
     public static final double gmegabuf(RValue index) throws EvaluationException {
         return getBufferItem(gmegabuf, (int) index.getValue());
     }
 
     @Dynamic
+    @Stateful
     public static final double gmegabuf(RValue index, double value) throws EvaluationException {
         return setBufferItem(gmegabuf, (int) index.getValue(), value);
     }
 
     @Dynamic
+    @Stateful
     public static final double megabuf(RValue index) throws EvaluationException {
         return getBufferItem(Expression.getInstance().getMegabuf(), (int) index.getValue());
     }
 
     @Dynamic
+    @Stateful
     public static final double megabuf(RValue index, double value) throws EvaluationException {
         return setBufferItem(Expression.getInstance().getMegabuf(), (int) index.getValue(), value);
     }
 
     @Dynamic
+    @Stateful
     public static final double closest(RValue x, RValue y, RValue z, RValue index, RValue count, RValue stride) throws EvaluationException {
         return findClosest(
             Expression.getInstance().getMegabuf(),
@@ -323,6 +349,7 @@ public static final double closest(RValue x, RValue y, RValue z, RValue index, R
     }
 
     @Dynamic
+    @Stateful
     public static final double gclosest(RValue x, RValue y, RValue z, RValue index, RValue count, RValue stride) throws EvaluationException {
         return findClosest(
             gmegabuf,
@@ -32,10 +32,10 @@
  * @author TomyLobo
  */
 public class Switch extends Node implements RValue {
-    private final RValue parameter;
-    private final Map<Double, Integer> valueMap;
-    private final RValue[] caseStatements;
-    private final RValue defaultCase;
+    final RValue parameter;
+    final Map<Double, Integer> valueMap;
+    final RValue[] caseStatements;
+    final RValue defaultCase;
 
     public Switch(int position, RValue parameter, List<Double> values, List<RValue> caseStatements, RValue defaultCase) {
         this(position, parameter, invertList(values), caseStatements, defaultCase);
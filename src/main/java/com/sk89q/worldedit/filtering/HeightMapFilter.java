@@ -21,15 +21,33 @@
 
 import java.awt.image.Kernel;
 
+import com.sk89q.worldedit.util.ChunkColumnExecutor;
+
 /**
  * Allows applications of Kernels onto the region's heightmap.
  * Only used for smoothing (with a GaussianKernel).
  * 
+ * Kernels that are the product of a row and a column, such as the Gaussian
+ * and linear kernels, are applied as two one-dimensional passes. Large
+ * heightmaps are filtered in bands of rows on the worker threads.
+ * 
  * @author Grum
  */
 
 public class HeightMapFilter {
+    /**
+     * Heightmaps with at least this many cells are filtered in parallel.
+     */
+    private static final int PARALLEL_THRESHOLD = 65536;
+    /**
+     * How far a kernel may be from the product of its row and column, relative
+     * to its largest weight, and still be applied in two passes.
+     */
+    private static final float SEPARABLE_TOLERANCE = 1e-6f;
+
     private Kernel kernel;
+    private float[] rowWeights;
+    private float[] columnWeights;
 
     /**
      * Construct the HeightMapFilter object.
@@ -37,7 +55,7 @@ public class HeightMapFilter {
      * @param kernel
      */
     public HeightMapFilter(Kernel kernel) {
-        this.kernel = kernel;
+        setKernel(kernel);
     }
 
     /**
@@ -48,7 +66,7 @@ public HeightMapFilter(Kernel kernel) {
      * @param kernelData
      */
     public HeightMapFilter(int kernelWidth, int kernelHeight, float[] kernelData) {
-        this.kernel = new Kernel(kernelWidth, kernelHeight, kernelData);
+        setKernel(new Kernel(kernelWidth, kernelHeight, kernelData));
     }
 
     /**
@@ -65,6 +83,65 @@ public Kernel getKernel() {
      */
     public void setKernel(Kernel kernel) {
         this.kernel = kernel;
+        separate();
+    }
+
+    /**
+     * Returns whether the kernel is applied as two one-dimensional passes.
+     * 
+     * @return
+     */
+    public boolean isSeparable() {
+        return rowWeights != null;
+    }
+
+    /**
+     * Split the kernel into a row and a column whose product it is, if it is
+     * one. The row through the largest weight is used as is and the column
+     * through it is scaled by that weight.
+     */
+    private void separate() {
+        rowWeights = null;
+        columnWeights = null;
+
+        float[] matrix = kernel.getKernelData(null);
+        int kw = kernel.getWidth();
+        int kh = kernel.getHeight();
+
+        int pivot = 0;
+        for (int i = 1; i < matrix.length; ++i) {
+            if (Math.abs(matrix[i]) > Math.abs(matrix[pivot])) {
+                pivot = i;
+            }
+        }
+
+        float largest = matrix[pivot];
+        if (largest == 0) {
+            return;
+        }
+
+        int py = pivot / kw;
+        int px = pivot % kw;
+        float[] row = new float[kw];
+        float[] column = new float[kh];
+        for (int kx = 0; kx < kw; ++kx) {
+            row[kx] = matrix[py * kw + kx];
+        }
+        for (int ky = 0; ky < kh; ++ky) {
+            column[ky] = matrix[ky * kw + px] / largest;
+        }
+
+        float tolerance = SEPARABLE_TOLERANCE * Math.abs(largest);
+        for (int ky = 0; ky < kh; ++ky) {
+            for (int kx = 0; kx < kw; ++kx) {
+                if (Math.abs(column[ky] * row[kx] - matrix[ky * kw + kx]) > tolerance) {
+                    return;
+                }
+            }
+        }
+
+        rowWeights = row;
+        columnWeights = column;
     }
 
     /**
@@ -75,17 +152,46 @@ public void setKernel(Kernel kernel) {
      * @param height
      * @return the modified heightmap
      */
-    public int[] filter(int[] inData, int width, int height) {
-        int index = 0;
-        float[] matrix = kernel.getKernelData(null);
-        int[] outData = new int[inData.length];
+    public int[] filter(final int[] inData, final int width, final int height) {
+        final int[] outData = new int[inData.length];
+        final boolean parallel = (long) width * height >= PARALLEL_THRESHOLD;
+
+        if (rowWeights == null) {
+            final float[] matrix = kernel.getKernelData(null);
+            ChunkColumnExecutor.forEachBand(height, parallel, new ChunkColumnExecutor.BandTask() {
+                public void run(int fromY, int toY) {
+                    filterRows(matrix, inData, outData, width, height, fromY, toY);
+                }
+            });
+            return outData;
+        }
+
+        final float[] rows = new float[inData.length];
+        ChunkColumnExecutor.forEachBand(height, parallel, new ChunkColumnExecutor.BandTask() {
+            public void run(int fromY, int toY) {
+                filterHorizontally(inData, rows, width, fromY, toY);
+            }
+        });
+        ChunkColumnExecutor.forEachBand(height, parallel, new ChunkColumnExecutor.BandTask() {
+            public void run(int fromY, int toY) {
+                filterVertically(rows, outData, width, height, fromY, toY);
+            }
+        });
+        return outData;
+    }
+
+    /**
+     * Apply the whole kernel to a band of rows.
+     */
+    private void filterRows(float[] matrix, int[] inData, int[] outData, int width, int height, int fromY, int toY) {
+        int index = fromY * width;
 
         int kh = kernel.getHeight();
         int kw = kernel.getWidth();
         int kox = kernel.getXOrigin();
         int koy = kernel.getYOrigin();
 
-        for (int y = 0; y < height; ++y) {
+        for (int y = fromY; y < toY; ++y) {
             for (int x = 0; x < width; ++x) {
                 float z = 0;
 
@@ -115,6 +221,58 @@ public int[] filter(int[] inData, int width, int height) {
                 outData[index++] = (int) (z + 0.5);
             }
         }
-        return outData;
+    }
+
+    /**
+     * Apply the row of a separable kernel to a band of rows.
+     */
+    private void filterHorizontally(int[] inData, float[] rows, int width, int fromY, int toY) {
+        float[] weights = rowWeights;
+        int kw = weights.length;
+        int kox = kernel.getXOrigin();
+
+        for (int y = fromY; y < toY; ++y) {
+            int offset = y * width;
+            for (int x = 0; x < width; ++x) {
+                float z = 0;
+                for (int kx = 0; kx < kw; ++kx) {
+                    int offsetX = x + kx - kox;
+                    // Clamp coordinates inside data
+                    if (offsetX < 0 || offsetX >= width) {
+                        offsetX = x;
+                    }
+
+                    z += weights[kx] * inData[offset + offsetX];
+                }
+                rows[offset + x] = z;
+            }
+        }
+    }
+
+    /**
+     * Apply the column of a separable kernel to a band of rows that were
+     * already filtered horizontally.
+     */
+    private void filterVertically(float[] rows, int[] outData, int width, int height, int fromY, int toY) {
+        float[] weights = columnWeights;
+        int kh = weights.length;
+        int koy = kernel.getYOrigin();
+
+        for (int y = fromY; y < toY; ++y) {
+            int offset = y * width;
+            for (int x = 0; x < width; ++x) {
+                float z = 0;
+                for (int ky = 0; ky < kh; ++ky) {
+                    int offsetY = y + ky - koy;
+                    // Clamp coordinates inside data
+                    if (offsetY < 0 || offsetY >= height) {
+                        offsetY = y;
+                    }
+
+                    z += weights[ky] * rows[offsetY * width + x];
+                }
+                outData[offset + x] = (int) (z + 0.5);
+            }
+        }
     }
 }
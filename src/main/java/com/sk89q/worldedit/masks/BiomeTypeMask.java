@@ -21,6 +21,10 @@ public BiomeTypeMask(Set<BiomeType> biomes) {
         this.biomes = biomes;
     }
 
+    Set<BiomeType> getBiomes() {
+        return biomes;
+    }
+
     public void prepare(LocalSession session, LocalPlayer player, Vector target) {
     }
 
@@ -0,0 +1,103 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010, 2011 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.masks;
+
+import com.sk89q.worldedit.EditSession;
+
+/**
+ * A mask that was flattened by {@link MaskCompiler} into a predicate over
+ * block coordinates and the block at them. The caller reads the block once
+ * and passes it in, so matching a block does not create any objects.
+ */
+public abstract class CompiledMask {
+    /**
+     * No block in a box matches.
+     */
+    public static final int NONE = 0;
+    /**
+     * Some blocks in a box may match; they have to be tested one by one.
+     */
+    public static final int SOME = 1;
+    /**
+     * Every block in a box matches.
+     */
+    public static final int ALL = 2;
+
+    /**
+     * Returns whether the block at the given position matches.
+     *
+     * @param editSession
+     * @param x
+     * @param y
+     * @param z
+     * @param type the type of the block at the position
+     * @param data the data of the block at the position, only valid if
+     *             {@link #usesData()} returns true
+     * @return
+     */
+    public abstract boolean matches(EditSession editSession, int x, int y, int z, int type, int data);
+
+    /**
+     * Answer the mask for a whole box at once, such as a span of blocks or
+     * a chunk section, as far as that is possible without looking at the
+     * blocks in it.
+     *
+     * @param minX
+     * @param minY
+     * @param minZ
+     * @param maxX
+     * @param maxY
+     * @param maxZ
+     * @return {@link #NONE}, {@link #SOME} or {@link #ALL}
+     */
+    public int matchesBox(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+        return SOME;
+    }
+
+    /**
+     * Returns whether {@link #matches(EditSession, int, int, int, int, int)}
+     * looks at the data value it is given.
+     *
+     * @return
+     */
+    public boolean usesData() {
+        return false;
+    }
+
+    /**
+     * Returns whether the mask only depends on the position and the block at
+     * that position. Such masks do not need to see the blocks that are placed
+     * around them, so the blocks of a queue can be tested in any order.
+     *
+     * @return
+     */
+    public boolean isLocal() {
+        return true;
+    }
+
+    /**
+     * Get a mask that matches exactly the blocks this one does not match.
+     *
+     * @return
+     */
+    public CompiledMask invert() {
+        return new MaskCompiler.Not(this);
+    }
+}
@@ -11,6 +11,10 @@ public class DynamicRegionMask implements Mask {
 
     private Region region;
 
+    Region getRegion() {
+        return region;
+    }
+
     public void prepare(LocalSession session, LocalPlayer player, Vector target) {
         try {
             region = session.getSelection(player.getWorld());
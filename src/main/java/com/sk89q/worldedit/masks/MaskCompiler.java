@@ -0,0 +1,519 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010, 2011 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.masks;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import com.sk89q.worldedit.BiomeType;
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.Vector2D;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.regions.Region;
+
+/**
+ * Turns masks into {@link CompiledMask}s. Combined and inverted masks are
+ * flattened, block masks become bit sets indexed by type and data, and all
+ * block masks of a combined mask are merged into one bit set. Masks that
+ * are not known here keep working through
+ * {@link Mask#matches(EditSession, Vector)}.
+ *
+ * <p>Masks have to be compiled after they were prepared, and changes to a
+ * mask after it was compiled are not seen by the compiled mask.</p>
+ */
+public final class MaskCompiler {
+    /**
+     * Block types are 12 bits in the world, with 4 bits of data each.
+     */
+    private static final int BLOCK_KEYS = 4096 << 4;
+
+    private MaskCompiler() {
+    }
+
+    /**
+     * Compile a mask.
+     *
+     * @param mask
+     * @return
+     */
+    public static CompiledMask compile(Mask mask) {
+        final Class<?> type = mask.getClass();
+
+        if (type == CombinedMask.class) {
+            return compileAll(((CombinedMask) mask).getMasks());
+        }
+
+        if (type == InvertedMask.class) {
+            return compile(((InvertedMask) mask).getMask()).invert();
+        }
+
+        if (type == BlockMask.class || type == BlockTypeMask.class) {
+            return new BlockSet(((BlockMask) mask).blocks);
+        }
+
+        if (type == InvertedBlockTypeMask.class) {
+            return new BlockSet(((BlockMask) mask).blocks).invert();
+        }
+
+        if (type == ExistingBlockMask.class) {
+            return new BlockSet(new BaseBlock(BlockID.AIR, -1)).invert();
+        }
+
+        if (type == UnderOverlayMask.class) {
+            final UnderOverlayMask underOverlay = (UnderOverlayMask) mask;
+            return new Offset(compile(underOverlay.getMask()), underOverlay.getYOffset());
+        }
+
+        if (type == RegionMask.class) {
+            return compileRegion(((RegionMask) mask).getRegion());
+        }
+
+        if (type == DynamicRegionMask.class) {
+            final Region region = ((DynamicRegionMask) mask).getRegion();
+            return region == null ? Constant.TRUE : compileRegion(region);
+        }
+
+        if (type == RandomMask.class) {
+            final double ratio = ((RandomMask) mask).getRatio();
+            if (ratio <= 0) {
+                return Constant.FALSE;
+            }
+            if (ratio >= 1) {
+                return Constant.TRUE;
+            }
+            return new Random(ratio);
+        }
+
+        if (type == BiomeTypeMask.class) {
+            return new Biome(((BiomeTypeMask) mask).getBiomes());
+        }
+
+        return new Legacy(mask);
+    }
+
+    /**
+     * Compile the masks that all have to match, in order.
+     */
+    private static CompiledMask compileAll(List<Mask> masks) {
+        final List<CompiledMask> flattened = new ArrayList<CompiledMask>();
+        for (Mask mask : masks) {
+            final CompiledMask compiled = compile(mask);
+            if (compiled instanceof And) {
+                for (CompiledMask child : ((And) compiled).masks) {
+                    flattened.add(child);
+                }
+            } else {
+                flattened.add(compiled);
+            }
+        }
+
+        // Block sets are cheap and have no side effects, so they are merged
+        // and tested first
+        BlockSet blocks = null;
+        final List<CompiledMask> rest = new ArrayList<CompiledMask>();
+        for (CompiledMask compiled : flattened) {
+            if (compiled == Constant.FALSE) {
+                return Constant.FALSE;
+            } else if (compiled == Constant.TRUE) {
+                continue;
+            } else if (compiled instanceof BlockSet) {
+                blocks = blocks == null ? (BlockSet) compiled : blocks.and((BlockSet) compiled);
+            } else {
+                rest.add(compiled);
+            }
+        }
+
+        if (blocks != null) {
+            rest.add(0, blocks);
+        }
+
+        switch (rest.size()) {
+        case 0:
+            return Constant.TRUE;
+        case 1:
+            return rest.get(0);
+        default:
+            return new And(rest.toArray(new CompiledMask[rest.size()]));
+        }
+    }
+
+    private static CompiledMask compileRegion(Region region) {
+        if (region instanceof CuboidRegion) {
+            return new Cuboid(region.getMinimumPoint(), region.getMaximumPoint());
+        }
+        return new Contains(region);
+    }
+
+    /**
+     * Combine two box answers of masks that both have to match.
+     */
+    private static int and(int first, int second) {
+        if (first == CompiledMask.NONE || second == CompiledMask.NONE) {
+            return CompiledMask.NONE;
+        }
+        if (first == CompiledMask.ALL && second == CompiledMask.ALL) {
+            return CompiledMask.ALL;
+        }
+        return CompiledMask.SOME;
+    }
+
+    private static final class Constant extends CompiledMask {
+        private static final Constant TRUE = new Constant(true);
+        private static final Constant FALSE = new Constant(false);
+
+        private final boolean value;
+
+        private Constant(boolean value) {
+            this.value = value;
+        }
+
+        @Override
+        public boolean matches(EditSession editSession, int x, int y, int z, int type, int data) {
+            return value;
+        }
+
+        @Override
+        public int matchesBox(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+            return value ? ALL : NONE;
+        }
+
+        @Override
+        public CompiledMask invert() {
+            return value ? FALSE : TRUE;
+        }
+    }
+
+    static final class Not extends CompiledMask {
+        private final CompiledMask mask;
+
+        Not(CompiledMask mask) {
+            this.mask = mask;
+        }
+
+        @Override
+        public boolean matches(EditSession editSession, int x, int y, int z, int type, int data) {
+            return !mask.matches(editSession, x, y, z, type, data);
+        }
+
+        @Override
+        public int matchesBox(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+            // NONE and ALL swap, SOME stays
+            return ALL - mask.matchesBox(minX, minY, minZ, maxX, maxY, maxZ);
+        }
+
+        @Override
+        public boolean usesData() {
+            return mask.usesData();
+        }
+
+        @Override
+        public boolean isLocal() {
+            return mask.isLocal();
+        }
+
+        @Override
+        public CompiledMask invert() {
+            return mask;
+        }
+    }
+
+    private static final class And extends CompiledMask {
+        private final CompiledMask[] masks;
+        private final boolean usesData;
+        private final boolean local;
+
+        private And(CompiledMask[] masks) {
+            this.masks = masks;
+
+            boolean usesData = false;
+            boolean local = true;
+            for (CompiledMask mask : masks) {
+                usesData |= mask.usesData();
+                local &= mask.isLocal();
+            }
+            this.usesData = usesData;
+            this.local = local;
+        }
+
+        @Override
+        public boolean matches(EditSession editSession, int x, int y, int z, int type, int data) {
+            for (CompiledMask mask : masks) {
+                if (!mask.matches(editSession, x, y, z, type, data)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int matchesBox(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+            int result = ALL;
+            for (CompiledMask mask : masks) {
+                result = and(result, mask.matchesBox(minX, minY, minZ, maxX, maxY, maxZ));
+                if (result == NONE) {
+                    break;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public boolean usesData() {
+            return usesData;
+        }
+
+        @Override
+        public boolean isLocal() {
+            return local;
+        }
+    }
+
+    /**
+     * Matches blocks by type and data, with one bit for every combination.
+     */
+    private static final class BlockSet extends CompiledMask {
+        private final BitSet keys;
+        private final boolean usesData;
+
+        private BlockSet(BitSet keys) {
+            this.keys = keys;
+
+            // The data value only matters if some type is in the set with
+            // some of its data values but not all of them
+            boolean usesData = false;
+            for (int key = keys.nextSetBit(0); key >= 0 && !usesData; key = keys.nextSetBit(key + 1)) {
+                final int first = key & ~0xF;
+                usesData = keys.nextClearBit(first) < first + 16;
+                key = first + 15;
+            }
+            this.usesData = usesData;
+        }
+
+        private BlockSet(BaseBlock block) {
+            this(toKeys(Collections.singleton(block)));
+        }
+
+        private BlockSet(Set<BaseBlock> blocks) {
+            this(toKeys(blocks));
+        }
+
+        private static BitSet toKeys(Set<BaseBlock> blocks) {
+            final BitSet keys = new BitSet(BLOCK_KEYS);
+            for (BaseBlock block : blocks) {
+                final int type = block.getType();
+                final int data = block.getData();
+                if (type < 0 || type >= BLOCK_KEYS >> 4) {
+                    continue;
+                }
+
+                if (data == -1) {
+                    keys.set(type << 4, (type << 4) + 16);
+                } else if (data >= 0 && data < 16) {
+                    keys.set((type << 4) | data);
+                }
+            }
+            return keys;
+        }
+
+        @Override
+        public boolean matches(EditSession editSession, int x, int y, int z, int type, int data) {
+            return keys.get((type << 4) | (usesData ? data & 0xF : 0));
+        }
+
+        @Override
+        public int matchesBox(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+            return keys.isEmpty() ? NONE : SOME;
+        }
+
+        @Override
+        public boolean usesData() {
+            return usesData;
+        }
+
+        @Override
+        public CompiledMask invert() {
+            final BitSet inverted = (BitSet) keys.clone();
+            inverted.flip(0, BLOCK_KEYS);
+            return new BlockSet(inverted);
+        }
+
+        private BlockSet and(BlockSet other) {
+            final BitSet both = (BitSet) keys.clone();
+            both.and(other.keys);
+            return new BlockSet(both);
+        }
+    }
+
+    /**
+     * Tests another mask one block above or below.
+     */
+    private static final class Offset extends CompiledMask {
+        private final CompiledMask mask;
+        private final int offset;
+
+        private Offset(CompiledMask mask, int offset) {
+            this.mask = mask;
+            this.offset = offset;
+        }
+
+        @Override
+        public boolean matches(EditSession editSession, int x, int y, int z, int type, int data) {
+            final int offsetY = y + offset;
+            final int offsetType = editSession.getBlockType(x, offsetY, z);
+            final int offsetData = mask.usesData() ? editSession.getBlockData(x, offsetY, z) : 0;
+            return mask.matches(editSession, x, offsetY, z, offsetType, offsetData);
+        }
+
+        @Override
+        public int matchesBox(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+            return mask.matchesBox(minX, minY + offset, minZ, maxX, maxY + offset, maxZ);
+        }
+
+        @Override
+        public boolean isLocal() {
+            return false;
+        }
+    }
+
+    private static final class Cuboid extends CompiledMask {
+        private final int minX;
+        private final int minY;
+        private final int minZ;
+        private final int maxX;
+        private final int maxY;
+        private final int maxZ;
+
+        private Cuboid(Vector min, Vector max) {
+            minX = min.getBlockX();
+            minY = min.getBlockY();
+            minZ = min.getBlockZ();
+            maxX = max.getBlockX();
+            maxY = max.getBlockY();
+            maxZ = max.getBlockZ();
+        }
+
+        @Override
+        public boolean matches(EditSession editSession, int x, int y, int z, int type, int data) {
+            return x >= minX && x <= maxX && y >= minY && y <= maxY && z >= minZ && z <= maxZ;
+        }
+
+        @Override
+        public int matchesBox(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+            if (maxX < this.minX || minX > this.maxX || maxY < this.minY || minY > this.maxY
+                    || maxZ < this.minZ || minZ > this.maxZ) {
+                return NONE;
+            }
+            if (minX >= this.minX && maxX <= this.maxX && minY >= this.minY && maxY <= this.maxY
+                    && minZ >= this.minZ && maxZ <= this.maxZ) {
+                return ALL;
+            }
+            return SOME;
+        }
+    }
+
+    /**
+     * Any other region, with its bounding box checked first.
+     */
+    private static final class Contains extends CompiledMask {
+        private final Region region;
+        private final Cuboid bounds;
+
+        private Contains(Region region) {
+            this.region = region;
+            this.bounds = new Cuboid(region.getMinimumPoint(), region.getMaximumPoint());
+        }
+
+        @Override
+        public boolean matches(EditSession editSession, int x, int y, int z, int type, int data) {
+            return bounds.matches(editSession, x, y, z, type, data) && region.contains(new Vector(x, y, z));
+        }
+
+        @Override
+        public int matchesBox(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+            return bounds.matchesBox(minX, minY, minZ, maxX, maxY, maxZ) == NONE ? NONE : SOME;
+        }
+    }
+
+    private static final class Random extends CompiledMask {
+        private final double ratio;
+
+        private Random(double ratio) {
+            this.ratio = ratio;
+        }
+
+        @Override
+        public boolean matches(EditSession editSession, int x, int y, int z, int type, int data) {
+            return Math.random() < ratio;
+        }
+    }
+
+    /**
+     * Matches biomes, remembering the answer for the last column.
+     */
+    private static final class Biome extends CompiledMask {
+        private final Set<BiomeType> biomes;
+        private boolean hasLast = false;
+        private int lastX;
+        private int lastZ;
+        private boolean lastResult;
+
+        private Biome(Set<BiomeType> biomes) {
+            this.biomes = biomes;
+        }
+
+        @Override
+        public boolean matches(EditSession editSession, int x, int y, int z, int type, int data) {
+            if (!hasLast || x != lastX || z != lastZ) {
+                lastResult = biomes.contains(editSession.getWorld().getBiome(new Vector2D(x, z)));
+                lastX = x;
+                lastZ = z;
+                hasLast = true;
+            }
+            return lastResult;
+        }
+    }
+
+    /**
+     * Any other mask.
+     */
+    private static final class Legacy extends CompiledMask {
+        private final Mask mask;
+
+        private Legacy(Mask mask) {
+            this.mask = mask;
+        }
+
+        @Override
+        public boolean matches(EditSession editSession, int x, int y, int z, int type, int data) {
+            return mask.matches(editSession, new Vector(x, y, z));
+        }
+
+        @Override
+        public boolean isLocal() {
+            return false;
+        }
+    }
+}
@@ -13,6 +13,10 @@ public RandomMask(double ratio) {
         this.ratio = ratio;
     }
 
+    double getRatio() {
+        return ratio;
+    }
+
     @Override
     public void prepare(LocalSession session, LocalPlayer player, Vector target) {
     }
@@ -57,6 +57,19 @@ public void addAll(Set<Integer> ids) {
         }
     }
 
+    Mask getMask() {
+        return mask;
+    }
+
+    /**
+     * Get the offset to the block that is tested instead.
+     *
+     * @return
+     */
+    int getYOffset() {
+        return yMod;
+    }
+
     public void prepare(LocalSession session, LocalPlayer player, Vector target) {
         mask.prepare(session, player, target);
     }
@@ -0,0 +1,83 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.operations;
+
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.regions.Region;
+import com.sk89q.worldedit.util.ChunkColumnExecutor;
+
+/**
+ * Incremental version of {@link EditSession#getBlockDistribution(Region)}.
+ * Each step reads one chunk column from the world and adds up the counts of
+ * a column that was counted on a worker thread. The last step waits for the
+ * remaining columns and hands the result to {@link #done(int[])}.
+ */
+public abstract class CountBlocksOperation implements IncrementalOperation {
+    private final Region region;
+    private final int stepCount;
+    private ChunkColumnExecutor<int[]> columns;
+    private int[] histogram;
+
+    public CountBlocksOperation(Region region) {
+        this.region = region;
+
+        final int chunksX = (region.getMaximumPoint().getBlockX() >> 4) - (region.getMinimumPoint().getBlockX() >> 4) + 1;
+        final int chunksZ = (region.getMaximumPoint().getBlockZ() >> 4) - (region.getMinimumPoint().getBlockZ() >> 4) + 1;
+        stepCount = chunksX * chunksZ;
+    }
+
+    public int getStepCount() {
+        return stepCount;
+    }
+
+    public int getVolume() {
+        return region.getArea();
+    }
+
+    public int runStep(EditSession editSession, int step) {
+        if (columns == null) {
+            columns = editSession.countBlockTypesByColumn(region);
+        }
+
+        final int[] column = columns.next();
+        if (histogram == null) {
+            histogram = new int[column.length];
+        }
+
+        int counted = 0;
+        for (int id = 0; id < column.length; ++id) {
+            histogram[id] += column[id];
+            counted += column[id];
+        }
+
+        if (step == stepCount - 1) {
+            done(histogram);
+        }
+
+        return counted;
+    }
+
+    /**
+     * Called on the last step with the number of blocks of every type.
+     *
+     * @param histogram the number of blocks, indexed by block type
+     */
+    protected abstract void done(int[] histogram);
+}
@@ -0,0 +1,214 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.operations;
+
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.LocalConfiguration;
+import com.sk89q.worldedit.LocalPlayer;
+import com.sk89q.worldedit.LocalSession;
+import com.sk89q.worldedit.MaxChangedBlocksException;
+import com.sk89q.worldedit.WorldEdit;
+
+/**
+ * Runs an {@link IncrementalOperation} a few steps at a time, once per server
+ * tick, so that large edits do not stall the server.
+ *
+ * <p>Each tick the job runs steps until its time budget is used up and then
+ * places the blocks queued so far. Blocks that have to be placed last stay
+ * queued until the job finishes. The edit session is put in the player's
+ * history when the job starts, so an undo always covers what has been placed,
+ * even if the job is cancelled halfway.</p>
+ */
+public class EditSessionJob implements Runnable {
+    private final WorldEdit we;
+    private final LocalPlayer player;
+    private final LocalSession session;
+    private final EditSession editSession;
+    private final IncrementalOperation operation;
+    private final String completionMessage;
+    private final Runnable completionTask;
+
+    private final long tickBudget;
+    private final long progressInterval;
+    private final int stepCount;
+
+    private int taskId = -1;
+    private int step = 0;
+    private int affected = 0;
+    private long lastFlushTime = 0;
+    private long nextProgressReport;
+    private boolean done = false;
+
+    /**
+     * Construct the job.
+     *
+     * @param we
+     * @param player
+     * @param session
+     * @param editSession
+     * @param operation
+     * @param completionMessage printed after the number of affected blocks once the job is done,
+     *                          or null if the operation reports on its own
+     */
+    public EditSessionJob(WorldEdit we, LocalPlayer player, LocalSession session,
+            EditSession editSession, IncrementalOperation operation, String completionMessage) {
+        this(we, player, session, editSession, operation, completionMessage, null);
+    }
+
+    /**
+     * Construct the job.
+     *
+     * @param we
+     * @param player
+     * @param session
+     * @param editSession
+     * @param operation
+     * @param completionMessage printed after the number of affected blocks once the job is done,
+     *                          or null if the operation reports on its own
+     * @param completionTask run once every step is done, but not if the job
+     *                       is cancelled or fails, or null
+     */
+    public EditSessionJob(WorldEdit we, LocalPlayer player, LocalSession session,
+            EditSession editSession, IncrementalOperation operation, String completionMessage,
+            Runnable completionTask) {
+        this.we = we;
+        this.player = player;
+        this.session = session;
+        this.editSession = editSession;
+        this.operation = operation;
+        this.completionMessage = completionMessage;
+        this.completionTask = completionTask;
+
+        final LocalConfiguration config = we.getConfiguration();
+        tickBudget = config.incrementalTickBudget * 1000000L;
+        progressInterval = config.incrementalProgressInterval * 1000000000L;
+        stepCount = operation.getStepCount();
+    }
+
+    /**
+     * Schedule the job to run every tick.
+     *
+     * @return false if the server does not support scheduling tasks
+     */
+    public boolean schedule() {
+        taskId = we.getServer().schedule(1, 1, this);
+        nextProgressReport = System.nanoTime() + progressInterval;
+        return taskId != -1;
+    }
+
+    public void run() {
+        if (done) {
+            return;
+        }
+
+        final long start = System.nanoTime();
+        final long deadline = start + Math.max(tickBudget / 2, tickBudget - lastFlushTime);
+
+        try {
+            do {
+                affected += operation.runStep(editSession, step++);
+            } while (step < stepCount && System.nanoTime() < deadline);
+        } catch (MaxChangedBlocksException e) {
+            player.printError("Max blocks changed in an operation reached ("
+                    + e.getBlockLimit() + ").");
+            finish();
+            return;
+        } catch (RuntimeException e) {
+            player.printError("Please report this error: [See console]");
+            player.printRaw(e.getClass().getName() + ": " + e.getMessage());
+            e.printStackTrace();
+            finish();
+            return;
+        }
+
+        if (step >= stepCount) {
+            finish();
+            if (completionTask != null) {
+                completionTask.run();
+            }
+            if (completionMessage != null) {
+                player.print(affected + " " + completionMessage);
+            }
+            return;
+        }
+
+        final long flushStart = System.nanoTime();
+        editSession.flushPartialQueue();
+        lastFlushTime = System.nanoTime() - flushStart;
+
+        if (progressInterval > 0 && flushStart >= nextProgressReport) {
+            nextProgressReport = flushStart + progressInterval;
+            player.print("Progress: " + getProgress() + "% (" + affected
+                    + " blocks so far). Stop with //cancel.");
+        }
+    }
+
+    /**
+     * Stop the job. Blocks that were already processed are placed and stay
+     * in the history.
+     */
+    public void cancel() {
+        if (done) {
+            return;
+        }
+
+        finish();
+        if (completionMessage == null) {
+            player.print("Operation cancelled at " + getProgress() + "%.");
+        } else {
+            player.print("Operation cancelled at " + getProgress() + "%; "
+                    + affected + " blocks changed. Undo with //undo");
+        }
+    }
+
+    private void finish() {
+        done = true;
+
+        if (taskId != -1) {
+            we.getServer().cancel(taskId);
+        }
+
+        editSession.flushQueue();
+        we.flushBlockBag(player, editSession);
+        session.jobFinished(this);
+    }
+
+    /**
+     * Get the progress of the job in percent.
+     *
+     * @return
+     */
+    public int getProgress() {
+        return stepCount == 0 ? 100 : (int) (100L * step / stepCount);
+    }
+
+    /**
+     * Returns whether the job has finished or was cancelled.
+     *
+     * @return
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+    public EditSession getEditSession() {
+        return editSession;
+    }
+}
@@ -0,0 +1,54 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.operations;
+
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.MaxChangedBlocksException;
+
+/**
+ * An operation that is split into a fixed number of small steps so that it
+ * can be spread out over several server ticks. Steps are run in order, one
+ * after the other, and each step should only touch a few thousand blocks.
+ */
+public interface IncrementalOperation {
+    /**
+     * Get the number of steps.
+     *
+     * @return
+     */
+    public int getStepCount();
+
+    /**
+     * Get a rough estimate of the number of blocks the operation touches.
+     *
+     * @return
+     */
+    public int getVolume();
+
+    /**
+     * Run one step.
+     *
+     * @param editSession
+     * @param step index of the step, from 0 to {@link #getStepCount()} - 1
+     * @return number of blocks affected
+     * @throws MaxChangedBlocksException
+     */
+    public int runStep(EditSession editSession, int step) throws MaxChangedBlocksException;
+}
@@ -0,0 +1,90 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.operations;
+
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.MaxChangedBlocksException;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.regions.Region;
+import com.sk89q.worldedit.regions.SpanIterator;
+
+/**
+ * Visits the blocks of a region one row along the X axis at a time, in the
+ * order of {@link Region#spanIterator()}. The operation works on a copy of
+ * the region, so changing the selection while it runs has no effect.
+ */
+public abstract class RegionRowOperation implements IncrementalOperation {
+    protected final Region region;
+
+    private final int minX;
+    private final int minY;
+    private final int minZ;
+    private final int maxX;
+    private final int height;
+    private final int stepCount;
+
+    public RegionRowOperation(Region region) {
+        this.region = region.clone();
+
+        final Vector min = region.getMinimumPoint();
+        final Vector max = region.getMaximumPoint();
+
+        minX = min.getBlockX();
+        minY = min.getBlockY();
+        minZ = min.getBlockZ();
+        maxX = max.getBlockX();
+        height = max.getBlockY() - minY + 1;
+        stepCount = height * (max.getBlockZ() - minZ + 1);
+    }
+
+    public int getStepCount() {
+        return stepCount;
+    }
+
+    public int getVolume() {
+        return region.getArea();
+    }
+
+    public int runStep(EditSession editSession, int step) throws MaxChangedBlocksException {
+        final int y = minY + step % height;
+        final int z = minZ + step / height;
+
+        int affected = 0;
+        final SpanIterator spans = region.spanIterator(new Vector(minX, y, z), new Vector(maxX, y, z));
+        while (spans.next()) {
+            affected += apply(editSession, spans.getMinX(), spans.getMaxX(), y, z);
+        }
+
+        return affected;
+    }
+
+    /**
+     * Apply the operation to a run of blocks of the region.
+     *
+     * @param editSession
+     * @param minX the X coordinate of the first block
+     * @param maxX the X coordinate of the last block, inclusive
+     * @param y
+     * @param z
+     * @return number of blocks changed
+     * @throws MaxChangedBlocksException
+     */
+    protected abstract int apply(EditSession editSession, int minX, int maxX, int y, int z) throws MaxChangedBlocksException;
+}
@@ -0,0 +1,86 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.operations;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.MaxChangedBlocksException;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.patterns.Pattern;
+import com.sk89q.worldedit.regions.Region;
+
+/**
+ * Incremental version of {@link EditSession#replaceBlocks(Region, Set, Pattern)}.
+ */
+public class ReplaceBlocksOperation extends RegionRowOperation {
+    private final Set<BaseBlock> definiteBlockTypes = new HashSet<BaseBlock>();
+    private final Set<Integer> fuzzyBlockTypes = new HashSet<Integer>();
+    private final boolean replaceNonAir;
+    private final Pattern pattern;
+
+    /**
+     * Construct the operation.
+     *
+     * @param region
+     * @param fromBlockTypes null for non-air
+     * @param pattern
+     */
+    public ReplaceBlocksOperation(Region region, Set<BaseBlock> fromBlockTypes, Pattern pattern) {
+        super(region);
+        this.pattern = pattern;
+
+        replaceNonAir = fromBlockTypes == null;
+        if (fromBlockTypes != null) {
+            for (BaseBlock block : fromBlockTypes) {
+                if (block.getData() == -1) {
+                    fuzzyBlockTypes.add(block.getType());
+                } else {
+                    definiteBlockTypes.add(block);
+                }
+            }
+        }
+    }
+
+    @Override
+    protected int apply(EditSession editSession, int minX, int maxX, int y, int z) throws MaxChangedBlocksException {
+        int affected = 0;
+        for (int x = minX; x <= maxX; ++x) {
+            final Vector pt = new Vector(x, y, z);
+            final BaseBlock curBlockType = editSession.getBlock(pt);
+
+            if (replaceNonAir) {
+                if (curBlockType.isAir()) {
+                    continue;
+                }
+            } else if (!definiteBlockTypes.contains(curBlockType) && !fuzzyBlockTypes.contains(curBlockType.getType())) {
+                continue;
+            }
+
+            if (editSession.setBlock(pt, pattern.next(pt))) {
+                ++affected;
+            }
+        }
+
+        return affected;
+    }
+}
@@ -0,0 +1,75 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.operations;
+
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.MaxChangedBlocksException;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.patterns.CompiledPattern;
+import com.sk89q.worldedit.patterns.Pattern;
+import com.sk89q.worldedit.patterns.PatternCompiler;
+import com.sk89q.worldedit.regions.Region;
+
+/**
+ * Incremental version of {@link EditSession#setBlocks(Region, Pattern)}.
+ */
+public class SetBlocksOperation extends RegionRowOperation {
+    private final Pattern pattern;
+    private final CompiledPattern compiled;
+    private int[] types = new int[0];
+    private byte[] data = new byte[0];
+
+    public SetBlocksOperation(Region region, Pattern pattern) {
+        super(region);
+        this.pattern = pattern;
+        compiled = PatternCompiler.compile(pattern);
+    }
+
+    @Override
+    protected int apply(EditSession editSession, int minX, int maxX, int y, int z) throws MaxChangedBlocksException {
+        int affected = 0;
+
+        if (compiled == null) {
+            for (int x = minX; x <= maxX; ++x) {
+                final Vector pt = new Vector(x, y, z);
+
+                if (editSession.setBlock(pt, pattern.next(pt))) {
+                    ++affected;
+                }
+            }
+            return affected;
+        }
+
+        final int length = maxX - minX + 1;
+        if (types.length < length) {
+            types = new int[length];
+            data = new byte[length];
+        }
+
+        compiled.fill(minX, y, z, length, types, data);
+        for (int i = 0; i < length; ++i) {
+            if (editSession.setBlock(minX + i, y, z, types[i], data[i])) {
+                ++affected;
+            }
+        }
+
+        return affected;
+    }
+}
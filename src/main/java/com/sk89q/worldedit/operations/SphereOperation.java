@@ -0,0 +1,133 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.operations;
+
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.MaxChangedBlocksException;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.patterns.CompiledPattern;
+import com.sk89q.worldedit.patterns.Pattern;
+import com.sk89q.worldedit.patterns.PatternCompiler;
+
+/**
+ * Incremental version of {@link EditSession#makeSphere(Vector, Pattern, double, double, double, boolean)}.
+ * Each step fills one row of an octant, mirrored to the other seven.
+ */
+public class SphereOperation implements IncrementalOperation {
+    private final Vector pos;
+    private final int posX;
+    private final int posY;
+    private final int posZ;
+    private final Pattern block;
+    private final CompiledPattern compiled;
+    private final boolean filled;
+    private final double invRadiusX;
+    private final double invRadiusY;
+    private final double invRadiusZ;
+    private final int ceilRadiusY;
+    private final int ceilRadiusZ;
+    private final int stepCount;
+    private final int volume;
+
+    public SphereOperation(Vector pos, Pattern block, double radiusX, double radiusY, double radiusZ, boolean filled) {
+        this.pos = pos;
+        this.block = block;
+        compiled = PatternCompiler.compile(block);
+        posX = pos.getBlockX();
+        posY = pos.getBlockY();
+        posZ = pos.getBlockZ();
+        this.filled = filled;
+
+        radiusX += 0.5;
+        radiusY += 0.5;
+        radiusZ += 0.5;
+
+        invRadiusX = 1 / radiusX;
+        invRadiusY = 1 / radiusY;
+        invRadiusZ = 1 / radiusZ;
+
+        final int ceilRadiusX = (int) Math.ceil(radiusX);
+        ceilRadiusY = (int) Math.ceil(radiusY);
+        ceilRadiusZ = (int) Math.ceil(radiusZ);
+
+        stepCount = (ceilRadiusX + 1) * (ceilRadiusY + 1);
+        volume = (int) Math.min(Integer.MAX_VALUE,
+                8L * (ceilRadiusX + 1) * (ceilRadiusY + 1) * (ceilRadiusZ + 1));
+    }
+
+    public int getStepCount() {
+        return stepCount;
+    }
+
+    public int getVolume() {
+        return volume;
+    }
+
+    public int runStep(EditSession editSession, int step) throws MaxChangedBlocksException {
+        final int x = step / (ceilRadiusY + 1);
+        final int y = step % (ceilRadiusY + 1);
+
+        final double xn = x * invRadiusX;
+        final double nextXn = (x + 1) * invRadiusX;
+        final double yn = y * invRadiusY;
+        final double nextYn = (y + 1) * invRadiusY;
+
+        int affected = 0;
+        double nextZn = 0;
+        for (int z = 0; z <= ceilRadiusZ; ++z) {
+            final double zn = nextZn;
+            nextZn = (z + 1) * invRadiusZ;
+
+            if (lengthSq(xn, yn, zn) > 1) {
+                break;
+            }
+
+            if (!filled) {
+                if (lengthSq(nextXn, yn, zn) <= 1 && lengthSq(xn, nextYn, zn) <= 1 && lengthSq(xn, yn, nextZn) <= 1) {
+                    continue;
+                }
+            }
+
+            affected += set(editSession, x, y, z);
+            affected += set(editSession, -x, y, z);
+            affected += set(editSession, x, -y, z);
+            affected += set(editSession, x, y, -z);
+            affected += set(editSession, -x, -y, z);
+            affected += set(editSession, x, -y, -z);
+            affected += set(editSession, -x, y, -z);
+            affected += set(editSession, -x, -y, -z);
+        }
+
+        return affected;
+    }
+
+    private int set(EditSession editSession, int x, int y, int z) throws MaxChangedBlocksException {
+        if (compiled == null) {
+            return editSession.setBlock(pos.add(x, y, z), block) ? 1 : 0;
+        }
+
+        final int type = compiled.next(posX + x, posY + y, posZ + z);
+        return editSession.setBlock(posX + x, posY + y, posZ + z, type >> 4, type & 0xF) ? 1 : 0;
+    }
+
+    private static double lengthSq(double x, double y, double z) {
+        return (x * x) + (y * y) + (z * z);
+    }
+}
@@ -0,0 +1,98 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.operations;
+
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.MaxChangedBlocksException;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.regions.Region;
+
+/**
+ * Incremental version of {@link EditSession#stackCuboidRegion(Region, Vector, int, boolean)}.
+ * Each step copies one column of the region. The bounds of the region are
+ * read when the operation is constructed, so changing the selection while it
+ * runs has no effect.
+ */
+public class StackOperation implements IncrementalOperation {
+    private final int minX;
+    private final int minY;
+    private final int minZ;
+    private final int maxY;
+    private final int length;
+    private final int offsetX;
+    private final int offsetY;
+    private final int offsetZ;
+    private final int count;
+    private final boolean copyAir;
+    private final int stepCount;
+    private final int volume;
+
+    public StackOperation(Region region, Vector dir, int count, boolean copyAir) {
+        final Vector min = region.getMinimumPoint();
+        final Vector max = region.getMaximumPoint();
+
+        minX = min.getBlockX();
+        minY = min.getBlockY();
+        minZ = min.getBlockZ();
+        maxY = max.getBlockY();
+        length = region.getLength();
+
+        offsetX = region.getWidth() * dir.getBlockX();
+        offsetY = region.getHeight() * dir.getBlockY();
+        offsetZ = region.getLength() * dir.getBlockZ();
+
+        this.count = count;
+        this.copyAir = copyAir;
+
+        stepCount = region.getWidth() * length;
+        volume = (int) Math.min(Integer.MAX_VALUE, (long) region.getArea() * count);
+    }
+
+    public int getStepCount() {
+        return stepCount;
+    }
+
+    public int getVolume() {
+        return volume;
+    }
+
+    public int runStep(EditSession editSession, int step) throws MaxChangedBlocksException {
+        final int x = minX + step / length;
+        final int z = minZ + step % length;
+
+        int affected = 0;
+        for (int y = minY; y <= maxY; ++y) {
+            final BaseBlock block = editSession.getBlock(new Vector(x, y, z));
+
+            if (!block.isAir() || copyAir) {
+                for (int i = 1; i <= count; ++i) {
+                    final Vector pos = new Vector(x + offsetX * i, y + offsetY * i, z + offsetZ * i);
+
+                    if (editSession.setBlock(pos, block)) {
+                        ++affected;
+                    }
+                }
+            }
+        }
+
+        return affected;
+    }
+}
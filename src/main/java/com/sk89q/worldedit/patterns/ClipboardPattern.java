@@ -72,4 +72,8 @@ public BaseBlock next(int x, int y, int z) {
 
         return clipboard.getPoint(new Vector(xp, yp, zp));
     }
+
+    CuboidClipboard getClipboard() {
+        return clipboard;
+    }
 }
@@ -0,0 +1,77 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.patterns;
+
+/**
+ * A pattern that was turned by {@link PatternCompiler} into a function from
+ * block coordinates to a type and data value. A compiled pattern is meant
+ * for one edit on one thread; it may keep state such as a random number
+ * generator.
+ */
+public abstract class CompiledPattern {
+    /**
+     * Get the block for a position.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return the type and data value, packed as (type << 4) | data
+     */
+    public abstract int next(int x, int y, int z);
+
+    /**
+     * Returns whether {@link #fork()} can make copies of the pattern for
+     * other threads. Patterns that read the world or a clipboard cannot.
+     *
+     * @return
+     */
+    public boolean canFork() {
+        return false;
+    }
+
+    /**
+     * Make a copy of the pattern that may be used on another thread. The
+     * copy has to be made on the thread that uses this pattern.
+     *
+     * @return
+     * @throws UnsupportedOperationException if {@link #canFork()} is false
+     */
+    public CompiledPattern fork() {
+        throw new UnsupportedOperationException("This pattern cannot be used on other threads");
+    }
+
+    /**
+     * Get the blocks for a run of positions along the X axis.
+     *
+     * @param x the X coordinate of the first position
+     * @param y
+     * @param z
+     * @param length the number of positions
+     * @param types receives the types, starting at index 0
+     * @param data receives the data values, starting at index 0
+     */
+    public void fill(int x, int y, int z, int length, int[] types, byte[] data) {
+        for (int i = 0; i < length; ++i) {
+            final int block = next(x + i, y, z);
+            types[i] = block >> 4;
+            data[i] = (byte) (block & 0xF);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.patterns;
+
+import java.util.Arrays;
+
+import com.sk89q.worldedit.CuboidClipboard;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.util.FastRandom;
+
+/**
+ * Turns patterns into {@link CompiledPattern}s. Random fills pick from their
+ * alias table with a generator of their own, and clipboard patterns read
+ * the packed blocks of the clipboard directly.
+ *
+ * <p>Only patterns whose blocks are fully described by a type and data
+ * value can be compiled. For other patterns, such as ones with signs or
+ * chests or ones that are not known here, {@link #compile(Pattern)}
+ * returns null and the pattern has to be used as it is.</p>
+ */
+public final class PatternCompiler {
+    private PatternCompiler() {
+    }
+
+    /**
+     * Compile a pattern.
+     *
+     * @param pattern
+     * @return the compiled pattern, or null if it cannot be compiled
+     */
+    public static CompiledPattern compile(Pattern pattern) {
+        final Class<?> type = pattern.getClass();
+
+        if (type == SingleBlockPattern.class) {
+            final BaseBlock block = ((SingleBlockPattern) pattern).getBlock();
+            return isPlain(block) ? new Constant(block) : null;
+        }
+
+        if (type == RandomFillPattern.class) {
+            final RandomFillPattern randomFill = (RandomFillPattern) pattern;
+            for (BaseBlock block : randomFill.getBlocks()) {
+                if (!isPlain(block)) {
+                    return null;
+                }
+            }
+            return new Weighted(randomFill);
+        }
+
+        if (type == ClipboardPattern.class) {
+            final CuboidClipboard clipboard = ((ClipboardPattern) pattern).getClipboard();
+            return clipboard.getTileEntityBlocks().isEmpty() ? new Tiled(clipboard) : null;
+        }
+
+        return null;
+    }
+
+    private static boolean isPlain(BaseBlock block) {
+        return block.getClass() == BaseBlock.class && !block.hasNbtData()
+                && block.getData() >= 0 && block.getData() <= 15;
+    }
+
+    private static int pack(BaseBlock block) {
+        return (block.getType() << 4) | block.getData();
+    }
+
+    static class Constant extends CompiledPattern {
+        private final int block;
+        private final int type;
+        private final byte data;
+
+        Constant(BaseBlock block) {
+            this.block = pack(block);
+            this.type = block.getType();
+            this.data = (byte) block.getData();
+        }
+
+        @Override
+        public int next(int x, int y, int z) {
+            return block;
+        }
+
+        @Override
+        public boolean canFork() {
+            return true;
+        }
+
+        @Override
+        public CompiledPattern fork() {
+            return this;
+        }
+
+        @Override
+        public void fill(int x, int y, int z, int length, int[] types, byte[] data) {
+            Arrays.fill(types, 0, length, type);
+            Arrays.fill(data, 0, length, this.data);
+        }
+    }
+
+    static class Weighted extends CompiledPattern {
+        private final RandomFillPattern pattern;
+        private final int[] blocks;
+        private final FastRandom random;
+
+        Weighted(RandomFillPattern pattern) {
+            // Every compiled pattern has a generator of its own, seeded from
+            // the pattern's, so a seeded pattern repeats its edits
+            this(pattern, new FastRandom(pattern.getRandom().nextLong()), null);
+        }
+
+        private Weighted(RandomFillPattern pattern, FastRandom random, int[] blocks) {
+            this.pattern = pattern;
+            this.random = random;
+
+            if (blocks == null) {
+                final BaseBlock[] patternBlocks = pattern.getBlocks();
+                blocks = new int[patternBlocks.length];
+                for (int i = 0; i < blocks.length; ++i) {
+                    blocks[i] = pack(patternBlocks[i]);
+                }
+            }
+            this.blocks = blocks;
+        }
+
+        @Override
+        public int next(int x, int y, int z) {
+            return blocks[pattern.pick(random)];
+        }
+
+        @Override
+        public boolean canFork() {
+            return true;
+        }
+
+        @Override
+        public CompiledPattern fork() {
+            return new Weighted(pattern, new FastRandom(random.nextLong()), blocks);
+        }
+    }
+
+    static class Tiled extends CompiledPattern {
+        private final CuboidClipboard clipboard;
+        private final int sizeX;
+        private final int sizeY;
+        private final int sizeZ;
+
+        Tiled(CuboidClipboard clipboard) {
+            final Vector size = clipboard.getSize();
+            this.clipboard = clipboard;
+            this.sizeX = size.getBlockX();
+            this.sizeY = size.getBlockY();
+            this.sizeZ = size.getBlockZ();
+        }
+
+        @Override
+        public int next(int x, int y, int z) {
+            // Negative coordinates are mirrored, as in ClipboardPattern
+            final int xp = Math.abs(x) % sizeX;
+            final int yp = Math.abs(y) % sizeY;
+            final int zp = Math.abs(z) % sizeZ;
+            return (clipboard.getBlockType(xp, yp, zp) << 4) | clipboard.getBlockData(xp, yp, zp);
+        }
+
+        @Override
+        public void fill(int x, int y, int z, int length, int[] types, byte[] data) {
+            final int yp = Math.abs(y) % sizeY;
+            final int zp = Math.abs(z) % sizeZ;
+            for (int i = 0; i < length; ++i) {
+                final int xp = Math.abs(x + i) % sizeX;
+                types[i] = clipboard.getBlockType(xp, yp, zp);
+                data[i] = (byte) clipboard.getBlockData(xp, yp, zp);
+            }
+        }
+    }
+}
@@ -19,26 +19,38 @@
 
 package com.sk89q.worldedit.patterns;
 
-import java.util.Random;
 import java.util.List;
-import java.util.ArrayList;
 import com.sk89q.worldedit.*;
 import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.util.FastRandom;
 
 /**
  * Pattern proportionally fills.
  *
+ * <p>Blocks are picked with the alias method: every block has a column
+ * that is split between the block itself and one other block, so picking a
+ * block takes one random column and one coin flip, however many blocks
+ * there are.</p>
+ *
  * @author sk89q
  */
 public class RandomFillPattern implements Pattern {
     /**
-     * Random number generator.
+     * Blocks, one per column.
+     */
+    private final BaseBlock[] blocks;
+    /**
+     * Chance that the block of a column is picked rather than its alias.
      */
-    private static final Random random = new Random();
+    private final double[] probabilities;
     /**
-     * Blocks and their proportions.
+     * Index of the block that fills up the rest of each column.
      */
-    private List<BlockChance> blocks;
+    private final int[] aliases;
+    /**
+     * Generator of a seeded pattern, or null to use the thread's generator.
+     */
+    private final FastRandom random;
 
     /**
      * Construct the object.
@@ -46,23 +58,83 @@ public class RandomFillPattern implements Pattern {
      * @param blocks
      */
     public RandomFillPattern(List<BlockChance> blocks) {
+        this(blocks, null);
+    }
+
+    /**
+     * Construct a pattern that picks the same blocks every time it is
+     * constructed with the same seed and used for the same edits. A seeded
+     * pattern must only be used by one thread at a time.
+     *
+     * @param blocks
+     * @param seed
+     */
+    public RandomFillPattern(List<BlockChance> blocks, long seed) {
+        this(blocks, new FastRandom(seed));
+    }
+
+    private RandomFillPattern(List<BlockChance> blocks, FastRandom random) {
+        if (blocks.isEmpty()) {
+            throw new IllegalArgumentException("A random fill pattern needs at least one block");
+        }
+
+        final int count = blocks.size();
         double max = 0;
 
         for (BlockChance block : blocks) {
             max += block.getChance();
         }
 
-        List<BlockChance> finalBlocks = new ArrayList<BlockChance>();
+        this.blocks = new BaseBlock[count];
+        this.probabilities = new double[count];
+        this.aliases = new int[count];
+        this.random = random;
 
-        double i = 0;
+        // Vose's method: columns with less than an average share are topped
+        // up from columns with more
+        final double[] scaled = new double[count];
+        final int[] small = new int[count];
+        final int[] large = new int[count];
+        int smallCount = 0;
+        int largeCount = 0;
 
-        for (BlockChance block : blocks) {
-            double v = block.getChance() / max;
-            i += v;
-            finalBlocks.add(new BlockChance(block.getBlock(), i));
+        for (int i = 0; i < count; ++i) {
+            final BlockChance block = blocks.get(i);
+            this.blocks[i] = block.getBlock();
+            scaled[i] = block.getChance() * count / max;
+            if (scaled[i] < 1) {
+                small[smallCount++] = i;
+            } else {
+                large[largeCount++] = i;
+            }
+        }
+
+        while (smallCount > 0 && largeCount > 0) {
+            final int less = small[--smallCount];
+            final int more = large[--largeCount];
+
+            probabilities[less] = scaled[less];
+            aliases[less] = more;
+
+            scaled[more] = (scaled[more] + scaled[less]) - 1;
+            if (scaled[more] < 1) {
+                small[smallCount++] = more;
+            } else {
+                large[largeCount++] = more;
+            }
         }
 
-        this.blocks = finalBlocks;
+        // Whatever is left is only off by rounding
+        while (largeCount > 0) {
+            final int i = large[--largeCount];
+            probabilities[i] = 1;
+            aliases[i] = i;
+        }
+        while (smallCount > 0) {
+            final int i = small[--smallCount];
+            probabilities[i] = 1;
+            aliases[i] = i;
+        }
     }
 
     /**
@@ -72,18 +144,34 @@ public RandomFillPattern(List<BlockChance> blocks) {
      * @return
      */
     public BaseBlock next(Vector pos) {
-        double r = random.nextDouble();
-
-        for (BlockChance block : blocks) {
-            if (r <= block.getChance()) {
-                return block.getBlock();
-            }
-        }
-
-        throw new RuntimeException("ProportionalFillPattern");
+        return blocks[pick(getRandom())];
     }
 
     public BaseBlock next(int x, int y, int z) {
         return next(null);
     }
+
+    /**
+     * Pick the index of a block.
+     *
+     * @param random
+     * @return
+     */
+    int pick(FastRandom random) {
+        final int column = random.nextInt(blocks.length);
+        return random.nextDouble() < probabilities[column] ? column : aliases[column];
+    }
+
+    /**
+     * Get the generator to pick blocks with.
+     *
+     * @return
+     */
+    FastRandom getRandom() {
+        return random == null ? FastRandom.current() : random;
+    }
+
+    BaseBlock[] getBlocks() {
+        return blocks;
+    }
 }
@@ -49,6 +49,27 @@ public Iterator<BlockVector> iterator() {
         return new RegionIterator(this);
     }
 
+    /**
+     * Get the blocks of the region as runs along the X axis.
+     *
+     * @return
+     */
+    public SpanIterator spanIterator() {
+        return spanIterator(getMinimumPoint(), getMaximumPoint());
+    }
+
+    /**
+     * Get the blocks of the region that lie within a box as runs along the
+     * X axis. This implementation tests every block of the box.
+     *
+     * @param min
+     * @param max
+     * @return
+     */
+    public SpanIterator spanIterator(Vector min, Vector max) {
+        return new RegionSpanIterator(this, min, max);
+    }
+
     public LocalWorld getWorld() {
         return world;
     }
@@ -396,6 +396,21 @@ public void remove() {
         };
     }
 
+    @Override
+    public SpanIterator spanIterator(Vector boxMin, Vector boxMax) {
+        Vector min = Vector.getMaximum(getMinimumPoint(), boxMin);
+        Vector max = Vector.getMinimum(getMaximumPoint(), boxMax);
+        final int minBoundX = min.getBlockX();
+        final int maxBoundX = max.getBlockX();
+
+        return new FlatRegionSpanIterator(min.getBlockY(), max.getBlockY(), min.getBlockZ(), max.getBlockZ()) {
+            @Override
+            protected void findRuns(int z) {
+                addRun(minBoundX, maxBoundX);
+            }
+        };
+    }
+
     @Override
     public Iterable<Vector2D> asFlatRegion() {
         return new Iterable<Vector2D>() {
@@ -379,6 +379,80 @@ public boolean setY(int y) {
         return false;
     }
 
+    /**
+     * Get the blocks of the region as runs along the X axis. The ends of
+     * each run are worked out from the equation of the ellipse and then
+     * checked against {@link #contains(Vector)}, so that both always agree.
+     *
+     * @param boxMin
+     * @param boxMax
+     * @return
+     */
+    @Override
+    public SpanIterator spanIterator(Vector boxMin, Vector boxMax) {
+        Vector min = Vector.getMaximum(getMinimumPoint(), boxMin);
+        Vector max = Vector.getMinimum(getMaximumPoint(), boxMax);
+        final int minBoundX = min.getBlockX();
+        final int maxBoundX = max.getBlockX();
+
+        return new FlatRegionSpanIterator(min.getBlockY(), max.getBlockY(), min.getBlockZ(), max.getBlockZ()) {
+            @Override
+            protected void findRuns(int z) {
+                final double centerX = center.getX();
+                final double dz = (z - center.getZ()) / radius.getZ();
+                final double rest = 1 - dz * dz;
+
+                int lo = Integer.MAX_VALUE;
+                int hi = Integer.MIN_VALUE;
+                if (rest >= 0) {
+                    final double half = radius.getX() * Math.sqrt(rest);
+                    lo = (int) Math.ceil(centerX - half);
+                    hi = (int) Math.floor(centerX + half);
+                }
+                if (lo > hi) {
+                    // Rounding may still put a block next to the center inside
+                    lo = (int) Math.floor(centerX);
+                    hi = lo + 1;
+                }
+
+                lo = Math.max(lo, minBoundX);
+                hi = Math.min(hi, maxBoundX);
+                while (lo <= hi && !contains2D(lo, z)) {
+                    ++lo;
+                }
+                while (hi >= lo && !contains2D(hi, z)) {
+                    --hi;
+                }
+                if (lo > hi) {
+                    return;
+                }
+
+                while (lo > minBoundX && contains2D(lo - 1, z)) {
+                    --lo;
+                }
+                while (hi < maxBoundX && contains2D(hi + 1, z)) {
+                    ++hi;
+                }
+
+                addRun(lo, hi);
+            }
+        };
+    }
+
+    /**
+     * Does the same as {@link #contains(Vector)} for a column, without
+     * creating vectors.
+     *
+     * @param x
+     * @param z
+     * @return
+     */
+    private boolean contains2D(int x, int z) {
+        double dx = (x - center.getX()) / radius.getX();
+        double dz = (z - center.getZ()) / radius.getZ();
+        return dx * dx + dz * dz <= 1;
+    }
+
     @Override
     public Iterator<BlockVector> iterator() {
         return new FlatRegion3DIterator(this);
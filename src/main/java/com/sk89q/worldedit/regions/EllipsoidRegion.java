@@ -262,6 +262,107 @@ public boolean contains(Vector pt) {
         return pt.subtract(center).divide(radius).lengthSq() <= 1;
     }
 
+    /**
+     * Does the same as {@link #contains(Vector)} without creating vectors.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    private boolean contains(int x, int y, int z) {
+        double dx = (x - center.getX()) / radius.getX();
+        double dy = (y - center.getY()) / radius.getY();
+        double dz = (z - center.getZ()) / radius.getZ();
+        return dx * dx + dy * dy + dz * dz <= 1;
+    }
+
+    /**
+     * Get the blocks of the region as runs along the X axis. The ends of
+     * each run are worked out from the equation of the ellipsoid and then
+     * checked against {@link #contains(Vector)}, so that both always agree.
+     *
+     * @param boxMin
+     * @param boxMax
+     * @return
+     */
+    @Override
+    public SpanIterator spanIterator(Vector boxMin, Vector boxMax) {
+        final Vector min = Vector.getMaximum(getMinimumPoint(), boxMin);
+        final Vector max = Vector.getMinimum(getMaximumPoint(), boxMax);
+
+        return new SpanIterator() {
+            private final int minBoundX = min.getBlockX();
+            private final int maxBoundX = max.getBlockX();
+            private final int minBoundY = min.getBlockY();
+            private final int maxBoundY = max.getBlockY();
+            private final int maxBoundZ = max.getBlockZ();
+            private int nextY = minBoundY;
+            private int nextZ = min.getBlockZ();
+
+            @Override
+            public boolean next() {
+                while (nextZ <= maxBoundZ && minBoundY <= maxBoundY) {
+                    y = nextY;
+                    z = nextZ;
+                    if (++nextY > maxBoundY) {
+                        nextY = minBoundY;
+                        ++nextZ;
+                    }
+
+                    if (findRun()) {
+                        return true;
+                    }
+                }
+
+                return false;
+            }
+
+            private boolean findRun() {
+                final double centerX = center.getX();
+                final double dy = (y - center.getY()) / radius.getY();
+                final double dz = (z - center.getZ()) / radius.getZ();
+                final double rest = 1 - dy * dy - dz * dz;
+
+                int lo = Integer.MAX_VALUE;
+                int hi = Integer.MIN_VALUE;
+                if (rest >= 0) {
+                    final double half = radius.getX() * Math.sqrt(rest);
+                    lo = (int) Math.ceil(centerX - half);
+                    hi = (int) Math.floor(centerX + half);
+                }
+                if (lo > hi) {
+                    // Rounding may still put a block next to the center inside
+                    lo = (int) Math.floor(centerX);
+                    hi = lo + 1;
+                }
+
+                lo = Math.max(lo, minBoundX);
+                hi = Math.min(hi, maxBoundX);
+                while (lo <= hi && !contains(lo, y, z)) {
+                    ++lo;
+                }
+                while (hi >= lo && !contains(hi, y, z)) {
+                    --hi;
+                }
+                if (lo > hi) {
+                    return false;
+                }
+
+                while (lo > minBoundX && contains(lo - 1, y, z)) {
+                    --lo;
+                }
+                while (hi < maxBoundX && contains(hi + 1, y, z)) {
+                    ++hi;
+                }
+
+                minX = lo;
+                maxX = hi;
+                return true;
+            }
+        };
+    }
+
     /**
      * Returns string representation in the format
      * "(centerX, centerY, centerZ) - (radiusX, radiusY, radiusZ)".
@@ -0,0 +1,102 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010, 2011 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.regions;
+
+/**
+ * Finds the runs of a {@link FlatRegion}. The runs of each Z row are only
+ * worked out once and then returned for every Y level of the region.
+ */
+public abstract class FlatRegionSpanIterator extends SpanIterator {
+    private final int minY;
+    private final int maxY;
+    private final int maxZ;
+    private int nextZ;
+    private int[] runs = new int[8];
+    private int runCount;
+    private int nextRun;
+
+    /**
+     * Construct the iterator.
+     *
+     * @param minY
+     * @param maxY
+     * @param minZ
+     * @param maxZ
+     */
+    protected FlatRegionSpanIterator(int minY, int maxY, int minZ, int maxZ) {
+        this.minY = minY;
+        this.maxY = maxY;
+        this.maxZ = maxZ;
+        this.nextZ = minZ;
+        this.y = maxY;
+    }
+
+    @Override
+    public boolean next() {
+        while (nextRun >= runCount) {
+            if (y < maxY) {
+                ++y;
+                nextRun = 0;
+            } else if (nextZ <= maxZ && minY <= maxY) {
+                z = nextZ++;
+                y = minY;
+                runCount = 0;
+                nextRun = 0;
+                findRuns(z);
+                if (runCount == 0) {
+                    y = maxY;
+                }
+            } else {
+                return false;
+            }
+        }
+
+        minX = runs[nextRun * 2];
+        maxX = runs[nextRun * 2 + 1];
+        ++nextRun;
+        return true;
+    }
+
+    /**
+     * Find the runs of a Z row and report them with
+     * {@link #addRun(int, int)}, in order of increasing X.
+     *
+     * @param z
+     */
+    protected abstract void findRuns(int z);
+
+    /**
+     * Add a run of the row that is being worked out.
+     *
+     * @param minX
+     * @param maxX inclusive
+     */
+    protected void addRun(int minX, int maxX) {
+        if (runCount * 2 == runs.length) {
+            int[] newRuns = new int[runs.length * 2];
+            System.arraycopy(runs, 0, newRuns, 0, runs.length);
+            runs = newRuns;
+        }
+
+        runs[runCount * 2] = minX;
+        runs[runCount * 2 + 1] = maxX;
+        ++runCount;
+    }
+}
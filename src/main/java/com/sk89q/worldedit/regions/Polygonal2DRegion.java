@@ -352,17 +352,28 @@ public boolean contains(Vector pt) {
      */
     public static boolean contains(List<BlockVector2D> points, int minY,
             int maxY, Vector pt) {
-        if (points.size() < 3) {
-            return false;
-        }
-        int targetX = pt.getBlockX(); //wide
         int targetY = pt.getBlockY(); //height
-        int targetZ = pt.getBlockZ(); //depth
 
         if (targetY < minY || targetY > maxY) {
             return false;
         }
 
+        return contains2D(points, pt.getBlockX(), pt.getBlockZ());
+    }
+
+    /**
+     * Checks to see if a column is inside the polygon.
+     *
+     * @param points
+     * @param targetX
+     * @param targetZ
+     * @return
+     */
+    private static boolean contains2D(List<BlockVector2D> points, int targetX, int targetZ) {
+        if (points.size() < 3) {
+            return false;
+        }
+
         boolean inside = false;
         int npoints = points.size();
         int xNew, zNew;
@@ -485,6 +496,43 @@ public boolean expandY(int y) {
         return false;
     }
 
+    /**
+     * Get the blocks of the region as runs along the X axis. The polygon is
+     * only tested once per column instead of once per block.
+     *
+     * @param boxMin
+     * @param boxMax
+     * @return
+     */
+    @Override
+    public SpanIterator spanIterator(Vector boxMin, Vector boxMax) {
+        final Vector bottom = Vector.getMaximum(getMinimumPoint(), boxMin);
+        final Vector top = Vector.getMinimum(getMaximumPoint(), boxMax);
+        final int minBoundX = bottom.getBlockX();
+        final int maxBoundX = top.getBlockX();
+
+        return new FlatRegionSpanIterator(bottom.getBlockY(), top.getBlockY(), bottom.getBlockZ(), top.getBlockZ()) {
+            @Override
+            protected void findRuns(int z) {
+                int start = Integer.MIN_VALUE;
+                for (int x = minBoundX; x <= maxBoundX; ++x) {
+                    if (contains2D(points, x, z)) {
+                        if (start == Integer.MIN_VALUE) {
+                            start = x;
+                        }
+                    } else if (start != Integer.MIN_VALUE) {
+                        addRun(start, x - 1);
+                        start = Integer.MIN_VALUE;
+                    }
+                }
+
+                if (start != Integer.MIN_VALUE) {
+                    addRun(start, maxBoundX);
+                }
+            }
+        };
+    }
+
     /**
      * Get the iterator.
      *
@@ -133,6 +133,23 @@ public interface Region extends Iterable<BlockVector>, Cloneable {
      */
     public boolean contains(Vector pt);
 
+    /**
+     * Get the blocks of the region as runs along the X axis.
+     *
+     * @return
+     */
+    public SpanIterator spanIterator();
+
+    /**
+     * Get the blocks of the region that lie within a box as runs along the
+     * X axis.
+     *
+     * @param min the lowest corner of the box
+     * @param max the highest corner of the box, inclusive
+     * @return
+     */
+    public SpanIterator spanIterator(Vector min, Vector max);
+
     /**
      * Get a list of chunks.
      *
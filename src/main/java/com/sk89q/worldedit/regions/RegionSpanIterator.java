@@ -0,0 +1,95 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010, 2011 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.regions;
+
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.Vector;
+
+/**
+ * Finds the runs of a region by testing each block of its bounding box,
+ * for regions that do not know their shape any better.
+ */
+public class RegionSpanIterator extends SpanIterator {
+    private final Region region;
+    private final int minBoundX;
+    private final int maxBoundX;
+    private final int minBoundY;
+    private final int maxBoundY;
+    private final int maxBoundZ;
+    private int nextX;
+    private int nextY;
+    private int nextZ;
+
+    public RegionSpanIterator(Region region) {
+        this(region, region.getMinimumPoint(), region.getMaximumPoint());
+    }
+
+    /**
+     * Find the runs of a region that lie within a box.
+     *
+     * @param region
+     * @param min
+     * @param max
+     */
+    public RegionSpanIterator(Region region, Vector min, Vector max) {
+        this.region = region;
+
+        min = Vector.getMaximum(min, region.getMinimumPoint());
+        max = Vector.getMinimum(max, region.getMaximumPoint());
+        minBoundX = min.getBlockX();
+        maxBoundX = max.getBlockX();
+        minBoundY = min.getBlockY();
+        maxBoundY = max.getBlockY();
+        maxBoundZ = max.getBlockZ();
+
+        nextX = minBoundX;
+        nextY = minBoundY;
+        nextZ = min.getBlockZ();
+    }
+
+    @Override
+    public boolean next() {
+        while (nextZ <= maxBoundZ) {
+            while (nextX <= maxBoundX) {
+                int x = nextX++;
+                if (!region.contains(new BlockVector(x, nextY, nextZ))) {
+                    continue;
+                }
+
+                y = nextY;
+                z = nextZ;
+                minX = x;
+                while (nextX <= maxBoundX && region.contains(new BlockVector(nextX, y, z))) {
+                    ++nextX;
+                }
+                maxX = nextX - 1;
+                return true;
+            }
+
+            nextX = minBoundX;
+            if (++nextY > maxBoundY) {
+                nextY = minBoundY;
+                ++nextZ;
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,87 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010, 2011 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.regions;
+
+/**
+ * Walks the blocks of a region as runs of consecutive blocks along the
+ * X axis, so that callers do not have to test every block of the bounding
+ * box with {@link Region#contains(com.sk89q.worldedit.Vector)}.
+ *
+ * <pre>
+ * SpanIterator spans = region.spanIterator();
+ * while (spans.next()) {
+ *     for (int x = spans.getMinX(); x &lt;= spans.getMaxX(); ++x) {
+ *         // (x, spans.getY(), spans.getZ()) is inside the region
+ *     }
+ * }
+ * </pre>
+ *
+ * Every block of the region is in exactly one run. Runs are returned with
+ * Z as the outer and Y as the inner coordinate.
+ */
+public abstract class SpanIterator {
+    protected int y;
+    protected int z;
+    protected int minX;
+    protected int maxX;
+
+    /**
+     * Move to the next run.
+     *
+     * @return false if there are no more runs
+     */
+    public abstract boolean next();
+
+    /**
+     * Get the Y coordinate of the current run.
+     *
+     * @return
+     */
+    public int getY() {
+        return y;
+    }
+
+    /**
+     * Get the Z coordinate of the current run.
+     *
+     * @return
+     */
+    public int getZ() {
+        return z;
+    }
+
+    /**
+     * Get the lowest X coordinate of the current run.
+     *
+     * @return
+     */
+    public int getMinX() {
+        return minX;
+    }
+
+    /**
+     * Get the highest X coordinate of the current run, inclusive.
+     *
+     * @return
+     */
+    public int getMaxX() {
+        return maxX;
+    }
+}
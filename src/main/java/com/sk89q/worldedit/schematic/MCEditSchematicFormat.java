@@ -18,40 +18,51 @@
 
 package com.sk89q.worldedit.schematic;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPInputStream;
 
-import com.sk89q.jnbt.ByteArrayTag;
 import com.sk89q.jnbt.CompoundTag;
 import com.sk89q.jnbt.IntTag;
-import com.sk89q.jnbt.ListTag;
 import com.sk89q.jnbt.NBTConstants;
-import com.sk89q.jnbt.NBTInputStream;
-import com.sk89q.jnbt.NBTOutputStream;
-import com.sk89q.jnbt.ShortTag;
-import com.sk89q.jnbt.StringTag;
+import com.sk89q.jnbt.NBTStreamReader;
+import com.sk89q.jnbt.NBTStreamWriter;
+import com.sk89q.jnbt.NBTUtils;
 import com.sk89q.jnbt.Tag;
 import com.sk89q.worldedit.BlockVector;
 import com.sk89q.worldedit.CuboidClipboard;
 import com.sk89q.worldedit.Vector;
 import com.sk89q.worldedit.blocks.BaseBlock;
-import com.sk89q.worldedit.blocks.TileEntityBlock;
 import com.sk89q.worldedit.data.DataException;
+import com.sk89q.worldedit.util.ParallelGZIPOutputStream;
 
 /**
+ * Reads and writes the .schematic format of MCEdit.
+ *
+ * <p>The block arrays are streamed between the file and the clipboard in
+ * the clipboard's own x, z, y order, a buffer at a time, instead of being
+ * built as tags first. If the size of the schematic comes after the block
+ * arrays in a file, the arrays are read whole and copied afterwards.</p>
+ *
  * @author zml2008
  */
 public class MCEditSchematicFormat extends SchematicFormat {
     private static final int MAX_SIZE = Short.MAX_VALUE - Short.MIN_VALUE;
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final int BLOCKS = 0;
+    private static final int DATA = 1;
+    private static final int ADD_BLOCKS = 2;
 
     protected MCEditSchematicFormat() {
         super("MCEdit", "mcedit", "mce");
@@ -59,137 +70,215 @@ protected MCEditSchematicFormat() {
 
     @Override
     public CuboidClipboard load(File file) throws IOException, DataException {
-        FileInputStream stream = new FileInputStream(file);
-        NBTInputStream nbtStream = new NBTInputStream(
-                new GZIPInputStream(stream));
-
-        Vector origin = new Vector();
-        Vector offset = new Vector();
-
-        // Schematic tag
-        CompoundTag schematicTag = (CompoundTag) nbtStream.readTag();
-        nbtStream.close();
-        if (!schematicTag.getName().equals("Schematic")) {
-            throw new DataException("Tag \"Schematic\" does not exist or is not first");
-        }
-
-        // Check
-        Map<String, Tag> schematic = schematicTag.getValue();
-        if (!schematic.containsKey("Blocks")) {
-            throw new DataException("Schematic file is missing a \"Blocks\" tag");
-        }
-
-        // Get information
-        short width = getChildTag(schematic, "Width", ShortTag.class).getValue();
-        short length = getChildTag(schematic, "Length", ShortTag.class).getValue();
-        short height = getChildTag(schematic, "Height", ShortTag.class).getValue();
+        NBTStreamReader reader = new NBTStreamReader(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(file))));
+
+        int width = -1;
+        int height = -1;
+        int length = -1;
+        int[] origin = new int[3];
+        int[] offset = new int[3];
+        int originTags = 0;
+        int offsetTags = 0;
+        String materials = null;
+        CuboidClipboard clipboard = null;
+
+        // Arrays that were read before the size of the schematic was known
+        byte[][] arrays = new byte[3][];
+        boolean[] found = new boolean[3];
+        List<CompoundTag> tileEntities = null;
 
         try {
-            int originX = getChildTag(schematic, "WEOriginX", IntTag.class).getValue();
-            int originY = getChildTag(schematic, "WEOriginY", IntTag.class).getValue();
-            int originZ = getChildTag(schematic, "WEOriginZ", IntTag.class).getValue();
-            origin = new Vector(originX, originY, originZ);
-        } catch (DataException e) {
-            // No origin data
-        }
+            if (reader.readNamedTag() != NBTConstants.TYPE_COMPOUND || !reader.isName("Schematic")) {
+                throw new DataException("Tag \"Schematic\" does not exist or is not first");
+            }
 
-        try {
-            int offsetX = getChildTag(schematic, "WEOffsetX", IntTag.class).getValue();
-            int offsetY = getChildTag(schematic, "WEOffsetY", IntTag.class).getValue();
-            int offsetZ = getChildTag(schematic, "WEOffsetZ", IntTag.class).getValue();
-            offset = new Vector(offsetX, offsetY, offsetZ);
-        } catch (DataException e) {
-            // No offset data
+            int type;
+            while ((type = reader.readNamedTag()) != NBTConstants.TYPE_END) {
+                int array = reader.isName("Blocks") ? BLOCKS
+                        : reader.isName("Data") ? DATA
+                        : reader.isName("AddBlocks") ? ADD_BLOCKS : -1;
+
+                if (array != -1) {
+                    checkType(reader, type, NBTConstants.TYPE_BYTE_ARRAY);
+                    found[array] = true;
+                    if (clipboard == null && width >= 0 && height >= 0 && length >= 0) {
+                        clipboard = new CuboidClipboard(new Vector(width, height, length));
+                    }
+                    if (clipboard != null) {
+                        readArray(reader, clipboard, array);
+                    } else {
+                        arrays[array] = reader.readByteArray();
+                    }
+                } else if (reader.isName("Width")) {
+                    checkType(reader, type, NBTConstants.TYPE_SHORT);
+                    width = reader.readShort() & 0xFFFF;
+                } else if (reader.isName("Height")) {
+                    checkType(reader, type, NBTConstants.TYPE_SHORT);
+                    height = reader.readShort() & 0xFFFF;
+                } else if (reader.isName("Length")) {
+                    checkType(reader, type, NBTConstants.TYPE_SHORT);
+                    length = reader.readShort() & 0xFFFF;
+                } else if (reader.isName("Materials")) {
+                    checkType(reader, type, NBTConstants.TYPE_STRING);
+                    materials = reader.readString();
+                } else if (type == NBTConstants.TYPE_INT && reader.getName().startsWith("WEOrigin")
+                        && reader.getName().length() == 9) {
+                    int axis = reader.getName().charAt(8) - 'X';
+                    if (axis >= 0 && axis < 3) {
+                        origin[axis] = reader.readInt();
+                        originTags |= 1 << axis;
+                    } else {
+                        reader.skipPayload(type);
+                    }
+                } else if (type == NBTConstants.TYPE_INT && reader.getName().startsWith("WEOffset")
+                        && reader.getName().length() == 9) {
+                    int axis = reader.getName().charAt(8) - 'X';
+                    if (axis >= 0 && axis < 3) {
+                        offset[axis] = reader.readInt();
+                        offsetTags |= 1 << axis;
+                    } else {
+                        reader.skipPayload(type);
+                    }
+                } else if (reader.isName("TileEntities")) {
+                    checkType(reader, type, NBTConstants.TYPE_LIST);
+                    tileEntities = readTileEntities(reader);
+                } else {
+                    reader.skipPayload(type);
+                }
+            }
+        } finally {
+            reader.close();
         }
 
-        // Check type of Schematic
-        String materials = getChildTag(schematic, "Materials", StringTag.class).getValue();
+        // Check
+        if (!found[BLOCKS]) {
+            throw new DataException("Schematic file is missing a \"Blocks\" tag");
+        }
+        checkFound(width >= 0, "Width");
+        checkFound(length >= 0, "Length");
+        checkFound(height >= 0, "Height");
+        checkFound(materials != null, "Materials");
         if (!materials.equals("Alpha")) {
             throw new DataException("Schematic file is not an Alpha schematic");
         }
+        checkFound(found[DATA], "Data");
+        checkFound(tileEntities != null, "TileEntities");
 
-        // Get blocks
-        byte[] rawBlocks = getChildTag(schematic, "Blocks", ByteArrayTag.class).getValue();
-        byte[] blockData = getChildTag(schematic, "Data", ByteArrayTag.class).getValue();
-        short[] blocks = new short[rawBlocks.length];
-
-        if (schematic.containsKey("AddBlocks")) {
-            byte[] addBlockIds = getChildTag(schematic, "AddBlocks", ByteArrayTag.class).getValue();
-            for (int i = 0, index = 0; i < addBlockIds.length && index < blocks.length; ++i) {
-                blocks[index] = (short) (((addBlockIds[i] >> 4) << 8) + (rawBlocks[index++] & 0xFF));
-                if (index < blocks.length) {
-                    blocks[index] = (short) (((addBlockIds[i] & 0xF) << 8) + (rawBlocks[index++] & 0xFF));
-                }
-            }
-        } else {
-            for (int i = 0; i < rawBlocks.length; ++i) {
-                blocks[i] = (short) (rawBlocks[i] & 0xFF);
+        if (clipboard == null) {
+            clipboard = new CuboidClipboard(new Vector(width, height, length));
+        }
+        for (int array = 0; array < arrays.length; ++array) {
+            if (arrays[array] != null) {
+                copyArray(clipboard, array, arrays[array], 0, arrays[array].length);
             }
         }
 
-        // Need to pull out tile entities
-        List<Tag> tileEntities = getChildTag(schematic, "TileEntities", ListTag.class)
-                .getValue();
-        Map<BlockVector, Map<String, Tag>> tileEntitiesMap =
-                new HashMap<BlockVector, Map<String, Tag>>();
-
-        for (Tag tag : tileEntities) {
-            if (!(tag instanceof CompoundTag)) continue;
-            CompoundTag t = (CompoundTag) tag;
-
-            int x = 0;
-            int y = 0;
-            int z = 0;
-
-            Map<String, Tag> values = new HashMap<String, Tag>();
-
-            for (Map.Entry<String, Tag> entry : t.getValue().entrySet()) {
-                if (entry.getKey().equals("x")) {
-                    if (entry.getValue() instanceof IntTag) {
-                        x = ((IntTag) entry.getValue()).getValue();
-                    }
-                } else if (entry.getKey().equals("y")) {
-                    if (entry.getValue() instanceof IntTag) {
-                        y = ((IntTag) entry.getValue()).getValue();
-                    }
-                } else if (entry.getKey().equals("z")) {
-                    if (entry.getValue() instanceof IntTag) {
-                        z = ((IntTag) entry.getValue()).getValue();
-                    }
-                }
+        if (originTags == 7) {
+            clipboard.setOrigin(new Vector(origin[0], origin[1], origin[2]));
+        }
+        if (offsetTags == 7) {
+            clipboard.setOffset(new Vector(offset[0], offset[1], offset[2]));
+        }
 
-                values.put(entry.getKey(), entry.getValue());
+        for (CompoundTag tileEntity : tileEntities) {
+            Map<String, Tag> values = tileEntity.getValue();
+            int x = getInt(values, "x");
+            int y = getInt(values, "y");
+            int z = getInt(values, "z");
+            if (x < 0 || x >= width || y < 0 || y >= height || z < 0 || z >= length) {
+                continue;
             }
 
-            BlockVector vec = new BlockVector(x, y, z);
-            tileEntitiesMap.put(vec, values);
+            BaseBlock block = getBlockForId(clipboard.getBlockType(x, y, z), (short) clipboard.getBlockData(x, y, z));
+            block.setNbtData(new CompoundTag("", values));
+            clipboard.setBlock(new BlockVector(x, y, z), block);
         }
 
-        Vector size = new Vector(width, height, length);
-        CuboidClipboard clipboard = new CuboidClipboard(size);
-        clipboard.setOrigin(origin);
-        clipboard.setOffset(offset);
+        return clipboard;
+    }
 
-        for (int x = 0; x < width; ++x) {
-            for (int y = 0; y < height; ++y) {
-                for (int z = 0; z < length; ++z) {
-                    int index = y * width * length + z * width + x;
-                    BlockVector pt = new BlockVector(x, y, z);
-                    BaseBlock block = getBlockForId(blocks[index], blockData[index]);
+    /**
+     * Read a block array tag straight into the clipboard.
+     *
+     * @param reader
+     * @param clipboard
+     * @param array {@link #BLOCKS}, {@link #DATA} or {@link #ADD_BLOCKS}
+     * @throws IOException
+     */
+    private static void readArray(NBTStreamReader reader, CuboidClipboard clipboard, int array) throws IOException {
+        int length = reader.readByteArrayHeader();
+        byte[] buffer = new byte[Math.min(length, BUFFER_SIZE)];
+        for (int offset = 0; offset < length; ) {
+            int n = Math.min(buffer.length, length - offset);
+            reader.readFully(buffer, 0, n);
+            copyArray(clipboard, array, buffer, offset, n);
+            offset += n;
+        }
+    }
 
-                    if (block instanceof TileEntityBlock && tileEntitiesMap.containsKey(pt)) {
-                        ((TileEntityBlock) block).setNbtData(new CompoundTag("", tileEntitiesMap.get(pt)));
-                    }
-                    clipboard.setBlock(pt, block);
+    /**
+     * Copy a part of a block array into the clipboard. Entries past the end
+     * of the clipboard are ignored.
+     *
+     * @param clipboard
+     * @param array {@link #BLOCKS}, {@link #DATA} or {@link #ADD_BLOCKS}
+     * @param bytes
+     * @param offset the index of the first of the bytes in the array
+     * @param length the number of bytes
+     */
+    private static void copyArray(CuboidClipboard clipboard, int array, byte[] bytes, int offset, int length) {
+        int count = clipboard.getBlockCount();
+        switch (array) {
+        case BLOCKS:
+            for (int i = 0, index = offset; i < length && index < count; ++i, ++index) {
+                clipboard.setBlock(index, clipboard.getBlockType(index) & ~0xFF | bytes[i] & 0xFF,
+                        clipboard.getBlockData(index));
+            }
+            break;
+
+        case DATA:
+            for (int i = 0, index = offset; i < length && index < count; ++i, ++index) {
+                clipboard.setBlock(index, clipboard.getBlockType(index), bytes[i]);
+            }
+            break;
+
+        case ADD_BLOCKS:
+            // The first block of each pair is in the high nibble
+            for (int i = 0, index = offset * 2; i < length && index < count; ++i, index += 2) {
+                clipboard.setBlock(index, clipboard.getBlockType(index) & 0xFF | (bytes[i] & 0xF0) << 4,
+                        clipboard.getBlockData(index));
+                if (index + 1 < count) {
+                    clipboard.setBlock(index + 1, clipboard.getBlockType(index + 1) & 0xFF | (bytes[i] & 0xF) << 8,
+                            clipboard.getBlockData(index + 1));
                 }
             }
+            break;
         }
+    }
 
-        return clipboard;
+    private static List<CompoundTag> readTileEntities(NBTStreamReader reader) throws IOException {
+        int type = reader.readListHeader();
+        int length = reader.getListLength();
+        List<CompoundTag> tileEntities = new ArrayList<CompoundTag>();
+        for (int i = 0; i < length; ++i) {
+            if (type == NBTConstants.TYPE_COMPOUND) {
+                tileEntities.add((CompoundTag) reader.readPayload(type, ""));
+            } else {
+                reader.skipPayload(type);
+            }
+        }
+        return tileEntities;
     }
 
     @Override
     public void save(CuboidClipboard clipboard, File file) throws IOException, DataException {
+        save(clipboard, file, Deflater.DEFAULT_COMPRESSION, false);
+    }
+
+    @Override
+    public void save(CuboidClipboard clipboard, File file, int compressionLevel, boolean parallel)
+            throws IOException, DataException {
         int width = clipboard.getWidth();
         int height = clipboard.getHeight();
         int length = clipboard.getLength();
@@ -204,79 +293,129 @@ public void save(CuboidClipboard clipboard, File file) throws IOException, DataE
             throw new DataException("Length of region too large for a .schematic");
         }
 
-        HashMap<String, Tag> schematic = new HashMap<String, Tag>();
-        schematic.put("Width", new ShortTag("Width", (short) width));
-        schematic.put("Length", new ShortTag("Length", (short) length));
-        schematic.put("Height", new ShortTag("Height", (short) height));
-        schematic.put("Materials", new StringTag("Materials", "Alpha"));
-        schematic.put("WEOriginX", new IntTag("WEOriginX", clipboard.getOrigin().getBlockX()));
-        schematic.put("WEOriginY", new IntTag("WEOriginY", clipboard.getOrigin().getBlockY()));
-        schematic.put("WEOriginZ", new IntTag("WEOriginZ", clipboard.getOrigin().getBlockZ()));
-        schematic.put("WEOffsetX", new IntTag("WEOffsetX", clipboard.getOffset().getBlockX()));
-        schematic.put("WEOffsetY", new IntTag("WEOffsetY", clipboard.getOffset().getBlockY()));
-        schematic.put("WEOffsetZ", new IntTag("WEOffsetZ", clipboard.getOffset().getBlockZ()));
-
-        // Copy
-        byte[] blocks = new byte[width * height * length];
-        byte[] addBlocks = null;
-        byte[] blockData = new byte[width * height * length];
-        ArrayList<Tag> tileEntities = new ArrayList<Tag>();
-
-        for (int x = 0; x < width; ++x) {
-            for (int y = 0; y < height; ++y) {
-                for (int z = 0; z < length; ++z) {
-                    int index = y * width * length + z * width + x;
-                    BaseBlock block = clipboard.getPoint(new BlockVector(x, y, z));
-                    if (block.getType() > 255) {
-                        if (addBlocks == null) {
-                            addBlocks = new byte[blocks.length >> 1];
-                        }
-                        addBlocks[index >> 1] = (byte) (((index & 1) == 0) ?
-                                addBlocks[index >> 1] & 0xF0 | (block.getType() >> 8) & 0xF
-                                : addBlocks[index >> 1] & 0xF | ((block.getType() >> 8) & 0xF) << 4);
-                    }
+        // Blocks and data are about two bytes per block
+        long sizeHint = 2L * clipboard.getBlockCount();
+        OutputStream out = ParallelGZIPOutputStream.open(new FileOutputStream(file),
+                compressionLevel, parallel, sizeHint);
+        NBTStreamWriter writer = new NBTStreamWriter(new BufferedOutputStream(out, BUFFER_SIZE));
+        try {
+            write(clipboard, writer);
+        } finally {
+            writer.close();
+        }
+    }
 
-                    blocks[index] = (byte) block.getType();
-                    blockData[index] = (byte) block.getData();
-
-                    // Store TileEntity data
-                    if (block instanceof TileEntityBlock) {
-                        TileEntityBlock tileEntityBlock = block;
-
-                        // Get the list of key/values from the block
-                        CompoundTag rawTag = tileEntityBlock.getNbtData();
-                        if (rawTag != null) {
-                            Map<String, Tag> values = new HashMap<String, Tag>();
-                            for (Entry<String, Tag> entry : rawTag.getValue().entrySet()) {
-                                values.put(entry.getKey(), entry.getValue());
-                            }
-                            
-                            values.put("id", new StringTag("id", tileEntityBlock.getNbtId()));
-                            values.put("x", new IntTag("x", x));
-                            values.put("y", new IntTag("y", y));
-                            values.put("z", new IntTag("z", z));
-                            
-                            CompoundTag tileEntityTag = new CompoundTag("TileEntity", values);
-                            tileEntities.add(tileEntityTag);
-                        }
-                    }
+    /**
+     * Write the schematic tag of a clipboard.
+     *
+     * @param clipboard
+     * @param writer
+     * @throws IOException
+     */
+    private void write(CuboidClipboard clipboard, NBTStreamWriter writer) throws IOException {
+        writer.writeNamedTag(NBTConstants.TYPE_COMPOUND, "Schematic");
+        writeShort(writer, "Width", clipboard.getWidth());
+        writeShort(writer, "Length", clipboard.getLength());
+        writeShort(writer, "Height", clipboard.getHeight());
+        writer.writeNamedTag(NBTConstants.TYPE_STRING, "Materials");
+        writer.writeString("Alpha");
+        writeInt(writer, "WEOriginX", clipboard.getOrigin().getBlockX());
+        writeInt(writer, "WEOriginY", clipboard.getOrigin().getBlockY());
+        writeInt(writer, "WEOriginZ", clipboard.getOrigin().getBlockZ());
+        writeInt(writer, "WEOffsetX", clipboard.getOffset().getBlockX());
+        writeInt(writer, "WEOffsetY", clipboard.getOffset().getBlockY());
+        writeInt(writer, "WEOffsetZ", clipboard.getOffset().getBlockZ());
+
+        // Blocks, data and the upper four bits of the types above 255
+        int count = clipboard.getBlockCount();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        boolean addBlocks = false;
+
+        writer.writeNamedTag(NBTConstants.TYPE_BYTE_ARRAY, "Blocks");
+        writer.writeByteArrayHeader(count);
+        for (int offset = 0; offset < count; offset += buffer.length) {
+            int n = Math.min(buffer.length, count - offset);
+            for (int i = 0; i < n; ++i) {
+                int type = clipboard.getBlockType(offset + i);
+                addBlocks |= type > 255;
+                buffer[i] = (byte) type;
+            }
+            writer.write(buffer, 0, n);
+        }
+
+        writer.writeNamedTag(NBTConstants.TYPE_BYTE_ARRAY, "Data");
+        writer.writeByteArrayHeader(count);
+        for (int offset = 0; offset < count; offset += buffer.length) {
+            int n = Math.min(buffer.length, count - offset);
+            for (int i = 0; i < n; ++i) {
+                buffer[i] = (byte) clipboard.getBlockData(offset + i);
+            }
+            writer.write(buffer, 0, n);
+        }
+
+        if (addBlocks) {
+            int addCount = (count + 1) >> 1;
+            writer.writeNamedTag(NBTConstants.TYPE_BYTE_ARRAY, "AddBlocks");
+            writer.writeByteArrayHeader(addCount);
+            for (int offset = 0; offset < addCount; offset += buffer.length) {
+                int n = Math.min(buffer.length, addCount - offset);
+                for (int i = 0, index = offset * 2; i < n; ++i, index += 2) {
+                    int high = (clipboard.getBlockType(index) >> 8) & 0xF;
+                    int low = index + 1 < count ? (clipboard.getBlockType(index + 1) >> 8) & 0xF : 0;
+                    buffer[i] = (byte) (high << 4 | low);
                 }
+                writer.write(buffer, 0, n);
             }
         }
 
-        schematic.put("Blocks", new ByteArrayTag("Blocks", blocks));
-        schematic.put("Data", new ByteArrayTag("Data", blockData));
-        schematic.put("Entities", new ListTag("Entities", CompoundTag.class, new ArrayList<Tag>()));
-        schematic.put("TileEntities", new ListTag("TileEntities", CompoundTag.class, tileEntities));
-        if (addBlocks != null) {
-            schematic.put("AddBlocks", new ByteArrayTag("AddBlocks", addBlocks));
+        writer.writeNamedTag(NBTConstants.TYPE_LIST, "Entities");
+        writer.writeListHeader(NBTConstants.TYPE_COMPOUND, 0);
+
+        // Tile entities are written one by one from the blocks' own tags
+        List<BlockVector> positions = new ArrayList<BlockVector>();
+        List<BaseBlock> blocks = new ArrayList<BaseBlock>();
+        List<CompoundTag> tags = new ArrayList<CompoundTag>();
+        for (Map.Entry<BlockVector, BaseBlock> entry : clipboard.getTileEntityBlocks().entrySet()) {
+            CompoundTag tag = entry.getValue().getNbtData();
+            if (tag != null) {
+                positions.add(entry.getKey());
+                blocks.add(entry.getValue());
+                tags.add(tag);
+            }
         }
 
-        // Build and output
-        CompoundTag schematicTag = new CompoundTag("Schematic", schematic);
-        NBTOutputStream stream = new NBTOutputStream(new FileOutputStream(file));
-        stream.writeTag(schematicTag);
-        stream.close();
+        writer.writeNamedTag(NBTConstants.TYPE_LIST, "TileEntities");
+        writer.writeListHeader(NBTConstants.TYPE_COMPOUND, tags.size());
+        for (int i = 0; i < tags.size(); ++i) {
+            BlockVector pt = positions.get(i);
+            for (Map.Entry<String, Tag> entry : tags.get(i).getValue().entrySet()) {
+                String name = entry.getKey();
+                if (name.equals("id") || name.equals("x") || name.equals("y") || name.equals("z")) {
+                    continue;
+                }
+                writer.writeNamedTag(NBTUtils.getTypeCode(entry.getValue().getClass()), name);
+                writer.writePayload(entry.getValue());
+            }
+
+            writer.writeNamedTag(NBTConstants.TYPE_STRING, "id");
+            writer.writeString(blocks.get(i).getNbtId());
+            writeInt(writer, "x", pt.getBlockX());
+            writeInt(writer, "y", pt.getBlockY());
+            writeInt(writer, "z", pt.getBlockZ());
+            writer.writeEnd();
+        }
+
+        writer.writeEnd();
+    }
+
+    private static void writeShort(NBTStreamWriter writer, String name, int value) throws IOException {
+        writer.writeNamedTag(NBTConstants.TYPE_SHORT, name);
+        writer.writeShort(value);
+    }
+
+    private static void writeInt(NBTStreamWriter writer, String name, int value) throws IOException {
+        writer.writeNamedTag(NBTConstants.TYPE_INT, name);
+        writer.writeInt(value);
     }
 
     @Override
@@ -305,25 +444,28 @@ public boolean isOfFormat(File file) {
     }
 
     /**
-     * Get child tag of a NBT structure.
+     * Check the type of a tag of the schematic.
      *
-     * @param items The parent tag map
-     * @param key The name of the tag to get
-     * @param expected The expected type of the tag
-     * @return child tag casted to the expected type
-     * @throws DataException if the tag does not exist or the tag is not of the expected type
+     * @param reader the reader that has just read the tag's header
+     * @param type the type of the tag
+     * @param expected the expected type of the tag
+     * @throws DataException if the tag is not of the expected type
      */
-    private static <T extends Tag> T getChildTag(Map<String, Tag> items, String key,
-                                                 Class<T> expected) throws DataException {
+    private static void checkType(NBTStreamReader reader, int type, int expected) throws DataException {
+        if (type != expected) {
+            throw new DataException(reader.getName() + " tag is not of tag type "
+                    + NBTUtils.getTypeClass(expected).getName());
+        }
+    }
 
-        if (!items.containsKey(key)) {
+    private static void checkFound(boolean found, String key) throws DataException {
+        if (!found) {
             throw new DataException("Schematic file is missing a \"" + key + "\" tag");
         }
-        Tag tag = items.get(key);
-        if (!expected.isInstance(tag)) {
-            throw new DataException(
-                    key + " tag is not of tag type " + expected.getName());
-        }
-        return expected.cast(tag);
+    }
+
+    private static int getInt(Map<String, Tag> values, String key) {
+        Tag tag = values.get(key);
+        return tag instanceof IntTag ? ((IntTag) tag).getValue() : 0;
     }
 }
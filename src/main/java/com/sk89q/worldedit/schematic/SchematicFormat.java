@@ -146,5 +146,20 @@ public BaseBlock getBlockForId(int id, short data) {
      */
     public abstract void save(CuboidClipboard clipboard, File file) throws IOException, DataException;
 
+    /**
+     * Saves the data from the specified CuboidClipboard to the given file, compressing it
+     * with the given settings if the format is compressed
+     * @param clipboard The clipboard to get data from
+     * @param file The file to save to
+     * @param compressionLevel The compression level, from 0 to 9 or -1 for the default
+     * @param parallel Whether large files may be compressed on several threads
+     * @throws IOException If an error occurs while writing data
+     * @throws DataException If the clipboard has data which cannot be stored
+     */
+    public void save(CuboidClipboard clipboard, File file, int compressionLevel, boolean parallel)
+            throws IOException, DataException {
+        save(clipboard, file);
+    }
+
     public abstract boolean isOfFormat(File file);
 }
@@ -29,4 +29,20 @@ public interface CraftScriptEngine {
 
     public Object evaluate(String script, String filename, Map<String, Object> args)
             throws ScriptException, Throwable;
+
+    /**
+     * Evaluate a script that was read from a file. Engines may keep the
+     * compiled script and run it again for as long as the file has the same
+     * modification time and contents.
+     *
+     * @param script
+     * @param filename
+     * @param lastModified the modification time of the file
+     * @param args
+     * @return
+     * @throws ScriptException
+     * @throws Throwable
+     */
+    public Object evaluate(String script, String filename, long lastModified, Map<String, Object> args)
+            throws ScriptException, Throwable;
 }
@@ -19,20 +19,38 @@
 
 package com.sk89q.worldedit.scripting;
 
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import javax.script.ScriptException;
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.ImporterTopLevel;
 import org.mozilla.javascript.JavaScriptException;
+import org.mozilla.javascript.NativeObject;
 import org.mozilla.javascript.RhinoException;
+import org.mozilla.javascript.Script;
 import org.mozilla.javascript.Scriptable;
 import org.mozilla.javascript.ScriptableObject;
 import org.mozilla.javascript.WrappedException;
 
 import com.sk89q.worldedit.WorldEditException;
 
+/**
+ * Runs CraftScripts with Rhino. Scripts from files are compiled once and
+ * kept until the file changes. The standard objects are set up once in a
+ * sealed scope that the scope of every run inherits from, so that a run
+ * only has to create an empty scope for its own variables and imports.
+ *
+ * @author sk89q
+ */
 public class RhinoCraftScriptEngine implements CraftScriptEngine {
     private int timeLimit;
+    private ScriptableObject sharedScope;
+    private final Map<String, CompiledScript> scripts = new HashMap<String, CompiledScript>();
+    private long cacheHits;
+    private long cacheMisses;
+    private long compileTime;
 
     public void setTimeLimit(int milliseconds) {
         timeLimit = milliseconds;
@@ -42,19 +60,64 @@ public int getTimeLimit() {
         return timeLimit;
     }
 
+    /**
+     * Get the number of runs that used an already compiled script.
+     *
+     * @return
+     */
+    public synchronized long getCacheHits() {
+        return cacheHits;
+    }
+
+    /**
+     * Get the number of runs that had to compile their script.
+     *
+     * @return
+     */
+    public synchronized long getCacheMisses() {
+        return cacheMisses;
+    }
+
+    /**
+     * Get the total time spent compiling scripts.
+     *
+     * @return time in milliseconds
+     */
+    public synchronized long getCompileTime() {
+        return compileTime / 1000000;
+    }
+
+    /**
+     * Forget all compiled scripts.
+     */
+    public synchronized void clearCache() {
+        scripts.clear();
+    }
+
     public Object evaluate(String script, String filename, Map<String, Object> args)
             throws ScriptException, Throwable {
+        return evaluate(script, filename, null, 0, args);
+    }
+
+    public Object evaluate(String script, String filename, long lastModified, Map<String, Object> args)
+            throws ScriptException, Throwable {
+        return evaluate(script, filename, filename, lastModified, args);
+    }
+
+    private Object evaluate(String script, String filename, String key, long lastModified, Map<String, Object> args)
+            throws ScriptException, Throwable {
         RhinoContextFactory factory = new RhinoContextFactory(timeLimit);
         Context cx = factory.enterContext();
-        ScriptableObject scriptable = new ImporterTopLevel(cx);
-        Scriptable scope = cx.initStandardObjects(scriptable);
 
-        for (Map.Entry<String, Object> entry : args.entrySet()) {
-            ScriptableObject.putProperty(scope, entry.getKey(),
-                    Context.javaToJS(entry.getValue(), scope));
-        }
         try {
-            return cx.evaluateString(scope, script, filename, 1, null);
+            Scriptable scope = new RunScope(getSharedScope(cx));
+
+            for (Map.Entry<String, Object> entry : args.entrySet()) {
+                ScriptableObject.putProperty(scope, entry.getKey(),
+                        Context.javaToJS(entry.getValue(), scope));
+            }
+
+            return compile(cx, script, filename, key, lastModified).exec(cx, scope);
         } catch (Error e) {
             throw new ScriptException(e.getMessage());
         } catch (RhinoException e) {
@@ -84,4 +147,137 @@ public Object evaluate(String script, String filename, Map<String, Object> args)
         }
     }
 
+    /**
+     * Get the compiled script for a file, compiling it if it is not known or
+     * has changed.
+     *
+     * @param cx
+     * @param script
+     * @param filename
+     * @param key the key to keep the compiled script under, or null to not keep it
+     * @param lastModified
+     * @return
+     */
+    private Script compile(Context cx, String script, String filename, String key, long lastModified) {
+        if (key != null) {
+            synchronized (this) {
+                CompiledScript compiled = scripts.get(key);
+                if (compiled != null && compiled.lastModified == lastModified && compiled.source.equals(script)) {
+                    ++cacheHits;
+                    return compiled.script;
+                }
+            }
+        }
+
+        long start = System.nanoTime();
+        Script compiled = cx.compileString(script, filename, 1, null);
+        long elapsed = System.nanoTime() - start;
+
+        synchronized (this) {
+            ++cacheMisses;
+            compileTime += elapsed;
+            if (key != null) {
+                scripts.put(key, new CompiledScript(compiled, script, lastModified));
+            }
+        }
+
+        return compiled;
+    }
+
+    /**
+     * Get the scope with the standard objects, creating it on first use.
+     * The <code>importPackage</code> and <code>importClass</code> functions
+     * are those of <code>JavaImporter</code>, which import into the scope
+     * they are called in rather than into the shared scope.
+     *
+     * @param cx
+     * @return
+     */
+    private synchronized Scriptable getSharedScope(Context cx) {
+        if (sharedScope == null) {
+            ScriptableObject scope = new NativeObject();
+            cx.initStandardObjects(scope, true);
+            ImporterTopLevel.init(cx, scope, true);
+
+            Scriptable importer = (Scriptable) ScriptableObject.getProperty(
+                    (Scriptable) scope.get("JavaImporter", scope), "prototype");
+            scope.defineProperty("importPackage", importer.get("importPackage", importer), ScriptableObject.DONTENUM);
+            scope.defineProperty("importClass", importer.get("importClass", importer), ScriptableObject.DONTENUM);
+            scope.sealObject();
+
+            sharedScope = scope;
+        }
+
+        return sharedScope;
+    }
+
+    /**
+     * The top level scope of one run. Names that the run has not defined
+     * itself are looked up in the shared scope before the imported packages,
+     * as they would be if the standard objects were defined in this scope.
+     */
+    private static class RunScope extends ImporterTopLevel {
+        private static final long serialVersionUID = 1L;
+
+        private final Set<String> names = new HashSet<String>();
+
+        private RunScope(Scriptable sharedScope) {
+            setPrototype(sharedScope);
+            setParentScope(null);
+        }
+
+        @Override
+        public Object get(String name, Scriptable start) {
+            if (!names.contains(name)) {
+                Scriptable prototype = getPrototype();
+                if (prototype.has(name, prototype)) {
+                    return NOT_FOUND;
+                }
+            }
+
+            return super.get(name, start);
+        }
+
+        @Override
+        public void put(String name, Scriptable start, Object value) {
+            if (start == this) {
+                names.add(name);
+            }
+            super.put(name, start, value);
+        }
+
+        @Override
+        public void putConst(String name, Scriptable start, Object value) {
+            if (start == this) {
+                names.add(name);
+            }
+            super.putConst(name, start, value);
+        }
+
+        @Override
+        public void defineConst(String name, Scriptable start) {
+            if (start == this) {
+                names.add(name);
+            }
+            super.defineConst(name, start);
+        }
+
+        @Override
+        public void delete(String name) {
+            names.remove(name);
+            super.delete(name);
+        }
+    }
+
+    private static class CompiledScript {
+        private final Script script;
+        private final String source;
+        private final long lastModified;
+
+        private CompiledScript(Script script, String source, long lastModified) {
+            this.script = script;
+            this.source = source;
+            this.lastModified = lastModified;
+        }
+    }
 }
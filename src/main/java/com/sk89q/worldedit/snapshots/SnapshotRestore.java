@@ -21,34 +21,87 @@
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import com.sk89q.worldedit.BlockVector2D;
 import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.LocalWorld;
 import com.sk89q.worldedit.MaxChangedBlocksException;
 import com.sk89q.worldedit.Vector;
 import com.sk89q.worldedit.Vector2D;
-import com.sk89q.worldedit.blocks.BaseBlock;
 import com.sk89q.worldedit.data.Chunk;
 import com.sk89q.worldedit.data.ChunkStore;
+import com.sk89q.worldedit.data.CompressedChunk;
 import com.sk89q.worldedit.data.DataException;
 import com.sk89q.worldedit.data.MissingChunkException;
 import com.sk89q.worldedit.data.MissingWorldException;
 import com.sk89q.worldedit.regions.CuboidRegion;
 import com.sk89q.worldedit.regions.Region;
+import com.sk89q.worldedit.util.ChunkColumnExecutor;
 
 /**
+ * Restores a region from a chunk store.
+ *
+ * <p>Chunks are read from the store on the calling thread, which keeps the
+ * store's own access single-threaded, and decompressed and parsed on the
+ * shared worker pool. The calling thread then copies the decoded chunks
+ * into the world in the order they were read. Only a few chunks per worker
+ * are decoded ahead, so memory use does not grow with the region.</p>
  *
  * @author sk89q
  */
 public class SnapshotRestore {
     /**
-     * Store a list of chunks that are needed and the points in them.
+     * Number of chunks decoded ahead of the one being restored, per worker.
+     */
+    private static final int CHUNKS_PER_THREAD = 2;
+
+    /**
+     * Orders chunks by region file, so that each file is only opened once.
+     */
+    private static final Comparator<BlockVector2D> READ_ORDER = new Comparator<BlockVector2D>() {
+        public int compare(BlockVector2D a, BlockVector2D b) {
+            int result = compareInts(a.getBlockX() >> 5, b.getBlockX() >> 5);
+            if (result == 0) {
+                result = compareInts(a.getBlockZ() >> 5, b.getBlockZ() >> 5);
+            }
+            if (result == 0) {
+                result = compareInts(a.getBlockZ(), b.getBlockZ());
+            }
+            if (result == 0) {
+                result = compareInts(a.getBlockX(), b.getBlockX());
+            }
+            return result;
+        }
+
+        private int compareInts(int a, int b) {
+            return a < b ? -1 : (a == b ? 0 : 1);
+        }
+    };
+
+    /**
+     * Store a list of chunks that are needed. The blocks to restore in
+     * each are worked out from the region's bounds.
+     */
+    private List<BlockVector2D> neededChunks = new ArrayList<BlockVector2D>();
+    /**
+     * Region to restore.
+     */
+    private final Region region;
+    /**
+     * Whether every block within the region's bounds is to be restored.
      */
-    private Map<BlockVector2D, ArrayList<Vector>> neededChunks =
-            new LinkedHashMap<BlockVector2D, ArrayList<Vector>>();
+    private final boolean cuboid;
+    private final Vector min;
+    private final Vector max;
     /**
      * Chunk store.
      */
@@ -74,59 +127,40 @@ public class SnapshotRestore {
      */
     public SnapshotRestore(ChunkStore chunkStore, Region region) {
         this.chunkStore = chunkStore;
+        this.region = region;
+        this.cuboid = region instanceof CuboidRegion;
+        this.min = region.getMinimumPoint();
+        this.max = region.getMaximumPoint();
 
-        if (region instanceof CuboidRegion) {
-            findNeededCuboidChunks(region);
+        if (cuboid) {
+            findNeededCuboidChunks();
         } else {
-            findNeededChunks(region);
+            findNeededChunks();
         }
+
+        Collections.sort(neededChunks, READ_ORDER);
     }
 
     /**
      * Find needed chunks in the cuboid of the region.
-     *
-     * @param region
      */
-    private void findNeededCuboidChunks(Region region) {
-        Vector min = region.getMinimumPoint();
-        Vector max = region.getMaximumPoint();
-
-        // First, we need to group points by chunk so that we only need
-        // to keep one chunk in memory at any given moment
-        for (int x = min.getBlockX(); x <= max.getBlockX(); ++x) {
-            for (int y = min.getBlockY(); y <= max.getBlockY(); ++y) {
-                for (int z = min.getBlockZ(); z <= max.getBlockZ(); ++z) {
-                    Vector pos = new Vector(x, y, z);
-                    BlockVector2D chunkPos = ChunkStore.toChunk(pos);
-
-                    // Unidentified chunk
-                    if (!neededChunks.containsKey(chunkPos)) {
-                        neededChunks.put(chunkPos, new ArrayList<Vector>());
-                    }
+    private void findNeededCuboidChunks() {
+        final int maxChunkX = max.getBlockX() >> ChunkStore.CHUNK_SHIFTS;
+        final int maxChunkZ = max.getBlockZ() >> ChunkStore.CHUNK_SHIFTS;
 
-                    neededChunks.get(chunkPos).add(pos);
-                }
+        for (int chunkX = min.getBlockX() >> ChunkStore.CHUNK_SHIFTS; chunkX <= maxChunkX; ++chunkX) {
+            for (int chunkZ = min.getBlockZ() >> ChunkStore.CHUNK_SHIFTS; chunkZ <= maxChunkZ; ++chunkZ) {
+                neededChunks.add(new BlockVector2D(chunkX, chunkZ));
             }
         }
     }
 
     /**
      * Find needed chunks in the region.
-     *
-     * @param region
      */
-    private void findNeededChunks(Region region) {
-        // First, we need to group points by chunk so that we only need
-        // to keep one chunk in memory at any given moment
-        for (Vector pos : region) {
-            BlockVector2D chunkPos = ChunkStore.toChunk(pos);
-
-            // Unidentified chunk
-            if (!neededChunks.containsKey(chunkPos)) {
-                neededChunks.put(chunkPos, new ArrayList<Vector>());
-            }
-
-            neededChunks.get(chunkPos).add(pos);
+    private void findNeededChunks() {
+        for (Vector2D chunkPos : region.getChunks()) {
+            neededChunks.add(new BlockVector2D(chunkPos.getBlockX(), chunkPos.getBlockZ()));
         }
     }
 
@@ -151,31 +185,134 @@ public void restore(EditSession editSession)
         missingChunks = new ArrayList<Vector2D>();
         errorChunks = new ArrayList<Vector2D>();
 
+        final LocalWorld world = editSession.getWorld();
+        final ExecutorService executor = ChunkColumnExecutor.getExecutor();
+        final int window = ChunkColumnExecutor.getParallelism() * CHUNKS_PER_THREAD;
+        final LinkedList<PendingChunk> pending = new LinkedList<PendingChunk>();
+        final Iterator<BlockVector2D> it = neededChunks.iterator();
+
         // Now let's start restoring!
-        for (Map.Entry<BlockVector2D, ArrayList<Vector>> entry : neededChunks.entrySet()) {
-            BlockVector2D chunkPos = entry.getKey();
-            Chunk chunk;
+        try {
+            while (it.hasNext() || !pending.isEmpty()) {
+                // Keep the workers busy while the world is being written to
+                while (it.hasNext() && pending.size() < window) {
+                    BlockVector2D chunkPos = it.next();
 
-            try {
-                chunk = chunkStore.getChunk(chunkPos, editSession.getWorld());
-                // Good, the chunk could be at least loaded
+                    try {
+                        final CompressedChunk data = chunkStore.getCompressedChunk(chunkPos, world);
+                        pending.add(new PendingChunk(chunkPos, executor.submit(new Callable<Chunk>() {
+                            public Chunk call() throws Exception {
+                                return data.decode(world);
+                            }
+                        })));
+                    } catch (MissingChunkException me) {
+                        missingChunks.add(chunkPos);
+                    } catch (MissingWorldException me) {
+                        errorChunks.add(chunkPos);
+                        lastErrorMessage = me.getMessage();
+                    } catch (DataException de) {
+                        errorChunks.add(chunkPos);
+                        lastErrorMessage = de.getMessage();
+                    } catch (IOException ioe) {
+                        errorChunks.add(chunkPos);
+                        lastErrorMessage = ioe.getMessage();
+                    }
+                }
+
+                if (pending.isEmpty()) {
+                    continue;
+                }
+
+                PendingChunk next = pending.removeFirst();
+
+                try {
+                    restoreChunk(editSession, next.position, next.getChunk());
+                } catch (DataException de) {
+                    errorChunks.add(next.position);
+                    lastErrorMessage = de.getMessage();
+                } catch (IOException ioe) {
+                    errorChunks.add(next.position);
+                    lastErrorMessage = ioe.getMessage();
+                }
+            }
+        } finally {
+            for (PendingChunk chunk : pending) {
+                chunk.future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Copy the blocks of the region that lie in a chunk.
+     *
+     * @param editSession
+     * @param chunkPos
+     * @param chunk
+     * @throws DataException
+     */
+    private void restoreChunk(EditSession editSession, BlockVector2D chunkPos, Chunk chunk)
+            throws DataException {
+        final int minX = Math.max(min.getBlockX(), chunkPos.getBlockX() << ChunkStore.CHUNK_SHIFTS);
+        final int minZ = Math.max(min.getBlockZ(), chunkPos.getBlockZ() << ChunkStore.CHUNK_SHIFTS);
+        final int maxX = Math.min(max.getBlockX(), (chunkPos.getBlockX() << ChunkStore.CHUNK_SHIFTS) + 15);
+        final int maxZ = Math.min(max.getBlockZ(), (chunkPos.getBlockZ() << ChunkStore.CHUNK_SHIFTS) + 15);
+        final int minY = min.getBlockY();
+        final int maxY = max.getBlockY();
+
+        for (int x = minX; x <= maxX; ++x) {
+            for (int y = minY; y <= maxY; ++y) {
+                for (int z = minZ; z <= maxZ; ++z) {
+                    Vector pos = new Vector(x, y, z);
+                    if (!cuboid && !region.contains(pos)) {
+                        continue;
+                    }
+
+                    editSession.rawSetBlock(pos, chunk.getBlock(pos));
+                }
+            }
+        }
+    }
+
+    /**
+     * A chunk that is being decoded by a worker.
+     */
+    private static class PendingChunk {
+        private final BlockVector2D position;
+        private final Future<Chunk> future;
+
+        private PendingChunk(BlockVector2D position, Future<Chunk> future) {
+            this.position = position;
+            this.future = future;
+        }
 
-                // Now just copy blocks!
-                for (Vector pos : entry.getValue()) {
-                    BaseBlock block = chunk.getBlock(pos);
-                    editSession.rawSetBlock(pos, block);
+        /**
+         * Wait for the chunk to be decoded.
+         *
+         * @return
+         * @throws DataException
+         * @throws IOException
+         */
+        private Chunk getChunk() throws DataException, IOException {
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while loading chunk");
+            } catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof DataException) {
+                    throw (DataException) cause;
+                }
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
                 }
-            } catch (MissingChunkException me) {
-                missingChunks.add(chunkPos);
-            } catch (MissingWorldException me) {
-                errorChunks.add(chunkPos);
-                lastErrorMessage = me.getMessage();
-            } catch (DataException de) {
-                errorChunks.add(chunkPos);
-                lastErrorMessage = de.getMessage();
-            } catch (IOException ioe) {
-                errorChunks.add(chunkPos);
-                lastErrorMessage = ioe.getMessage();
+                throw new RuntimeException(cause);
             }
         }
     }
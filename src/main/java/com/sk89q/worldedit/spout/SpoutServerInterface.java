@@ -79,6 +79,11 @@ public int schedule(long delay, long period, Runnable task) {
         return game.getScheduler().scheduleSyncRepeatingTask(plugin, task, delay * 50, period * 50, TaskPriority.NORMAL);
     }
 
+    @Override
+    public void cancel(int taskId) {
+        game.getScheduler().cancelTask(taskId);
+    }
+
     @Override
     public List<LocalWorld> getWorlds() {
         Collection<World> worlds = game.getWorlds();
@@ -27,6 +27,7 @@
 import com.google.common.collect.Lists;
 import com.sk89q.worldedit.BiomeType;
 import com.sk89q.worldedit.BlockVector2D;
+import com.sk89q.worldedit.ChunkSectionBatch;
 import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.EntityType;
 import com.sk89q.worldedit.LocalEntity;
@@ -159,6 +160,37 @@ public boolean setTypeIdAndDataFast(Vector pt, int type, int data) {
         return setTypeIdAndData(pt, type, data);
     }
 
+    /**
+     * Spout chunks are the same size as a section, so the whole batch goes
+     * to a single chunk.
+     *
+     * @param batch
+     * @param notifyAdjacent
+     * @return
+     */
+    @Override
+    public int setBlocks(ChunkSectionBatch batch, boolean notifyAdjacent) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+
+        final Chunk chunk = world.getChunkFromBlock(batch.getBlockX(0), batch.getBlockY(0), batch.getBlockZ(0), LoadOption.LOAD_GEN);
+        int changed = 0;
+
+        for (int i = 0; i < batch.size(); ++i) {
+            final short type = (short) batch.getType(i);
+            final short data = (short) batch.getData(i);
+            Material mat = VanillaMaterials.getMaterial(type, data);
+            if (mat != null && mat instanceof BlockMaterial) {
+                if (chunk.setBlockMaterial(batch.getBlockX(i), batch.getBlockY(i), batch.getBlockZ(i), (BlockMaterial) mat, data, WorldEditPlugin.getInstance())) {
+                    ++changed;
+                }
+            }
+        }
+
+        return changed;
+    }
+
     /**
      * Get block type.
      *
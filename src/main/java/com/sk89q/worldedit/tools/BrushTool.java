@@ -182,9 +182,9 @@ public boolean actPrimary(ServerInterface server, LocalConfiguration config,
             Mask existingMask = editSession.getMask();
             if (existingMask == null) {
                 editSession.setMask(mask);
-            } else if (existingMask instanceof CombinedMask) {
-                ((CombinedMask) existingMask).add(mask);
             } else {
+                // The session mask is compiled when it is set, so it is
+                // combined into a new mask rather than changed
                 CombinedMask newMask = new CombinedMask(existingMask);
                 newMask.add(mask);
                 editSession.setMask(newMask);
@@ -19,12 +19,12 @@
 
 package com.sk89q.worldedit.tools;
 
-import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.List;
 import com.sk89q.worldedit.*;
 import com.sk89q.worldedit.blocks.BaseBlock;
 import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.util.FloodFill;
 
 /**
  * A pickaxe mode that removes floating treetops (logs and leaves not connected
@@ -65,7 +65,7 @@ public boolean actPrimary(ServerInterface server, LocalConfiguration config,
         final EditSession editSession = session.createEditSession(player);
 
         try {
-            final Set<Vector> blockSet = bfs(world, clicked);
+            final List<Vector> blockSet = bfs(editSession, clicked);
             if (blockSet == null) {
                 player.printError("That's not a floating tree.");
                 return true;
@@ -100,60 +100,67 @@ public boolean actPrimary(ServerInterface server, LocalConfiguration config,
         PlayerDirection.DOWN.vector(),
     };
 
+    private static boolean isTreeBlock(int type) {
+        switch (type) {
+        case BlockID.LOG:
+        case BlockID.LEAVES:
+        case BlockID.BROWN_MUSHROOM_CAP:
+        case BlockID.RED_MUSHROOM_CAP:
+        case BlockID.VINE:
+            return true;
+
+        default:
+            return false;
+        }
+    }
+
     /**
      * Helper method.
      *
-     * @param world the world that contains the tree
+     * @param editSession the session to read the tree through
      * @param origin any point contained in the floating tree
-     * @return a set containing all blocks in the tree/shroom or null if this is not a floating tree/shroom.
+     * @return a list containing all blocks in the tree/shroom or null if this is not a floating tree/shroom.
      */
-    private Set<Vector> bfs(LocalWorld world, Vector origin) throws MaxChangedBlocksException {
-        final Set<Vector> visited = new HashSet<Vector>();
-        final LinkedList<Vector> queue = new LinkedList<Vector>();
-
-        queue.addLast(origin);
-        visited.add(origin);
-
-        while (!queue.isEmpty()) {
-            final Vector current = queue.removeFirst();
-            for (Vector recurseDirection : recurseDirections) {
-                final Vector next = current.add(recurseDirection);
-                if (origin.distanceSq(next) > rangeSq) {
-                    // Maximum range exceeded => stop walking
-                    continue;
+    private List<Vector> bfs(final EditSession editSession, final Vector origin) throws MaxChangedBlocksException {
+        final List<Vector> blocks = new ArrayList<Vector>();
+
+        final FloodFill fill = new FloodFill(editSession, FloodFill.Connectivity.FACES, new FloodFill.TypeFilter() {
+            public boolean matches(int type) {
+                return isTreeBlock(type);
+            }
+        });
+        fill.setRadius(origin, Math.sqrt(rangeSq));
+        fill.addSeed(origin);
+        fill.fill(new FloodFill.Visitor() {
+            public boolean visit(int x, int y, int z) {
+                final Vector current = new Vector(x, y, z);
+                blocks.add(current);
+
+                final int curId = editSession.getBlockType(current);
+                if (curId == BlockID.LEAVES || curId == BlockID.VINE) {
+                    // leaves touching a wall/the ground => keep walking
+                    return true;
                 }
 
-                if (visited.add(next)) {
-                    switch (world.getBlockType(next)) {
-                    case BlockID.AIR:
-                    case BlockID.SNOW:
-                        // we hit air or snow => stop walking this route
+                for (Vector recurseDirection : recurseDirections) {
+                    final Vector next = current.add(recurseDirection);
+                    if (origin.distanceSq(next) > rangeSq) {
+                        // Maximum range exceeded => stop walking
                         continue;
+                    }
+
+                    final int nextId = editSession.getBlockType(next);
+                    if (nextId != BlockID.AIR && nextId != BlockID.SNOW && !isTreeBlock(nextId)) {
+                        // log/shroom touching a wall/the ground => this is not a floating tree, bail out
+                        fill.stop();
+                        return false;
+                    }
+                }
+
+                return true;
+            }
+        });
 
-                    case BlockID.LOG:
-                    case BlockID.LEAVES:
-                    case BlockID.BROWN_MUSHROOM_CAP:
-                    case BlockID.RED_MUSHROOM_CAP:
-                    case BlockID.VINE:
-                        // queue next point
-                        queue.addLast(next);
-                        break;
-
-                    default:
-                        // we hit something solid - evaluate where we came from
-                        final int curId = world.getBlockType(current);
-                        if (curId == BlockID.LEAVES || curId == BlockID.VINE) {
-                            // leaves touching a wall/the ground => stop walking this route
-                            continue;
-                        } else {
-                            // log/shroom touching a wall/the ground => this is not a floating tree, bail out
-                            return null;
-                        }
-                    } // switch
-                } // if
-            } // for
-        } // while
-
-        return visited;
+        return fill.isStopped() ? null : blocks;
     } // bfs
 }
@@ -19,11 +19,10 @@
 
 package com.sk89q.worldedit.tools;
 
-import java.util.HashSet;
-import java.util.Set;
 import com.sk89q.worldedit.*;
 import com.sk89q.worldedit.blocks.BlockID;
 import com.sk89q.worldedit.patterns.Pattern;
+import com.sk89q.worldedit.util.FloodFill;
 
 /**
  * A tool that flood fills blocks.
@@ -47,7 +46,7 @@ public boolean actPrimary(ServerInterface server, LocalConfiguration config,
             LocalPlayer player, LocalSession session, WorldVector clicked) {
         LocalWorld world = clicked.getWorld();
 
-        int initialType = world.getBlockType(clicked);
+        final int initialType = world.getBlockType(clicked);
 
         if (initialType == BlockID.AIR) {
             return true;
@@ -57,11 +56,23 @@ public boolean actPrimary(ServerInterface server, LocalConfiguration config,
             return true;
         }
 
-        EditSession editSession = session.createEditSession(player);
+        final EditSession editSession = session.createEditSession(player);
 
         try {
-            recurse(server, editSession, world, clicked.toBlockVector(),
-                    clicked, range, initialType, new HashSet<BlockVector>());
+            final FloodFill fill = new FloodFill(editSession, FloodFill.Connectivity.FACES, new FloodFill.TypeFilter() {
+                public boolean matches(int type) {
+                    return type == initialType;
+                }
+            });
+            fill.setRadius(clicked, range);
+            fill.addSeed(clicked);
+            fill.fill(new FloodFill.Visitor() {
+                public boolean visit(int x, int y, int z) throws MaxChangedBlocksException {
+                    final Vector pos = new Vector(x, y, z);
+                    editSession.setBlock(pos, pattern.next(pos));
+                    return true;
+                }
+            });
         } catch (MaxChangedBlocksException e) {
             player.printError("Max blocks change limit reached.");
         } finally {
@@ -71,48 +82,4 @@ public boolean actPrimary(ServerInterface server, LocalConfiguration config,
         return true;
     }
 
-    /**
-     * Helper method.
-     * 
-     * @param server
-     * @param superPickaxeManyDrop
-     * @param world
-     * @param pos
-     * @param origin
-     * @param size
-     * @param initialType
-     * @param visited
-     */
-    private void recurse(ServerInterface server, EditSession editSession,
-            LocalWorld world, BlockVector pos,
-            Vector origin, int size, int initialType,
-            Set<BlockVector> visited)
-            throws MaxChangedBlocksException {
-
-        if (origin.distance(pos) > size || visited.contains(pos)) {
-            return;
-        }
-
-        visited.add(pos);
-
-        if (editSession.getBlock(pos).getType() == initialType) {
-            editSession.setBlock(pos, pattern.next(pos));
-        } else {
-            return;
-        }
-
-        recurse(server, editSession, world, pos.add(1, 0, 0).toBlockVector(),
-                origin, size, initialType, visited);
-        recurse(server, editSession, world, pos.add(-1, 0, 0).toBlockVector(),
-                origin, size, initialType, visited);
-        recurse(server, editSession, world, pos.add(0, 0, 1).toBlockVector(),
-                origin, size, initialType, visited);
-        recurse(server, editSession, world, pos.add(0, 0, -1).toBlockVector(),
-                origin, size, initialType, visited);
-        recurse(server, editSession, world, pos.add(0, 1, 0).toBlockVector(),
-                origin, size, initialType, visited);
-        recurse(server, editSession, world, pos.add(0, -1, 0).toBlockVector(),
-                origin, size, initialType, visited);
-    }
-
 }
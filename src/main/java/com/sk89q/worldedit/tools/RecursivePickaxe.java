@@ -19,12 +19,10 @@
 
 package com.sk89q.worldedit.tools;
 
-import java.util.HashSet;
-import java.util.Set;
-
 import com.sk89q.worldedit.*;
 import com.sk89q.worldedit.blocks.BaseBlock;
 import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.util.FloodFill;
 
 /**
  * A pickaxe mode that recursively finds adjacent blocks within range of
@@ -44,11 +42,11 @@ public boolean canUse(LocalPlayer player) {
         return player.hasPermission("worldedit.superpickaxe.recursive");
     }
 
-    public boolean actPrimary(ServerInterface server, LocalConfiguration config,
-            LocalPlayer player, LocalSession session, WorldVector clicked) {
-        LocalWorld world = clicked.getWorld();
+    public boolean actPrimary(final ServerInterface server, LocalConfiguration config,
+            LocalPlayer player, LocalSession session, final WorldVector clicked) {
+        final LocalWorld world = clicked.getWorld();
 
-        int initialType = world.getBlockType(clicked);
+        final int initialType = world.getBlockType(clicked);
 
         if (initialType == BlockID.AIR) {
             return true;
@@ -58,12 +56,31 @@ public boolean actPrimary(ServerInterface server, LocalConfiguration config,
             return true;
         }
 
-        EditSession editSession = session.createEditSession(player);
+        final EditSession editSession = session.createEditSession(player);
+        final boolean drop = config.superPickaxeManyDrop;
 
         try {
-            recurse(server, editSession, world, clicked.toBlockVector(),
-                    clicked, range, initialType, new HashSet<BlockVector>(),
-                    config.superPickaxeManyDrop);
+            final FloodFill fill = new FloodFill(editSession, FloodFill.Connectivity.FACES, new FloodFill.TypeFilter() {
+                public boolean matches(int type) {
+                    return type == initialType;
+                }
+            });
+            fill.setRadius(clicked, range);
+            fill.addSeed(clicked);
+            fill.fill(new FloodFill.Visitor() {
+                public boolean visit(int x, int y, int z) throws MaxChangedBlocksException {
+                    final Vector pos = new Vector(x, y, z);
+
+                    if (drop) {
+                        world.simulateBlockMine(pos);
+                    }
+
+                    world.queueBlockBreakEffect(server, pos, initialType, clicked.distanceSq(pos));
+
+                    editSession.setBlock(pos, air);
+                    return true;
+                }
+            });
         } catch (MaxChangedBlocksException e) {
             player.printError("Max blocks change limit reached.");
         } finally {
@@ -73,55 +90,4 @@ public boolean actPrimary(ServerInterface server, LocalConfiguration config,
         return true;
     }
 
-    /**
-     * Helper method.
-     * 
-     * @param server
-     * @param superPickaxeManyDrop
-     * @param world
-     * @param pos
-     * @param origin
-     * @param size
-     * @param initialType
-     * @param visited
-     */
-    private static void recurse(ServerInterface server, EditSession editSession,
-            LocalWorld world, BlockVector pos,
-            Vector origin, double size, int initialType,
-            Set<BlockVector> visited, boolean drop)
-            throws MaxChangedBlocksException {
-
-        final double distanceSq = origin.distanceSq(pos);
-        if (distanceSq > size*size || visited.contains(pos)) {
-            return;
-        }
-
-        visited.add(pos);
-
-        if (editSession.getBlock(pos).getType() != initialType) {
-            return;
-        }
-
-        if (drop) {
-            world.simulateBlockMine(pos);
-        }
-
-        world.queueBlockBreakEffect(server, pos, initialType, distanceSq);
-
-        editSession.setBlock(pos, air);
-
-        recurse(server, editSession, world, pos.add(1, 0, 0).toBlockVector(),
-                origin, size, initialType, visited, drop);
-        recurse(server, editSession, world, pos.add(-1, 0, 0).toBlockVector(),
-                origin, size, initialType, visited, drop);
-        recurse(server, editSession, world, pos.add(0, 0, 1).toBlockVector(),
-                origin, size, initialType, visited, drop);
-        recurse(server, editSession, world, pos.add(0, 0, -1).toBlockVector(),
-                origin, size, initialType, visited, drop);
-        recurse(server, editSession, world, pos.add(0, 1, 0).toBlockVector(),
-                origin, size, initialType, visited, drop);
-        recurse(server, editSession, world, pos.add(0, -1, 0).toBlockVector(),
-                origin, size, initialType, visited, drop);
-    }
-
 }
@@ -0,0 +1,250 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.util;
+
+import com.sk89q.worldedit.Vector;
+
+/**
+ * A dense set of blocks inside a box, one bit per block. Every row along the
+ * X axis starts at a new word, so whole rows can be shifted and combined 64
+ * blocks at a time.
+ */
+public class BitVolume {
+    private final int minX;
+    private final int minY;
+    private final int minZ;
+    private final int sizeX;
+    private final int sizeY;
+    private final int sizeZ;
+    private final int wordsPerRow;
+    private final long lastWordMask;
+    private final long[] words;
+
+    /**
+     * Construct an empty set for the given box.
+     *
+     * @param min
+     * @param max
+     */
+    public BitVolume(Vector min, Vector max) {
+        minX = min.getBlockX();
+        minY = min.getBlockY();
+        minZ = min.getBlockZ();
+        sizeX = max.getBlockX() - minX + 1;
+        sizeY = max.getBlockY() - minY + 1;
+        sizeZ = max.getBlockZ() - minZ + 1;
+        wordsPerRow = (sizeX + 63) >>> 6;
+        lastWordMask = (sizeX & 63) == 0 ? -1L : (1L << (sizeX & 63)) - 1;
+
+        final long length = (long) wordsPerRow * sizeY * sizeZ;
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Volume too large");
+        }
+        words = new long[(int) length];
+    }
+
+    /**
+     * Construct an empty set over the same box as another set.
+     *
+     * @param other
+     */
+    private BitVolume(BitVolume other) {
+        minX = other.minX;
+        minY = other.minY;
+        minZ = other.minZ;
+        sizeX = other.sizeX;
+        sizeY = other.sizeY;
+        sizeZ = other.sizeZ;
+        wordsPerRow = other.wordsPerRow;
+        lastWordMask = other.lastWordMask;
+        words = new long[other.words.length];
+    }
+
+    public int getMinX() {
+        return minX;
+    }
+
+    public int getMaxX() {
+        return minX + sizeX - 1;
+    }
+
+    private int rowStart(int y, int z) {
+        return ((y - minY) * sizeZ + (z - minZ)) * wordsPerRow;
+    }
+
+    /**
+     * Returns whether a block is in the set. Blocks outside of the box
+     * never are.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public boolean get(int x, int y, int z) {
+        if (x < minX || y < minY || z < minZ
+                || x - minX >= sizeX || y - minY >= sizeY || z - minZ >= sizeZ) {
+            return false;
+        }
+
+        final int bit = x - minX;
+        return (words[rowStart(y, z) + (bit >>> 6)] & (1L << bit)) != 0;
+    }
+
+    /**
+     * Add a block, which must be inside the box.
+     *
+     * @param x
+     * @param y
+     * @param z
+     */
+    public void set(int x, int y, int z) {
+        final int bit = x - minX;
+        words[rowStart(y, z) + (bit >>> 6)] |= 1L << bit;
+    }
+
+    /**
+     * Add a run of blocks along the X axis, which must be inside the box.
+     *
+     * @param y
+     * @param z
+     * @param fromX first X coordinate of the run
+     * @param toX last X coordinate of the run
+     */
+    public void setRun(int y, int z, int fromX, int toX) {
+        final int row = rowStart(y, z);
+        final int from = fromX - minX;
+        final int to = toX - minX;
+
+        for (int word = from >>> 6; word <= to >>> 6; ++word) {
+            long mask = -1L;
+            if (word == from >>> 6) {
+                mask &= -1L << from;
+            }
+            if (word == to >>> 6) {
+                mask &= -1L >>> (63 - (to & 63));
+            }
+            words[row + word] |= mask;
+        }
+    }
+
+    /**
+     * Find the next block in a row that is in the set.
+     *
+     * @param y
+     * @param z
+     * @param fromX the X coordinate to start looking at
+     * @return the X coordinate of the block, or getMaxX() + 1 if there is none
+     */
+    public int nextSetX(int y, int z, int fromX) {
+        final int row = rowStart(y, z);
+        int bit = Math.max(fromX - minX, 0);
+
+        while (bit < sizeX) {
+            final long word = words[row + (bit >>> 6)] & (-1L << bit);
+            if (word != 0) {
+                return minX + (bit & ~63) + Long.numberOfTrailingZeros(word);
+            }
+            bit = (bit & ~63) + 64;
+        }
+
+        return minX + sizeX;
+    }
+
+    /**
+     * Get the blocks that share a face with a block in this set.
+     *
+     * @return a new set over the same box
+     */
+    public BitVolume getAdjacent() {
+        final BitVolume adjacent = new BitVolume(this);
+        final long[] out = adjacent.words;
+        final int layer = wordsPerRow * sizeZ;
+
+        for (int y = 0; y < sizeY; ++y) {
+            for (int z = 0; z < sizeZ; ++z) {
+                final int row = (y * sizeZ + z) * wordsPerRow;
+                for (int word = 0; word < wordsPerRow; ++word) {
+                    final int i = row + word;
+                    final long value = words[i];
+
+                    long spread = (value << 1) | (value >>> 1);
+                    if (word > 0) {
+                        spread |= words[i - 1] >>> 63;
+                    }
+                    if (word + 1 < wordsPerRow) {
+                        spread |= words[i + 1] << 63;
+                    } else {
+                        spread &= lastWordMask;
+                    }
+                    if (z > 0) {
+                        spread |= words[i - wordsPerRow];
+                    }
+                    if (z + 1 < sizeZ) {
+                        spread |= words[i + wordsPerRow];
+                    }
+                    if (y > 0) {
+                        spread |= words[i - layer];
+                    }
+                    if (y + 1 < sizeY) {
+                        spread |= words[i + layer];
+                    }
+
+                    out[i] = spread;
+                }
+            }
+        }
+
+        return adjacent;
+    }
+
+    /**
+     * Add the blocks of a mask that share a face with a block in this set.
+     * Both sets must be over the same box.
+     *
+     * @param mask
+     * @return whether any blocks were added
+     */
+    public boolean dilate(BitVolume mask) {
+        final long[] adjacent = getAdjacent().words;
+        boolean changed = false;
+
+        for (int i = 0; i < words.length; ++i) {
+            final long value = words[i] | (adjacent[i] & mask.words[i]);
+            if (value != words[i]) {
+                words[i] = value;
+                changed = true;
+            }
+        }
+
+        return changed;
+    }
+
+    /**
+     * Remove all blocks that are in another set over the same box.
+     *
+     * @param other
+     */
+    public void andNot(BitVolume other) {
+        for (int i = 0; i < words.length; ++i) {
+            words[i] &= ~other.words[i];
+        }
+    }
+}
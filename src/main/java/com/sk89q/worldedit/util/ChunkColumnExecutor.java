@@ -0,0 +1,320 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.util;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.regions.Region;
+
+/**
+ * Runs a task for every chunk column of a region's bounding box on a shared
+ * pool of worker threads and hands the results back in column order.
+ *
+ * <p>Only a few columns are in flight at any time, so the results of a large
+ * region never have to be held in memory all at once. Tasks must not touch
+ * the world; whatever they produce is meant to be applied by the thread that
+ * reads the results. Tasks that need to see the world take a snapshot of it
+ * on that thread first, see {@link SnapshotTask}.</p>
+ *
+ * @param <T> result of a column
+ */
+public class ChunkColumnExecutor<T> {
+
+    /**
+     * Work done for one chunk column.
+     *
+     * @param <T>
+     */
+    public interface ColumnTask<T> {
+        /**
+         * Process the part of the region between the given corners. The
+         * corners are inclusive and lie within one chunk column.
+         *
+         * @param minX
+         * @param minZ
+         * @param maxX
+         * @param maxZ
+         * @return result for the column
+         * @throws Exception
+         */
+        public T call(int minX, int minZ, int maxX, int maxZ) throws Exception;
+    }
+
+    /**
+     * Work done for one chunk column that has to read the world. The world is
+     * read by {@link #snapshot(int, int, int, int)}, which runs on the thread
+     * that created the executor and reads the results, and the work it
+     * returns runs on a worker thread.
+     *
+     * @param <T>
+     */
+    public interface SnapshotTask<T> {
+        /**
+         * Read what is needed of the part of the region between the given
+         * corners. The corners are inclusive and lie within one chunk column.
+         *
+         * @param minX
+         * @param minZ
+         * @param maxX
+         * @param maxZ
+         * @return work that computes the result for the column
+         */
+        public Callable<T> snapshot(int minX, int minZ, int maxX, int maxZ);
+    }
+
+    /**
+     * Work done for a band of rows, see {@link ChunkColumnExecutor#forEachBand}.
+     */
+    public interface BandTask {
+        /**
+         * Process the rows between the given indices.
+         *
+         * @param fromRow first row (inclusive)
+         * @param toRow last row (exclusive)
+         */
+        public void run(int fromRow, int toRow);
+    }
+
+    private static final int COLUMNS_PER_THREAD = 2;
+
+    private static ExecutorService executor;
+    private static final int parallelism = Runtime.getRuntime().availableProcessors();
+
+    private final SnapshotTask<T> task;
+    private final LinkedList<Future<T>> pending = new LinkedList<Future<T>>();
+    private final int minX;
+    private final int minZ;
+    private final int maxX;
+    private final int maxZ;
+    private int nextChunkX;
+    private int nextChunkZ;
+    private final int minChunkZ;
+    private final int maxChunkX;
+    private final int maxChunkZ;
+
+    /**
+     * Start running a task over a region.
+     *
+     * @param region
+     * @param task
+     */
+    public ChunkColumnExecutor(Region region, ColumnTask<T> task) {
+        this(region, wrap(task));
+    }
+
+    /**
+     * Start running a task that reads the world over a region. The first
+     * columns are read before the constructor returns.
+     *
+     * @param region
+     * @param task
+     */
+    public ChunkColumnExecutor(Region region, SnapshotTask<T> task) {
+        this.task = task;
+
+        final Vector min = region.getMinimumPoint();
+        final Vector max = region.getMaximumPoint();
+
+        minX = min.getBlockX();
+        minZ = min.getBlockZ();
+        maxX = max.getBlockX();
+        maxZ = max.getBlockZ();
+
+        nextChunkX = minX >> 4;
+        nextChunkZ = minChunkZ = minZ >> 4;
+        maxChunkX = maxX >> 4;
+        maxChunkZ = maxZ >> 4;
+
+        final int window = parallelism * COLUMNS_PER_THREAD;
+        for (int i = 0; i < window && submitNext(); ++i) {
+        }
+    }
+
+    /**
+     * Get the number of worker threads.
+     *
+     * @return
+     */
+    public static int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Get the shared pool of worker threads.
+     *
+     * @return
+     */
+    public static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            final AtomicInteger threadNumber = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "WorldEdit Worker #" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return executor;
+    }
+
+    /**
+     * Split rows into one band per worker thread and run a task on every
+     * band, waiting for all of them. Exceptions thrown by the task are
+     * rethrown, wrapped in a RuntimeException if they are checked.
+     *
+     * @param rows number of rows
+     * @param parallel false to run the task on this thread, in one band
+     * @param task
+     */
+    public static void forEachBand(int rows, boolean parallel, final BandTask task) {
+        final int bands = Math.min(parallelism, rows);
+        if (!parallel || bands <= 1) {
+            task.run(0, rows);
+            return;
+        }
+
+        final List<Future<?>> futures = new ArrayList<Future<?>>(bands);
+        try {
+            for (int i = 0; i < bands; ++i) {
+                final int fromRow = (int) ((long) rows * i / bands);
+                final int toRow = (int) ((long) rows * (i + 1) / bands);
+                futures.add(getExecutor().submit(new Runnable() {
+                    public void run() {
+                        task.run(fromRow, toRow);
+                    }
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        } finally {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Get the exception to rethrow for a failed task.
+     *
+     * @param e
+     * @return
+     */
+    private static RuntimeException unwrap(ExecutionException e) {
+        final Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new RuntimeException(cause);
+    }
+
+    private static <T> SnapshotTask<T> wrap(final ColumnTask<T> task) {
+        return new SnapshotTask<T>() {
+            public Callable<T> snapshot(final int minX, final int minZ, final int maxX, final int maxZ) {
+                return new Callable<T>() {
+                    public T call() throws Exception {
+                        return task.call(minX, minZ, maxX, maxZ);
+                    }
+                };
+            }
+        };
+    }
+
+    private boolean submitNext() {
+        if (nextChunkX > maxChunkX) {
+            return false;
+        }
+
+        final int columnMinX = Math.max(minX, nextChunkX << 4);
+        final int columnMinZ = Math.max(minZ, nextChunkZ << 4);
+        final int columnMaxX = Math.min(maxX, (nextChunkX << 4) + 15);
+        final int columnMaxZ = Math.min(maxZ, (nextChunkZ << 4) + 15);
+
+        pending.add(getExecutor().submit(task.snapshot(columnMinX, columnMinZ, columnMaxX, columnMaxZ)));
+
+        if (++nextChunkZ > maxChunkZ) {
+            nextChunkZ = minChunkZ;
+            ++nextChunkX;
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns whether there are more results.
+     *
+     * @return
+     */
+    public boolean hasNext() {
+        return !pending.isEmpty();
+    }
+
+    /**
+     * Wait for the result of the next column. Exceptions thrown by the task
+     * are rethrown, wrapped in a RuntimeException if they are checked.
+     *
+     * @return
+     */
+    public T next() {
+        final Future<T> future = pending.removeFirst();
+        submitNext();
+
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    /**
+     * Stop the columns that have not been processed yet.
+     */
+    public void cancel() {
+        for (Future<T> future : pending) {
+            future.cancel(true);
+        }
+        pending.clear();
+        nextChunkX = maxChunkX + 1;
+    }
+}
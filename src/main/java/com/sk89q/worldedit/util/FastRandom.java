@@ -0,0 +1,109 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A small and fast xorshift64* random number generator. Unlike
+ * {@link java.util.Random}, an instance is not thread-safe; threads that need
+ * random numbers without a seed should use their own instance from
+ * {@link #current()}. Seeded instances always produce the same sequence, so
+ * randomized edits made with them can be reproduced.
+ */
+public class FastRandom {
+    private static final AtomicLong seedUniquifier = new AtomicLong(0x2545F4914F6CDD1DL);
+
+    private static final ThreadLocal<FastRandom> current = new ThreadLocal<FastRandom>() {
+        @Override
+        protected FastRandom initialValue() {
+            return new FastRandom(seedUniquifier.addAndGet(0x9E3779B97F4A7C15L) ^ System.nanoTime());
+        }
+    };
+
+    private long state;
+
+    /**
+     * Construct the generator.
+     *
+     * @param seed
+     */
+    public FastRandom(long seed) {
+        setSeed(seed);
+    }
+
+    /**
+     * Get the generator of the current thread, which is seeded differently
+     * for every thread.
+     *
+     * @return
+     */
+    public static FastRandom current() {
+        return current.get();
+    }
+
+    /**
+     * Restart the sequence from a seed.
+     *
+     * @param seed
+     */
+    public void setSeed(long seed) {
+        // Spread the bits of similar seeds, as xorshift needs a few rounds to
+        // recover from states with few bits set
+        long z = seed + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z ^= z >>> 31;
+        state = z == 0 ? 0x9E3779B97F4A7C15L : z;
+    }
+
+    /**
+     * Get the next random long.
+     *
+     * @return
+     */
+    public long nextLong() {
+        long x = state;
+        x ^= x >>> 12;
+        x ^= x << 25;
+        x ^= x >>> 27;
+        state = x;
+        return x * 0x2545F4914F6CDD1DL;
+    }
+
+    /**
+     * Get a random integer between 0 (inclusive) and a bound (exclusive).
+     *
+     * @param bound must be positive
+     * @return
+     */
+    public int nextInt(int bound) {
+        return (int) (((nextLong() >>> 32) * bound) >>> 32);
+    }
+
+    /**
+     * Get a random double between 0 (inclusive) and 1 (exclusive).
+     *
+     * @return
+     */
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+}
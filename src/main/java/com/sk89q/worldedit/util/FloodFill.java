@@ -0,0 +1,374 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.util;
+
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.MaxChangedBlocksException;
+import com.sk89q.worldedit.Vector;
+
+/**
+ * Walks the blocks connected to a set of seed blocks, breadth first. The walk
+ * is iterative, so it does not run out of stack on large areas; pending blocks
+ * are kept in a growable ring of ints, and visited blocks are tracked in a
+ * bit set over the bounding box of the walk, or in a set of packed positions
+ * if that box is too large.
+ */
+public class FloodFill {
+    /**
+     * The largest bounding box, in blocks, that visited blocks are tracked
+     * in a bit set for. This is 8 MB worth of bits.
+     */
+    private static final long MAX_BITSET_VOLUME = 1L << 26;
+
+    /**
+     * Which neighbors of a block are connected to it.
+     */
+    public enum Connectivity {
+        /**
+         * The 4 blocks next to a block on the same layer.
+         */
+        HORIZONTAL(4),
+        /**
+         * The 6 blocks sharing a face with a block.
+         */
+        FACES(6),
+        /**
+         * The 18 blocks sharing a face or an edge with a block.
+         */
+        EDGES(18),
+        /**
+         * All 26 blocks around a block.
+         */
+        CORNERS(26);
+
+        private final int[] offsets;
+
+        private Connectivity(int neighbors) {
+            offsets = new int[neighbors * 3];
+            int i = 0;
+            for (int y = -1; y <= 1; ++y) {
+                for (int z = -1; z <= 1; ++z) {
+                    for (int x = -1; x <= 1; ++x) {
+                        final int distance = Math.abs(x) + Math.abs(y) + Math.abs(z);
+                        if (distance == 0) {
+                            continue;
+                        }
+
+                        final boolean connected;
+                        switch (neighbors) {
+                        case 4:
+                            connected = y == 0 && distance == 1;
+                            break;
+                        case 6:
+                            connected = distance == 1;
+                            break;
+                        case 18:
+                            connected = distance <= 2;
+                            break;
+                        default:
+                            connected = true;
+                        }
+
+                        if (connected) {
+                            offsets[i++] = x;
+                            offsets[i++] = y;
+                            offsets[i++] = z;
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Get the number of neighbors of a block.
+         *
+         * @return
+         */
+        public int getNeighborCount() {
+            return offsets.length / 3;
+        }
+    }
+
+    /**
+     * Decides which block types the fill spreads into.
+     */
+    public interface TypeFilter {
+        /**
+         * Returns whether blocks of the given type are part of the fill.
+         *
+         * @param type
+         * @return
+         */
+        public boolean matches(int type);
+    }
+
+    /**
+     * Called for every block that is part of the fill.
+     */
+    public interface Visitor {
+        /**
+         * Visit a block.
+         *
+         * @param x
+         * @param y
+         * @param z
+         * @return whether to continue the fill from this block's neighbors
+         * @throws MaxChangedBlocksException
+         */
+        public boolean visit(int x, int y, int z) throws MaxChangedBlocksException;
+    }
+
+    private final EditSession editSession;
+    private final Connectivity connectivity;
+    private final TypeFilter filter;
+
+    private double centerX;
+    private double centerY;
+    private double centerZ;
+    private double radiusSq = Double.POSITIVE_INFINITY;
+
+    private int minX = Integer.MIN_VALUE;
+    private int minY = Integer.MIN_VALUE;
+    private int minZ = Integer.MIN_VALUE;
+    private int maxX = Integer.MAX_VALUE;
+    private int maxY = Integer.MAX_VALUE;
+    private int maxZ = Integer.MAX_VALUE;
+
+    private int[] queue = new int[3 * 64];
+    private int head;
+    private int size;
+
+    private long[] visitedBits;
+    private LongHashSet visitedSet;
+    private int sizeX;
+    private int sizeZ;
+
+    private boolean stopped;
+
+    /**
+     * Construct the fill.
+     *
+     * @param editSession the session to read block types through
+     * @param connectivity which neighbors the fill spreads to
+     * @param filter which block types the fill spreads into
+     */
+    public FloodFill(EditSession editSession, Connectivity connectivity, TypeFilter filter) {
+        this.editSession = editSession;
+        this.connectivity = connectivity;
+        this.filter = filter;
+    }
+
+    /**
+     * Only fill blocks that are at most the given distance away from a point.
+     * Must be called before any seeds are added.
+     *
+     * @param center
+     * @param radius
+     */
+    public void setRadius(Vector center, double radius) {
+        centerX = center.getX();
+        centerY = center.getY();
+        centerZ = center.getZ();
+        radiusSq = radius * radius;
+
+        minX = Math.max(minX, (int) Math.floor(centerX - radius));
+        minY = Math.max(minY, (int) Math.floor(centerY - radius));
+        minZ = Math.max(minZ, (int) Math.floor(centerZ - radius));
+        maxX = Math.min(maxX, (int) Math.ceil(centerX + radius));
+        maxY = Math.min(maxY, (int) Math.ceil(centerY + radius));
+        maxZ = Math.min(maxZ, (int) Math.ceil(centerZ + radius));
+    }
+
+    /**
+     * Only fill blocks inside the given box. Must be called before any seeds
+     * are added.
+     *
+     * @param min
+     * @param max
+     */
+    public void setBounds(Vector min, Vector max) {
+        minX = Math.max(minX, min.getBlockX());
+        minY = Math.max(minY, min.getBlockY());
+        minZ = Math.max(minZ, min.getBlockZ());
+        maxX = Math.min(maxX, max.getBlockX());
+        maxY = Math.min(maxY, max.getBlockY());
+        maxZ = Math.min(maxZ, max.getBlockZ());
+    }
+
+    /**
+     * Start the fill at a block, if it is inside the bounds and its type
+     * matches the filter.
+     *
+     * @param x
+     * @param y
+     * @param z
+     */
+    public void addSeed(int x, int y, int z) {
+        if (inBounds(x, y, z) && markVisited(x, y, z)
+                && filter.matches(editSession.getBlockType(x, y, z))) {
+            enqueue(x, y, z);
+        }
+    }
+
+    /**
+     * Start the fill at a block, if it is inside the bounds and its type
+     * matches the filter.
+     *
+     * @param pt
+     */
+    public void addSeed(Vector pt) {
+        addSeed(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ());
+    }
+
+    /**
+     * Stop the fill. Can be called by a visitor.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Returns whether the fill was stopped by {@link #stop()}.
+     *
+     * @return
+     */
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Visit all blocks connected to the seeds, nearest first.
+     *
+     * @param visitor
+     * @return number of blocks visited
+     * @throws MaxChangedBlocksException
+     */
+    public int fill(Visitor visitor) throws MaxChangedBlocksException {
+        final int[] offsets = connectivity.offsets;
+        int visited = 0;
+
+        while (size > 0 && !stopped) {
+            final int x = queue[head];
+            final int y = queue[head + 1];
+            final int z = queue[head + 2];
+            head += 3;
+            if (head == queue.length) {
+                head = 0;
+            }
+            --size;
+
+            ++visited;
+            if (!visitor.visit(x, y, z)) {
+                continue;
+            }
+
+            for (int i = 0; i < offsets.length; i += 3) {
+                final int nx = x + offsets[i];
+                final int ny = y + offsets[i + 1];
+                final int nz = z + offsets[i + 2];
+
+                if (!inBounds(nx, ny, nz) || !markVisited(nx, ny, nz)) {
+                    continue;
+                }
+
+                if (filter.matches(editSession.getBlockType(nx, ny, nz))) {
+                    enqueue(nx, ny, nz);
+                }
+            }
+        }
+
+        return visited;
+    }
+
+    private boolean inBounds(int x, int y, int z) {
+        if (x < minX || x > maxX || y < minY || y > maxY || z < minZ || z > maxZ) {
+            return false;
+        }
+
+        if (radiusSq == Double.POSITIVE_INFINITY) {
+            return true;
+        }
+
+        final double dx = x - centerX;
+        final double dy = y - centerY;
+        final double dz = z - centerZ;
+        return dx * dx + dy * dy + dz * dz <= radiusSq;
+    }
+
+    /**
+     * Mark a block as visited.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return false if the block was visited before
+     */
+    private boolean markVisited(int x, int y, int z) {
+        if (visitedBits == null && visitedSet == null) {
+            final long lengthX = (long) maxX - minX + 1;
+            final long lengthY = (long) maxY - minY + 1;
+            final long lengthZ = (long) maxZ - minZ + 1;
+            // Check the sides first so that the volume cannot overflow
+            final long volume = lengthX <= MAX_BITSET_VOLUME && lengthY <= MAX_BITSET_VOLUME && lengthZ <= MAX_BITSET_VOLUME
+                    ? lengthX * lengthY * lengthZ : Long.MAX_VALUE;
+            if (volume <= MAX_BITSET_VOLUME) {
+                sizeX = maxX - minX + 1;
+                sizeZ = maxZ - minZ + 1;
+                visitedBits = new long[(int) ((volume + 63) >> 6)];
+            } else {
+                visitedSet = new LongHashSet();
+            }
+        }
+
+        if (visitedBits != null) {
+            final int index = ((y - minY) * sizeZ + (z - minZ)) * sizeX + (x - minX);
+            final long bit = 1L << index;
+            final long word = visitedBits[index >>> 6];
+            if ((word & bit) != 0) {
+                return false;
+            }
+            visitedBits[index >>> 6] = word | bit;
+            return true;
+        }
+
+        return visitedSet.add(((long) (x & 0x3FFFFFF) << 38) | ((long) (z & 0x3FFFFFF) << 12) | (y & 0xFFF));
+    }
+
+    private void enqueue(int x, int y, int z) {
+        if (size * 3 == queue.length) {
+            // Unwrap the ring into a larger array
+            final int[] newQueue = new int[queue.length * 2];
+            final int tail = queue.length - head;
+            System.arraycopy(queue, head, newQueue, 0, tail);
+            System.arraycopy(queue, 0, newQueue, tail, head);
+            queue = newQueue;
+            head = 0;
+        }
+
+        int index = head + size * 3;
+        if (index >= queue.length) {
+            index -= queue.length;
+        }
+        queue[index] = x;
+        queue[index + 1] = y;
+        queue[index + 2] = z;
+        ++size;
+    }
+}
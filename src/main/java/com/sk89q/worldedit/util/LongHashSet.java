@@ -0,0 +1,138 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.util;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressing set of long values that does not box.
+ */
+public class LongHashSet {
+
+    private long[] keys;
+    private boolean[] used;
+    private int size = 0;
+    private int mask;
+
+    /**
+     * Construct the set.
+     */
+    public LongHashSet() {
+        this(16);
+    }
+
+    /**
+     * Construct the set with room for the given number of values.
+     *
+     * @param expectedSize
+     */
+    public LongHashSet(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+    }
+
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    private int slot(long key) {
+        int slot = hash(key) & mask;
+        while (used[slot] && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Returns whether the set contains a value.
+     *
+     * @param key
+     * @return
+     */
+    public boolean contains(long key) {
+        return used[slot(key)];
+    }
+
+    /**
+     * Add a value.
+     *
+     * @param key
+     * @return false if the value was already in the set
+     */
+    public boolean add(long key) {
+        int slot = slot(key);
+        if (used[slot]) {
+            return false;
+        }
+
+        if ((size + 1) * 2 > keys.length) {
+            rehash();
+            slot = slot(key);
+        }
+        used[slot] = true;
+        keys[slot] = key;
+        ++size;
+        return true;
+    }
+
+    /**
+     * Get the number of values.
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Remove all values.
+     */
+    public void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    private void rehash() {
+        final long[] oldKeys = keys;
+        final boolean[] oldUsed = used;
+
+        allocate(oldKeys.length << 1);
+
+        for (int i = 0; i < oldKeys.length; ++i) {
+            if (oldUsed[i]) {
+                final int slot = slot(oldKeys[i]);
+                used[slot] = true;
+                keys[slot] = oldKeys[i];
+            }
+        }
+    }
+}
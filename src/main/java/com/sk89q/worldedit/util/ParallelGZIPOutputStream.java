@@ -0,0 +1,235 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A gzip stream that compresses on the worker threads of
+ * {@link ChunkColumnExecutor}. The data is cut into blocks of
+ * {@link #BLOCK_SIZE} bytes, and each block is compressed on its own and
+ * written as a separate gzip member. RFC 1952 allows a file to consist of
+ * several members, which readers such as <code>GZIPInputStream</code>
+ * decompress as one stream; because every block starts with an empty
+ * dictionary, the output is slightly larger than that of a single member.
+ * Some readers, including older <code>GZIPInputStream</code>s, stop after
+ * the first member, which is why this is only used when it is asked for.
+ *
+ * <p>Only as many blocks are kept in memory as there are worker threads to
+ * compress them, plus the one that is being filled.</p>
+ */
+public class ParallelGZIPOutputStream extends OutputStream {
+    /**
+     * The number of bytes that are compressed into one member.
+     */
+    public static final int BLOCK_SIZE = 1 << 20;
+
+    private final OutputStream out;
+    private final int level;
+    private final int maxPending;
+    private final ExecutorService executor;
+    private final LinkedList<Future<ByteArrayOutputStream>> pending =
+            new LinkedList<Future<ByteArrayOutputStream>>();
+    private byte[] buffer = new byte[BLOCK_SIZE];
+    private int count;
+    private boolean closed;
+
+    /**
+     * Create a stream that compresses with the given level.
+     *
+     * @param out
+     * @param level a level from {@link Deflater}
+     */
+    public ParallelGZIPOutputStream(OutputStream out, int level) {
+        this.out = out;
+        this.level = level;
+        maxPending = ChunkColumnExecutor.getParallelism();
+        executor = ChunkColumnExecutor.getExecutor();
+    }
+
+    /**
+     * Open a gzip stream with the given compression level. Compression is
+     * only spread over several threads if that was requested, there is
+     * more than one worker thread, and the given size hint says that there
+     * is more than one block to compress.
+     *
+     * @param out
+     * @param level a level from {@link Deflater}
+     * @param parallel
+     * @param sizeHint the expected number of uncompressed bytes
+     * @return
+     * @throws IOException
+     */
+    public static OutputStream open(OutputStream out, final int level, boolean parallel, long sizeHint)
+            throws IOException {
+        if (parallel && ChunkColumnExecutor.getParallelism() > 1 && sizeHint > BLOCK_SIZE) {
+            return new ParallelGZIPOutputStream(out, level);
+        }
+
+        return new GZIPOutputStream(out, 8192) {
+            {
+                def.setLevel(level);
+            }
+        };
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == BLOCK_SIZE) {
+            submit();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (count == BLOCK_SIZE) {
+                submit();
+            }
+
+            int n = Math.min(length, BLOCK_SIZE - count);
+            System.arraycopy(bytes, offset, buffer, count, n);
+            count += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    /**
+     * Flush the members that have been compressed so far. The block that is
+     * being filled is not compressed until it is full or the stream is
+     * closed.
+     */
+    @Override
+    public void flush() throws IOException {
+        while (!pending.isEmpty() && pending.getFirst().isDone()) {
+            writePending();
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            if (count > 0 || pending.isEmpty()) {
+                submit();
+            }
+            while (!pending.isEmpty()) {
+                writePending();
+            }
+        } finally {
+            for (Future<ByteArrayOutputStream> future : pending) {
+                future.cancel(false);
+            }
+            pending.clear();
+            buffer = null;
+            out.close();
+        }
+    }
+
+    private void submit() throws IOException {
+        final byte[] block = buffer;
+        final int length = count;
+        pending.add(executor.submit(new Callable<ByteArrayOutputStream>() {
+            public ByteArrayOutputStream call() {
+                return compress(block, length, level);
+            }
+        }));
+
+        while (pending.size() > maxPending) {
+            writePending();
+        }
+
+        buffer = closed ? null : new byte[BLOCK_SIZE];
+        count = 0;
+    }
+
+    private void writePending() throws IOException {
+        try {
+            pending.removeFirst().get().writeTo(out);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing");
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to compress", e.getCause());
+        }
+    }
+
+    /**
+     * Compress a block into a complete gzip member.
+     *
+     * @param data
+     * @param length
+     * @param level
+     * @return
+     */
+    private static ByteArrayOutputStream compress(byte[] data, int length, int level) {
+        ByteArrayOutputStream member = new ByteArrayOutputStream(length / 4 + 64);
+        member.write(0x1F); // Magic
+        member.write(0x8B);
+        member.write(Deflater.DEFLATED);
+        for (int i = 0; i < 7; ++i) { // Flags, modification time, extra flags, OS
+            member.write(0);
+        }
+
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(data, 0, length);
+            deflater.finish();
+            byte[] chunk = new byte[65536];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(chunk);
+                member.write(chunk, 0, n);
+            }
+        } finally {
+            deflater.end();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        writeIntLE(member, (int) crc.getValue());
+        writeIntLE(member, length);
+        return member;
+    }
+
+    private static void writeIntLE(ByteArrayOutputStream out, int value) {
+        out.write(value);
+        out.write(value >> 8);
+        out.write(value >> 16);
+        out.write(value >> 24);
+    }
+}
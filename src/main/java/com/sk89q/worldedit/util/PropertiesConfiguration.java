@@ -90,14 +90,26 @@ public void load() {
         superPickaxeDrop = getBool("super-pickaxe-drop-items", superPickaxeDrop);
         superPickaxeManyDrop = getBool("super-pickaxe-many-drop-items", superPickaxeManyDrop);
         noDoubleSlash = getBool("no-double-slash", noDoubleSlash);
+        useReadCache = getBool("read-cache", useReadCache);
         useInventory = getBool("use-inventory", useInventory);
         useInventoryOverride = getBool("use-inventory-override", useInventoryOverride);
         navigationWand = getInt("nav-wand-item", navigationWand);
         navigationWandMaxDistance = getInt("nav-wand-distance", navigationWandMaxDistance);
         scriptTimeout = getInt("scripting-timeout", scriptTimeout);
         butcherDefaultRadius = getInt("butcher-default-radius", butcherDefaultRadius);
+        incrementalEnabled = getBool("incremental-enable", incrementalEnabled);
+        incrementalThreshold = getInt("incremental-threshold", incrementalThreshold);
+        incrementalTickBudget = Math.max(1, getInt("incremental-tick-budget", incrementalTickBudget));
+        incrementalProgressInterval = getInt("incremental-progress-interval", incrementalProgressInterval);
 
         LocalSession.MAX_HISTORY_SIZE = Math.max(15, getInt("history-size", 15));
+        historyDir = getString("history-dir", historyDir);
+        historySessionMemoryLimit = getInt("history-session-memory-limit", historySessionMemoryLimit);
+        historyMemoryLimit = getInt("history-memory-limit", historyMemoryLimit);
+        historyPersist = getBool("history-persist", historyPersist);
+        saveCompressionLevel = Math.max(-1, Math.min(9, getInt("save-compression-level", saveCompressionLevel)));
+        saveParallelCompression = getBool("save-parallel-compression", saveParallelCompression);
+        lazyClipboardCopy = getBool("clipboard-lazy-copy", lazyClipboardCopy);
 
         String snapshotsDir = getString("snapshots-dir", "");
         if (snapshotsDir.length() > 0) {
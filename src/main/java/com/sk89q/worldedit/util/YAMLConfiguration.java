@@ -78,6 +78,7 @@ public void load() {
         superPickaxeManyDrop = config.getBoolean(
                 "super-pickaxe.many-drop-items", superPickaxeManyDrop);
         noDoubleSlash = config.getBoolean("no-double-slash", noDoubleSlash);
+        useReadCache = config.getBoolean("read-cache", useReadCache);
         useInventory = config.getBoolean("use-inventory.enable", useInventory);
         useInventoryOverride = config.getBoolean("use-inventory.allow-override",
                 useInventoryOverride);
@@ -91,6 +92,15 @@ public void load() {
         butcherDefaultRadius = config.getInt("butcher-default-radius", butcherDefaultRadius);
 
         saveDir = config.getString("saving.dir", saveDir);
+        saveCompressionLevel = Math.max(-1, Math.min(9, config.getInt("saving.compression-level", saveCompressionLevel)));
+        saveParallelCompression = config.getBoolean("saving.parallel-compression", saveParallelCompression);
+
+        lazyClipboardCopy = config.getBoolean("clipboard.lazy-copy", lazyClipboardCopy);
+
+        incrementalEnabled = config.getBoolean("incremental.enable", incrementalEnabled);
+        incrementalThreshold = config.getInt("incremental.threshold", incrementalThreshold);
+        incrementalTickBudget = Math.max(1, config.getInt("incremental.tick-budget", incrementalTickBudget));
+        incrementalProgressInterval = config.getInt("incremental.progress-interval", incrementalProgressInterval);
 
         disallowedBlocks = new HashSet<Integer>(config.getIntList("limits.disallowed-blocks", null));
 
@@ -98,6 +108,10 @@ public void load() {
 
         LocalSession.MAX_HISTORY_SIZE = Math.max(0, config.getInt("history.size", 15));
         LocalSession.EXPIRATION_GRACE = config.getInt("history.expiration", 10) * 60 * 1000;
+        historyDir = config.getString("history.directory", historyDir);
+        historySessionMemoryLimit = config.getInt("history.session-memory-limit", historySessionMemoryLimit);
+        historyMemoryLimit = config.getInt("history.memory-limit", historyMemoryLimit);
+        historyPersist = config.getBoolean("history.persist", historyPersist);
 
         String snapshotsDir = config.getString("snapshots.directory", "");
         if (snapshotsDir.length() > 0) {
@@ -0,0 +1,109 @@
+package com.sk89q.jnbt;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+public class NBTStreamReaderTest {
+    @Test
+    public void testSelectiveRead() throws IOException {
+        NBTStreamReader reader = new NBTStreamReader(write(createTag()));
+        assertEquals(NBTConstants.TYPE_COMPOUND, reader.readNamedTag());
+        assertTrue(reader.isName("Root"));
+        assertFalse(reader.isName("Roo"));
+
+        byte[] blocks = null;
+        int[] heights = null;
+        int listLength = -1;
+        int type;
+        while ((type = reader.readNamedTag()) != NBTConstants.TYPE_END) {
+            if (reader.isName("Blocks")) {
+                assertEquals(NBTConstants.TYPE_BYTE_ARRAY, type);
+                blocks = reader.readByteArray();
+            } else if (reader.isName("HeightMap")) {
+                assertEquals(NBTConstants.TYPE_INT_ARRAY, type);
+                heights = reader.readIntArray();
+            } else if (reader.isName("Sections")) {
+                assertEquals(NBTConstants.TYPE_COMPOUND, reader.readListHeader());
+                listLength = reader.getListLength();
+                for (int i = 0; i < listLength; ++i) {
+                    reader.skipPayload(NBTConstants.TYPE_COMPOUND);
+                }
+            } else {
+                reader.skipPayload(type);
+            }
+        }
+        reader.close();
+
+        assertArrayEquals(new byte[] { 1, 2, 3, 4 }, blocks);
+        assertArrayEquals(new int[] { 64, 65, -1 }, heights);
+        assertEquals(2, listLength);
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        CompoundTag tag = createTag();
+        NBTInputStream stream = new NBTInputStream(write(tag));
+        CompoundTag read = (CompoundTag) stream.readTag();
+        stream.close();
+
+        assertEquals("Root", read.getName());
+        assertEquals(tag.getValue().keySet(), read.getValue().keySet());
+        assertEquals("héllo", ((StringTag) read.getValue().get("Name")).getValue());
+        assertEquals(Long.MIN_VALUE, ((LongTag) read.getValue().get("Seed")).getValue().longValue());
+        List<Tag> sections = ((ListTag) read.getValue().get("Sections")).getValue();
+        assertEquals(2, sections.size());
+        assertEquals(7, ((ByteTag) ((CompoundTag) sections.get(1)).getValue().get("Y")).getValue().byteValue());
+    }
+
+    private static CompoundTag createTag() {
+        Map<String, Tag> values = new HashMap<String, Tag>();
+        values.put("Name", new StringTag("Name", "héllo"));
+        values.put("Seed", new LongTag("Seed", Long.MIN_VALUE));
+        values.put("Scale", new DoubleTag("Scale", 0.5));
+        values.put("Blocks", new ByteArrayTag("Blocks", new byte[] { 1, 2, 3, 4 }));
+        values.put("HeightMap", new IntArrayTag("HeightMap", new int[] { 64, 65, -1 }));
+        values.put("Empty", new ListTag("Empty", ByteTag.class, new ArrayList<Tag>()));
+
+        List<Tag> sections = new ArrayList<Tag>();
+        for (int y = 6; y < 8; ++y) {
+            Map<String, Tag> section = new HashMap<String, Tag>();
+            section.put("Y", new ByteTag("Y", (byte) y));
+            section.put("SkyLight", new ByteArrayTag("SkyLight", new byte[2048]));
+            section.put("Pos", new ListTag("Pos", FloatTag.class, Arrays.<Tag>asList(
+                    new FloatTag("", 1), new FloatTag("", 2))));
+            section.put("Count", new ShortTag("Count", (short) 300));
+            sections.add(new CompoundTag("", section));
+        }
+        values.put("Sections", new ListTag("Sections", CompoundTag.class, sections));
+
+        return new CompoundTag("Root", values);
+    }
+
+    private static ByteArrayInputStream write(Tag tag) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        NBTOutputStream stream = new NBTOutputStream(out);
+        stream.writeTag(tag);
+        stream.close();
+
+        // NBTOutputStream always compresses its output
+        GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()));
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            raw.write(buffer, 0, read);
+        }
+        return new ByteArrayInputStream(raw.toByteArray());
+    }
+}
@@ -0,0 +1,140 @@
+package com.sk89q.worldedit;
+
+import org.junit.*;
+
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.blocks.SignBlock;
+
+import static org.junit.Assert.*;
+
+public class BlockChangeLogTest {
+    @Test
+    public void testPacking() {
+        assertPacking(0, 0, 0);
+        assertPacking(1, 2, 3);
+        assertPacking(-1, 0, -1);
+        assertPacking(-30000000, 255, 30000000);
+        assertPacking(30000000, 0, -30000000);
+        assertPacking(12345, 4095 >> 1, -54321);
+    }
+
+    @Test
+    public void testCursors() {
+        BlockChangeLog log = new BlockChangeLog(1);
+        for (int i = 0; i < 100; ++i) {
+            log.add(i, i % 256, -i, new BaseBlock(i, i % 16));
+        }
+        assertEquals(100, log.size());
+
+        BlockChangeLog.Cursor cursor = log.forwardCursor();
+        for (int i = 0; i < 100; ++i) {
+            assertTrue(cursor.next());
+            assertEquals(i, cursor.getX());
+            assertEquals(i % 256, cursor.getY());
+            assertEquals(-i, cursor.getZ());
+            assertEquals(i, cursor.getType());
+            assertEquals(i % 16, cursor.getData());
+        }
+        assertFalse(cursor.next());
+
+        cursor = log.reverseCursor();
+        for (int i = 99; i >= 0; --i) {
+            assertTrue(cursor.next());
+            assertEquals(i, cursor.getIndex());
+            assertEquals(new BlockVector(i, i % 256, -i), cursor.getPosition());
+            assertEquals(new BaseBlock(i, i % 16), cursor.getBlock());
+        }
+        assertFalse(cursor.next());
+
+        log.clear();
+        assertTrue(log.isEmpty());
+        assertFalse(log.forwardCursor().next());
+    }
+
+    @Test
+    public void testTileEntities() {
+        BlockChangeLog log = new BlockChangeLog();
+        SignBlock sign = new SignBlock(BlockID.SIGN_POST, 3, new String[] { "a", "b", "c", "d" });
+        log.add(0, 64, 0, new BaseBlock(BlockID.STONE));
+        log.add(1, 64, 0, sign);
+        log.add(2, 64, 0, new BaseBlock(BlockID.CLOTH, -1));
+
+        BlockChangeLog.Cursor cursor = log.forwardCursor();
+        assertTrue(cursor.next());
+        assertFalse(cursor.hasTileEntity());
+        assertTrue(cursor.next());
+        assertTrue(cursor.hasTileEntity());
+        assertSame(sign, cursor.getBlock());
+        assertEquals(BlockID.SIGN_POST, cursor.getType());
+        assertEquals(3, cursor.getData());
+        assertTrue(cursor.next());
+        assertEquals(-1, cursor.getBlock().getData());
+    }
+
+    @Test
+    public void testGroupBySection() {
+        BlockChangeLog log = new BlockChangeLog();
+        log.add(40, 70, 0, 1, 0);   // section (2, 4, 0)
+        log.add(-1, 0, -1, 2, 0);   // section (-1, 0, -1)
+        log.add(33, 64, 15, 3, 0);  // section (2, 4, 0)
+        log.add(-16, 15, -16, 4, 0); // section (-1, 0, -1)
+        log.add(40, 70, 0, 5, 0);   // section (2, 4, 0), same block again
+        log.add(40, 16, 0, 6, 0);   // section (2, 1, 0)
+
+        BlockChangeLog.SectionGrouping grouping = log.groupBySection();
+        assertEquals(3, grouping.getSectionCount());
+
+        int seen = 0;
+        BlockChangeLog.Cursor cursor = log.forwardCursor();
+        for (int section = 0; section < grouping.getSectionCount(); ++section) {
+            int previous = -1;
+            int chunkX = 0, sectionY = 0, chunkZ = 0;
+            for (int i = grouping.getStart(section); i < grouping.getEnd(section); ++i) {
+                int index = grouping.getIndex(i);
+                assertTrue(index > previous);
+                previous = index;
+
+                cursor.seek(index);
+                if (i == grouping.getStart(section)) {
+                    chunkX = cursor.getX() >> 4;
+                    sectionY = cursor.getY() >> 4;
+                    chunkZ = cursor.getZ() >> 4;
+                } else {
+                    assertEquals(chunkX, cursor.getX() >> 4);
+                    assertEquals(sectionY, cursor.getY() >> 4);
+                    assertEquals(chunkZ, cursor.getZ() >> 4);
+                }
+                ++seen;
+            }
+        }
+        assertEquals(log.size(), seen);
+    }
+
+    @Test
+    public void testChunkSectionBatch() {
+        ChunkSectionBatch batch = new ChunkSectionBatch();
+        batch.reset(-1, 4, 2);
+        for (int i = 0; i < 100; ++i) {
+            batch.add(-16 + (i & 15), 64 + (i >> 4), 32 + (i & 7), 1, i & 15);
+        }
+        assertEquals(100, batch.size());
+        assertTrue(batch.contains(-16, 64, 32));
+        assertFalse(batch.contains(-1, 79, 47));
+        assertEquals(-15, batch.getBlockX(1));
+        assertEquals(65, batch.getBlockY(16));
+        assertEquals(33, batch.getBlockZ(1));
+        assertEquals(15, batch.getData(15));
+
+        batch.clear();
+        assertTrue(batch.isEmpty());
+        assertFalse(batch.contains(-16, 64, 32));
+    }
+
+    private void assertPacking(int x, int y, int z) {
+        long packed = BlockChangeLog.pack(x, y, z);
+        assertEquals(x, BlockChangeLog.unpackX(packed));
+        assertEquals(y, BlockChangeLog.unpackY(packed));
+        assertEquals(z, BlockChangeLog.unpackZ(packed));
+    }
+}
@@ -0,0 +1,270 @@
+package com.sk89q.worldedit;
+
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.*;
+
+import com.sk89q.worldedit.CuboidClipboard.FlipDirection;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.blocks.SignBlock;
+import com.sk89q.worldedit.regions.CuboidRegion;
+
+import static org.junit.Assert.*;
+
+public class CuboidClipboardTest {
+    @Test
+    public void testStorage() {
+        CuboidClipboard clipboard = new CuboidClipboard(new Vector(3, 4, 5));
+        clipboard.setBlock(new Vector(2, 3, 4), new BaseBlock(4095, 15));
+        clipboard.setBlock(1, 2, 3, BlockID.CLOTH, 7);
+
+        assertEquals(new BaseBlock(4095, 15), clipboard.getPoint(new Vector(2, 3, 4)));
+        assertEquals(BlockID.CLOTH, clipboard.getBlockType(1, 2, 3));
+        assertEquals(7, clipboard.getBlockData(1, 2, 3));
+        assertTrue(clipboard.getPoint(new Vector(0, 0, 0)).isAir());
+        assertTrue(clipboard.getTileEntityBlocks().isEmpty());
+
+        try {
+            clipboard.getPoint(new Vector(3, 0, 0));
+            fail("Error expected");
+        } catch (ArrayIndexOutOfBoundsException e) {}
+    }
+
+    @Test
+    public void testRotate() {
+        CuboidClipboard clipboard = createClipboard();
+        SignBlock sign = new SignBlock(BlockID.SIGN_POST, 0, new String[] { "a", "b", "c", "d" });
+        clipboard.setBlock(new Vector(1, 0, 2), sign);
+
+        clipboard.rotate2D(90);
+        assertEquals(new Vector(3, 2, 2), clipboard.getSize());
+        for (int x = 0; x < 2; ++x) {
+            for (int y = 0; y < 2; ++y) {
+                for (int z = 0; z < 3; ++z) {
+                    if (x == 1 && y == 0 && z == 2) {
+                        continue;
+                    }
+                    assertEquals(cellData(x, y, z), clipboard.getBlockData(2 - z, y, x));
+                }
+            }
+        }
+
+        Map<BlockVector, BaseBlock> tileEntities = clipboard.getTileEntityBlocks();
+        assertEquals(1, tileEntities.size());
+        assertSame(sign, tileEntities.get(new BlockVector(0, 0, 1)));
+        assertSame(sign, clipboard.getPoint(new Vector(0, 0, 1)));
+        assertEquals(4, sign.getData());
+
+        clipboard.rotate2D(-90);
+        assertEquals(new Vector(2, 2, 3), clipboard.getSize());
+        assertSame(sign, clipboard.getPoint(new Vector(1, 0, 2)));
+        assertEquals(0, sign.getData());
+        assertEquals(cellData(0, 1, 2), clipboard.getBlockData(0, 1, 2));
+    }
+
+    @Test
+    public void testFlip() {
+        CuboidClipboard clipboard = createClipboard();
+        SignBlock sign = new SignBlock(BlockID.SIGN_POST, 0, new String[] { "a", "b", "c", "d" });
+        clipboard.setBlock(new Vector(0, 1, 0), sign);
+
+        clipboard.flip(FlipDirection.WEST_EAST);
+        for (int x = 0; x < 2; ++x) {
+            for (int z = 0; z < 3; ++z) {
+                assertEquals(cellData(x, 0, z), clipboard.getBlockData(x, 0, 2 - z));
+            }
+        }
+        assertSame(sign, clipboard.getPoint(new Vector(0, 1, 2)));
+        assertEquals(1, clipboard.getTileEntityBlocks().size());
+
+        clipboard.flip(FlipDirection.UP_DOWN);
+        assertSame(sign, clipboard.getPoint(new Vector(0, 0, 2)));
+        assertEquals(cellData(1, 1, 1), clipboard.getBlockData(1, 0, 1));
+    }
+
+    @Test
+    public void testTransform() {
+        CuboidClipboard[] clipboards = new CuboidClipboard[2];
+        for (int i = 0; i < clipboards.length; ++i) {
+            clipboards[i] = new CuboidClipboard(new Vector(4, 3, 7), new Vector(), new Vector(-2, 1, -5));
+            Random random = new Random(11);
+            for (int index = 0; index < clipboards[i].getBlockCount(); ++index) {
+                clipboards[i].setBlock(index, random.nextBoolean() ? BlockID.TORCH : BlockID.WOODEN_STAIRS, random.nextInt(16));
+            }
+            clipboards[i].setBlock(new Vector(3, 2, 1), new SignBlock(BlockID.SIGN_POST, 5, new String[] { "a", "b", "c", "d" }));
+        }
+
+        CuboidClipboard stepwise = clipboards[0];
+        stepwise.rotate2D(90);
+        stepwise.flip(FlipDirection.NORTH_SOUTH, true);
+        stepwise.rotate2D(-180);
+        stepwise.flip(FlipDirection.UP_DOWN, true);
+        stepwise.rotate2D(45);
+        stepwise.flip(FlipDirection.WEST_EAST);
+
+        CuboidClipboard composed = clipboards[1];
+        composed.transform(new ClipboardTransform().rotate2D(90).flip(FlipDirection.NORTH_SOUTH, true)
+                .rotate2D(-180).flip(FlipDirection.UP_DOWN, true).rotate2D(45).flip(FlipDirection.WEST_EAST));
+
+        assertEquals(new Vector(7, 3, 4), composed.getSize());
+        assertEquals(stepwise.getSize(), composed.getSize());
+        assertEquals(stepwise.getOffset(), composed.getOffset());
+        for (int index = 0; index < stepwise.getBlockCount(); ++index) {
+            assertEquals(stepwise.getBlockType(index), composed.getBlockType(index));
+            assertEquals(stepwise.getBlockData(index), composed.getBlockData(index));
+        }
+        assertEquals(stepwise.getTileEntityBlocks(), composed.getTileEntityBlocks());
+        assertEquals(1, composed.getTileEntityBlocks().size());
+    }
+
+    @Test
+    public void testLazyCopy() throws MaxChangedBlocksException {
+        MemoryWorld world = new MemoryWorld();
+        Random random = new Random(3);
+        for (int x = -8; x < 24; ++x) {
+            for (int y = 0; y < 8; ++y) {
+                for (int z = 4; z < 36; ++z) {
+                    world.set(x, y, z, random.nextInt(3), random.nextInt(4));
+                }
+            }
+        }
+        EditSession editSession = new EditSession(world, -1);
+        SignBlock sign = new SignBlock(BlockID.SIGN_POST, 5, new String[] { "a", "b", "c", "d" });
+        editSession.setBlock(new Vector(17, 3, 20), sign);
+
+        Vector size = new Vector(24, 6, 20);
+        Vector origin = new Vector(-5, -1, 10);
+        CuboidClipboard eager = new CuboidClipboard(size, origin);
+        eager.copy(editSession);
+        CuboidClipboard lazy = new CuboidClipboard(size, origin);
+        lazy.copy(editSession, true);
+
+        // Pasting over the copied region changes it before the copy is read
+        lazy.place(new EditSession(world, -1), new Vector(1, 0, 12), false);
+        for (int index = 0; index < eager.getBlockCount(); ++index) {
+            assertEquals(eager.getBlockType(index), lazy.getBlockType(index));
+            assertEquals(eager.getBlockData(index), lazy.getBlockData(index));
+        }
+        assertEquals(1, lazy.getTileEntityBlocks().size());
+        assertEquals(sign, lazy.getPoint(new Vector(22, 4, 10)));
+
+        MemoryWorld expected = new MemoryWorld();
+        eager.place(new EditSession(expected, -1), new Vector(1, 0, 12), false);
+        MemoryWorld skipped = new MemoryWorld();
+        lazy.place(new EditSession(skipped, -1), new Vector(1, 0, 12), true);
+        for (int x = 1; x < 25; ++x) {
+            for (int y = 0; y < 6; ++y) {
+                for (int z = 12; z < 32; ++z) {
+                    assertEquals(expected.getBlockType(x, y, z), world.getBlockType(x, y, z));
+                    if (expected.getBlockType(x, y, z) != BlockID.AIR) {
+                        // Setting air keeps the old data value in a memory world
+                        assertEquals(expected.getBlockData(x, y, z), world.getBlockData(x, y, z));
+                    }
+                    assertEquals(expected.getBlockType(x, y, z), skipped.getBlockType(x, y, z));
+                }
+            }
+        }
+        assertEquals(sign, world.getBlock(new Vector(23, 4, 22)));
+        assertTrue(skipped.getChunkCount() > 0);
+    }
+
+    @Test
+    public void testLazyCopyListeners() throws MaxChangedBlocksException {
+        MemoryWorld world = new MemoryWorld();
+        MemoryWorld other = new MemoryWorld();
+        world.set(3, 64, 3, BlockID.STONE, 0);
+        world.set(20, 64, 3, BlockID.STONE, 0);
+
+        CuboidClipboard clipboard = new CuboidClipboard(new Vector(24, 1, 8), new Vector(0, 64, 0));
+        clipboard.copy(new EditSession(world, -1), true);
+
+        // Writes to another world leave the copy alone, so a column that was
+        // not read yet still sees changes made to the world in other ways
+        new EditSession(other, -1).setBlock(new Vector(3, 64, 3), new BaseBlock(BlockID.GLASS));
+        world.set(3, 64, 3, BlockID.DIRT, 0);
+        assertEquals(BlockID.DIRT, clipboard.getBlockType(3, 0, 3));
+
+        // Writes to its own world read the column first
+        new EditSession(world, -1).setBlock(new Vector(20, 64, 3), new BaseBlock(BlockID.GLASS));
+        assertEquals(BlockID.STONE, clipboard.getBlockType(20, 0, 3));
+
+        // Placing goes through the queue, but leaves the session as it was
+        EditSession editSession = new EditSession(other, -1);
+        clipboard.place(editSession, new Vector(0, 10, 0), true);
+        assertFalse(editSession.isQueueEnabled());
+        assertFalse(editSession.isReadCacheEnabled());
+        assertEquals(BlockID.DIRT, other.getBlockType(3, 10, 3));
+        assertEquals(BlockID.STONE, other.getBlockType(20, 10, 3));
+        assertEquals(2, editSession.size());
+
+        editSession.undo(new EditSession(other, -1));
+        assertEquals(BlockID.AIR, other.getBlockType(20, 10, 3));
+    }
+
+    @Test
+    public void testConcurrentLazyReads() throws Exception {
+        final MemoryWorld world = new MemoryWorld();
+        Random random = new Random(3);
+        for (int x = 0; x < 64; ++x) {
+            for (int z = 0; z < 64; ++z) {
+                world.set(x, 70, z, random.nextInt(4), random.nextInt(16));
+            }
+        }
+
+        final CuboidClipboard eager = new CuboidClipboard(new Vector(64, 1, 64), new Vector(0, 70, 0));
+        eager.copy(new EditSession(world, -1));
+        final CuboidClipboard lazy = new CuboidClipboard(new Vector(64, 1, 64), new Vector(0, 70, 0));
+        lazy.copy(new EditSession(world, -1), true);
+
+        // Every column is read exactly once, whichever thread gets to it first
+        final Throwable[] failure = new Throwable[1];
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; ++i) {
+            final int start = i * 16;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int n = 0; n < 64; ++n) {
+                            int x = (start + n) % 64;
+                            for (int z = 0; z < 64; ++z) {
+                                assertEquals(eager.getBlockType(x, 0, z), lazy.getBlockType(x, 0, z));
+                                assertEquals(eager.getBlockData(x, 0, z), lazy.getBlockData(x, 0, z));
+                            }
+                        }
+                    } catch (Throwable t) {
+                        failure[0] = t;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        new EditSession(world, -1).setBlocks(new CuboidRegion(new Vector(0, 70, 0), new Vector(63, 70, 63)),
+                new BaseBlock(BlockID.GLASS));
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        if (failure[0] != null) {
+            throw new AssertionError(failure[0]);
+        }
+    }
+
+    private static CuboidClipboard createClipboard() {
+        CuboidClipboard clipboard = new CuboidClipboard(new Vector(2, 2, 3));
+        for (int x = 0; x < 2; ++x) {
+            for (int y = 0; y < 2; ++y) {
+                for (int z = 0; z < 3; ++z) {
+                    clipboard.setBlock(new Vector(x, y, z), new BaseBlock(BlockID.CLOTH, cellData(x, y, z)));
+                }
+            }
+        }
+        return clipboard;
+    }
+
+    private static int cellData(int x, int y, int z) {
+        return x + y * 2 + z * 4;
+    }
+}
@@ -0,0 +1,142 @@
+package com.sk89q.worldedit;
+
+import java.awt.image.Kernel;
+import java.util.Random;
+
+import org.junit.*;
+
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.filtering.GaussianKernel;
+import com.sk89q.worldedit.filtering.HeightMapFilter;
+import com.sk89q.worldedit.filtering.LinearKernel;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.regions.Region;
+
+import static org.junit.Assert.*;
+
+public class HeightMapTest {
+    private static final int SIZE = 40;
+
+    private MemoryWorld world;
+    private Region region;
+
+    @Before
+    public void setUp() {
+        world = createTerrain();
+        region = new CuboidRegion(new Vector(-3, 1, -5), new Vector(SIZE + 2, 30, SIZE - 4));
+    }
+
+    private static MemoryWorld createTerrain() {
+        MemoryWorld world = new MemoryWorld();
+        Random random = new Random(7);
+        for (int x = 0; x < SIZE; ++x) {
+            for (int z = 0; z < SIZE; ++z) {
+                int top = 2 + random.nextInt(20);
+                for (int y = 0; y < top; ++y) {
+                    world.set(x, y, z, y == top - 1 ? BlockID.GRASS : BlockID.STONE, 0);
+                }
+                if (random.nextInt(4) == 0) {
+                    world.set(x, top, z, BlockID.LONG_GRASS, 0);
+                }
+                if (random.nextInt(8) == 0) {
+                    world.set(x, top + 3, z, BlockID.WOOD, 0);
+                }
+            }
+        }
+        return world;
+    }
+
+    @Test
+    public void testHeights() throws MaxChangedBlocksException {
+        for (boolean naturalOnly : new boolean[] { false, true }) {
+            EditSession editSession = new EditSession(world, -1);
+            int width = region.getWidth();
+            int[] heights = new int[width * region.getLength()];
+            for (int i = 0; i < heights.length; ++i) {
+                heights[i] = editSession.getHighestTerrainBlock(i % width - 3, i / width - 5, 1, 30, naturalOnly);
+            }
+
+            // Applying the heights a heightmap has found leaves the world alone
+            assertEquals(0, new HeightMap(editSession, region, naturalOnly).apply(heights));
+            assertEquals(0, editSession.size());
+        }
+    }
+
+    @Test
+    public void testSmoothUndo() throws MaxChangedBlocksException {
+        MemoryWorld original = createTerrain();
+        EditSession editSession = new EditSession(world, -1);
+        editSession.enableQueue();
+        int affected = new HeightMap(editSession, region).applyFilter(new HeightMapFilter(new GaussianKernel(5, 1.0)), 2);
+        editSession.flushQueue();
+        assertTrue(affected > 0);
+        assertEquals(affected, editSession.size());
+        assertFalse(isSameTerrain(original, world));
+
+        editSession.undo(new EditSession(world, -1));
+        assertTrue(isSameTerrain(original, world));
+    }
+
+    @Test
+    public void testFilterLikeKernel() {
+        Random random = new Random(3);
+        int width = 37;
+        int height = 23;
+        int[] data = new int[width * height];
+        for (int i = 0; i < data.length; ++i) {
+            data[i] = random.nextInt(128);
+        }
+
+        Kernel[] kernels = {
+                new GaussianKernel(5, 1.0),
+                new LinearKernel(2),
+                new Kernel(3, 3, new float[] { 0, 0.25f, 0, 0.25f, 0, 0.25f, 0, 0.25f, 0 }),
+        };
+        boolean[] separable = { true, true, false };
+
+        for (int i = 0; i < kernels.length; ++i) {
+            HeightMapFilter filter = new HeightMapFilter(kernels[i]);
+            assertEquals(separable[i], filter.isSeparable());
+            assertArrayEquals(convolve(kernels[i], data, width, height), filter.filter(data, width, height));
+        }
+    }
+
+    private static boolean isSameTerrain(MemoryWorld expected, MemoryWorld actual) {
+        for (int x = -5; x < SIZE + 5; ++x) {
+            for (int y = 0; y < 32; ++y) {
+                for (int z = -5; z < SIZE + 5; ++z) {
+                    if (expected.getBlockType(x, y, z) != actual.getBlockType(x, y, z)
+                            || expected.getBlockData(x, y, z) != actual.getBlockData(x, y, z)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private static int[] convolve(Kernel kernel, int[] data, int width, int height) {
+        float[] matrix = kernel.getKernelData(null);
+        int[] result = new int[data.length];
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                double sum = 0;
+                for (int ky = 0; ky < kernel.getHeight(); ++ky) {
+                    int offsetY = y + ky - kernel.getYOrigin();
+                    if (offsetY < 0 || offsetY >= height) {
+                        offsetY = y;
+                    }
+                    for (int kx = 0; kx < kernel.getWidth(); ++kx) {
+                        int offsetX = x + kx - kernel.getXOrigin();
+                        if (offsetX < 0 || offsetX >= width) {
+                            offsetX = x;
+                        }
+                        sum += matrix[ky * kernel.getWidth() + kx] * data[offsetY * width + offsetX];
+                    }
+                }
+                result[y * width + x] = (int) (sum + 0.5);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,166 @@
+package com.sk89q.worldedit;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.*;
+
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.blocks.SignBlock;
+import com.sk89q.worldedit.operations.EditSessionJob;
+import com.sk89q.worldedit.operations.SetBlocksOperation;
+import com.sk89q.worldedit.patterns.SingleBlockPattern;
+import com.sk89q.worldedit.regions.CuboidRegion;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class HistoryStoreTest {
+    private File directory;
+    private MemoryWorld world;
+    private List<LocalWorld> worlds;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("history", "");
+        directory.delete();
+        world = new MemoryWorld();
+        worlds = Arrays.<LocalWorld>asList(world);
+    }
+
+    @After
+    public void tearDown() {
+        delete(directory);
+    }
+
+    @Test
+    public void testSerialization() throws IOException {
+        BlockChangeLog log = new BlockChangeLog();
+        log.add(-30000000, 0, 30000000, new BaseBlock(BlockID.STONE));
+        log.add(5, 255, -5, new SignBlock(BlockID.SIGN_POST, 3, new String[] { "a", "b", "c", "d" }));
+        log.add(6, 64, -5, new BaseBlock(BlockID.CLOTH, 14));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        log.write(new DataOutputStream(bytes));
+        BlockChangeLog read = BlockChangeLog.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertEquals(log.size(), read.size());
+        BlockChangeLog.Cursor expected = log.forwardCursor();
+        BlockChangeLog.Cursor actual = read.forwardCursor();
+        while (expected.next()) {
+            assertTrue(actual.next());
+            assertEquals(expected.getPosition(), actual.getPosition());
+            assertEquals(expected.getBlock(), actual.getBlock());
+            assertEquals(expected.hasTileEntity(), actual.hasTileEntity());
+        }
+        assertFalse(actual.next());
+
+        BlockChangeLog.Cursor sign = read.forwardCursor();
+        sign.seek(1);
+        assertArrayEquals(new String[] { "a", "b", "c", "d" }, ((SignBlock) sign.getBlock()).getText());
+    }
+
+    @Test
+    public void testPaging() throws WorldEditException {
+        HistoryStore store = new HistoryStore(directory, 10, -1, false);
+        LocalSession session = new LocalSession(null);
+        store.attach(session, "player", worlds);
+
+        for (int i = 0; i < 3; ++i) {
+            EditSession editSession = new EditSession(world, -1);
+            for (int x = 0; x < 8; ++x) {
+                editSession.setBlock(new Vector(x, i, 0), new BaseBlock(BlockID.STONE));
+            }
+            session.remember(editSession);
+        }
+        assertEquals(8, store.getResidentSize());
+
+        for (int i = 2; i >= 0; --i) {
+            assertNotNull(session.undo(null));
+            assertEquals(BlockID.AIR, world.getBlockType(7, i, 0));
+            assertTrue(store.getResidentSize() <= 10);
+        }
+        assertNotNull(session.redo(null));
+        assertEquals(BlockID.STONE, world.getBlockType(7, 0, 0));
+
+        session.closeHistory();
+        assertFalse(directory.exists() && directory.list().length > 0);
+    }
+
+    @Test
+    public void testIncrementalJob() throws WorldEditException {
+        HistoryStore store = new HistoryStore(directory, 10, -1, false);
+        LocalSession session = new LocalSession(null);
+        store.attach(session, "player", worlds);
+
+        EditSession before = new EditSession(world, -1);
+        before.setBlock(new Vector(0, 10, 0), new BaseBlock(BlockID.DIRT));
+        session.remember(before);
+
+        WorldEdit we = mock(WorldEdit.class);
+        when(we.getConfiguration()).thenReturn(mock(LocalConfiguration.class));
+        EditSession editSession = new EditSession(world, -1);
+        editSession.enableQueue();
+        EditSessionJob job = new EditSessionJob(we, mock(LocalPlayer.class), session, editSession,
+                new SetBlocksOperation(new CuboidRegion(new Vector(0, 0, 0), new Vector(7, 0, 7)),
+                        new SingleBlockPattern(new BaseBlock(BlockID.STONE))), "blocks changed.");
+        session.startJob(job);
+        while (!job.isDone()) {
+            job.run();
+        }
+
+        // The finished job is counted with its full size
+        assertEquals(64, store.getResidentSize());
+        assertTrue(before.isPagedOut());
+
+        EditSession after = new EditSession(world, -1);
+        after.setBlock(new Vector(0, 11, 0), new BaseBlock(BlockID.DIRT));
+        session.remember(after);
+        assertEquals(1, store.getResidentSize());
+        assertTrue(editSession.isPagedOut());
+
+        for (int i = 0; i < 3; ++i) {
+            assertNotNull(session.undo(null));
+            assertTrue(store.getResidentSize() >= 0);
+        }
+        assertEquals(BlockID.AIR, world.getBlockType(7, 0, 7));
+        assertEquals(BlockID.AIR, world.getBlockType(0, 10, 0));
+    }
+
+    @Test
+    public void testPersistence() throws WorldEditException {
+        HistoryStore store = new HistoryStore(directory, -1, -1, true);
+        LocalSession session = new LocalSession(null);
+        store.attach(session, "player", worlds);
+
+        EditSession editSession = new EditSession(world, -1);
+        editSession.setBlock(new Vector(1, 2, 3), new BaseBlock(BlockID.GLASS));
+        session.remember(editSession);
+        session.closeHistory();
+
+        LocalSession restored = new LocalSession(null);
+        store.attach(restored, "player", worlds);
+        assertNotNull(restored.undo(null));
+        assertEquals(BlockID.AIR, world.getBlockType(1, 2, 3));
+        assertNull(restored.undo(null));
+        assertNotNull(restored.redo(null));
+        assertEquals(BlockID.GLASS, world.getBlockType(1, 2, 3));
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
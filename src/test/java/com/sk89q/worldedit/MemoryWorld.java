@@ -0,0 +1,338 @@
+package com.sk89q.worldedit;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.IntTag;
+import com.sk89q.jnbt.StringTag;
+import com.sk89q.jnbt.Tag;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BaseItemStack;
+import com.sk89q.worldedit.data.DataException;
+import com.sk89q.worldedit.regions.Region;
+
+/**
+ * A world that only exists in memory, for running edit sessions without a
+ * server. Blocks are stored per chunk in 16x16x16 sections of packed type
+ * and data values; sections that were never written to are not allocated.
+ * Tile entity data and biomes are kept as well, but there is no lighting,
+ * physics or entities.
+ */
+public class MemoryWorld extends LocalWorld {
+    private final String name;
+    private final int maxY;
+    private final Map<Long, Chunk> chunks = new HashMap<Long, Chunk>();
+    private Chunk lastChunk;
+
+    public MemoryWorld() {
+        this("memory", 255);
+    }
+
+    /**
+     * Create a world.
+     *
+     * @param name
+     * @param maxY the highest Y coordinate blocks can be placed at
+     */
+    public MemoryWorld(String name, int maxY) {
+        this.name = name;
+        this.maxY = maxY;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public int getMaxY() {
+        return maxY;
+    }
+
+    /**
+     * Get the number of chunks that have been written to.
+     *
+     * @return
+     */
+    public int getChunkCount() {
+        return chunks.size();
+    }
+
+    /**
+     * Remove all blocks, tile entities and biomes.
+     */
+    public void clear() {
+        chunks.clear();
+        lastChunk = null;
+    }
+
+    @Override
+    public int getBlockType(int x, int y, int z) {
+        return get(x, y, z) >> 4;
+    }
+
+    @Override
+    public int getBlockData(int x, int y, int z) {
+        return get(x, y, z) & 0xF;
+    }
+
+    /**
+     * Set the type and data of a block without any checks. Placing a block
+     * removes the tile entity data that was stored for it.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @param type
+     * @param data
+     * @return whether the block was inside the world
+     */
+    public boolean set(int x, int y, int z, int type, int data) {
+        if (y < 0 || y > maxY) {
+            return false;
+        }
+
+        Chunk chunk = getChunk(x >> 4, z >> 4, true);
+        chunk.set(x & 0xF, y, z & 0xF, (char) ((type << 4) | (data & 0xF)));
+        return true;
+    }
+
+    private char get(int x, int y, int z) {
+        if (y < 0 || y > maxY) {
+            return 0;
+        }
+
+        Chunk chunk = getChunk(x >> 4, z >> 4, false);
+        return chunk == null ? 0 : chunk.get(x & 0xF, y, z & 0xF);
+    }
+
+    private Chunk getChunk(int chunkX, int chunkZ, boolean create) {
+        Chunk chunk = lastChunk;
+        if (chunk != null && chunk.x == chunkX && chunk.z == chunkZ) {
+            return chunk;
+        }
+
+        Long key = ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+        chunk = chunks.get(key);
+        if (chunk == null) {
+            if (!create) {
+                return null;
+            }
+            chunk = new Chunk(chunkX, chunkZ, (maxY >> 4) + 1);
+            chunks.put(key, chunk);
+        }
+
+        return lastChunk = chunk;
+    }
+
+    @Override
+    public boolean setBlockType(Vector pt, int type) {
+        int x = pt.getBlockX(), y = pt.getBlockY(), z = pt.getBlockZ();
+        return set(x, y, z, type, getBlockData(x, y, z));
+    }
+
+    @Override
+    public boolean setBlockTypeFast(Vector pt, int type) {
+        return setBlockType(pt, type);
+    }
+
+    @Override
+    public int getBlockType(Vector pt) {
+        return getBlockType(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ());
+    }
+
+    @Override
+    public void setBlockData(Vector pt, int data) {
+        int x = pt.getBlockX(), y = pt.getBlockY(), z = pt.getBlockZ();
+        if (y < 0 || y > maxY) {
+            return;
+        }
+
+        // Changing the data value keeps the tile entity
+        Chunk chunk = getChunk(x >> 4, z >> 4, true);
+        char block = chunk.get(x & 0xF, y, z & 0xF);
+        chunk.setKeepTileEntity(x & 0xF, y, z & 0xF, (char) ((block & ~0xF) | (data & 0xF)));
+    }
+
+    @Override
+    public void setBlockDataFast(Vector pt, int data) {
+        setBlockData(pt, data);
+    }
+
+    @Override
+    public boolean setTypeIdAndData(Vector pt, int type, int data) {
+        return set(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ(), type, data);
+    }
+
+    @Override
+    public boolean setTypeIdAndDataFast(Vector pt, int type, int data) {
+        return setTypeIdAndData(pt, type, data);
+    }
+
+    @Override
+    public int setBlocks(ChunkSectionBatch batch, boolean notifyAdjacent) {
+        int changed = 0;
+        for (int i = 0; i < batch.size(); ++i) {
+            if (set(batch.getBlockX(i), batch.getBlockY(i), batch.getBlockZ(i), batch.getType(i), batch.getData(i))) {
+                ++changed;
+            }
+        }
+        return changed;
+    }
+
+    @Override
+    public void getBlocks(int chunkX, int sectionY, int chunkZ, char[] blocks) {
+        Chunk chunk = getChunk(chunkX, chunkZ, false);
+        char[] section = null;
+        if (chunk != null && sectionY >= 0 && sectionY < chunk.sections.length) {
+            section = chunk.sections[sectionY];
+        }
+
+        if (section == null) {
+            Arrays.fill(blocks, 0, 4096, (char) 0);
+        } else {
+            System.arraycopy(section, 0, blocks, 0, 4096);
+        }
+    }
+
+    @Override
+    public int getBlockData(Vector pt) {
+        return getBlockData(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ());
+    }
+
+    @Override
+    public BiomeType getBiome(Vector2D pt) {
+        Chunk chunk = getChunk(pt.getBlockX() >> 4, pt.getBlockZ() >> 4, false);
+        if (chunk == null) {
+            return BiomeType.UNKNOWN;
+        }
+
+        BiomeType biome = chunk.biomes[((pt.getBlockZ() & 0xF) << 4) | (pt.getBlockX() & 0xF)];
+        return biome == null ? BiomeType.UNKNOWN : biome;
+    }
+
+    @Override
+    public void setBiome(Vector2D pt, BiomeType biome) {
+        Chunk chunk = getChunk(pt.getBlockX() >> 4, pt.getBlockZ() >> 4, true);
+        chunk.biomes[((pt.getBlockZ() & 0xF) << 4) | (pt.getBlockX() & 0xF)] = biome;
+    }
+
+    @Override
+    public int getBlockLightLevel(Vector pt) {
+        return 15;
+    }
+
+    @Override
+    public boolean regenerate(Region region, EditSession editSession) {
+        return false;
+    }
+
+    @Override
+    public boolean copyToWorld(Vector pt, BaseBlock block) {
+        int x = pt.getBlockX(), y = pt.getBlockY(), z = pt.getBlockZ();
+        if (y < 0 || y > maxY || !block.hasNbtData()) {
+            return false;
+        }
+
+        // Blocks expect the tile entity ID to be in the tag when reading it
+        CompoundTag tag = block.getNbtData();
+        Map<String, Tag> values = new HashMap<String, Tag>(tag.getValue());
+        values.put("id", new StringTag("id", block.getNbtId()));
+        values.put("x", new IntTag("x", x));
+        values.put("y", new IntTag("y", y));
+        values.put("z", new IntTag("z", z));
+
+        getChunk(x >> 4, z >> 4, true).tileEntities.put(Chunk.index(x & 0xF, y, z & 0xF), new CompoundTag(tag.getName(), values));
+        return true;
+    }
+
+    @Override
+    public boolean copyFromWorld(Vector pt, BaseBlock block) {
+        int x = pt.getBlockX(), y = pt.getBlockY(), z = pt.getBlockZ();
+        Chunk chunk = getChunk(x >> 4, z >> 4, false);
+        if (chunk == null) {
+            return false;
+        }
+
+        CompoundTag tag = chunk.tileEntities.get(Chunk.index(x & 0xF, y, z & 0xF));
+        if (tag == null) {
+            return false;
+        }
+
+        try {
+            block.setNbtData(tag);
+        } catch (DataException e) {
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean clearContainerBlockContents(Vector pt) {
+        int x = pt.getBlockX(), y = pt.getBlockY(), z = pt.getBlockZ();
+        Chunk chunk = getChunk(x >> 4, z >> 4, false);
+        return chunk != null && chunk.tileEntities.remove(Chunk.index(x & 0xF, y, z & 0xF)) != null;
+    }
+
+    @Override
+    public void dropItem(Vector pt, BaseItemStack item) {
+    }
+
+    @Override
+    public int removeEntities(EntityType type, Vector origin, int radius) {
+        return 0;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other == this;
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(this);
+    }
+
+    private static class Chunk {
+        private final int x;
+        private final int z;
+        private final char[][] sections;
+        private final BiomeType[] biomes = new BiomeType[256];
+        private final Map<Integer, CompoundTag> tileEntities = new HashMap<Integer, CompoundTag>();
+
+        private Chunk(int x, int z, int sectionCount) {
+            this.x = x;
+            this.z = z;
+            this.sections = new char[sectionCount][];
+        }
+
+        private static int index(int x, int y, int z) {
+            return (y << 8) | (z << 4) | x;
+        }
+
+        private char get(int x, int y, int z) {
+            char[] section = sections[y >> 4];
+            return section == null ? 0 : section[index(x, y & 0xF, z)];
+        }
+
+        private void set(int x, int y, int z, char block) {
+            setKeepTileEntity(x, y, z, block);
+            if (!tileEntities.isEmpty()) {
+                tileEntities.remove(index(x, y, z));
+            }
+        }
+
+        private void setKeepTileEntity(int x, int y, int z, char block) {
+            char[] section = sections[y >> 4];
+            if (section == null) {
+                if (block == 0) {
+                    return;
+                }
+                section = sections[y >> 4] = new char[4096];
+            }
+            section[index(x, y & 0xF, z)] = block;
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package com.sk89q.worldedit;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.*;
+
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.blocks.SignBlock;
+import com.sk89q.worldedit.operations.CountBlocksOperation;
+import com.sk89q.worldedit.patterns.ClipboardPattern;
+import com.sk89q.worldedit.patterns.SingleBlockPattern;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.regions.EllipsoidRegion;
+import com.sk89q.worldedit.regions.Region;
+
+import static org.junit.Assert.*;
+
+public class MemoryWorldTest {
+    @Test
+    public void testBlocks() {
+        MemoryWorld world = new MemoryWorld("test", 127);
+        assertEquals(0, world.getBlockType(new Vector(-5, 64, 1000)));
+
+        assertTrue(world.setTypeIdAndData(new Vector(-5, 64, 1000), BlockID.CLOTH, 14));
+        assertEquals(BlockID.CLOTH, world.getBlockType(new Vector(-5, 64, 1000)));
+        assertEquals(14, world.getBlockData(new Vector(-5, 64, 1000)));
+        assertEquals(1, world.getChunkCount());
+
+        // Outside of the height limit
+        assertFalse(world.setBlockType(new Vector(0, 128, 0), BlockID.STONE));
+        assertFalse(world.setBlockType(new Vector(0, -1, 0), BlockID.STONE));
+        assertEquals(0, world.getBlockType(new Vector(0, 128, 0)));
+    }
+
+    @Test
+    public void testEditSession() throws MaxChangedBlocksException {
+        MemoryWorld world = new MemoryWorld();
+        world.set(1, 1, 1, BlockID.DIRT, 0);
+
+        EditSession editSession = new EditSession(world, -1);
+        assertEquals(27, editSession.setBlocks(new CuboidRegion(new Vector(0, 0, 0), new Vector(2, 2, 2)), new BaseBlock(BlockID.STONE)));
+        assertEquals(BlockID.STONE, world.getBlockType(1, 1, 1));
+        assertEquals(BlockID.STONE, world.getBlockType(2, 2, 2));
+
+        editSession.undo(new EditSession(world, -1));
+        assertEquals(BlockID.DIRT, world.getBlockType(1, 1, 1));
+        assertEquals(0, world.getBlockType(2, 2, 2));
+    }
+
+    @Test
+    public void testTileEntitiesAndBiomes() throws MaxChangedBlocksException {
+        MemoryWorld world = new MemoryWorld();
+        EditSession editSession = new EditSession(world, -1);
+        editSession.setBlock(new Vector(3, 70, 3), new SignBlock(BlockID.SIGN_POST, 4, new String[] { "a", "b", "c", "d" }));
+
+        BaseBlock block = editSession.getBlock(new Vector(3, 70, 3));
+        assertTrue(block instanceof SignBlock);
+        assertEquals("c", ((SignBlock) block).getText()[2]);
+
+        world.setBlockData(new Vector(3, 70, 3), 8);
+        assertEquals("c", ((SignBlock) editSession.getBlock(new Vector(3, 70, 3))).getText()[2]);
+
+        world.setBlockType(new Vector(3, 70, 3), BlockID.STONE);
+        assertFalse(world.copyFromWorld(new Vector(3, 70, 3), new SignBlock(BlockID.SIGN_POST, 0)));
+
+        assertEquals(BiomeType.UNKNOWN, world.getBiome(new Vector2D(3, 3)));
+        world.setBiome(new Vector2D(3, 3), TestBiome.TEST);
+        assertEquals(TestBiome.TEST, world.getBiome(new Vector2D(3, 3)));
+        assertEquals(BiomeType.UNKNOWN, world.getBiome(new Vector2D(4, 3)));
+    }
+
+    @Test
+    public void testBlockDistribution() {
+        MemoryWorld world = new MemoryWorld("test", 127);
+        Random random = new Random(7);
+        int[] expected = new int[4];
+        for (int x = -10; x < 40; ++x) {
+            for (int y = 100; y < 128; ++y) {
+                for (int z = -30; z < 10; ++z) {
+                    int type = random.nextInt(4);
+                    world.set(x, y, z, type, 0);
+                    ++expected[type];
+                }
+            }
+        }
+
+        // Large enough to be counted in parallel, and reaching above the world
+        EditSession editSession = new EditSession(world, -1);
+        Region region = new CuboidRegion(new Vector(-10, 100, -30), new Vector(39, 140, 9));
+        expected[BlockID.AIR] += 50 * 13 * 40;
+        assertEquals(expected[BlockID.STONE] + expected[BlockID.DIRT],
+                editSession.countBlocks(region, new HashSet<Integer>(Arrays.asList(BlockID.STONE, BlockID.DIRT))));
+
+        List<Countable<Integer>> distribution = editSession.getBlockDistribution(region);
+        assertEquals(4, distribution.size());
+        for (Countable<Integer> countable : distribution) {
+            assertEquals(expected[countable.getID()], countable.getAmount());
+        }
+
+        // Non-cuboid regions count the same as when walked block by block
+        Region ellipsoid = new EllipsoidRegion(world, new Vector(15, 110, -10), new Vector(25, 20, 20));
+        int stone = 0;
+        for (BlockVector pt : ellipsoid) {
+            if (world.getBlockType(pt) == BlockID.STONE) {
+                ++stone;
+            }
+        }
+        assertTrue(ellipsoid.getArea() >= 32768);
+        assertEquals(stone, editSession.countBlocks(ellipsoid, Collections.singleton(BlockID.STONE)));
+
+        // The incremental count runs a step per chunk column
+        final int[][] result = new int[1][];
+        CountBlocksOperation operation = new CountBlocksOperation(region) {
+            @Override
+            protected void done(int[] histogram) {
+                result[0] = histogram;
+            }
+        };
+        assertEquals(4 * 3, operation.getStepCount());
+        for (int step = 0; step < operation.getStepCount(); ++step) {
+            assertNull(result[0]);
+            operation.runStep(editSession, step);
+        }
+        for (int type = 0; type < expected.length; ++type) {
+            assertEquals(expected[type], result[0][type]);
+        }
+    }
+
+    @Test
+    public void testParallelShape() throws Exception {
+        Region region = new EllipsoidRegion(null, new Vector(0, 64, 0), new Vector(20, 20, 20));
+        assertTrue(region.getArea() >= 32768);
+        String expression = "x * x + y * y + z * z < 225";
+
+        // A single block pattern is evaluated on worker threads
+        MemoryWorld parallel = new MemoryWorld();
+        int affected = new EditSession(parallel, -1).makeShape(region, new Vector(0, 64, 0), new Vector(1, 1, 1),
+                new SingleBlockPattern(new BaseBlock(BlockID.STONE)), expression, true);
+        assertTrue(affected > 0);
+
+        // A clipboard pattern reads the clipboard, so it stays on this thread
+        CuboidClipboard clipboard = new CuboidClipboard(new Vector(1, 1, 1));
+        clipboard.setBlock(new Vector(0, 0, 0), new BaseBlock(BlockID.STONE));
+        MemoryWorld sequential = new MemoryWorld();
+        assertEquals(affected, new EditSession(sequential, -1).makeShape(region, new Vector(0, 64, 0), new Vector(1, 1, 1),
+                new ClipboardPattern(clipboard), expression, true));
+
+        for (BlockVector pt : region) {
+            assertEquals(sequential.getBlockType(pt), parallel.getBlockType(pt));
+        }
+        assertEquals(BlockID.AIR, parallel.getBlockType(new Vector(0, 64, 0)));
+        assertEquals(BlockID.STONE, parallel.getBlockType(new Vector(14, 64, 0)));
+    }
+
+    @Test
+    public void testReadCache() throws MaxChangedBlocksException {
+        MemoryWorld world = new MemoryWorld();
+        world.set(-20, 64, 5, BlockID.DIRT, 3);
+
+        EditSession editSession = new EditSession(world, -1);
+        editSession.enableReadCache();
+        assertEquals(BlockID.DIRT, editSession.getBlockType(-20, 64, 5));
+        assertEquals(3, editSession.getBlockData(new Vector(-20, 64, 5)));
+        assertEquals(0, editSession.getBlockType(-20, 300, 5));
+
+        // Writes of the session are seen, other writes only after a flush
+        editSession.setBlock(new Vector(-20, 65, 5), new BaseBlock(BlockID.CLOTH, 14));
+        world.set(-20, 64, 5, BlockID.STONE, 0);
+        assertEquals(new BaseBlock(BlockID.CLOTH, 14), editSession.getBlock(new Vector(-20, 65, 5)));
+        assertEquals(BlockID.DIRT, editSession.getBlockType(-20, 64, 5));
+        editSession.flushQueue();
+        assertEquals(BlockID.STONE, editSession.getBlockType(-20, 64, 5));
+
+        // Blocks with tile entities are still read from the world
+        editSession.setBlock(new Vector(-20, 66, 5), new SignBlock(BlockID.SIGN_POST, 4, new String[] { "a", "b", "c", "d" }));
+        assertEquals("c", ((SignBlock) editSession.getBlock(new Vector(-20, 66, 5))).getText()[2]);
+    }
+
+    @Test
+    public void testBiomeUndo() throws IOException {
+        MemoryWorld world = new MemoryWorld();
+        for (int x = 0; x < 16; ++x) {
+            world.setBiome(new Vector2D(x, 8), TestBiome.PLAINS);
+        }
+
+        Region region = new EllipsoidRegion(null, new Vector(8, 64, 8), new Vector(10, 5, 6));
+        Set<Vector2D> columns = new HashSet<Vector2D>();
+        for (BlockVector pt : region) {
+            columns.add(pt.toVector2D());
+        }
+
+        EditSession editSession = new EditSession(world, -1);
+        assertEquals(columns.size(), editSession.setBiomes(region, TestBiome.TEST));
+        assertEquals(columns.size(), editSession.size());
+        assertFalse(editSession.setBiome(new Vector2D(8, 8), TestBiome.TEST));
+        assertTrue(editSession.setBiome(new Vector2D(8, 8), TestBiome.PLAINS));
+        assertEquals(columns.size(), editSession.size());
+
+        for (int x = -3; x <= 19; ++x) {
+            for (int z = 1; z <= 15; ++z) {
+                Vector2D pt = new Vector2D(x, z);
+                BiomeType expected = columns.contains(pt) && !(x == 8 && z == 8) ? TestBiome.TEST
+                        : (z == 8 && x >= 0 && x < 16 ? TestBiome.PLAINS : BiomeType.UNKNOWN);
+                assertEquals(expected, world.getBiome(pt));
+            }
+        }
+
+        // Biomes survive a trip through the journal
+        File journal = File.createTempFile("biomes", ".journal");
+        try {
+            editSession.writeJournal(journal);
+            editSession.pageOut();
+            editSession.pageIn(new TestBiomes());
+        } finally {
+            journal.delete();
+        }
+
+        editSession.undo(new EditSession(world, -1));
+        for (int x = -3; x <= 19; ++x) {
+            for (int z = 1; z <= 15; ++z) {
+                BiomeType expected = z == 8 && x >= 0 && x < 16 ? TestBiome.PLAINS : BiomeType.UNKNOWN;
+                assertEquals(expected, world.getBiome(new Vector2D(x, z)));
+            }
+        }
+
+        editSession.redo(new EditSession(world, -1));
+        assertEquals(TestBiome.TEST, world.getBiome(new Vector2D(2, 9)));
+        assertEquals(TestBiome.PLAINS, world.getBiome(new Vector2D(8, 8)));
+    }
+
+    private enum TestBiome implements BiomeType {
+        TEST,
+        PLAINS;
+
+        public String getName() {
+            return name().toLowerCase();
+        }
+    }
+
+    private static class TestBiomes implements BiomeTypes {
+        public boolean has(String name) {
+            return getOrNull(name) != null;
+        }
+
+        public BiomeType get(String name) throws UnknownBiomeTypeException {
+            BiomeType biome = getOrNull(name);
+            if (biome == null) {
+                throw new UnknownBiomeTypeException(name);
+            }
+            return biome;
+        }
+
+        private BiomeType getOrNull(String name) {
+            for (TestBiome biome : TestBiome.values()) {
+                if (biome.getName().equals(name)) {
+                    return biome;
+                }
+            }
+            return null;
+        }
+
+        public List<BiomeType> all() {
+            return Arrays.<BiomeType>asList(TestBiome.values());
+        }
+    }
+}
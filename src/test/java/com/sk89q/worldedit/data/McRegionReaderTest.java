@@ -0,0 +1,144 @@
+package com.sk89q.worldedit.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.*;
+
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.IntTag;
+import com.sk89q.jnbt.NBTOutputStream;
+import com.sk89q.jnbt.Tag;
+import com.sk89q.worldedit.BlockVector2D;
+
+import static org.junit.Assert.*;
+
+public class McRegionReaderTest {
+    @Test
+    public void testReadCompressedChunk() throws IOException, DataException {
+        // Chunk (1, 0) is stored after chunk (0, 1)
+        byte[] region = createRegion(new int[][] { { 0, 1, 2, 1 }, { 1, 0, 3, 2 } });
+        McRegionReader reader = new McRegionReader(new ByteArrayInputStream(region));
+
+        assertNull(reader.readCompressedChunk(new BlockVector2D(5, 5)));
+
+        assertTrue(reader.canRead(new BlockVector2D(0, 1)));
+        CompoundTag level = reader.readCompressedChunk(new BlockVector2D(0, 1)).getTag();
+        assertEquals(0, ((IntTag) level.getValue().get("xPos")).getValue().intValue());
+        assertEquals(1, ((IntTag) level.getValue().get("zPos")).getValue().intValue());
+
+        assertTrue(reader.canRead(new BlockVector2D(33, 32)));
+        level = reader.readCompressedChunk(new BlockVector2D(33, 32)).getTag();
+        assertEquals(1, ((IntTag) level.getValue().get("xPos")).getValue().intValue());
+
+        // The stream cannot go back to the first chunk
+        assertFalse(reader.canRead(new BlockVector2D(0, 1)));
+
+        // Missing chunks are known from the header alone
+        assertTrue(reader.canRead(new BlockVector2D(5, 5)));
+        assertNull(reader.readCompressedChunk(new BlockVector2D(5, 5)));
+    }
+
+    @Test
+    public void testMappedReader() throws IOException, DataException {
+        File file = File.createTempFile("r.0.0", ".mca");
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            out.write(createRegion(new int[][] { { 0, 1, 2, 1 }, { 1, 0, 3, 2 }, { 31, 31, 4, 2 } }));
+            out.close();
+
+            MappedMcRegionReader reader = new MappedMcRegionReader(file);
+            assertFalse(reader.hasChunk(5, 5));
+            assertNull(reader.readCompressedChunk(new BlockVector2D(5, 5)));
+
+            // Chunks can be read in any order and more than once
+            for (int[] pos : new int[][] { { 31, 31 }, { 1, 0 }, { 0, 1 }, { 31, 31 } }) {
+                CompoundTag level = reader.readCompressedChunk(new BlockVector2D(pos[0], pos[1])).getTag();
+                assertEquals(pos[0], ((IntTag) level.getValue().get("xPos")).getValue().intValue());
+                assertEquals(pos[1], ((IntTag) level.getValue().get("zPos")).getValue().intValue());
+            }
+
+            // Chunks that were read stay valid once the reader is closed
+            CompressedChunk chunk = reader.readCompressedChunk(new BlockVector2D(1, 0));
+            reader.close();
+            assertEquals(1, ((IntTag) chunk.getTag().getValue().get("xPos")).getValue().intValue());
+            assertFalse(reader.hasChunk(1, 0));
+            try {
+                reader.readCompressedChunk(new BlockVector2D(1, 0));
+                fail("Error expected");
+            } catch (IOException e) {}
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Create a region file holding a chunk in one sector each.
+     *
+     * @param chunks x, z, sector and compression version of each chunk
+     */
+    private byte[] createRegion(int[][] chunks) throws IOException {
+        int sectors = 2;
+        for (int[] chunk : chunks) {
+            sectors = Math.max(sectors, chunk[2] + 1);
+        }
+
+        byte[] region = new byte[sectors * 4096];
+        for (int[] chunk : chunks) {
+            int offset = (chunk[2] << 8) | 1;
+            int index = 4 * (chunk[0] + chunk[1] * 32);
+            region[index] = (byte) (offset >> 24);
+            region[index + 1] = (byte) (offset >> 16);
+            region[index + 2] = (byte) (offset >> 8);
+            region[index + 3] = (byte) offset;
+
+            byte[] data = createChunk(chunk[0], chunk[1]);
+            if (chunk[3] == 2) {
+                data = deflate(new GZIPInputStream(new ByteArrayInputStream(data)));
+            }
+            ByteArrayOutputStream sector = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(sector);
+            out.writeInt(data.length + 1);
+            out.writeByte(chunk[3]);
+            out.write(data);
+            System.arraycopy(sector.toByteArray(), 0, region, chunk[2] * 4096, sector.size());
+        }
+
+        return region;
+    }
+
+    private byte[] deflate(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DeflaterOutputStream out = new DeflaterOutputStream(bytes);
+        int b;
+        while ((b = in.read()) != -1) {
+            out.write(b);
+        }
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private byte[] createChunk(int x, int z) throws IOException {
+        Map<String, Tag> level = new HashMap<String, Tag>();
+        level.put("xPos", new IntTag("xPos", x));
+        level.put("zPos", new IntTag("zPos", z));
+        Map<String, Tag> root = new HashMap<String, Tag>();
+        root.put("Level", new CompoundTag("Level", level));
+
+        // NBTOutputStream always compresses with GZIP
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        NBTOutputStream nbt = new NBTOutputStream(bytes);
+        nbt.writeTag(new CompoundTag("", root));
+        nbt.close();
+        return bytes.toByteArray();
+    }
+}
@@ -110,6 +110,62 @@ public void testSwitch() throws ExpressionException {
         assertEquals(127, simpleEval("x=1;y=2;z=3;switch (3) { case 1: x=5; case 2: y=6; default: z=7 } x*100+y*10+z"), 0);
     }
 
+    @Test
+    public void testStateful() throws ExpressionException {
+        assertFalse(compile("sin(x) + random() < 1", "x").isStateful());
+        assertTrue(compile("megabuf(x) = 1", "x").isStateful());
+        assertTrue(compile("gmegabuf(1)").isStateful());
+        assertTrue(compile("closest(1, 2, 3, 0, 1, 3)").isStateful());
+    }
+
+    @Test
+    public void testCompileBytecode() throws ExpressionException {
+        final String[] expressionStrings = {
+                "x*x + y*y + z*z < 0.5^2",
+                "(sqrt(x^2+z^2)-0.6)^2 + y^2 < 0.3^2 && !(x > 0 || -z >= 0.5)",
+                "a = x; a += y; a -= z; a *= 3; a /= 2; a %= 5; a ^= 2; a++; b = a--; b + ++a - (--a)",
+                "~x + (2 << y) - (64 >> z) + (x == y) + (x != z) + (x <= y) + (y >= z)",
+                "min(x, y) + max(x, y, z) + abs(z) + round(x * 3.7) + floor(y) + ceil(z) + atan2(x, y) + ln(abs(z) + 1)",
+                "rotate(x, z, 0.3); swap(x, y); x*100 + y*10 + z",
+                "a=0; for (i=0; i<10; ++i) { if (i == 3) continue; if (i == 7) break; a += i; } a",
+                "a=0; for (i=1,5) { if (i == 2) continue; a = a*10 + i; } a",
+                "c=3; a=0; while (c > 0) { --c; if (c == 1) continue; ++a; } a",
+                "c=0; do { ++c; if (c > x*3) break; } while (c < 10); c",
+                "switch (round(x*2)) { case 0: y=5; break; case 1: y=6; case 2: y=7; default: z=8 } y*10+z",
+                "if (x > 0) return 42; y+z",
+                "megabuf(1) = x; megabuf(1) + y",
+                "(x ~= y) + megabuf(x = 2) + gmegabuf(y)",
+        };
+        final double[][] inputs = {
+                { 0, 0, 0 }, { 0.25, -0.5, 0.125 }, { -1, 2, -3 }, { 1, 1, 1 }, { 0.5, 0.5, -0.5 },
+        };
+
+        for (String expressionString : expressionStrings) {
+            final Expression interpreted = compile(expressionString, "x", "y", "z");
+            final Expression compiled = compile(expressionString, "x", "y", "z");
+            assertTrue(expressionString, compiled.compileBytecode());
+
+            for (double[] input : inputs) {
+                assertEquals(expressionString, interpreted.evaluate(input), compiled.evaluate(input), 0);
+                for (String name : new String[] { "x", "y", "z" }) {
+                    assertEquals(expressionString, interpreted.getVariable(name, false).getValue(), compiled.getVariable(name, false).getValue(), 0);
+                }
+            }
+        }
+
+        // break outside of a loop is left to the interpreter
+        assertFalse(compile("break").compileBytecode());
+
+        final Expression loop = compile("while (1) { x += 1 }", "x");
+        assertTrue(loop.compileBytecode());
+        try {
+            loop.evaluate(0);
+            fail("Error expected");
+        } catch (EvaluationException e) {
+            assertEquals(257, loop.getVariable("x", false).getValue(), 0);
+        }
+    }
+
     private double simpleEval(String expressionString) throws ExpressionException {
         final Expression expression = compile(expressionString);
         return expression.evaluate();
@@ -0,0 +1,126 @@
+package com.sk89q.worldedit.masks;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.junit.*;
+
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.MaxChangedBlocksException;
+import com.sk89q.worldedit.MemoryWorld;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.regions.EllipsoidRegion;
+
+import static org.junit.Assert.*;
+
+public class MaskCompilerTest {
+    private static final int SIZE = 12;
+
+    private MemoryWorld world;
+    private EditSession editSession;
+
+    @Before
+    public void setUp() {
+        world = new MemoryWorld();
+        Random random = new Random(42);
+        for (int x = 0; x < SIZE; ++x) {
+            for (int y = 0; y < SIZE; ++y) {
+                for (int z = 0; z < SIZE; ++z) {
+                    world.set(x, y, z, random.nextInt(4), random.nextInt(4));
+                }
+            }
+        }
+        editSession = new EditSession(world, -1);
+    }
+
+    @Test
+    public void testMatchesLikeMasks() {
+        BlockMask stoneOrGrass = new BlockMask(new BaseBlock(BlockID.STONE));
+        stoneOrGrass.add(new BaseBlock(BlockID.GRASS, 1));
+        CuboidRegion cuboid = new CuboidRegion(new Vector(2, 3, 4), new Vector(9, 8, 7));
+        EllipsoidRegion ellipsoid = new EllipsoidRegion(null, new Vector(6, 6, 6), new Vector(4, 5, 3));
+
+        Mask[] masks = {
+                stoneOrGrass,
+                new ExistingBlockMask(),
+                new InvertedMask(stoneOrGrass),
+                new InvertedBlockTypeMask(new HashSet<Integer>(Arrays.asList(BlockID.DIRT, BlockID.AIR))),
+                new UnderOverlayMask(new BlockTypeMask(BlockID.STONE), true),
+                new UnderOverlayMask(stoneOrGrass, false),
+                new RegionMask(ellipsoid),
+                new CombinedMask(Arrays.<Mask>asList(new RegionMask(cuboid), stoneOrGrass,
+                        new InvertedMask(new CombinedMask(Arrays.<Mask>asList(new ExistingBlockMask(), new BlockTypeMask(BlockID.GRASS)))))),
+                new CombinedMask(),
+        };
+
+        for (Mask mask : masks) {
+            CompiledMask compiled = MaskCompiler.compile(mask);
+            for (int x = 0; x < SIZE; ++x) {
+                for (int y = 1; y < SIZE - 1; ++y) {
+                    for (int z = 0; z < SIZE; ++z) {
+                        boolean expected = mask.matches(editSession, new Vector(x, y, z));
+                        boolean actual = compiled.matches(editSession, x, y, z,
+                                world.getBlockType(x, y, z), world.getBlockData(x, y, z));
+                        assertEquals(mask.getClass().getSimpleName() + " at " + x + "," + y + "," + z, expected, actual);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMatchesBox() {
+        CompiledMask inside = MaskCompiler.compile(new RegionMask(new CuboidRegion(new Vector(0, 0, 0), new Vector(15, 31, 15))));
+        assertEquals(CompiledMask.ALL, inside.matchesBox(0, 16, 0, 15, 31, 15));
+        assertEquals(CompiledMask.NONE, inside.matchesBox(16, 0, 0, 31, 15, 15));
+        assertEquals(CompiledMask.SOME, inside.matchesBox(0, 24, 0, 15, 39, 15));
+
+        CompiledMask outside = MaskCompiler.compile(new InvertedMask(new RegionMask(new CuboidRegion(new Vector(0, 0, 0), new Vector(15, 31, 15)))));
+        assertEquals(CompiledMask.NONE, outside.matchesBox(0, 16, 0, 15, 31, 15));
+        assertEquals(CompiledMask.ALL, outside.matchesBox(16, 0, 0, 31, 15, 15));
+
+        CompiledMask combined = MaskCompiler.compile(new CombinedMask(Arrays.<Mask>asList(
+                new RegionMask(new CuboidRegion(new Vector(0, 0, 0), new Vector(15, 31, 15))), new ExistingBlockMask())));
+        assertEquals(CompiledMask.SOME, combined.matchesBox(0, 16, 0, 15, 31, 15));
+        assertEquals(CompiledMask.NONE, combined.matchesBox(16, 0, 0, 31, 15, 15));
+        assertTrue(combined.isLocal());
+        assertFalse(MaskCompiler.compile(new UnderOverlayMask(new ExistingBlockMask(), true)).isLocal());
+    }
+
+    @Test
+    public void testMaskedQueue() throws MaxChangedBlocksException {
+        MemoryWorld expected = new MemoryWorld();
+        for (int x = 0; x < SIZE; ++x) {
+            for (int y = 0; y < SIZE; ++y) {
+                for (int z = 0; z < SIZE; ++z) {
+                    int type = world.getBlockType(x, y, z);
+                    int data = world.getBlockData(x, y, z);
+                    boolean matches = x >= 4 && ((type == BlockID.STONE && data == 0) || (type == BlockID.GRASS && data == 1));
+                    expected.set(x, y, z, matches ? BlockID.GLASS : type, matches ? 0 : data);
+                }
+            }
+        }
+
+        BlockMask mask = new BlockMask(new BaseBlock(BlockID.STONE));
+        mask.add(new BaseBlock(BlockID.GRASS, 1));
+        editSession.enableQueue();
+        editSession.setMask(new CombinedMask(Arrays.<Mask>asList(
+                new RegionMask(new CuboidRegion(new Vector(4, 0, 0), new Vector(SIZE, SIZE, SIZE))), mask)));
+        editSession.setBlocks(new CuboidRegion(new Vector(0, 0, 0), new Vector(SIZE - 1, SIZE - 1, SIZE - 1)),
+                new BaseBlock(BlockID.GLASS));
+        editSession.flushQueue();
+
+        for (int x = 0; x < SIZE; ++x) {
+            for (int y = 0; y < SIZE; ++y) {
+                for (int z = 0; z < SIZE; ++z) {
+                    assertEquals(expected.getBlockType(x, y, z), world.getBlockType(x, y, z));
+                    assertEquals(expected.getBlockData(x, y, z), world.getBlockData(x, y, z));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.sk89q.worldedit.operations;
+
+import java.util.Arrays;
+
+import org.junit.*;
+
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.LocalConfiguration;
+import com.sk89q.worldedit.LocalPlayer;
+import com.sk89q.worldedit.LocalSession;
+import com.sk89q.worldedit.MemoryWorld;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.WorldEdit;
+import com.sk89q.worldedit.WorldEditException;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.patterns.BlockChance;
+import com.sk89q.worldedit.patterns.RandomFillPattern;
+import com.sk89q.worldedit.patterns.SingleBlockPattern;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.regions.EllipsoidRegion;
+import com.sk89q.worldedit.regions.Region;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class EditSessionJobTest {
+    private MemoryWorld world;
+    private LocalSession session;
+    private WorldEdit we;
+
+    @Before
+    public void setUp() {
+        world = new MemoryWorld();
+        session = new LocalSession(null);
+
+        // A mocked configuration has a tick budget of 0, so every run is one step
+        we = mock(WorldEdit.class);
+        when(we.getConfiguration()).thenReturn(mock(LocalConfiguration.class));
+    }
+
+    @Test
+    public void testProgress() throws WorldEditException {
+        Region region = new EllipsoidRegion(world, new Vector(0, 64, 0), new Vector(6, 4, 5));
+        Region expected = region.clone();
+        EditSessionJob job = start(new SetBlocksOperation(region, new SingleBlockPattern(new BaseBlock(BlockID.STONE))));
+
+        // The operation keeps the region it was given, not later changes to it
+        region.shift(new Vector(3, 0, 0));
+
+        int runs = 0;
+        int progress = 0;
+        while (!job.isDone()) {
+            job.run();
+            ++runs;
+            assertTrue(job.getProgress() >= progress);
+            progress = job.getProgress();
+        }
+        assertEquals(9 * 11, runs);
+        assertEquals(100, progress);
+        assertNull(session.getActiveJob());
+
+        for (BlockVector pt : expected) {
+            assertEquals(BlockID.STONE, world.getBlockType(pt));
+        }
+        assertEquals(BlockID.AIR, world.getBlockType(7, 64, 0));
+        assertEquals(BlockID.AIR, world.getBlockType(0, 64, 6));
+    }
+
+    @Test
+    public void testCompiledFill() throws WorldEditException {
+        Region region = new EllipsoidRegion(world, new Vector(0, 64, 0), new Vector(6, 4, 5));
+        EditSessionJob job = start(new SetBlocksOperation(region, randomFill()));
+        while (!job.isDone()) {
+            job.run();
+        }
+
+        // A seeded pattern places the same blocks as the non-incremental fill
+        MemoryWorld direct = new MemoryWorld();
+        int count = 0;
+        new EditSession(direct, -1).setBlocks(region, randomFill());
+        for (BlockVector pt : region) {
+            assertEquals(direct.getBlockType(pt), world.getBlockType(pt));
+            assertEquals(direct.getBlockData(pt), world.getBlockData(pt));
+            ++count;
+        }
+        assertEquals(count, job.getEditSession().size());
+    }
+
+    @Test
+    public void testCancelAndUndo() throws WorldEditException {
+        world.set(0, 10, 7, BlockID.DIRT, 0);
+        world.set(5, 11, 7, BlockID.DIRT, 0);
+
+        EditSessionJob job = start(new ReplaceBlocksOperation(
+                new CuboidRegion(new Vector(0, 10, 0), new Vector(7, 11, 7)), null,
+                new SingleBlockPattern(new BaseBlock(BlockID.GLASS))));
+        for (int i = 0; i < 2 * 8 - 1; ++i) {
+            job.run();
+        }
+        assertFalse(job.isDone());
+
+        // Rows that were done are placed when the job is cancelled
+        assertTrue(session.cancelJob());
+        assertTrue(job.isDone());
+        assertNull(session.getActiveJob());
+        assertEquals(BlockID.GLASS, world.getBlockType(0, 10, 7));
+        assertEquals(BlockID.DIRT, world.getBlockType(5, 11, 7));
+        assertEquals(BlockID.AIR, world.getBlockType(0, 11, 0));
+
+        // Cancelled jobs are undone like any other edit
+        assertNotNull(session.undo(null));
+        assertEquals(BlockID.DIRT, world.getBlockType(0, 10, 7));
+        assertEquals(BlockID.DIRT, world.getBlockType(5, 11, 7));
+
+        // Undoing while a job runs stops the job first
+        job = start(new StackOperation(new CuboidRegion(new Vector(0, 10, 0), new Vector(7, 11, 7)),
+                new Vector(0, 1, 0), 2, false));
+        for (int i = 0; i < 8; ++i) {
+            job.run();
+        }
+        assertFalse(job.isDone());
+        assertEquals(2, job.getEditSession().size());
+        assertNotNull(session.undo(null));
+        assertTrue(job.isDone());
+        assertEquals(BlockID.AIR, world.getBlockType(0, 12, 7));
+        assertEquals(BlockID.AIR, world.getBlockType(0, 14, 7));
+        assertEquals(BlockID.DIRT, world.getBlockType(0, 10, 7));
+    }
+
+    private EditSessionJob start(IncrementalOperation operation) throws WorldEditException {
+        EditSession editSession = new EditSession(world, -1);
+        editSession.enableQueue();
+        EditSessionJob job = new EditSessionJob(we, mock(LocalPlayer.class), session, editSession,
+                operation, "blocks changed.");
+        session.startJob(job);
+        return job;
+    }
+
+    private static RandomFillPattern randomFill() {
+        return new RandomFillPattern(Arrays.asList(
+                new BlockChance(new BaseBlock(BlockID.STONE), 50),
+                new BlockChance(new BaseBlock(BlockID.CLOTH, 14), 50)), 42);
+    }
+}
@@ -0,0 +1,144 @@
+package com.sk89q.worldedit.patterns;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.*;
+
+import com.sk89q.worldedit.CuboidClipboard;
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.MaxChangedBlocksException;
+import com.sk89q.worldedit.MemoryWorld;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.blocks.SignBlock;
+import com.sk89q.worldedit.regions.CuboidRegion;
+
+import static org.junit.Assert.*;
+
+public class PatternCompilerTest {
+    @Test
+    public void testWeights() {
+        RandomFillPattern pattern = new RandomFillPattern(Arrays.asList(
+                new BlockChance(new BaseBlock(BlockID.STONE), 60),
+                new BlockChance(new BaseBlock(BlockID.CLOTH, 14), 30),
+                new BlockChance(new BaseBlock(BlockID.DIRT), 10)));
+        CompiledPattern compiled = PatternCompiler.compile(pattern);
+
+        int[] counts = new int[3];
+        int[] types = new int[1000];
+        byte[] data = new byte[1000];
+        for (int i = 0; i < 100; ++i) {
+            compiled.fill(0, 0, 0, types.length, types, data);
+            for (int j = 0; j < types.length; ++j) {
+                if (types[j] == BlockID.STONE) {
+                    ++counts[0];
+                } else if (types[j] == BlockID.CLOTH) {
+                    assertEquals(14, data[j]);
+                    ++counts[1];
+                } else {
+                    assertEquals(BlockID.DIRT, types[j]);
+                    ++counts[2];
+                }
+            }
+        }
+
+        assertEquals(60000, counts[0], 1000);
+        assertEquals(30000, counts[1], 1000);
+        assertEquals(10000, counts[2], 1000);
+    }
+
+    @Test
+    public void testRandomFill() throws MaxChangedBlocksException {
+        RandomFillPattern pattern = new RandomFillPattern(Arrays.asList(
+                new BlockChance(new BaseBlock(BlockID.STONE), 1),
+                new BlockChance(new BaseBlock(BlockID.GLASS), 1)));
+        CuboidRegion region = new CuboidRegion(new Vector(-5, 10, -5), new Vector(5, 20, 5));
+
+        MemoryWorld world = new MemoryWorld();
+        EditSession editSession = new EditSession(world, -1);
+        editSession.enableQueue();
+        editSession.setBlocks(region, pattern);
+        editSession.flushQueue();
+
+        int stone = 0;
+        for (Vector pt : region) {
+            int type = world.getBlockType(pt);
+            if (type == BlockID.STONE) {
+                ++stone;
+            } else {
+                assertEquals(BlockID.GLASS, type);
+            }
+        }
+        assertTrue(stone > 0 && stone < region.getArea());
+
+        editSession.undo(new EditSession(world, -1));
+        assertEquals(BlockID.AIR, world.getBlockType(new Vector(0, 15, 0)));
+    }
+
+    @Test
+    public void testSeededFill() throws MaxChangedBlocksException {
+        List<BlockChance> blocks = Arrays.asList(
+                new BlockChance(new BaseBlock(BlockID.STONE), 1),
+                new BlockChance(new BaseBlock(BlockID.GLASS), 1));
+        CuboidRegion region = new CuboidRegion(new Vector(-5, 10, -5), new Vector(5, 20, 5));
+
+        MemoryWorld first = new MemoryWorld();
+        MemoryWorld second = new MemoryWorld();
+        new EditSession(first, -1).setBlocks(region, new RandomFillPattern(blocks, 7));
+        EditSession editSession = new EditSession(second, -1);
+        editSession.enableQueue();
+        editSession.setBlocks(region, new RandomFillPattern(blocks, 7));
+        editSession.flushQueue();
+
+        for (Vector pt : region) {
+            assertEquals(first.getBlockType(pt), second.getBlockType(pt));
+        }
+
+        // Blocks that are not compiled are picked from the same sequence
+        RandomFillPattern pattern = new RandomFillPattern(blocks, 7);
+        RandomFillPattern other = new RandomFillPattern(blocks, 7);
+        for (int i = 0; i < 100; ++i) {
+            assertEquals(pattern.next(null).getType(), other.next(null).getType());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyRandomFill() {
+        new RandomFillPattern(new ArrayList<BlockChance>());
+    }
+
+    @Test
+    public void testClipboard() {
+        CuboidClipboard clipboard = new CuboidClipboard(new Vector(3, 2, 4));
+        for (int x = 0; x < 3; ++x) {
+            for (int y = 0; y < 2; ++y) {
+                for (int z = 0; z < 4; ++z) {
+                    clipboard.setBlock(x, y, z, BlockID.CLOTH, x + y * 3 + z * 6);
+                }
+            }
+        }
+
+        ClipboardPattern pattern = new ClipboardPattern(clipboard);
+        CompiledPattern compiled = PatternCompiler.compile(pattern);
+        int[] types = new int[20];
+        byte[] data = new byte[20];
+        for (int y = -3; y < 3; ++y) {
+            for (int z = -5; z < 5; ++z) {
+                compiled.fill(-10, y, z, 20, types, data);
+                for (int i = 0; i < 20; ++i) {
+                    BaseBlock expected = pattern.next(-10 + i, y, z);
+                    assertEquals(expected.getType(), types[i]);
+                    assertEquals(expected.getData(), data[i]);
+                    assertEquals((expected.getType() << 4) | expected.getData(), compiled.next(-10 + i, y, z));
+                }
+            }
+        }
+
+        clipboard.setBlock(new Vector(0, 0, 0), new SignBlock(BlockID.SIGN_POST, 0, new String[] { "", "", "", "" }));
+        assertNull(PatternCompiler.compile(pattern));
+        assertNull(PatternCompiler.compile(new SingleBlockPattern(new SignBlock(BlockID.SIGN_POST, 0))));
+    }
+}
@@ -0,0 +1,89 @@
+package com.sk89q.worldedit.regions;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.*;
+
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.BlockVector2D;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.Vector2D;
+
+import static org.junit.Assert.*;
+
+public class SpanIteratorTest {
+    @Test
+    public void testCuboid() {
+        assertSameBlocks(new CuboidRegion(new Vector(-3, 10, 7), new Vector(4, 2, -5)));
+    }
+
+    @Test
+    public void testEllipsoid() {
+        assertSameBlocks(new EllipsoidRegion(null, new Vector(0, 64, 0), new Vector(5, 5, 5)));
+        assertSameBlocks(new EllipsoidRegion(null, new Vector(-10.5, 64, 3.5), new Vector(7, 3, 11)));
+        assertSameBlocks(new EllipsoidRegion(null, new Vector(1, 2, 3), new Vector(0, 0, 0)));
+        assertSameBlocks(new EllipsoidRegion(null, new Vector(0.5, 0.5, 0.5), new Vector(12.25, 1, 0.75)));
+    }
+
+    @Test
+    public void testCylinder() {
+        assertSameBlocks(new CylinderRegion(null, new Vector(0, 0, 0), new Vector2D(6, 6), 60, 70));
+        assertSameBlocks(new CylinderRegion(null, new Vector(-7.5, 0, 2.5), new Vector2D(3, 9), 0, 2));
+        assertSameBlocks(new CylinderRegion(null, new Vector(4, 0, 4), new Vector2D(0, 0), 5, 5));
+    }
+
+    @Test
+    public void testPolygon() {
+        List<BlockVector2D> points = new ArrayList<BlockVector2D>();
+        points.add(new BlockVector2D(0, 0));
+        points.add(new BlockVector2D(20, 0));
+        points.add(new BlockVector2D(20, 15));
+        points.add(new BlockVector2D(10, 5));
+        points.add(new BlockVector2D(0, 15));
+        assertSameBlocks(new Polygonal2DRegion(null, points, 10, 13));
+
+        points.add(new BlockVector2D(-7, 3));
+        assertSameBlocks(new Polygonal2DRegion(null, points, 0, 0));
+        assertSameBlocks(new Polygonal2DRegion(null, points.subList(0, 2), 0, 5));
+    }
+
+    private static void assertSameBlocks(Region region) {
+        Set<BlockVector> expected = new HashSet<BlockVector>();
+        Iterator<BlockVector> it = new RegionIterator(region);
+        while (it.hasNext()) {
+            expected.add(it.next());
+        }
+
+        assertEquals(region.toString(), expected, collect(region.spanIterator()));
+
+        // Only the blocks in a chunk column that cuts through the region
+        Vector min = region.getMinimumPoint().add(3, 1, 2).toBlockPoint();
+        Vector max = min.add(15, 255, 15);
+        Set<BlockVector> clipped = new HashSet<BlockVector>();
+        for (BlockVector pt : expected) {
+            if (pt.containedWithin(min, max)) {
+                clipped.add(pt);
+            }
+        }
+        assertEquals(region.toString(), clipped, collect(region.spanIterator(min, max)));
+    }
+
+    private static Set<BlockVector> collect(SpanIterator spans) {
+        Set<BlockVector> actual = new HashSet<BlockVector>();
+        int lastZ = Integer.MIN_VALUE;
+        while (spans.next()) {
+            assertTrue(spans.getMinX() <= spans.getMaxX());
+            assertTrue(spans.getZ() >= lastZ);
+            lastZ = spans.getZ();
+            for (int x = spans.getMinX(); x <= spans.getMaxX(); ++x) {
+                assertTrue("Duplicate block", actual.add(new BlockVector(x, spans.getY(), spans.getZ())));
+            }
+        }
+
+        return actual;
+    }
+}
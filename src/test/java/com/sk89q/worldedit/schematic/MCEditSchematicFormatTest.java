@@ -0,0 +1,95 @@
+package com.sk89q.worldedit.schematic;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.*;
+
+import com.sk89q.jnbt.ByteArrayTag;
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.ListTag;
+import com.sk89q.jnbt.NBTOutputStream;
+import com.sk89q.jnbt.ShortTag;
+import com.sk89q.jnbt.StringTag;
+import com.sk89q.jnbt.Tag;
+import com.sk89q.worldedit.CuboidClipboard;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.blocks.SignBlock;
+import com.sk89q.worldedit.data.DataException;
+
+import static org.junit.Assert.*;
+
+public class MCEditSchematicFormatTest {
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("clipboard", ".schematic");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException, DataException {
+        // An odd number of blocks, so the last AddBlocks byte is half used
+        CuboidClipboard clipboard = new CuboidClipboard(new Vector(5, 3, 7), new Vector(10, 20, 30), new Vector(-1, 2, -3));
+        Random random = new Random(7);
+        for (int index = 0; index < clipboard.getBlockCount(); ++index) {
+            clipboard.setBlock(index, random.nextInt(4) == 0 ? random.nextInt(4096) : random.nextInt(256), random.nextInt(16));
+        }
+        clipboard.setBlock(new Vector(4, 2, 6), new SignBlock(BlockID.SIGN_POST, 3, new String[] { "a", "b", "c", "d" }));
+
+        for (int level : new int[] { 0, 9 }) {
+            SchematicFormat.MCEDIT.save(clipboard, file, level, true);
+            assertTrue(SchematicFormat.MCEDIT.isOfFormat(file));
+            CuboidClipboard loaded = SchematicFormat.MCEDIT.load(file);
+
+            assertEquals(clipboard.getSize(), loaded.getSize());
+            assertEquals(clipboard.getOrigin(), loaded.getOrigin());
+            assertEquals(clipboard.getOffset(), loaded.getOffset());
+            for (int index = 0; index < clipboard.getBlockCount(); ++index) {
+                assertEquals(clipboard.getBlockType(index), loaded.getBlockType(index));
+                assertEquals(clipboard.getBlockData(index), loaded.getBlockData(index));
+            }
+
+            CompoundTag sign = loaded.getPoint(new Vector(4, 2, 6)).getNbtData();
+            assertEquals("Sign", ((StringTag) sign.getValue().get("id")).getValue());
+            assertEquals("c", ((StringTag) sign.getValue().get("Text3")).getValue());
+            assertEquals(1, loaded.getTileEntityBlocks().size());
+        }
+    }
+
+    @Test
+    public void testArraysBeforeSize() throws IOException, DataException {
+        Map<String, Tag> schematic = new LinkedHashMap<String, Tag>();
+        schematic.put("Blocks", new ByteArrayTag("Blocks", new byte[] { 1, 2, 3, 4, 5, 6 }));
+        schematic.put("AddBlocks", new ByteArrayTag("AddBlocks", new byte[] { 0x10, 0, 0x0F }));
+        schematic.put("Data", new ByteArrayTag("Data", new byte[] { 0, 1, 2, 3, 4, 5 }));
+        schematic.put("TileEntities", new ListTag("TileEntities", CompoundTag.class, new ArrayList<Tag>()));
+        schematic.put("Width", new ShortTag("Width", (short) 3));
+        schematic.put("Height", new ShortTag("Height", (short) 1));
+        schematic.put("Length", new ShortTag("Length", (short) 2));
+        schematic.put("Materials", new StringTag("Materials", "Alpha"));
+
+        NBTOutputStream out = new NBTOutputStream(new FileOutputStream(file));
+        out.writeTag(new CompoundTag("Schematic", schematic));
+        out.close();
+
+        CuboidClipboard loaded = SchematicFormat.MCEDIT.load(file);
+        assertEquals(new Vector(3, 1, 2), loaded.getSize());
+        assertEquals(0x101, loaded.getBlockType(0, 0, 0));
+        assertEquals(2, loaded.getBlockType(1, 0, 0));
+        assertEquals(0xF06, loaded.getBlockType(2, 0, 1));
+        assertEquals(5, loaded.getBlockData(2, 0, 1));
+        assertEquals(new Vector(), loaded.getOrigin());
+    }
+}
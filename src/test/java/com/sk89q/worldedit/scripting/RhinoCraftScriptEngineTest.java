@@ -0,0 +1,58 @@
+package com.sk89q.worldedit.scripting;
+
+import java.util.Collections;
+import java.util.Map;
+
+import javax.script.ScriptException;
+
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+public class RhinoCraftScriptEngineTest {
+    private static final Map<String, Object> NO_ARGS = Collections.emptyMap();
+
+    private RhinoCraftScriptEngine engine;
+
+    @Before
+    public void setUp() {
+        engine = new RhinoCraftScriptEngine();
+        engine.setTimeLimit(3000);
+    }
+
+    @Test
+    public void testCache() throws Throwable {
+        String script = "var total = 0; for (var i = 0; i < argv.length; ++i) total += argv[i]; total";
+        assertEquals(6.0, engine.evaluate(script, "sum.js", 100, Collections.<String, Object>singletonMap("argv", new int[] { 1, 2, 3 })));
+        assertEquals(3.0, engine.evaluate(script, "sum.js", 100, Collections.<String, Object>singletonMap("argv", new int[] { 3 })));
+        assertEquals(1, engine.getCacheMisses());
+        assertEquals(1, engine.getCacheHits());
+
+        // A modified file is compiled again
+        assertEquals("changed", engine.evaluate("'changed'", "sum.js", 200, NO_ARGS));
+        assertEquals(2, engine.getCacheMisses());
+
+        // Scripts that do not come from files are not kept
+        engine.evaluate(script, "sum.js", Collections.<String, Object>singletonMap("argv", new int[0]));
+        engine.evaluate(script, "sum.js", Collections.<String, Object>singletonMap("argv", new int[0]));
+        assertEquals(4, engine.getCacheMisses());
+        assertEquals(1, engine.getCacheHits());
+    }
+
+    @Test
+    public void testRunsAreIsolated() throws Throwable {
+        assertEquals("java.util.ArrayList", engine.evaluate(
+                "importPackage(Packages.java.util); leaked = 1; String(new ArrayList().getClass().getName())", "a.js", 0, NO_ARGS));
+        assertEquals("undefined undefined", engine.evaluate("typeof ArrayList + ' ' + typeof leaked", "b.js", 0, NO_ARGS));
+
+        // Standard objects win over imported classes, but not over variables
+        assertEquals("function 5", engine.evaluate(
+                "importPackage(Packages.java.util); var Math = 5; typeof Date.UTC + ' ' + Math", "c.js", 0, NO_ARGS));
+        assertEquals(2.0, engine.evaluate("Math.max(1, 2)", "d.js", 0, NO_ARGS));
+    }
+
+    @Test(expected = ScriptException.class)
+    public void testSharedScopeIsSealed() throws Throwable {
+        engine.evaluate("Math.max = null", "e.js", 0, NO_ARGS);
+    }
+}
@@ -0,0 +1,51 @@
+package com.sk89q.worldedit.util;
+
+import org.junit.*;
+
+import com.sk89q.worldedit.Vector;
+
+import static org.junit.Assert.*;
+
+public class BitVolumeTest {
+    @Test
+    public void testRuns() {
+        BitVolume volume = new BitVolume(new Vector(-70, 0, 0), new Vector(70, 2, 2));
+        volume.setRun(1, 1, -10, 60);
+        volume.set(70, 1, 1);
+
+        assertFalse(volume.get(-11, 1, 1));
+        assertTrue(volume.get(-10, 1, 1));
+        assertTrue(volume.get(60, 1, 1));
+        assertFalse(volume.get(61, 1, 1));
+        assertFalse(volume.get(71, 1, 1));
+
+        assertEquals(-10, volume.nextSetX(1, 1, -70));
+        assertEquals(5, volume.nextSetX(1, 1, 5));
+        assertEquals(70, volume.nextSetX(1, 1, 61));
+        assertEquals(71, volume.nextSetX(1, 1, 71));
+        assertEquals(71, volume.nextSetX(0, 1, -70));
+    }
+
+    @Test
+    public void testDilate() {
+        BitVolume volume = new BitVolume(new Vector(0, 0, 0), new Vector(99, 4, 4));
+        BitVolume mask = new BitVolume(new Vector(0, 0, 0), new Vector(99, 4, 4));
+        volume.set(63, 2, 2);
+        mask.setRun(2, 2, 0, 99);
+        mask.set(63, 3, 2);
+
+        assertTrue(volume.dilate(mask));
+        assertTrue(volume.get(62, 2, 2));
+        assertTrue(volume.get(64, 2, 2));
+        assertTrue(volume.get(63, 3, 2));
+        assertFalse(volume.get(63, 1, 2));
+        assertFalse(volume.get(65, 2, 2));
+
+        BitVolume adjacent = volume.getAdjacent();
+        assertTrue(adjacent.get(65, 2, 2));
+        assertTrue(adjacent.get(63, 4, 2));
+        assertTrue(adjacent.get(64, 2, 1));
+        assertFalse(adjacent.get(65, 3, 2));
+        assertFalse(adjacent.get(99, 2, 2));
+    }
+}
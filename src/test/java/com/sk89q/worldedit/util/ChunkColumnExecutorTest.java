@@ -0,0 +1,85 @@
+package com.sk89q.worldedit.util;
+
+import org.junit.*;
+
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.regions.CuboidRegion;
+
+import static org.junit.Assert.*;
+
+public class ChunkColumnExecutorTest {
+    @Test
+    public void testColumns() {
+        final CuboidRegion region = new CuboidRegion(new Vector(-20, 0, 5), new Vector(40, 10, 70));
+
+        final ChunkColumnExecutor<int[]> columns = new ChunkColumnExecutor<int[]>(region,
+                new ChunkColumnExecutor.ColumnTask<int[]>() {
+                    public int[] call(int minX, int minZ, int maxX, int maxZ) {
+                        return new int[] { minX, minZ, maxX, maxZ };
+                    }
+                });
+
+        int area = 0;
+        int previousX = Integer.MIN_VALUE;
+        int previousZ = Integer.MIN_VALUE;
+        while (columns.hasNext()) {
+            final int[] column = columns.next();
+            assertEquals(column[0] >> 4, column[2] >> 4);
+            assertEquals(column[1] >> 4, column[3] >> 4);
+            assertTrue(column[0] > previousX || (column[0] == previousX && column[1] > previousZ));
+            previousX = column[0];
+            previousZ = column[1];
+            area += (column[2] - column[0] + 1) * (column[3] - column[1] + 1);
+        }
+
+        assertEquals(61 * 66, area);
+    }
+
+    @Test
+    public void testException() {
+        final ChunkColumnExecutor<Object> columns = new ChunkColumnExecutor<Object>(
+                new CuboidRegion(new Vector(0, 0, 0), new Vector(100, 0, 100)),
+                new ChunkColumnExecutor.ColumnTask<Object>() {
+                    public Object call(int minX, int minZ, int maxX, int maxZ) throws Exception {
+                        throw new Exception("test");
+                    }
+                });
+
+        try {
+            columns.next();
+            fail("Exception expected");
+        } catch (RuntimeException e) {
+            assertEquals("test", e.getCause().getMessage());
+        } finally {
+            columns.cancel();
+        }
+        assertFalse(columns.hasNext());
+    }
+
+    @Test
+    public void testBands() {
+        final int[] rows = new int[1000];
+        ChunkColumnExecutor.forEachBand(rows.length, true, new ChunkColumnExecutor.BandTask() {
+            public void run(int fromRow, int toRow) {
+                for (int row = fromRow; row < toRow; ++row) {
+                    ++rows[row];
+                }
+            }
+        });
+
+        for (int row : rows) {
+            assertEquals(1, row);
+        }
+
+        try {
+            ChunkColumnExecutor.forEachBand(rows.length, true, new ChunkColumnExecutor.BandTask() {
+                public void run(int fromRow, int toRow) {
+                    throw new IllegalStateException("test");
+                }
+            });
+            fail("Exception expected");
+        } catch (IllegalStateException e) {
+            assertEquals("test", e.getMessage());
+        }
+    }
+}
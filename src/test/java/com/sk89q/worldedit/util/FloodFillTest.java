@@ -0,0 +1,119 @@
+package com.sk89q.worldedit.util;
+
+import org.junit.*;
+
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.MaxChangedBlocksException;
+import com.sk89q.worldedit.MemoryWorld;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.patterns.SingleBlockPattern;
+import com.sk89q.worldedit.regions.CuboidRegion;
+
+import static org.junit.Assert.*;
+
+public class FloodFillTest {
+    private static final FloodFill.TypeFilter STONE = new FloodFill.TypeFilter() {
+        public boolean matches(int type) {
+            return type == BlockID.STONE;
+        }
+    };
+
+    private static final FloodFill.Visitor COUNT = new FloodFill.Visitor() {
+        public boolean visit(int x, int y, int z) {
+            return true;
+        }
+    };
+
+    @Test
+    public void testConnectivity() throws MaxChangedBlocksException {
+        MemoryWorld world = new MemoryWorld();
+        world.set(0, 10, 0, BlockID.STONE, 0);
+        world.set(1, 10, 1, BlockID.STONE, 0);  // shares an edge
+        world.set(2, 11, 2, BlockID.STONE, 0);  // shares a corner
+        world.set(2, 12, 2, BlockID.STONE, 0);  // shares a face
+        EditSession editSession = new EditSession(world, -1);
+
+        assertEquals(1, fill(editSession, FloodFill.Connectivity.HORIZONTAL));
+        assertEquals(1, fill(editSession, FloodFill.Connectivity.FACES));
+        assertEquals(2, fill(editSession, FloodFill.Connectivity.EDGES));
+        assertEquals(4, fill(editSession, FloodFill.Connectivity.CORNERS));
+
+        assertEquals(4, FloodFill.Connectivity.HORIZONTAL.getNeighborCount());
+        assertEquals(6, FloodFill.Connectivity.FACES.getNeighborCount());
+        assertEquals(18, FloodFill.Connectivity.EDGES.getNeighborCount());
+        assertEquals(26, FloodFill.Connectivity.CORNERS.getNeighborCount());
+    }
+
+    @Test
+    public void testRadiusAndStop() throws MaxChangedBlocksException {
+        MemoryWorld world = new MemoryWorld();
+        EditSession editSession = new EditSession(world, -1);
+        editSession.setBlocks(new CuboidRegion(new Vector(-10, 0, -10), new Vector(10, 20, 10)), new BaseBlock(BlockID.STONE));
+
+        int inside = 0;
+        for (int x = -10; x <= 10; ++x) {
+            for (int y = 0; y <= 20; ++y) {
+                for (int z = -10; z <= 10; ++z) {
+                    if (x * x + (y - 10) * (y - 10) + z * z <= 5.5 * 5.5) {
+                        ++inside;
+                    }
+                }
+            }
+        }
+
+        FloodFill fill = new FloodFill(editSession, FloodFill.Connectivity.FACES, STONE);
+        fill.setRadius(new Vector(0, 10, 0), 5.5);
+        fill.addSeed(0, 10, 0);
+        assertEquals(inside, fill.fill(COUNT));
+
+        final FloodFill stopped = new FloodFill(editSession, FloodFill.Connectivity.FACES, STONE);
+        stopped.addSeed(0, 10, 0);
+        assertEquals(10, stopped.fill(new FloodFill.Visitor() {
+            private int visited;
+
+            public boolean visit(int x, int y, int z) {
+                if (++visited == 10) {
+                    stopped.stop();
+                }
+                return true;
+            }
+        }));
+        assertTrue(stopped.isStopped());
+    }
+
+    @Test
+    public void testDrainArea() throws MaxChangedBlocksException {
+        MemoryWorld world = new MemoryWorld();
+        for (int x = 0; x < 200; ++x) {
+            for (int z = 0; z < 200; ++z) {
+                for (int y = 1; y <= 10; ++y) {
+                    world.set(x, y, z, BlockID.STATIONARY_WATER, 0);
+                }
+            }
+        }
+
+        // Too large for a bit set over the bounds
+        assertEquals(400000, new EditSession(world, -1).drainArea(new Vector(0, 10, 0), 1000));
+        assertEquals(BlockID.AIR, world.getBlockType(199, 1, 199));
+    }
+
+    @Test
+    public void testHollowOutRegion() throws MaxChangedBlocksException {
+        MemoryWorld world = new MemoryWorld();
+        EditSession editSession = new EditSession(world, -1);
+        editSession.setBlocks(new CuboidRegion(new Vector(1, 1, 1), new Vector(5, 5, 5)), new BaseBlock(BlockID.STONE));
+
+        CuboidRegion region = new CuboidRegion(new Vector(0, 0, 0), new Vector(6, 6, 6));
+        assertEquals(27, editSession.hollowOutRegion(region, 1, new SingleBlockPattern(new BaseBlock(BlockID.AIR))));
+        assertEquals(BlockID.AIR, world.getBlockType(3, 3, 3));
+        assertEquals(BlockID.STONE, world.getBlockType(1, 3, 3));
+    }
+
+    private static int fill(EditSession editSession, FloodFill.Connectivity connectivity) throws MaxChangedBlocksException {
+        FloodFill fill = new FloodFill(editSession, connectivity, STONE);
+        fill.addSeed(0, 10, 0);
+        return fill.fill(COUNT);
+    }
+}
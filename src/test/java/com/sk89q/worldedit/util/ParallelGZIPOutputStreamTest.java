@@ -0,0 +1,44 @@
+package com.sk89q.worldedit.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+public class ParallelGZIPOutputStreamTest {
+    @Test
+    public void testMembers() throws IOException {
+        byte[] data = new byte[ParallelGZIPOutputStream.BLOCK_SIZE * 3 + 12345];
+        Random random = new Random(3);
+        for (int i = 0; i < data.length; ++i) {
+            data[i] = (byte) (random.nextInt(8) + (i >> 16));
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream out = new ParallelGZIPOutputStream(bytes, 1);
+        out.write(data, 0, 100);
+        out.write(data[100]);
+        out.write(data, 101, data.length - 101);
+        out.close();
+
+        byte[] read = new byte[data.length];
+        DataInputStream in = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        in.readFully(read);
+        assertEquals(-1, in.read());
+        assertArrayEquals(data, read);
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new ParallelGZIPOutputStream(bytes, 9).close();
+        assertEquals(-1, new GZIPInputStream(new ByteArrayInputStream(bytes.toByteArray())).read());
+    }
+}